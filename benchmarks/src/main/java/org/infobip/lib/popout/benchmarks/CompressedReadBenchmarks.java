@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.benchmarks;
+
+import static java.util.Comparator.reverseOrder;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Level.Iteration;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+import static org.openjdk.jmh.annotations.Scope.Benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.infobip.lib.popout.CompressedFilesConfig;
+import org.infobip.lib.popout.WalFilesConfig;
+import org.infobip.lib.popout.backend.FileSystemBackend;
+
+import io.appulse.utils.Bytes;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The compressed records reading, which should not allocate (run it with {@code -prof gc}
+ * and check the {@code gc.alloc.rate.norm} value).
+ * <p>
+ * The {@code peek} benchmark reads the same head record again and again,
+ * so it measures the headers parsing and the content reading only.
+ * The {@code poll} benchmark drains all the records, written before each iteration.
+ */
+@Fork(1)
+@State(Benchmark)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(AverageTime)
+@Warmup(iterations = 3, time = 5, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = SECONDS)
+public class CompressedReadBenchmarks {
+
+  private static final Path FOLDER = Paths.get("./compressed_benchmarks");
+
+  private static final int RECORDS = 100_000;
+
+  FileSystemBackend backend;
+
+  Bytes record;
+
+  Bytes buffer;
+
+  @Benchmark
+  public int peek () {
+    buffer.reset();
+    return backend.peakTo(buffer);
+  }
+
+  @Benchmark
+  @BenchmarkMode(SingleShotTime)
+  @Measurement(iterations = 20)
+  @OperationsPerInvocation(RECORDS)
+  public long poll () {
+    long result = 0;
+    int readed;
+    do {
+      buffer.reset();
+      readed = backend.pollTo(buffer);
+      result += readed;
+    } while (readed > 0);
+    return result;
+  }
+
+  @SneakyThrows
+  @Setup(Iteration)
+  public void setup () {
+    deleteFolder(FOLDER);
+    Files.createDirectories(FOLDER);
+
+    backend = FileSystemBackend.builder()
+        .queueName("compressed-read")
+        .restoreFromDisk(false)
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .build())
+        .build();
+
+    record = Bytes.resizableArray(64);
+    record.writeNB(new byte[64]);
+    buffer = Bytes.resizableArray(64);
+
+    for (int index = 0; index < RECORDS; index++) {
+      record.readerIndex(0);
+      backend.write(record);
+    }
+    backend.compress();
+  }
+
+  @TearDown(Iteration)
+  public void tearDown () {
+    backend.close();
+    deleteFolder(FOLDER);
+  }
+
+  @SneakyThrows
+  private void deleteFolder (Path path) {
+    if (Files.notExists(path)) {
+      return;
+    }
+
+    Files.walk(path)
+        .sorted(reverseOrder())
+        .map(Path::toFile)
+        .forEach(File::delete);
+  }
+}
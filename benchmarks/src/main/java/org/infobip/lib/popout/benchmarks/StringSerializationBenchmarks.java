@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+import static org.openjdk.jmh.annotations.Scope.Benchmark;
+
+import org.infobip.lib.popout.Deserializer;
+import org.infobip.lib.popout.Serializer;
+
+import io.appulse.utils.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The strings serialization, run it with {@code -prof gc} and compare the
+ * {@code gc.alloc.rate.norm} values of the {@code serializer}'s benchmarks
+ * with the {@code getBytes} ones (the intermediate arrays approach).
+ */
+@Fork(1)
+@State(Benchmark)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(AverageTime)
+@Warmup(iterations = 3, time = 5, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = SECONDS)
+public class StringSerializationBenchmarks {
+
+  @Param({
+      "Hello world! How are you? I am fine, thanks.",
+      "Привет, мир! Как дела? Спасибо, хорошо."
+  })
+  String value;
+
+  Bytes buffer;
+
+  Bytes serialized;
+
+  @Setup
+  public void setup () {
+    buffer = Bytes.resizableArray(256);
+    serialized = Bytes.resizableArray(256);
+    Serializer.STRING.serialize(value, serialized);
+  }
+
+  @Benchmark
+  public Bytes serializer_write () {
+    buffer.reset();
+    Serializer.STRING.serialize(value, buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public Bytes getBytes_write () {
+    buffer.reset();
+    byte[] bytes = value.getBytes(UTF_8);
+    buffer.write4B(bytes.length);
+    buffer.writeNB(bytes);
+    return buffer;
+  }
+
+  @Benchmark
+  public String serializer_read () {
+    serialized.readerIndex(0);
+    return Deserializer.STRING.deserialize(0, serialized);
+  }
+
+  @Benchmark
+  public String getBytes_read () {
+    serialized.readerIndex(0);
+    int length = serialized.readInt();
+    return new String(serialized.readBytes(length), UTF_8);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import io.appulse.utils.Bytes;
+import io.appulse.utils.ReadBytesUtils;
+import io.appulse.utils.WriteBytesUtils;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * Channels I/O helpers, which are aware of the {@link DirectBytes} buffers.
+ * <p>
+ * The direct buffers are read and written as is, without the intermediate
+ * heap array and the JDK's temporary direct buffer copy. All other
+ * {@link Bytes} implementations are delegated to {@link ReadBytesUtils}
+ * and {@link WriteBytesUtils}.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+public final class ChannelBytesUtils {
+
+  /**
+   * Reads the file's content to the buffer, starting from its writer index.
+   *
+   * @param file the file to read
+   *
+   * @param buffer the destination buffer
+   *
+   * @return the amount of read bytes
+   */
+  @SneakyThrows
+  public static int read (@NonNull Path file, @NonNull Bytes buffer) {
+    if (!(buffer instanceof DirectBytes)) {
+      return ReadBytesUtils.read(file, buffer);
+    }
+    try (val channel = FileChannel.open(file, READ)) {
+      return read(channel, buffer, buffer.writableBytes());
+    }
+  }
+
+  /**
+   * Reads all the remaining channel's content to the buffer, starting from its writer index.
+   *
+   * @param channel the channel to read
+   *
+   * @param buffer the destination buffer
+   *
+   * @return the amount of read bytes
+   */
+  public static int read (@NonNull ReadableByteChannel channel, @NonNull Bytes buffer) {
+    return read(channel, buffer, buffer.writableBytes());
+  }
+
+  /**
+   * Reads up to {@code length} bytes from the channel to the buffer, starting from its writer index.
+   *
+   * @param channel the channel to read
+   *
+   * @param buffer the destination buffer
+   *
+   * @param length the max amount of bytes to read
+   *
+   * @return the amount of read bytes
+   */
+  @SneakyThrows
+  public static int read (@NonNull ReadableByteChannel channel, @NonNull Bytes buffer, int length) {
+    if (!(buffer instanceof DirectBytes)) {
+      return ReadBytesUtils.read(channel, buffer, length);
+    }
+
+    val view = ((DirectBytes) buffer).writableNioBuffer(length);
+    int result = 0;
+    while (view.hasRemaining()) {
+      val readed = channel.read(view);
+      if (readed < 0) {
+        break;
+      }
+      result += readed;
+    }
+    buffer.writerIndex(buffer.writerIndex() + result);
+    return result;
+  }
+
+  /**
+   * Writes the buffer's readable bytes to the file.
+   *
+   * @param file the file to write
+   *
+   * @param buffer the source buffer
+   *
+   * @return the amount of written bytes
+   */
+  @SneakyThrows
+  public static int write (@NonNull Path file, @NonNull Bytes buffer) {
+    if (!(buffer instanceof DirectBytes)) {
+      return WriteBytesUtils.write(file, buffer);
+    }
+    try (val channel = FileChannel.open(file, CREATE, WRITE)) {
+      return write(channel, buffer);
+    }
+  }
+
+  /**
+   * Writes the buffer's readable bytes to the channel.
+   *
+   * @param channel the channel to write
+   *
+   * @param buffer the source buffer
+   *
+   * @return the amount of written bytes
+   */
+  @SneakyThrows
+  public static int write (@NonNull WritableByteChannel channel, @NonNull Bytes buffer) {
+    if (!(buffer instanceof DirectBytes)) {
+      return WriteBytesUtils.write(channel, buffer);
+    }
+
+    val view = ((DirectBytes) buffer).readableNioBuffer();
+    int result = 0;
+    while (view.hasRemaining()) {
+      result += channel.write(view);
+    }
+    buffer.readerIndex(buffer.readerIndex() + result);
+    return result;
+  }
+
+  private ChannelBytesUtils () {
+    throw new UnsupportedOperationException();
+  }
+}
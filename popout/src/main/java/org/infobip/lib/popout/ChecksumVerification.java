@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+/**
+ * The compressed records' checksums verification modes.
+ * <p>
+ * A record, which content doesn't match its checksum, is reported to the queue's
+ * corruption handler and is skipped, without deserialization.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public enum ChecksumVerification {
+
+  /**
+   * Each read record is verified, as well as all the records during the startup recovery.
+   */
+  ALWAYS,
+
+  /**
+   * Each 16th read record is verified, the startup recovery doesn't read the records.
+   */
+  SAMPLE,
+
+  /**
+   * The records are verified only during the startup recovery, by a sequential scan of the files.
+   */
+  RECOVERY;
+}
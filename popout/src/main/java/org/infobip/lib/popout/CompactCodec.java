@@ -0,0 +1,744 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import static java.lang.invoke.MethodType.methodType;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.appulse.utils.Bytes;
+import io.appulse.utils.SerializationUtils;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The compact binary codec, which the default serializer and deserializer use.
+ * <p>
+ * The serialized object's format is:
+ * <pre>
+ * [1B magic][1B format version][value]
+ * </pre>
+ * where each value is {@code [1B tag][payload]}. The primitives, their wrappers, strings
+ * and byte arrays are written as is, the collections, maps and arrays - as their size
+ * and the elements, the enums - as their constants names.
+ * <p>
+ * A POJO (a non-JDK class with a no-arguments constructor) is written as its fields count
+ * and the {@code [4B field name hash][value]} pairs. A superclass's field, which is hidden
+ * by a subclass's field with the same name, is keyed by its declaring class's name plus its name.
+ * The fields layout is derived once per class, the fields are accessed via {@link MethodHandle}s.
+ * The fields, which are not in the class anymore, are skipped during reading, and the new ones
+ * keep their default values, so the classes could evolve. The other {@link Serializable} objects,
+ * and the ones with the custom serialization methods ({@code writeObject}, {@code readResolve}
+ * and so on) are written with the Java serialization.
+ * <p>
+ * The format has no references, so an object graph with the cycles or shared objects
+ * is written entirely with the Java serialization, which keeps the graph as is.
+ * <p>
+ * A value's class name is written only when it differs from the declared type
+ * (a field's type, a collection's type argument or an array's component type).
+ */
+@SuppressWarnings({
+    "PMD.GodClass",
+    "PMD.CyclomaticComplexity",
+    "PMD.TooManyMethods",
+    "PMD.AvoidDuplicateLiterals",
+    "PMD.CouplingBetweenObjects",
+    "PMD.CompareObjectsWithEquals",
+    "PMD.UnusedPrivateMethod",
+    "PMD.LooseCoupling",
+    "PMD.AvoidAccessibilityAlteration"
+})
+final class CompactCodec {
+
+  static final byte MAGIC = (byte) 0xC5;
+
+  static final byte VERSION = 1;
+
+  static final byte NULL = 0;
+
+  static final byte BOOLEAN = 1;
+
+  static final byte BYTE = 2;
+
+  static final byte SHORT = 3;
+
+  static final byte CHARACTER = 4;
+
+  static final byte INTEGER = 5;
+
+  static final byte LONG = 6;
+
+  static final byte FLOAT = 7;
+
+  static final byte DOUBLE = 8;
+
+  static final byte STRING = 9;
+
+  static final byte BYTES = 10;
+
+  static final byte ENUM = 11;
+
+  static final byte COLLECTION = 12;
+
+  static final byte MAP = 13;
+
+  static final byte ARRAY = 14;
+
+  static final byte OBJECT = 15;
+
+  static final byte JAVA = 16;
+
+  static final byte CLASS = 17;
+
+  private static final Map<Class<?>, Byte> SIMPLE_TAGS = createSimpleTags();
+
+  private static final ClassValue<Layout> LAYOUTS = new ClassValue<Layout>() {
+
+    @Override
+    protected Layout computeValue (Class<?> type) {
+      return Layout.of(type);
+    }
+  };
+
+  private static final ConcurrentMap<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+
+  /**
+   * Tells is the buffer's next value written by this codec, or not.
+   *
+   * @param buffer the buffer to check
+   *
+   * @return {@code true} if the next byte is the codec's magic byte
+   */
+  static boolean isCompact (Bytes buffer) {
+    return buffer.isReadable(2) && buffer.getByte(buffer.readerIndex()) == MAGIC;
+  }
+
+  static void write (Object value, Bytes buffer) {
+    buffer.write1B(MAGIC);
+    buffer.write1B(VERSION);
+    val writerIndex = buffer.writerIndex();
+    try {
+      writeValue(value, Object.class, buffer, Collections.newSetFromMap(new IdentityHashMap<>()));
+    } catch (RepeatedReferenceException ex) {
+      buffer.writerIndex(writerIndex);
+      if (!(value instanceof Serializable)) {
+        val msg = String.format("The object graph of %s has cycles or shared objects and is not java.io.Serializable",
+                                value.getClass().getName());
+        throw new IllegalArgumentException(msg, ex);
+      }
+      writeJava((Serializable) value, buffer);
+    }
+  }
+
+  static Object read (Bytes buffer) {
+    buffer.readByte(); // magic
+    val version = buffer.readByte();
+    if (version != VERSION) {
+      throw new IllegalStateException("Unsupported compact codec format version " + version);
+    }
+    return readValue(Object.class, buffer);
+  }
+
+  @SneakyThrows
+  private static void writeValue (Object value, Type declared, Bytes buffer, Set<Object> visited) {
+    if (value == null) {
+      buffer.write1B(NULL);
+      return;
+    }
+    val simpleTag = SIMPLE_TAGS.get(value.getClass());
+    if (simpleTag != null) {
+      buffer.write1B(simpleTag);
+      writeSimple(simpleTag, value, buffer);
+      return;
+    }
+
+    val declaredType = defaultImplementation(rawClass(declared));
+    val type = writtenType(value, declaredType);
+    if (type != declaredType) {
+      buffer.write1B(CLASS);
+      writeName(type.getName(), buffer);
+    }
+
+    if (value instanceof Enum) {
+      buffer.write1B(ENUM);
+      writeName(((Enum<?>) value).name(), buffer);
+    } else if (value instanceof Collection) {
+      visit(value, visited);
+      val collection = (Collection<?>) value;
+      buffer.write1B(COLLECTION);
+      buffer.write4B(collection.size());
+      val elementType = typeArgument(declared, 0);
+      for (val element : collection) {
+        writeValue(element, elementType, buffer, visited);
+      }
+    } else if (value instanceof Map) {
+      visit(value, visited);
+      writeMap((Map<?, ?>) value, declared, buffer, visited);
+    } else if (type.isArray()) {
+      visit(value, visited);
+      val length = Array.getLength(value);
+      buffer.write1B(ARRAY);
+      buffer.write4B(length);
+      for (int index = 0; index < length; index++) {
+        writeValue(Array.get(value, index), type.getComponentType(), buffer, visited);
+      }
+    } else {
+      writeObject(value, type, buffer, visited);
+    }
+  }
+
+  /**
+   * Returns the value's class, or, for the collections and maps, which could not be
+   * created back (like the unmodifiable ones), the closest standard implementation.
+   */
+  private static Class<?> writtenType (Object value, Class<?> declaredType) {
+    if (value instanceof Enum) {
+      return ((Enum<?>) value).getDeclaringClass();
+    }
+    val type = value.getClass();
+    if (!(value instanceof Collection || value instanceof Map) || LAYOUTS.get(type).constructor != null) {
+      return type;
+    }
+    if (declaredType.isAssignableFrom(type) && LAYOUTS.get(declaredType).constructor != null) {
+      return declaredType;
+    }
+    if (value instanceof Map) {
+      return value instanceof SortedMap
+             ? TreeMap.class
+             : HashMap.class;
+    } else if (value instanceof Set) {
+      return value instanceof SortedSet
+             ? TreeSet.class
+             : HashSet.class;
+    }
+    return ArrayList.class;
+  }
+
+  /**
+   * Remembers the mutable value, the second visit of it means a cycle or a shared object.
+   */
+  private static void visit (Object value, Set<Object> visited) {
+    if (!visited.add(value)) {
+      throw RepeatedReferenceException.INSTANCE;
+    }
+  }
+
+  private static void writeMap (Map<?, ?> map, Type declared, Bytes buffer, Set<Object> visited) {
+    buffer.write1B(MAP);
+    buffer.write4B(map.size());
+    val keyType = typeArgument(declared, 0);
+    val valueType = typeArgument(declared, 1);
+    for (val entry : map.entrySet()) {
+      writeValue(entry.getKey(), keyType, buffer, visited);
+      writeValue(entry.getValue(), valueType, buffer, visited);
+    }
+  }
+
+  @SneakyThrows
+  private static void writeObject (Object value, Class<?> type, Bytes buffer, Set<Object> visited) {
+    val layout = LAYOUTS.get(type);
+    if (layout.isSupported()) {
+      visit(value, visited);
+      buffer.write1B(OBJECT);
+      buffer.write2B(layout.fields.size());
+      for (val field : layout.fields) {
+        buffer.write4B(field.hash);
+        writeValue((Object) field.getter.invokeExact(value), field.type, buffer, visited);
+      }
+    } else if (value instanceof Serializable) {
+      writeJava((Serializable) value, buffer);
+    } else {
+      val msg = String.format("The class %s could not be written field by field (it has no no-arguments constructor, " +
+                              "or its fields names hashes collide) and is not java.io.Serializable",
+                              type.getName());
+      throw new IllegalArgumentException(msg);
+    }
+  }
+
+  private static void writeJava (Serializable value, Bytes buffer) {
+    val bytes = SerializationUtils.serialize(value);
+    buffer.write1B(JAVA);
+    buffer.write4B(bytes.length);
+    buffer.writeNB(bytes);
+  }
+
+  private static void writeSimple (byte tag, Object value, Bytes buffer) {
+    switch (tag) {
+    case BOOLEAN:
+      buffer.write1B((Boolean) value ? 1 : 0);
+      break;
+    case BYTE:
+      buffer.write1B((Byte) value);
+      break;
+    case SHORT:
+      buffer.write2B((Short) value);
+      break;
+    case CHARACTER:
+      buffer.write2B((Character) value);
+      break;
+    case INTEGER:
+      buffer.write4B((Integer) value);
+      break;
+    case LONG:
+      buffer.write8B((Long) value);
+      break;
+    case FLOAT:
+      buffer.write4B((Float) value);
+      break;
+    case DOUBLE:
+      buffer.write8B((Double) value);
+      break;
+    case STRING:
+      val string = (String) value;
+      val length = Utf8.encodedLength(string);
+      buffer.write4B(length);
+      Utf8.write(string, length, buffer);
+      break;
+    default:
+      val bytes = (byte[]) value;
+      buffer.write4B(bytes.length);
+      buffer.writeNB(bytes);
+    }
+  }
+
+  @SneakyThrows
+  @SuppressWarnings({
+      "unchecked",
+      "rawtypes"
+  })
+  private static Object readValue (Type declared, Bytes buffer) {
+    byte tag = buffer.readByte();
+    Class<?> type = defaultImplementation(rawClass(declared));
+    if (tag == CLASS) {
+      type = classForName(readName(buffer));
+      tag = buffer.readByte();
+    }
+
+    switch (tag) {
+    case NULL:
+      return null;
+    case ENUM:
+      return Enum.valueOf((Class) type, readName(buffer));
+    case COLLECTION:
+      val collection = (Collection<Object>) LAYOUTS.get(type).newInstance();
+      val elementType = typeArgument(declared, 0);
+      for (int size = buffer.readInt(); size > 0; size--) {
+        collection.add(readValue(elementType, buffer));
+      }
+      return collection;
+    case MAP:
+      val map = (Map<Object, Object>) LAYOUTS.get(type).newInstance();
+      val keyType = typeArgument(declared, 0);
+      val valueType = typeArgument(declared, 1);
+      for (int size = buffer.readInt(); size > 0; size--) {
+        map.put(readValue(keyType, buffer), readValue(valueType, buffer));
+      }
+      return map;
+    case ARRAY:
+      val length = buffer.readInt();
+      val array = Array.newInstance(type.getComponentType(), length);
+      for (int index = 0; index < length; index++) {
+        Array.set(array, index, readValue(type.getComponentType(), buffer));
+      }
+      return array;
+    case OBJECT:
+      return readObject(type, buffer);
+    case JAVA:
+      return SerializationUtils.deserialize(buffer.readBytes(buffer.readInt()));
+    default:
+      return readSimple(tag, buffer);
+    }
+  }
+
+  @SneakyThrows
+  private static Object readObject (Class<?> type, Bytes buffer) {
+    val layout = LAYOUTS.get(type);
+    val result = layout.newInstance();
+    for (int count = buffer.readUnsignedShort(); count > 0; count--) {
+      val field = layout.byHash.get(buffer.readInt());
+      if (field == null) {
+        skipValue(buffer); // the field was removed from the class
+      } else {
+        val value = readValue(field.type, buffer);
+        if (value != null || !field.primitive) {
+          field.setter.invokeExact(result, value);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Object readSimple (byte tag, Bytes buffer) {
+    switch (tag) {
+    case BOOLEAN:
+      return buffer.readByte() != 0;
+    case BYTE:
+      return buffer.readByte();
+    case SHORT:
+      return buffer.readShort();
+    case CHARACTER:
+      return buffer.readChar();
+    case INTEGER:
+      return buffer.readInt();
+    case LONG:
+      return buffer.readLong();
+    case FLOAT:
+      return buffer.readFloat();
+    case DOUBLE:
+      return buffer.readDouble();
+    case STRING:
+      return Utf8.read(buffer.readInt(), buffer);
+    case BYTES:
+      return buffer.readBytes(buffer.readInt());
+    default:
+      throw new IllegalStateException("Unknown compact codec tag " + tag);
+    }
+  }
+
+  private static void skipValue (Bytes buffer) {
+    byte tag = buffer.readByte();
+    if (tag == CLASS) {
+      readName(buffer);
+      tag = buffer.readByte();
+    }
+    switch (tag) {
+    case NULL:
+      break;
+    case ENUM:
+      readName(buffer);
+      break;
+    case COLLECTION:
+    case ARRAY:
+      for (int size = buffer.readInt(); size > 0; size--) {
+        skipValue(buffer);
+      }
+      break;
+    case MAP:
+      for (int size = buffer.readInt(); size > 0; size--) {
+        skipValue(buffer);
+        skipValue(buffer);
+      }
+      break;
+    case OBJECT:
+      for (int count = buffer.readUnsignedShort(); count > 0; count--) {
+        buffer.readInt();
+        skipValue(buffer);
+      }
+      break;
+    case JAVA:
+      buffer.readerIndex(buffer.readerIndex() + buffer.readInt());
+      break;
+    default:
+      readSimple(tag, buffer);
+    }
+  }
+
+  private static void writeName (String name, Bytes buffer) {
+    val length = Utf8.encodedLength(name);
+    buffer.write2B(length);
+    Utf8.write(name, length, buffer);
+  }
+
+  private static String readName (Bytes buffer) {
+    return Utf8.read(buffer.readUnsignedShort(), buffer);
+  }
+
+  private static Class<?> classForName (String name) {
+    return CLASSES.computeIfAbsent(name, CompactCodec::loadClass);
+  }
+
+  @SneakyThrows
+  private static Class<?> loadClass (String name) {
+    val classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader == null
+           ? Class.forName(name)
+           : Class.forName(name, false, classLoader);
+  }
+
+  private static Class<?> rawClass (Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    } else if (type instanceof ParameterizedType) {
+      return rawClass(((ParameterizedType) type).getRawType());
+    }
+    return Object.class;
+  }
+
+  private static Type typeArgument (Type type, int index) {
+    if (type instanceof ParameterizedType) {
+      val arguments = ((ParameterizedType) type).getActualTypeArguments();
+      if (index < arguments.length && (arguments[index] instanceof Class || arguments[index] instanceof ParameterizedType)) {
+        return arguments[index];
+      }
+    }
+    return Object.class;
+  }
+
+  /**
+   * Returns the class, which is created for the declared interface, if the value's class
+   * was not written, or the declared class itself.
+   */
+  @SuppressWarnings("PMD.NPathComplexity")
+  private static Class<?> defaultImplementation (Class<?> declared) {
+    if (declared == Collection.class || declared == List.class || declared == Iterable.class) {
+      return ArrayList.class;
+    } else if (declared == Set.class) {
+      return HashSet.class;
+    } else if (declared == SortedSet.class || declared == NavigableSet.class) {
+      return TreeSet.class;
+    } else if (declared == Queue.class || declared == Deque.class) {
+      return ArrayDeque.class;
+    } else if (declared == Map.class) {
+      return HashMap.class;
+    } else if (declared == SortedMap.class || declared == NavigableMap.class) {
+      return TreeMap.class;
+    }
+    return declared;
+  }
+
+  private static Map<Class<?>, Byte> createSimpleTags () {
+    val result = new IdentityHashMap<Class<?>, Byte>();
+    result.put(Boolean.class, BOOLEAN);
+    result.put(Byte.class, BYTE);
+    result.put(Short.class, SHORT);
+    result.put(Character.class, CHARACTER);
+    result.put(Integer.class, INTEGER);
+    result.put(Long.class, LONG);
+    result.put(Float.class, FLOAT);
+    result.put(Double.class, DOUBLE);
+    result.put(String.class, STRING);
+    result.put(byte[].class, BYTES);
+    return result;
+  }
+
+  static void makeAccessible (AccessibleObject object) {
+    AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+      object.setAccessible(true);
+      return null;
+    });
+  }
+
+  private CompactCodec () {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * The class's fields layout and its no-arguments constructor.
+   */
+  @FieldDefaults(level = PRIVATE, makeFinal = true)
+  private static final class Layout {
+
+    static Layout of (Class<?> type) {
+      val constructor = findConstructor(type);
+      val fields = new ArrayList<FieldLayout>();
+      val customSerialization = hasCustomSerialization(type);
+      if (constructor != null && !isJdkClass(type) && !customSerialization) {
+        // the subclass's fields go first, so the hidden superclass's ones are qualified
+        val names = new HashSet<String>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+          for (val field : current.getDeclaredFields()) {
+            val modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+              val key = names.add(field.getName())
+                        ? field.getName()
+                        : current.getName() + '.' + field.getName();
+              fields.add(FieldLayout.of(field, key.hashCode()));
+            }
+          }
+        }
+      }
+      return new Layout(type, constructor, fields, customSerialization);
+    }
+
+    /**
+     * Tells does the serializable class customize its Java serialization,
+     * which the field by field format would silently ignore.
+     */
+    private static boolean hasCustomSerialization (Class<?> type) {
+      if (Externalizable.class.isAssignableFrom(type)) {
+        return true;
+      } else if (!Serializable.class.isAssignableFrom(type)) {
+        return false;
+      }
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        if (hasMethod(current, "writeObject", ObjectOutputStream.class) ||
+            hasMethod(current, "readObject", ObjectInputStream.class) ||
+            hasMethod(current, "readObjectNoData") ||
+            hasMethod(current, "writeReplace") ||
+            hasMethod(current, "readResolve")) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static boolean hasMethod (Class<?> type, String name, Class<?>... parameterTypes) {
+      try {
+        type.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException ex) {
+        return false;
+      }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static MethodHandle findConstructor (Class<?> type) {
+      if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray()) {
+        return null;
+      }
+      try {
+        val constructor = type.getDeclaredConstructor();
+        if (!Modifier.isPublic(constructor.getModifiers()) || !Modifier.isPublic(type.getModifiers())) {
+          if (isJdkClass(type)) {
+            return null;
+          }
+          makeAccessible(constructor);
+        }
+        return MethodHandles.lookup()
+            .unreflectConstructor(constructor)
+            .asType(methodType(Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+        return null;
+      }
+    }
+
+    private static boolean isJdkClass (Class<?> type) {
+      val name = type.getName();
+      return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    Class<?> type;
+
+    MethodHandle constructor;
+
+    List<FieldLayout> fields;
+
+    Map<Integer, FieldLayout> byHash;
+
+    boolean supported;
+
+    Layout (Class<?> type, MethodHandle constructor, List<FieldLayout> fields, boolean customSerialization) {
+      this.type = type;
+      this.constructor = constructor;
+      this.fields = fields;
+
+      byHash = new HashMap<>();
+      // the different fields names with the same hash, the class falls back to the Java serialization
+      boolean collision = false;
+      for (val field : fields) {
+        collision |= byHash.putIfAbsent(field.hash, field) != null;
+      }
+      supported = constructor != null && !isJdkClass(type) && !customSerialization && !collision;
+    }
+
+    boolean isSupported () {
+      return supported;
+    }
+
+    @SneakyThrows
+    Object newInstance () {
+      if (constructor == null) {
+        val msg = String.format("The class %s has no no-arguments constructor", type.getName());
+        throw new IllegalStateException(msg);
+      }
+      return (Object) constructor.invokeExact();
+    }
+  }
+
+  /**
+   * The signal of a cycle or a shared object in the written object graph.
+   */
+  private static final class RepeatedReferenceException extends RuntimeException {
+
+    static final RepeatedReferenceException INSTANCE = new RepeatedReferenceException();
+
+    private static final long serialVersionUID = 2_917_541_008_446_214_302L;
+
+    RepeatedReferenceException () {
+      super("The object graph has a cycle or a shared object", null, false, false);
+    }
+  }
+
+  @FieldDefaults(level = PRIVATE, makeFinal = true)
+  private static final class FieldLayout {
+
+    @SneakyThrows
+    static FieldLayout of (Field field, int hash) {
+      makeAccessible(field);
+      val lookup = MethodHandles.lookup();
+      val getter = lookup.unreflectGetter(field)
+          .asType(methodType(Object.class, Object.class));
+      val setter = lookup.unreflectSetter(field)
+          .asType(methodType(void.class, Object.class, Object.class));
+      return new FieldLayout(hash, field.getGenericType(),
+                             field.getType().isPrimitive(), getter, setter);
+    }
+
+    int hash;
+
+    Type type;
+
+    boolean primitive;
+
+    MethodHandle getter;
+
+    MethodHandle setter;
+
+    FieldLayout (int hash, Type type, boolean primitive, MethodHandle getter, MethodHandle setter) {
+      this.hash = hash;
+      this.type = type;
+      this.primitive = primitive;
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package org.infobip.lib.popout;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 
 import lombok.Builder;
 import lombok.NonNull;
@@ -39,6 +40,48 @@ public class CompressedFilesConfig {
 
   Long maxSizeBytes;
 
+  /**
+   * The dead bytes ratio (the removed and consumed records in a compressed file
+   * to the file's size), starting from which the file is rewritten
+   * by the garbage-collecting compaction. The default value is {@code 0.5}.
+   *
+   * @since 2.2.0
+   */
+  Double compactionThreshold;
+
+  /**
+   * The interval between the background garbage-collecting compactions.
+   * The default value is {@code null} - no background compaction.
+   *
+   * @since 2.2.0
+   */
+  Duration compactionInterval;
+
+  /**
+   * Writes a sidecar offset index ({@code .index} file) for each compressed file, or not.
+   * The index allows to count, get and skip the records without reading all the headers.
+   * The default value is {@code false}.
+   *
+   * @since 2.2.0
+   */
+  Boolean offsetIndex;
+
+  /**
+   * Writes the CRC32C checksum of each compressed record into its header, or not.
+   * The default value is {@code false}.
+   *
+   * @since 2.2.0
+   */
+  Boolean checksums;
+
+  /**
+   * When the records' checksums are verified, see {@link ChecksumVerification}.
+   * The default value is {@link ChecksumVerification#RECOVERY}.
+   *
+   * @since 2.2.0
+   */
+  ChecksumVerification checksumVerification;
+
   /**
    * The configuration builder.
    */
@@ -69,6 +112,9 @@ public class CompressedFilesConfig {
 
     /**
      * Sets the maximum compressed file size in bytes.
+     * <p>
+     * The compressed files are never bigger than 64 MiB (except a single WAL file,
+     * which is bigger), so the values above that are capped.
      *
      * @param value the new value
      *
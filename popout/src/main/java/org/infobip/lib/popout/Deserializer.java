@@ -16,8 +16,6 @@
 
 package org.infobip.lib.popout;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
@@ -51,10 +49,18 @@ public interface Deserializer<T> {
 
   T deserialize (int length, Bytes buffer);
 
+  /**
+   * Reads the objects written by the {@link Serializer.DefaultSerializer},
+   * and the Java-serialized ones, which the older versions wrote.
+   */
   class DefaultDeserializer<T> implements Deserializer<T> {
 
     @Override
+    @SuppressWarnings("unchecked")
     public T deserialize (int length, Bytes buffer) {
+      if (CompactCodec.isCompact(buffer)) {
+        return (T) CompactCodec.read(buffer);
+      }
       val bytes = BYTE_ARRAY.deserialize(length, buffer);
       return SerializationUtils.deserialize(bytes);
     }
@@ -153,8 +159,7 @@ public interface Deserializer<T> {
     @Override
     public String deserialize (int length, Bytes buffer) {
       val arrayLength = buffer.readInt();
-      val bytes = buffer.readBytes(arrayLength);
-      return new String(bytes, UTF_8);
+      return Utf8.read(arrayLength, buffer);
     }
   }
 }
@@ -0,0 +1,827 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Locale.ENGLISH;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import io.appulse.utils.Bytes;
+import io.appulse.utils.BytesUtils;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * Auto-resizable {@link Bytes} implementation over a direct (off-heap) {@link ByteBuffer}.
+ * <p>
+ * The buffer has no backing array, so {@link #array()} is not supported,
+ * use {@link #nioBuffer(int, int)} for channels I/O instead.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+@FieldDefaults(level = PRIVATE)
+@SuppressWarnings({
+    "PMD.ExcessivePublicCount",
+    "PMD.GodClass",
+    "PMD.LinguisticNaming"
+})
+public final class DirectBytes implements Bytes {
+
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  /**
+   * Allocates a new direct buffer.
+   *
+   * @param capacity the initial buffer's capacity
+   *
+   * @return a new direct buffer instance
+   */
+  public static DirectBytes allocate (int capacity) {
+    return new DirectBytes(capacity);
+  }
+
+  /**
+   * Wraps the remaining bytes of the {@code value} buffer (heap or direct), without copying.
+   * The wrapped bytes are readable, and the writes go to the {@code value}'s memory,
+   * till the capacity is extended. The {@code value}'s position and limit are not changed.
+   *
+   * @param value the buffer to wrap
+   *
+   * @return a new buffer instance, which shares the content with the {@code value}
+   */
+  public static DirectBytes wrap (@NonNull ByteBuffer value) {
+    val result = new DirectBytes(value.slice());
+    result.writerIndex = result.buffer.capacity();
+    return result;
+  }
+
+  ByteBuffer buffer;
+
+  int writerIndex;
+
+  int readerIndex;
+
+  private DirectBytes (int capacity) {
+    buffer = ByteBuffer.allocateDirect(Math.max(capacity, 1));
+  }
+
+  private DirectBytes (ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns a view of the buffer's region, which shares the content with this buffer.
+   * The view's position and limit do not affect this buffer's indexes.
+   *
+   * @param index the region start index
+   *
+   * @param length the region length
+   *
+   * @return the region view
+   */
+  public ByteBuffer nioBuffer (int index, int length) {
+    val result = buffer.duplicate();
+    result.limit(index + length);
+    result.position(index);
+    return result;
+  }
+
+  /**
+   * Returns a view of the readable bytes of this buffer.
+   *
+   * @return the readable region view
+   */
+  public ByteBuffer readableNioBuffer () {
+    return nioBuffer(readerIndex, readableBytes());
+  }
+
+  /**
+   * Returns a view of the {@code length} bytes starting from the writer index,
+   * the buffer's capacity is extended if needed.
+   *
+   * @param length the amount of bytes to be written
+   *
+   * @return the writable region view
+   */
+  public ByteBuffer writableNioBuffer (int length) {
+    ensureCapacity(writerIndex, length);
+    return nioBuffer(writerIndex, length);
+  }
+
+  @Override
+  public boolean isAutoResizable () {
+    return true;
+  }
+
+  @Override
+  public Bytes writeNB (@NonNull byte[] bytes) {
+    return writeNB(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public Bytes writeNB (@NonNull byte[] bytes, int offset) {
+    return writeNB(bytes, offset, bytes.length - offset);
+  }
+
+  @Override
+  public Bytes writeNB (@NonNull byte[] bytes, int offset, int length) {
+    setNB(writerIndex, bytes, offset, length);
+    writerIndex += length;
+    return this;
+  }
+
+  @Override
+  public Bytes writeNB (@NonNull String string) {
+    return writeNB(string, ISO_8859_1);
+  }
+
+  @Override
+  public Bytes writeNB (@NonNull String string, @NonNull Charset charset) {
+    return writeNB(string.getBytes(charset));
+  }
+
+  @Override
+  public Bytes write1B (byte value) {
+    set1B(writerIndex, value);
+    writerIndex += Byte.BYTES;
+    return this;
+  }
+
+  @Override
+  public Bytes write1B (short value) {
+    return write1B((byte) value);
+  }
+
+  @Override
+  public Bytes write1B (int value) {
+    return write1B((byte) value);
+  }
+
+  @Override
+  public Bytes write1B (long value) {
+    return write1B((byte) value);
+  }
+
+  @Override
+  public Bytes write1B (float value) {
+    return write1B((byte) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes write1B (double value) {
+    return write1B((byte) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes write1B (char value) {
+    return write1B((byte) value);
+  }
+
+  @Override
+  public Bytes write2B (byte value) {
+    return write2B((short) value);
+  }
+
+  @Override
+  public Bytes write2B (short value) {
+    set2B(writerIndex, value);
+    writerIndex += Short.BYTES;
+    return this;
+  }
+
+  @Override
+  public Bytes write2B (int value) {
+    return write2B((short) value);
+  }
+
+  @Override
+  public Bytes write2B (long value) {
+    return write2B((short) value);
+  }
+
+  @Override
+  public Bytes write2B (float value) {
+    return write2B((short) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes write2B (double value) {
+    return write2B((short) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes write2B (char value) {
+    return write2B((short) value);
+  }
+
+  @Override
+  public Bytes write4B (byte value) {
+    return write4B((int) value);
+  }
+
+  @Override
+  public Bytes write4B (short value) {
+    return write4B((int) value);
+  }
+
+  @Override
+  public Bytes write4B (int value) {
+    set4B(writerIndex, value);
+    writerIndex += Integer.BYTES;
+    return this;
+  }
+
+  @Override
+  public Bytes write4B (long value) {
+    return write4B((int) value);
+  }
+
+  @Override
+  public Bytes write4B (float value) {
+    return write4B(Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes write4B (double value) {
+    return write4B((int) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes write4B (char value) {
+    return write4B((int) value);
+  }
+
+  @Override
+  public Bytes write8B (byte value) {
+    return write8B((long) value);
+  }
+
+  @Override
+  public Bytes write8B (short value) {
+    return write8B((long) value);
+  }
+
+  @Override
+  public Bytes write8B (int value) {
+    return write8B((long) value);
+  }
+
+  @Override
+  public Bytes write8B (long value) {
+    set8B(writerIndex, value);
+    writerIndex += Long.BYTES;
+    return this;
+  }
+
+  @Override
+  public Bytes write8B (float value) {
+    return write8B((long) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes write8B (double value) {
+    return write8B(Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes write8B (char value) {
+    return write8B((long) value);
+  }
+
+  @Override
+  public Bytes setNB (int index, @NonNull byte[] bytes) {
+    return setNB(index, bytes, 0, bytes.length);
+  }
+
+  @Override
+  public Bytes setNB (int index, @NonNull byte[] bytes, int offset) {
+    return setNB(index, bytes, offset, bytes.length - offset);
+  }
+
+  @Override
+  public Bytes setNB (int index, @NonNull byte[] bytes, int offset, int length) {
+    ensureCapacity(index, length);
+    val view = buffer.duplicate();
+    view.position(index);
+    view.put(bytes, offset, length);
+    return this;
+  }
+
+  @Override
+  public Bytes setNB (int index, @NonNull String string) {
+    return setNB(index, string, ISO_8859_1);
+  }
+
+  @Override
+  public Bytes setNB (int index, @NonNull String string, @NonNull Charset charset) {
+    return setNB(index, string.getBytes(charset));
+  }
+
+  @Override
+  public Bytes set1B (int index, byte value) {
+    ensureCapacity(index, Byte.BYTES);
+    buffer.put(index, value);
+    return this;
+  }
+
+  @Override
+  public Bytes set1B (int index, short value) {
+    return set1B(index, (byte) value);
+  }
+
+  @Override
+  public Bytes set1B (int index, int value) {
+    return set1B(index, (byte) value);
+  }
+
+  @Override
+  public Bytes set1B (int index, long value) {
+    return set1B(index, (byte) value);
+  }
+
+  @Override
+  public Bytes set1B (int index, float value) {
+    return set1B(index, (byte) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes set1B (int index, double value) {
+    return set1B(index, (byte) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes set1B (int index, char value) {
+    return set1B(index, (byte) value);
+  }
+
+  @Override
+  public Bytes set2B (int index, byte value) {
+    return set2B(index, (short) value);
+  }
+
+  @Override
+  public Bytes set2B (int index, short value) {
+    ensureCapacity(index, Short.BYTES);
+    buffer.putShort(index, value);
+    return this;
+  }
+
+  @Override
+  public Bytes set2B (int index, int value) {
+    return set2B(index, (short) value);
+  }
+
+  @Override
+  public Bytes set2B (int index, long value) {
+    return set2B(index, (short) value);
+  }
+
+  @Override
+  public Bytes set2B (int index, float value) {
+    return set2B(index, (short) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes set2B (int index, double value) {
+    return set2B(index, (short) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes set2B (int index, char value) {
+    return set2B(index, (short) value);
+  }
+
+  @Override
+  public Bytes set4B (int index, byte value) {
+    return set4B(index, (int) value);
+  }
+
+  @Override
+  public Bytes set4B (int index, short value) {
+    return set4B(index, (int) value);
+  }
+
+  @Override
+  public Bytes set4B (int index, int value) {
+    ensureCapacity(index, Integer.BYTES);
+    buffer.putInt(index, value);
+    return this;
+  }
+
+  @Override
+  public Bytes set4B (int index, long value) {
+    return set4B(index, (int) value);
+  }
+
+  @Override
+  public Bytes set4B (int index, float value) {
+    return set4B(index, Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes set4B (int index, double value) {
+    return set4B(index, (int) Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes set4B (int index, char value) {
+    return set4B(index, (int) value);
+  }
+
+  @Override
+  public Bytes set8B (int index, byte value) {
+    return set8B(index, (long) value);
+  }
+
+  @Override
+  public Bytes set8B (int index, short value) {
+    return set8B(index, (long) value);
+  }
+
+  @Override
+  public Bytes set8B (int index, int value) {
+    return set8B(index, (long) value);
+  }
+
+  @Override
+  public Bytes set8B (int index, long value) {
+    ensureCapacity(index, Long.BYTES);
+    buffer.putLong(index, value);
+    return this;
+  }
+
+  @Override
+  public Bytes set8B (int index, float value) {
+    return set8B(index, (long) Float.floatToIntBits(value));
+  }
+
+  @Override
+  public Bytes set8B (int index, double value) {
+    return set8B(index, Double.doubleToLongBits(value));
+  }
+
+  @Override
+  public Bytes set8B (int index, char value) {
+    return set8B(index, (long) value);
+  }
+
+  @Override
+  public byte readByte () {
+    val result = getByte(readerIndex);
+    readerIndex += Byte.BYTES;
+    return result;
+  }
+
+  @Override
+  public short readUnsignedByte () {
+    return BytesUtils.asUnsignedByte(readByte());
+  }
+
+  @Override
+  public short readShort () {
+    val result = getShort(readerIndex);
+    readerIndex += Short.BYTES;
+    return result;
+  }
+
+  @Override
+  public int readUnsignedShort () {
+    return BytesUtils.asUnsignedShort(readShort());
+  }
+
+  @Override
+  public int readInt () {
+    val result = getInt(readerIndex);
+    readerIndex += Integer.BYTES;
+    return result;
+  }
+
+  @Override
+  public long readUnsignedInt () {
+    return BytesUtils.asUnsignedInteger(readInt());
+  }
+
+  @Override
+  public long readLong () {
+    val result = getLong(readerIndex);
+    readerIndex += Long.BYTES;
+    return result;
+  }
+
+  @Override
+  public BigInteger readUnsignedLong () {
+    return BytesUtils.asUnsignedLong(readLong());
+  }
+
+  @Override
+  public float readFloat () {
+    return Float.intBitsToFloat(readInt());
+  }
+
+  @Override
+  public double readDouble () {
+    return Double.longBitsToDouble(readLong());
+  }
+
+  @Override
+  public char readChar () {
+    return (char) readShort();
+  }
+
+  @Override
+  public byte[] readBytes () {
+    return readBytes(readableBytes());
+  }
+
+  @Override
+  public byte[] readBytes (int length) {
+    val result = new byte[length];
+    readBytes(result);
+    return result;
+  }
+
+  @Override
+  public Bytes readBytes (@NonNull byte[] bytes) {
+    return readBytes(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public Bytes readBytes (@NonNull byte[] bytes, int offset, int length) {
+    checkReadBounds(readerIndex, length);
+    val view = buffer.duplicate();
+    view.position(readerIndex);
+    view.get(bytes, offset, length);
+    readerIndex += length;
+    return this;
+  }
+
+  @Override
+  public String readString () {
+    return readString(ISO_8859_1);
+  }
+
+  @Override
+  public String readString (@NonNull Charset charset) {
+    return readString(readableBytes(), charset);
+  }
+
+  @Override
+  public String readString (int length) {
+    return readString(length, ISO_8859_1);
+  }
+
+  @Override
+  public String readString (int length, @NonNull Charset charset) {
+    val result = getString(readerIndex, length, charset);
+    readerIndex += length;
+    return result;
+  }
+
+  @Override
+  public byte getByte (int index) {
+    checkReadBounds(index, Byte.BYTES);
+    return buffer.get(index);
+  }
+
+  @Override
+  public short getUnsignedByte (int index) {
+    return BytesUtils.asUnsignedByte(getByte(index));
+  }
+
+  @Override
+  public short getShort (int index) {
+    checkReadBounds(index, Short.BYTES);
+    return buffer.getShort(index);
+  }
+
+  @Override
+  public int getUnsignedShort (int index) {
+    return BytesUtils.asUnsignedShort(getShort(index));
+  }
+
+  @Override
+  public int getInt (int index) {
+    checkReadBounds(index, Integer.BYTES);
+    return buffer.getInt(index);
+  }
+
+  @Override
+  public long getUnsignedInt (int index) {
+    return BytesUtils.asUnsignedInteger(getInt(index));
+  }
+
+  @Override
+  public long getLong (int index) {
+    checkReadBounds(index, Long.BYTES);
+    return buffer.getLong(index);
+  }
+
+  @Override
+  public BigInteger getUnsignedLong (int index) {
+    return BytesUtils.asUnsignedLong(getLong(index));
+  }
+
+  @Override
+  public float getFloat (int index) {
+    return Float.intBitsToFloat(getInt(index));
+  }
+
+  @Override
+  public double getDouble (int index) {
+    return Double.longBitsToDouble(getLong(index));
+  }
+
+  @Override
+  public char getChar (int index) {
+    return (char) getShort(index);
+  }
+
+  @Override
+  public byte[] getBytes (int index) {
+    return getBytes(index, writerIndex - index);
+  }
+
+  @Override
+  public byte[] getBytes (int index, int length) {
+    checkReadBounds(index, length);
+    val result = new byte[length];
+    val view = buffer.duplicate();
+    view.position(index);
+    view.get(result);
+    return result;
+  }
+
+  @Override
+  public String getString (int index) {
+    return getString(index, ISO_8859_1);
+  }
+
+  @Override
+  public String getString (int index, @NonNull Charset charset) {
+    return getString(index, writerIndex - index, charset);
+  }
+
+  @Override
+  public String getString (int index, int length) {
+    return getString(index, length, ISO_8859_1);
+  }
+
+  @Override
+  public String getString (int index, int length, @NonNull Charset charset) {
+    val bytes = getBytes(index, length);
+    return new String(bytes, charset);
+  }
+
+  @Override
+  public int capacity () {
+    return buffer.capacity();
+  }
+
+  @Override
+  public void capacity (int newCapacity) {
+    if (newCapacity == capacity()) {
+      return;
+    }
+    val newBuffer = ByteBuffer.allocateDirect(Math.max(newCapacity, 1));
+    val length = Math.min(writerIndex, newCapacity);
+    newBuffer.put(nioBuffer(0, length));
+    newBuffer.clear();
+    buffer = newBuffer;
+    writerIndex = length;
+    readerIndex = Math.min(readerIndex, writerIndex);
+  }
+
+  @Override
+  public int writerIndex () {
+    return writerIndex;
+  }
+
+  @Override
+  public Bytes writerIndex (int index) {
+    if (index < readerIndex) {
+      val msg = String.format(ENGLISH, "Writer index %d is less than reader index %d", index, readerIndex);
+      throw new IndexOutOfBoundsException(msg);
+    }
+    ensureCapacity(index, 0);
+    writerIndex = index;
+    return this;
+  }
+
+  @Override
+  public int writableBytes () {
+    return capacity() - writerIndex;
+  }
+
+  @Override
+  public boolean isWritable () {
+    return writableBytes() > 0;
+  }
+
+  @Override
+  public boolean isWritable (int length) {
+    return writableBytes() >= length;
+  }
+
+  @Override
+  public int readerIndex () {
+    return readerIndex;
+  }
+
+  @Override
+  public Bytes readerIndex (int index) {
+    if (index < 0 || index > writerIndex) {
+      val msg = String.format(ENGLISH, "Reader index %d is out of [0, %d] range", index, writerIndex);
+      throw new IndexOutOfBoundsException(msg);
+    }
+    readerIndex = index;
+    return this;
+  }
+
+  @Override
+  public int readableBytes () {
+    return writerIndex - readerIndex;
+  }
+
+  @Override
+  public boolean isReadable () {
+    return readableBytes() > 0;
+  }
+
+  @Override
+  public boolean isReadable (int length) {
+    return readableBytes() >= length;
+  }
+
+  @Override
+  public Bytes reset () {
+    readerIndex = 0;
+    writerIndex = 0;
+    return this;
+  }
+
+  /**
+   * Direct buffers don't have a backing array.
+   *
+   * @return never returns
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public byte[] array () {
+    throw new UnsupportedOperationException("Direct buffer doesn't have a backing array");
+  }
+
+  @Override
+  public byte[] arrayCopy () {
+    return getBytes(0, writerIndex);
+  }
+
+  private void ensureCapacity (int index, int length) {
+    if (index < 0 || length < 0) {
+      val msg = String.format(ENGLISH, "Illegal write index %d or length %d", index, length);
+      throw new IndexOutOfBoundsException(msg);
+    }
+    val required = (long) index + length;
+    if (required <= capacity()) {
+      return;
+    }
+    if (required > MAX_CAPACITY) {
+      throw new IndexOutOfBoundsException("Required capacity is too big: " + required);
+    }
+    val doubled = Math.min((long) capacity() * 2, MAX_CAPACITY);
+    val newCapacity = (int) Math.max(doubled, required);
+
+    val newBuffer = ByteBuffer.allocateDirect(newCapacity);
+    newBuffer.put(nioBuffer(0, writerIndex));
+    newBuffer.clear();
+    buffer = newBuffer;
+  }
+
+  private void checkReadBounds (int index, int length) {
+    if (index < 0 || length < 0 || index + length > writerIndex) {
+      val msg = String.format(ENGLISH, "Reading %d bytes from index %d is out of written bytes %d",
+                              length, index, writerIndex);
+      throw new IndexOutOfBoundsException(msg);
+    }
+  }
+}
@@ -27,8 +27,13 @@ import java.util.function.Function;
 
 import org.infobip.lib.popout.Deserializer.DefaultDeserializer;
 import org.infobip.lib.popout.Serializer.DefaultSerializer;
+import org.infobip.lib.popout.backend.QueueBackendFactory;
 import org.infobip.lib.popout.batched.BatchedFileQueueBuilder;
 import org.infobip.lib.popout.exception.CorruptedDataException;
+import org.infobip.lib.popout.hybrid.HybridFileQueueBuilder;
+import org.infobip.lib.popout.primitive.IntFileQueueBuilder;
+import org.infobip.lib.popout.primitive.LongFileQueueBuilder;
+import org.infobip.lib.popout.raw.ByteBufferFileQueueBuilder;
 import org.infobip.lib.popout.synced.SyncedFileQueueBuilder;
 
 import lombok.Getter;
@@ -70,6 +75,53 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
     return new BatchedFileQueueBuilder<>();
   }
 
+  /**
+   * Start creating <b>hybrid</b> queue implementation.
+   *
+   * @param <T> the type of elements in this queue
+   *
+   * @return a queue builder object
+   */
+  public static <T> HybridFileQueueBuilder<T> hybrid () {
+    return new HybridFileQueueBuilder<>();
+  }
+
+  /**
+   * Start creating <b>batched</b> queue implementation of {@code long} values,
+   * which doesn't box the values.
+   *
+   * @return a queue builder object
+   *
+   * @since 2.2.0
+   */
+  public static LongFileQueueBuilder longs () {
+    return new LongFileQueueBuilder();
+  }
+
+  /**
+   * Start creating <b>batched</b> queue implementation of {@code int} values,
+   * which doesn't box the values.
+   *
+   * @return a queue builder object
+   *
+   * @since 2.2.0
+   */
+  public static IntFileQueueBuilder ints () {
+    return new IntFileQueueBuilder();
+  }
+
+  /**
+   * Start creating <b>synced</b> queue implementation of raw {@link java.nio.ByteBuffer} elements,
+   * which are written and read without serialization.
+   *
+   * @return a queue builder object
+   *
+   * @since 2.2.0
+   */
+  public static ByteBufferFileQueueBuilder byteBuffers () {
+    return new ByteBufferFileQueueBuilder();
+  }
+
   /**
    * Returns the number of elements in this collection.
    *
@@ -84,6 +136,63 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
    */
   public abstract long diskSize ();
 
+  /**
+   * Returns the element by its position in this queue, without removing it.
+   *
+   * @param index the element's position, starting from {@code 0} (the head)
+   *
+   * @return the element, or {@code null} if this queue has fewer elements
+   *
+   * @since 2.2.0
+   */
+  public T get (long index) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException("index - must be greater or equal to 0");
+    }
+    long current = 0;
+    for (val element : this) {
+      if (current == index) {
+        return element;
+      }
+      current++;
+    }
+    return null;
+  }
+
+  /**
+   * Retrieves and removes the head of this queue, reading it into the {@code target} instance,
+   * if the queue's deserializer is a {@link ReusingDeserializer} and the queue could reuse the instance.
+   * <p>
+   * The result is the {@code target} or another instance with the head's content,
+   * so the caller must use the returned value, not the {@code target}.
+   *
+   * @param target the instance to reuse
+   *
+   * @return the head of this queue, or {@code null} if this queue is empty
+   *
+   * @since 2.2.0
+   */
+  public T pollInto (@NonNull T target) {
+    return poll();
+  }
+
+  /**
+   * Removes the {@code count} head elements.
+   *
+   * @param count the amount of elements to remove
+   *
+   * @return the amount of actually removed elements
+   *
+   * @since 2.2.0
+   */
+  public long skip (long count) {
+    long result = 0;
+    while (result < count && poll() != null) {
+      result++;
+    }
+    return result;
+  }
+
   /**
    * Flushes all this queue's data to the disk.
    */
@@ -134,6 +243,16 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
 
     Function<CorruptedDataException, Boolean> corruptionHandler = new DefaultCorruptionHandler();
 
+    ReadWriteBytesPool bytesPool = ReadWriteBytesPool.getInstance();
+
+    QueueBackendFactory backendFactory = QueueBackendFactory.fileSystem();
+
+    boolean manifest;
+
+    int recoveryParallelism;
+
+    boolean compactFormat;
+
     /**
      * Sets the queue's name. It uses in files names patters.
      *
@@ -278,6 +397,9 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
      * </li>
      * </ul>
      * The default behaviour is - log the exception and continue reading.
+     * <p>
+     * A record with a wrong checksum is skipped on {@code true}, and on {@code false}
+     * the reading stops with the rethrown exception, the record stays on the disk as is.
      *
      * @param value the new value
      *
@@ -288,6 +410,86 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
       return (SELF) this;
     }
 
+    /**
+     * Sets the read/write buffers pool, which the queue uses for its disk operations.
+     * <p>
+     * The default value is the JVM-wide {@link ReadWriteBytesPool#getInstance()} pool.
+     *
+     * @param value the new value
+     *
+     * @return this queue builder, for chain calls
+     */
+    public SELF bytesPool (@NonNull ReadWriteBytesPool value) {
+      bytesPool = value;
+      return (SELF) this;
+    }
+
+    /**
+     * Sets the storage engine factory, which creates the queue's backend.
+     * <p>
+     * The default value is {@link QueueBackendFactory#fileSystem()}, which
+     * stores the queue's data in WAL and compressed files.
+     *
+     * @param value the new value
+     *
+     * @return this queue builder, for chain calls
+     */
+    public SELF backend (@NonNull QueueBackendFactory value) {
+      backendFactory = value;
+      return (SELF) this;
+    }
+
+    /**
+     * Tells to the queue to keep the catalog of its files in append-only manifest files,
+     * which are read at startup instead of the folders listing.
+     * <p>
+     * The default value is: {@code false}
+     *
+     * @param value the new value
+     *
+     * @return this queue builder, for chain calls
+     */
+    public SELF manifest (boolean value) {
+      manifest = value;
+      return (SELF) this;
+    }
+
+    /**
+     * Sets the amount of threads, which scan the queue's files in parallel during the startup
+     * (the records counting and the compressed files validation). The value {@code 1} turns
+     * the parallel scan off.
+     * <p>
+     * The default value is the amount of the available processors.
+     *
+     * @param value the new value
+     *
+     * @return this queue builder, for chain calls
+     */
+    public SELF recoveryParallelism (int value) {
+      recoveryParallelism = value;
+      return (SELF) this;
+    }
+
+    /**
+     * Tells to the queue to write its files in the compact format: the items lengths,
+     * the batches elements counts and the compressed records lengths are written
+     * as varints (see {@link Varints}), and a removed item is flagged with a tombstone bit.
+     * The small items take a single byte of overhead, instead of four or nine bytes.
+     * <p>
+     * The files of both formats are readable regardless of this option, so it could be
+     * turned on and off for an existing queue.
+     * <p>
+     * The default value is: {@code false}
+     *
+     * @param value the new value
+     *
+     * @return this queue builder, for chain calls
+     */
+    public SELF compactFormat (boolean value) {
+      compactFormat = value;
+      return (SELF) this;
+    }
+
     /**
      * Builds a new queue with parameters from the builder.
      *
@@ -326,20 +528,29 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
       limit = ofNullable(limit)
           .orElseGet(() -> QueueLimit.noLimit());
 
+      if (recoveryParallelism < 0) {
+        throw new IllegalArgumentException("Recovery parallelism should be greater than 0");
+      } else if (recoveryParallelism == 0) {
+        recoveryParallelism = Runtime.getRuntime().availableProcessors();
+      }
+
       walFilesConfig = ofNullable(walFilesConfig)
           .map(it -> {
-            if (it.getMaxCount() < 0) {
+            if (it.getMaxCount() != null && it.getMaxCount() < 0) {
               val msg = "WAL's max count should be greater than 0, " +
                         "or 0 - if you would like to get default value (100)";
               throw new IllegalArgumentException(msg);
             }
+            if (it.getSegmentPoolSize() != null && it.getSegmentPoolSize() < 0) {
+              throw new IllegalArgumentException("WAL's segment pool size should be greater or equal to 0");
+            }
             return it;
           })
           .map(it -> it.getFolder() == null
                      ? it.withFolder(folder)
                      : it
           )
-          .map(it -> it.getMaxCount() == 0
+          .map(it -> it.getMaxCount() == null || it.getMaxCount() == 0
                      ? it.withMaxCount(100)
                      : it
           )
@@ -350,29 +561,41 @@ public abstract class FileQueue<T> extends AbstractQueue<T> implements AutoClose
 
       Files.createDirectories(walFilesConfig.getFolder());
 
-      compressedFilesConfig = ofNullable(compressedFilesConfig)
+      compressedFilesConfig = compressedFilesConfigWithDefaults();
+      Files.createDirectories(compressedFilesConfig.getFolder());
+    }
+
+    private CompressedFilesConfig compressedFilesConfigWithDefaults () {
+      return ofNullable(compressedFilesConfig)
           .map(it -> {
-            if (it.getMaxSizeBytes() < 0) {
+            if (it.getMaxSizeBytes() != null && it.getMaxSizeBytes() < 0) {
               val msg = "Compressed file's max size should be greater than 0, " +
                         "or 0 - if you would like to get default value (Long.MAX_VALUE)";
               throw new IllegalArgumentException(msg);
             }
+            if (it.getCompactionThreshold() != null &&
+                (it.getCompactionThreshold() <= 0 || it.getCompactionThreshold() > 1)) {
+              throw new IllegalArgumentException("Compaction threshold should be in (0, 1] range");
+            }
             return it;
           })
           .map(it -> it.getFolder() == null
                      ? it.withFolder(folder)
                      : it
           )
-          .map(it -> it.getMaxSizeBytes() == 0
+          .map(it -> it.getMaxSizeBytes() == null || it.getMaxSizeBytes() == 0
                      ? it.withMaxSizeBytes(Long.MAX_VALUE)
                      : it
           )
+          .map(it -> it.getCompactionThreshold() == null
+                     ? it.withCompactionThreshold(0.5)
+                     : it
+          )
           .orElseGet(() -> CompressedFilesConfig.builder()
               .folder(folder)
               .maxSizeBytes(Long.MAX_VALUE)
+              .compactionThreshold(0.5)
               .build());
-
-      Files.createDirectories(compressedFilesConfig.getFolder());
     }
   }
 
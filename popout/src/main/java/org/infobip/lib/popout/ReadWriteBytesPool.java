@@ -16,17 +16,42 @@
 
 package org.infobip.lib.popout;
 
+import static java.util.Optional.ofNullable;
 import static lombok.AccessLevel.PRIVATE;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
 import io.appulse.utils.Bytes;
-import io.appulse.utils.BytesPool;
+import lombok.Builder;
 import lombok.NonNull;
 import lombok.SneakyThrows;
+import lombok.Synchronized;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
 
 /**
- * Singleton pool for read/write bytes buffers.
+ * Pool for read/write bytes buffers.
+ * <p>
+ * The buffers are grouped in power-of-two size classes, starting from
+ * the {@code minBufferSize}, till the {@code maxPooledBufferSize}. A buffer,
+ * which outgrew the max pooled size, is not returned to the pool and
+ * becomes a garbage, so a single huge record doesn't pin its memory forever.
+ * <p>
+ * The buffers, which were not used during the {@code maxIdleTime}, are trimmed
+ * from the shared size classes.
+ * <p>
+ * Optionally, each thread may keep one released buffer in its own cache, which allows
+ * to skip the shared size classes on a hot path. The cached buffer is dropped, when
+ * its thread finds it idle during the {@code maxIdleTime} or trims the pool, but a thread,
+ * which stopped using the pool, holds its buffer till the thread's end. That is why
+ * the per-thread cache is turned off by default.
+ * <p>
+ * The pool could produce the heap-based buffers, or the {@link DirectBytes}
+ * (off-heap) ones, which are read from and written to channels without
+ * the intermediate copying (see {@link ChannelBytesUtils}).
  *
  * @since 2.0.1
  * @author Artem Labazin
@@ -35,23 +60,94 @@ import lombok.val;
 public final class ReadWriteBytesPool {
 
   /**
-   * Returns the singleton instance of the pool.
+   * Returns the default (JVM-wide) instance of the pool.
    *
-   * @return the singleton read/write pool instance
+   * @return the default read/write pool instance
    */
   public static ReadWriteBytesPool getInstance () {
     return ReadWriteBytesPoolHolder.HOLDER_INSTANCE;
   }
 
-  BytesPool pool;
+  int minBufferSize;
+
+  int maxPooledBufferSize;
+
+  int maxBuffersPerSizeClass;
+
+  boolean direct;
+
+  long maxIdleTimeNanos;
+
+  SizeClass[] sizeClasses;
+
+  ThreadLocal<CachedBuffer> threadLocalCache;
+
+  AtomicLong lastTrimNanos;
+
+  /**
+   * Creates a new pool.
+   *
+   * @param minBufferSize the smallest size class, it is rounded up to the power of two;
+   *                      the default value is {@code 512} bytes
+   *
+   * @param maxPooledBufferSize the max capacity of a buffer, which could be returned to the pool;
+   *                            it is rounded up to the power of two; the default value is {@code 8 MiB}
+   *
+   * @param maxBuffersPerSizeClass the max amount of idle buffers in a size class;
+   *                               the default value is {@code 64}
+   *
+   * @param direct create direct (off-heap) buffers or not; the default value is {@code false}
+   *
+   * @param threadLocalCache use the per-thread cache or not; the default value is {@code false}
+   *
+   * @param maxIdleTime the time after which an unused buffer is trimmed from the pool;
+   *                    the default value is {@code 1 minute}
+   */
+  @Builder
+  @SuppressWarnings({
+      "checkstyle:HiddenField",
+      "PMD.AvoidInstantiatingObjectsInLoops"
+  })
+  ReadWriteBytesPool (Integer minBufferSize,
+                      Integer maxPooledBufferSize,
+                      Integer maxBuffersPerSizeClass,
+                      Boolean direct,
+                      Boolean threadLocalCache,
+                      Duration maxIdleTime
+  ) {
+    this.minBufferSize = ofNullable(minBufferSize)
+        .map(ReadWriteBytesPool::checkPositive)
+        .map(ReadWriteBytesPool::roundUpToPowerOfTwo)
+        .orElse(512);
+
+    this.maxPooledBufferSize = ofNullable(maxPooledBufferSize)
+        .map(ReadWriteBytesPool::checkPositive)
+        .map(ReadWriteBytesPool::roundUpToPowerOfTwo)
+        .map(it -> Math.max(it, this.minBufferSize))
+        .orElseGet(() -> Math.max(8 * 1024 * 1024, this.minBufferSize));
+
+    this.maxBuffersPerSizeClass = ofNullable(maxBuffersPerSizeClass)
+        .map(ReadWriteBytesPool::checkPositive)
+        .orElse(64);
+
+    this.direct = ofNullable(direct)
+        .orElse(Boolean.FALSE);
 
-  private ReadWriteBytesPool () {
-    pool = BytesPool.builder()
-        .initialBufferSizeBytes(512)
-        .initialBuffersCount(3)
-        .maximumBuffersCount(1024)
-        .bufferCreateFunction(Bytes::resizableArray)
-        .build();
+    this.threadLocalCache = ofNullable(threadLocalCache)
+        .orElse(Boolean.FALSE)
+        ? ThreadLocal.withInitial(CachedBuffer::new)
+        : null;
+
+    this.maxIdleTimeNanos = ofNullable(maxIdleTime)
+        .map(Duration::toNanos)
+        .orElse(Duration.ofMinutes(1).toNanos());
+
+    val sizeClassesCount = log2(this.maxPooledBufferSize) - log2(this.minBufferSize) + 1;
+    sizeClasses = new SizeClass[sizeClassesCount];
+    for (int index = 0; index < sizeClassesCount; index++) {
+      sizeClasses[index] = new SizeClass(this.minBufferSize << index, this.maxBuffersPerSizeClass);
+    }
+    lastTrimNanos = new AtomicLong(System.nanoTime());
   }
 
   /**
@@ -59,16 +155,127 @@ public final class ReadWriteBytesPool {
    *
    * @param consumer acquired buffer consumer.
    */
-  @SneakyThrows
   public <T> T borrow (@NonNull ThrowableBytesConsumer<T> consumer) {
-    val buffer = pool.acquire();
+    return borrow(minBufferSize, consumer);
+  }
+
+  /**
+   * Borrows a byte buffer with at least {@code sizeHint} capacity
+   * from the pool and sends it to the consumer.
+   *
+   * @param sizeHint the expected amount of bytes, which the buffer will hold
+   *
+   * @param consumer acquired buffer consumer.
+   */
+  @SneakyThrows
+  public <T> T borrow (int sizeHint, @NonNull ThrowableBytesConsumer<T> consumer) {
+    val buffer = acquire(sizeHint);
     try {
       return consumer.consume(buffer);
     } finally {
-      buffer.release();
+      release(buffer);
     }
   }
 
+  /**
+   * Tells if the pool produces the direct (off-heap) buffers.
+   *
+   * @return {@code true} if the buffers are direct
+   */
+  public boolean isDirect () {
+    return direct;
+  }
+
+  /**
+   * Removes from the pool all the buffers, which were idle
+   * since the previous trim, or during the {@code maxIdleTime}.
+   * The other threads' cached buffers are not touched.
+   */
+  public void trim () {
+    val previousTrim = lastTrimNanos.getAndSet(System.nanoTime());
+    if (threadLocalCache != null) {
+      threadLocalCache.get().trim(previousTrim);
+    }
+    for (val sizeClass : sizeClasses) {
+      sizeClass.trim();
+    }
+  }
+
+  /**
+   * Returns the amount of idle buffers in the shared size classes.
+   *
+   * @return the amount of idle buffers
+   */
+  public int idleBuffersCount () {
+    int result = 0;
+    for (val sizeClass : sizeClasses) {
+      result += sizeClass.size();
+    }
+    return result;
+  }
+
+  Bytes acquire (int sizeHint) {
+    val size = Math.max(sizeHint, minBufferSize);
+    if (threadLocalCache != null) {
+      val cached = threadLocalCache.get().take(size, System.nanoTime() - maxIdleTimeNanos);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    if (size > maxPooledBufferSize) {
+      return create(size);
+    }
+    val sizeClass = sizeClasses[log2(roundUpToPowerOfTwo(size)) - log2(minBufferSize)];
+    val result = sizeClass.poll();
+    return result == null
+           ? create(sizeClass.bufferSize)
+           : result;
+  }
+
+  void release (Bytes buffer) {
+    val capacity = buffer.capacity();
+    if (capacity > maxPooledBufferSize || capacity < minBufferSize) {
+      return;
+    }
+    buffer.reset();
+
+    if (threadLocalCache != null && threadLocalCache.get().put(buffer)) {
+      return;
+    }
+
+    sizeClasses[log2(capacity) - log2(minBufferSize)].offer(buffer);
+
+    val lastTrim = lastTrimNanos.get();
+    if (System.nanoTime() - lastTrim >= maxIdleTimeNanos &&
+        lastTrimNanos.compareAndSet(lastTrim, System.nanoTime())) {
+      trim();
+    }
+  }
+
+  private Bytes create (int capacity) {
+    return direct
+           ? DirectBytes.allocate(capacity)
+           : Bytes.resizableArray(capacity);
+  }
+
+  private static int checkPositive (int value) {
+    if (value <= 0) {
+      throw new IllegalArgumentException("The value should be greater than 0, but it is " + value);
+    }
+    return value;
+  }
+
+  private static int roundUpToPowerOfTwo (int value) {
+    return value <= 1
+           ? 1
+           : Integer.highestOneBit(value - 1) << 1;
+  }
+
+  private static int log2 (int value) {
+    return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+  }
+
   /**
    * The interface for propper bytes buffer consuming.
    */
@@ -86,9 +293,102 @@ public final class ReadWriteBytesPool {
     T consume (Bytes buffer) throws Throwable;
   }
 
+  @FieldDefaults(level = PRIVATE)
+  private static class SizeClass {
+
+    final int bufferSize;
+
+    final int maxBuffers;
+
+    final Deque<Bytes> buffers;
+
+    // the min amount of idle buffers since the previous trim,
+    // these buffers were not used during the whole period
+    int lowWaterMark;
+
+    SizeClass (int bufferSize, int maxBuffers) {
+      this.bufferSize = bufferSize;
+      this.maxBuffers = maxBuffers;
+      buffers = new ArrayDeque<>();
+    }
+
+    @Synchronized
+    Bytes poll () {
+      val result = buffers.pollFirst();
+      lowWaterMark = Math.min(lowWaterMark, buffers.size());
+      return result;
+    }
+
+    @Synchronized
+    void offer (Bytes buffer) {
+      if (buffers.size() < maxBuffers) {
+        buffers.offerFirst(buffer);
+      }
+    }
+
+    @Synchronized
+    void trim () {
+      for (int count = lowWaterMark; count > 0; count--) {
+        buffers.pollLast();
+      }
+      lowWaterMark = buffers.size();
+    }
+
+    @Synchronized
+    int size () {
+      return buffers.size();
+    }
+  }
+
+  /**
+   * The thread's cached buffer with its release time.
+   */
+  @FieldDefaults(level = PRIVATE)
+  private static class CachedBuffer {
+
+    Bytes buffer;
+
+    long releasedNanos;
+
+    /**
+     * Takes the cached buffer, if it fits the {@code size}. The buffer,
+     * which was released before the {@code idleSinceNanos}, is dropped instead.
+     */
+    Bytes take (int size, long idleSinceNanos) {
+      if (buffer == null) {
+        return null;
+      }
+      if (releasedNanos - idleSinceNanos < 0) {
+        buffer = null;
+        return null;
+      }
+      if (buffer.capacity() < size) {
+        return null;
+      }
+      val result = buffer;
+      buffer = null;
+      return result;
+    }
+
+    boolean put (Bytes value) {
+      if (buffer != null) {
+        return false;
+      }
+      buffer = value;
+      releasedNanos = System.nanoTime();
+      return true;
+    }
+
+    void trim (long previousTrimNanos) {
+      if (releasedNanos - previousTrimNanos < 0) {
+        buffer = null;
+      }
+    }
+  }
+
   @SuppressWarnings("PMD.AccessorClassGeneration")
   private static class ReadWriteBytesPoolHolder {
 
-    private static final ReadWriteBytesPool HOLDER_INSTANCE = new ReadWriteBytesPool();
+    private static final ReadWriteBytesPool HOLDER_INSTANCE = ReadWriteBytesPool.builder().build();
   }
 }
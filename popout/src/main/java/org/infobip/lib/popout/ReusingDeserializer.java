@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import io.appulse.utils.Bytes;
+
+/**
+ * The {@link Deserializer}, which could read the content into an existing mutable instance,
+ * so the consumers, which process an element and discard it, don't allocate a new object per element.
+ *
+ * @param <T> the type of deserialized objects
+ *
+ * @see FileQueue#pollInto(Object)
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public interface ReusingDeserializer<T> extends Deserializer<T> {
+
+  /**
+   * Reads the object's content from the buffer into the {@code target} instance,
+   * all its previous state must be overwritten.
+   *
+   * @param target the instance to fill
+   *
+   * @param length the serialized object's length
+   *
+   * @param buffer the source buffer
+   */
+  void deserializeInto (T target, int length, Bytes buffer);
+}
@@ -16,14 +16,10 @@
 
 package org.infobip.lib.popout;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
 import io.appulse.utils.Bytes;
-import io.appulse.utils.SerializationUtils;
 import lombok.val;
 
 public interface Serializer<T> {
@@ -50,19 +46,55 @@ public interface Serializer<T> {
 
   Serializer<String> STRING = new StringSerializer();
 
+  /**
+   * The {@link #fixedSize()} value of the serializers, which elements could have different sizes.
+   *
+   * @since 2.2.0
+   */
+  int VARIABLE_SIZE = -1;
+
   void serialize (T object, Bytes buffer);
 
+  /**
+   * Returns the size of each serialized element, if all of them have the same size.
+   * <p>
+   * The queues store such elements without the per-element length prefixes,
+   * and find an element's position in a batch arithmetically.
+   *
+   * @return the serialized element's size in bytes, or {@link #VARIABLE_SIZE}
+   *
+   * @since 2.2.0
+   */
+  default int fixedSize () {
+    return VARIABLE_SIZE;
+  }
+
+  /**
+   * Returns the expected size of the serialized {@code object}.
+   * <p>
+   * The queues reserve the buffer's capacity for the serialized elements up front,
+   * so the buffer is not extended (and copied) several times during the writes.
+   * The estimate doesn't have to be exact, but it should be cheap.
+   *
+   * @param object the object to serialize
+   *
+   * @return the serialized object's size in bytes, or a negative value if it is unknown
+   *
+   * @since 2.2.0
+   */
+  default int estimateSize (T object) {
+    return fixedSize();
+  }
+
+  /**
+   * Writes the objects in the compact reflection-free format, the classes without
+   * a no-arguments constructor fall back to the Java serialization.
+   */
   class DefaultSerializer<T> implements Serializer<T> {
 
     @Override
     public void serialize (T object, Bytes buffer) {
-      if (!(object instanceof Serializable)) {
-        val msg = "Default serializer allows only objects which implement java.io.Serializable interface";
-        throw new IllegalArgumentException(msg);
-      }
-      val serializable = (Serializable) object;
-      val bytes = SerializationUtils.serialize(serializable);
-      BYTE_ARRAY.serialize(bytes, buffer);
+      CompactCodec.write(object, buffer);
     }
   }
 
@@ -72,6 +104,11 @@ public interface Serializer<T> {
     public void serialize (Byte object, Bytes buffer) {
       buffer.write1B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Byte.BYTES;
+    }
   }
 
   class ShortSerializer implements Serializer<Short> {
@@ -80,6 +117,11 @@ public interface Serializer<T> {
     public void serialize (Short object, Bytes buffer) {
       buffer.write2B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Short.BYTES;
+    }
   }
 
   class CharacterSerializer implements Serializer<Character> {
@@ -88,6 +130,11 @@ public interface Serializer<T> {
     public void serialize (Character object, Bytes buffer) {
       buffer.write2B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Character.BYTES;
+    }
   }
 
   class IntegerSerializer implements Serializer<Integer> {
@@ -96,6 +143,11 @@ public interface Serializer<T> {
     public void serialize (Integer object, Bytes buffer) {
       buffer.write4B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Integer.BYTES;
+    }
   }
 
   class LongSerializer implements Serializer<Long> {
@@ -104,6 +156,11 @@ public interface Serializer<T> {
     public void serialize (Long object, Bytes buffer) {
       buffer.write8B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Long.BYTES;
+    }
   }
 
   class FloatSerializer implements Serializer<Float> {
@@ -112,6 +169,11 @@ public interface Serializer<T> {
     public void serialize (Float object, Bytes buffer) {
       buffer.write4B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Float.BYTES;
+    }
   }
 
   class DoubleSerializer implements Serializer<Double> {
@@ -120,6 +182,11 @@ public interface Serializer<T> {
     public void serialize (Double object, Bytes buffer) {
       buffer.write8B(object);
     }
+
+    @Override
+    public int fixedSize () {
+      return Double.BYTES;
+    }
   }
 
   class BigIntegerSerializer implements Serializer<BigInteger> {
@@ -130,6 +197,12 @@ public interface Serializer<T> {
       buffer.write4B(bytes.length);
       buffer.writeNB(bytes);
     }
+
+    @Override
+    public int estimateSize (BigInteger object) {
+      // the two's-complement array has the sign bit
+      return Integer.BYTES + object.bitLength() / Byte.SIZE + 1;
+    }
   }
 
   class BigDecimalSerializer implements Serializer<BigDecimal> {
@@ -142,6 +215,11 @@ public interface Serializer<T> {
       buffer.writeNB(bytes);
       buffer.write4B(object.scale());
     }
+
+    @Override
+    public int estimateSize (BigDecimal object) {
+      return Integer.BYTES + object.unscaledValue().bitLength() / Byte.SIZE + 1 + Integer.BYTES;
+    }
   }
 
   class ByteArraySerializer implements Serializer<byte[]> {
@@ -151,15 +229,26 @@ public interface Serializer<T> {
       buffer.write4B(object.length);
       buffer.writeNB(object);
     }
+
+    @Override
+    public int estimateSize (byte[] object) {
+      return Integer.BYTES + object.length;
+    }
   }
 
   class StringSerializer implements Serializer<String> {
 
     @Override
     public void serialize (String object, Bytes buffer) {
-      val bytes = object.getBytes(UTF_8);
-      buffer.write4B(bytes.length);
-      buffer.writeNB(bytes);
+      // encodes the string directly to the buffer, without an intermediate array
+      val length = Utf8.encodedLength(object);
+      buffer.write4B(length);
+      Utf8.write(object, length, buffer);
+    }
+
+    @Override
+    public int estimateSize (String object) {
+      return Integer.BYTES + Utf8.encodedLength(object);
     }
   }
 }
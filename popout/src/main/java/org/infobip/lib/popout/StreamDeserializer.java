@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The deserializer, which reads an object, written by the {@link StreamSerializer},
+ * from a stream, so only a chunk of its serialized form is in memory at once.
+ *
+ * @param <T> the type of deserialized objects
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@FunctionalInterface
+public interface StreamDeserializer<T> {
+
+  /**
+   * Reads the object from the {@code input} stream. The stream ends
+   * with the object's content and must not be closed by the deserializer.
+   *
+   * @param input the source stream
+   *
+   * @return the deserialized object
+   *
+   * @throws IOException in case of any I/O error
+   */
+  T deserialize (InputStream input) throws IOException;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The serializer, which writes an object to a stream, instead of a buffer,
+ * so the object's serialized form doesn't have to fit into memory.
+ * <p>
+ * The stream is split into the chunks of a bounded size on its way to the disk.
+ *
+ * @param <T> the type of serialized objects
+ *
+ * @see StreamDeserializer
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@FunctionalInterface
+public interface StreamSerializer<T> {
+
+  /**
+   * Writes the object's content to the {@code output} stream.
+   * The stream must not be closed by the serializer.
+   *
+   * @param object the object to serialize
+   *
+   * @param output the destination stream
+   *
+   * @throws IOException in case of any I/O error
+   */
+  void serialize (T object, OutputStream output) throws IOException;
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.appulse.utils.Bytes;
+import lombok.val;
+
+/**
+ * The UTF-8 strings encoding and decoding, which work directly with the {@link Bytes}
+ * backing array (if any), without the intermediate byte arrays.
+ * <p>
+ * The unpaired surrogates are encoded as {@code '?'}, as {@link String#getBytes} does.
+ */
+@SuppressWarnings({
+    "PMD.AvoidLiteralsInIfCondition",
+    "checkstyle:MagicNumber",
+    "checkstyle:ModifiedControlVariable"
+})
+final class Utf8 {
+
+  private static final Class<?> FIXED_ARRAY = Bytes.allocate(0).getClass();
+
+  private static final Class<?> RESIZABLE_ARRAY = Bytes.resizableArray(1).getClass();
+
+  /**
+   * Returns the length of the string's UTF-8 representation.
+   *
+   * @param string the string to measure
+   *
+   * @return the UTF-8 bytes count
+   */
+  static int encodedLength (String string) {
+    val length = string.length();
+    int result = length;
+    for (int index = 0; index < length; index++) {
+      val character = string.charAt(index);
+      if (character < 0x80) {
+        continue;
+      } else if (character < 0x800) {
+        result++;
+      } else if (Character.isHighSurrogate(character) && index + 1 < length &&
+                 Character.isLowSurrogate(string.charAt(index + 1))) {
+        result += 2; // 4 bytes for 2 chars
+        index++;
+      } else if (Character.isSurrogate(character)) {
+        continue; // '?'
+      } else {
+        result += 2;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes the string's UTF-8 representation to the buffer.
+   *
+   * @param string the string to write
+   *
+   * @param encodedLength the {@link #encodedLength(String)} result
+   *
+   * @param buffer the destination buffer
+   */
+  static void write (String string, int encodedLength, Bytes buffer) {
+    if (!buffer.isWritable(encodedLength)) {
+      buffer.capacity(buffer.writerIndex() + encodedLength);
+    }
+    if (!hasArray(buffer)) {
+      encode(string, buffer);
+      return;
+    }
+
+    byte[] array = buffer.array();
+    val length = string.length();
+    int position = buffer.writerIndex();
+    int index = 0;
+    for (; index < length; index++) { // the ASCII prefix
+      val character = string.charAt(index);
+      if (character >= 0x80) {
+        break;
+      }
+      array[position++] = (byte) character;
+    }
+
+    for (; index < length; index++) {
+      val character = string.charAt(index);
+      if (character < 0x80) {
+        array[position++] = (byte) character;
+      } else if (character < 0x800) {
+        array[position++] = (byte) (0xC0 | character >> 6);
+        array[position++] = (byte) (0x80 | character & 0x3F);
+      } else if (Character.isHighSurrogate(character) && index + 1 < length &&
+                 Character.isLowSurrogate(string.charAt(index + 1))) {
+        val codePoint = Character.toCodePoint(character, string.charAt(++index));
+        array[position++] = (byte) (0xF0 | codePoint >> 18);
+        array[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        array[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        array[position++] = (byte) (0x80 | codePoint & 0x3F);
+      } else if (Character.isSurrogate(character)) {
+        array[position++] = '?';
+      } else {
+        array[position++] = (byte) (0xE0 | character >> 12);
+        array[position++] = (byte) (0x80 | character >> 6 & 0x3F);
+        array[position++] = (byte) (0x80 | character & 0x3F);
+      }
+    }
+    buffer.writerIndex(position);
+  }
+
+  /**
+   * Reads the UTF-8 string from the buffer.
+   *
+   * @param length the string's bytes count
+   *
+   * @param buffer the source buffer
+   *
+   * @return the read string
+   */
+  @SuppressWarnings("deprecation")
+  static String read (int length, Bytes buffer) {
+    if (!hasArray(buffer)) {
+      return buffer.readString(length, UTF_8);
+    }
+    byte[] array = buffer.array();
+    int offset = buffer.readerIndex();
+    if (!buffer.isReadable(length)) {
+      throw new IndexOutOfBoundsException();
+    }
+    buffer.readerIndex(offset + length);
+    return isAscii(array, offset, length)
+           ? new String(array, 0, offset, length) // the Latin-1 copy, without a decoder
+           : new String(array, offset, length, UTF_8);
+  }
+
+  static boolean hasArray (Bytes buffer) {
+    val type = buffer.getClass();
+    return RESIZABLE_ARRAY.equals(type) || FIXED_ARRAY.equals(type);
+  }
+
+  private static boolean isAscii (byte[] array, int offset, int length) {
+    for (int index = offset; index < offset + length; index++) {
+      if (array[index] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void encode (String string, Bytes buffer) {
+    val length = string.length();
+    for (int index = 0; index < length; index++) {
+      val character = string.charAt(index);
+      if (character < 0x80) {
+        buffer.write1B((byte) character);
+      } else if (character < 0x800) {
+        buffer.write1B((byte) (0xC0 | character >> 6));
+        buffer.write1B((byte) (0x80 | character & 0x3F));
+      } else if (Character.isHighSurrogate(character) && index + 1 < length &&
+                 Character.isLowSurrogate(string.charAt(index + 1))) {
+        val codePoint = Character.toCodePoint(character, string.charAt(++index));
+        buffer.write1B((byte) (0xF0 | codePoint >> 18));
+        buffer.write1B((byte) (0x80 | codePoint >> 12 & 0x3F));
+        buffer.write1B((byte) (0x80 | codePoint >> 6 & 0x3F));
+        buffer.write1B((byte) (0x80 | codePoint & 0x3F));
+      } else if (Character.isSurrogate(character)) {
+        buffer.write1B((byte) '?');
+      } else {
+        buffer.write1B((byte) (0xE0 | character >> 12));
+        buffer.write1B((byte) (0x80 | character >> 6 & 0x3F));
+        buffer.write1B((byte) (0x80 | character & 0x3F));
+      }
+    }
+  }
+
+  private Utf8 () {
+    throw new UnsupportedOperationException();
+  }
+}
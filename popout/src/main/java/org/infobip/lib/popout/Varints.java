@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import java.nio.ByteBuffer;
+
+import io.appulse.utils.Bytes;
+import lombok.NonNull;
+import lombok.val;
+
+/**
+ * The LEB128 variable length integers helpers, which the compact files format uses
+ * for the lengths and the counters.
+ * <p>
+ * A value is written by 7 bits groups, starting from the least significant one,
+ * the high bit of each byte tells that there is one more byte. So, the values
+ * less than {@code 128} take a single byte. The values are treated as unsigned,
+ * an {@code int} takes up to {@link #MAX_BYTES} bytes.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+@SuppressWarnings({
+    "PMD.AvoidLiteralsInIfCondition",
+    "checkstyle:MagicNumber"
+})
+public final class Varints {
+
+  /**
+   * The maximum amount of bytes of an {@code int} varint.
+   */
+  public static final int MAX_BYTES = 5;
+
+  /**
+   * Returns the amount of bytes, which the value's varint takes.
+   *
+   * @param value the value to measure
+   *
+   * @return the bytes count, from {@code 1} to {@link #MAX_BYTES}
+   */
+  public static int size (int value) {
+    // each 7 significant bits take a byte, the zero takes a byte too
+    return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+  }
+
+  /**
+   * Writes the value's varint to the buffer, starting from its writer index.
+   *
+   * @param value the value to write
+   *
+   * @param buffer the destination buffer
+   *
+   * @return the buffer, for chain calls
+   */
+  public static Bytes write (int value, @NonNull Bytes buffer) {
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      buffer.write1B((byte) (remaining & 0x7F | 0x80));
+      remaining >>>= 7;
+    }
+    return buffer.write1B((byte) remaining);
+  }
+
+  /**
+   * Writes the value's varint to the buffer, starting from its current position.
+   *
+   * @param value the value to write
+   *
+   * @param buffer the destination buffer
+   *
+   * @return the buffer, for chain calls
+   */
+  public static ByteBuffer write (int value, @NonNull ByteBuffer buffer) {
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      buffer.put((byte) (remaining & 0x7F | 0x80));
+      remaining >>>= 7;
+    }
+    return buffer.put((byte) remaining);
+  }
+
+  /**
+   * Reads a varint from the buffer, starting from its reader index.
+   *
+   * @param buffer the source buffer
+   *
+   * @return the read value
+   */
+  public static int read (@NonNull Bytes buffer) {
+    val index = buffer.readerIndex();
+    val result = get(index, buffer);
+    buffer.readerIndex(index + size(result));
+    return result;
+  }
+
+  /**
+   * Reads a varint from the buffer, starting from its current position.
+   *
+   * @param buffer the source buffer
+   *
+   * @return the read value
+   */
+  public static int read (@NonNull ByteBuffer buffer) {
+    val index = buffer.position();
+    val result = get(index, buffer);
+    buffer.position(index + size(result));
+    return result;
+  }
+
+  /**
+   * Reads a varint from the buffer's absolute index, without changing the reader index.
+   *
+   * @param index the varint's first byte index
+   *
+   * @param buffer the source buffer
+   *
+   * @return the read value
+   */
+  public static int get (int index, @NonNull Bytes buffer) {
+    int result = 0;
+    int shift = 0;
+    for (int position = index; shift < Integer.SIZE; position++) {
+      val current = buffer.getByte(position);
+      result |= (current & 0x7F) << shift;
+      if (current >= 0) {
+        return result;
+      }
+      shift += 7;
+    }
+    throw new IllegalStateException("Malformed varint at index " + index);
+  }
+
+  /**
+   * Reads a varint from the buffer's absolute index, without changing its position.
+   *
+   * @param index the varint's first byte index
+   *
+   * @param buffer the source buffer
+   *
+   * @return the read value
+   */
+  public static int get (int index, @NonNull ByteBuffer buffer) {
+    int result = 0;
+    int shift = 0;
+    for (int position = index; shift < Integer.SIZE; position++) {
+      if (position >= buffer.limit()) {
+        throw new IllegalStateException("Truncated varint at index " + index);
+      }
+      val current = buffer.get(position);
+      result |= (current & 0x7F) << shift;
+      if (current >= 0) {
+        return result;
+      }
+      shift += 7;
+    }
+    throw new IllegalStateException("Malformed varint at index " + index);
+  }
+
+  /**
+   * Writes the varint prefix before the content, which was written to the buffer
+   * after the one reserved byte at the {@code index}. The most values take a single byte,
+   * so the content is moved forward only if the varint is longer.
+   * <p>
+   * It is the varint alternative of the fake length back-patching, when the content's
+   * length is not known before its writing.
+   *
+   * @param index the reserved byte's index
+   *
+   * @param value the prefix value
+   *
+   * @param buffer the buffer, which writer index is the content's end
+   */
+  public static void insert (int index, int value, @NonNull Bytes buffer) {
+    val extra = size(value) - 1;
+    if (extra > 0) {
+      val from = index + 1;
+      val end = buffer.writerIndex();
+      if (!buffer.isWritable(extra)) {
+        buffer.capacity(end + extra);
+      }
+      if (Utf8.hasArray(buffer)) {
+        val array = buffer.array();
+        System.arraycopy(array, from, array, from + extra, end - from);
+      } else {
+        for (int position = end - 1; position >= from; position--) {
+          buffer.set1B(position + extra, buffer.getByte(position));
+        }
+      }
+      buffer.writerIndex(end + extra);
+    }
+    int remaining = value;
+    int position = index;
+    while ((remaining & ~0x7F) != 0) {
+      buffer.set1B(position++, (byte) (remaining & 0x7F | 0x80));
+      remaining >>>= 7;
+    }
+    buffer.set1B(position, (byte) remaining);
+  }
+
+  private Varints () {
+    throw new UnsupportedOperationException();
+  }
+}
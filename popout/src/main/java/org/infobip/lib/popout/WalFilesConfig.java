@@ -39,6 +39,14 @@ public class WalFilesConfig {
 
   Integer maxCount;
 
+  /**
+   * The amount of spare WAL files, which are kept for reuse instead of
+   * creating and deleting the files. {@code 0} (the default) turns the pool off.
+   *
+   * @since 2.2.0
+   */
+  Integer segmentPoolSize;
+
   /**
    * The configuration builder.
    */
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The fixed-size {@link SeekableByteChannel} over a byte array.
+ * The writes modify the array in place and never grow it.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class ByteArrayChannel implements SeekableByteChannel {
+
+  byte[] array;
+
+  @NonFinal
+  int position;
+
+  @NonFinal
+  boolean open = true;
+
+  @SuppressWarnings("PMD.ArrayIsStoredDirectly") // the writes must modify the origin array
+  ByteArrayChannel (@NonNull byte[] array) {
+    this.array = array;
+  }
+
+  @Override
+  public int read (ByteBuffer destination) throws ClosedChannelException {
+    checkOpen();
+    if (position >= array.length) {
+      return -1;
+    }
+    val length = Math.min(destination.remaining(), array.length - position);
+    destination.put(array, position, length);
+    position += length;
+    return length;
+  }
+
+  @Override
+  public int write (ByteBuffer source) throws ClosedChannelException {
+    checkOpen();
+    val length = Math.min(source.remaining(), array.length - position);
+    source.get(array, position, length);
+    position += length;
+    return length;
+  }
+
+  @Override
+  public long position () throws ClosedChannelException {
+    checkOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position (long newPosition) throws ClosedChannelException {
+    checkOpen();
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("position - must be greater or equal to 0");
+    }
+    position = (int) Math.min(newPosition, array.length);
+    return this;
+  }
+
+  @Override
+  public long size () throws ClosedChannelException {
+    checkOpen();
+    return array.length;
+  }
+
+  @Override
+  public SeekableByteChannel truncate (long size) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isOpen () {
+    return open;
+  }
+
+  @Override
+  public void close () {
+    open = false;
+  }
+
+  private void checkOpen () throws ClosedChannelException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -22,10 +22,21 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
+import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
 
+/**
+ * Iterates over the records of the files in order. The file, which is read now,
+ * is reported to the {@code openListener}, and it is reported to the {@code releaseListener},
+ * when the iterator goes to the next file, is exhausted or closed, so the files owner
+ * doesn't rewrite the file under the iterator.
+ * <p>
+ * The last returned record could be removed only while its file is not released.
+ */
 @FieldDefaults(level = PRIVATE)
 class CompressedFileIteratorManyFiles implements Iterator<WalContent>, AutoCloseable {
 
@@ -33,11 +44,28 @@ class CompressedFileIteratorManyFiles implements Iterator<WalContent>, AutoClose
 
   final CompressedFileIteratorSingleFile walContentsIterator;
 
+  final Consumer<Path> openListener;
+
+  final Consumer<Path> releaseListener;
+
+  final ObjLongConsumer<Path> removeListener;
+
+  Path current;
+
   WalContent nextWalContent;
 
-  CompressedFileIteratorManyFiles (Collection<Path> paths) {
+  WalContent lastReturned;
+
+  CompressedFileIteratorManyFiles (Collection<Path> paths,
+                                   Consumer<Path> openListener,
+                                   Consumer<Path> releaseListener,
+                                   ObjLongConsumer<Path> removeListener
+  ) {
     pathsIterator = paths.iterator();
     walContentsIterator = new CompressedFileIteratorSingleFile();
+    this.openListener = openListener;
+    this.releaseListener = releaseListener;
+    this.removeListener = removeListener;
   }
 
   @Override
@@ -46,10 +74,13 @@ class CompressedFileIteratorManyFiles implements Iterator<WalContent>, AutoClose
       return true;
     }
     while (!walContentsIterator.hasNext()) {
+      release();
       if (!pathsIterator.hasNext()) {
         return false;
       }
       val path = pathsIterator.next();
+      openListener.accept(path);
+      current = path;
       walContentsIterator.init(path);
     }
     nextWalContent = walContentsIterator.next();
@@ -59,20 +90,37 @@ class CompressedFileIteratorManyFiles implements Iterator<WalContent>, AutoClose
   @Override
   public WalContent next () {
     if (nextWalContent != null || hasNext()) {
-      val result = nextWalContent;
+      lastReturned = nextWalContent;
       nextWalContent = null;
-      return result;
+      return lastReturned;
     }
     throw new NoSuchElementException();
   }
 
   @Override
   public void remove () {
+    // the record's file could be rewritten after the release
+    if (lastReturned == null || !lastReturned.getFile().equals(current)) {
+      throw new IllegalStateException();
+    }
+    val headerOffset = walContentsIterator.getLastReturnedHeaderOffset();
     walContentsIterator.remove();
+    removeListener.accept(current, lastReturned.getOffset() + lastReturned.getLength() - headerOffset);
+    lastReturned = null;
   }
 
   @Override
-  public void close () throws Exception {
+  public void close () {
+    release();
+  }
+
+  @SneakyThrows
+  private void release () {
+    if (current == null) {
+      return;
+    }
     walContentsIterator.close();
+    releaseListener.accept(current);
+    current = null;
   }
 }
@@ -26,6 +26,8 @@ import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.infobip.lib.popout.exception.CorruptedDataException;
+
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
@@ -43,6 +45,10 @@ class CompressedFileIteratorSingleFile implements Iterator<WalContent>, AutoClos
 
   WalContent next;
 
+  long nextHeaderOffset;
+
+  long lastReturnedHeaderOffset;
+
   @SneakyThrows
   void init (Path path) {
     if (channel != null) {
@@ -66,13 +72,18 @@ class CompressedFileIteratorSingleFile implements Iterator<WalContent>, AutoClos
     }
     do {
       header.readFrom(channel);
-      if (header.isEnd()) {
+      if (!header.isComplete() || header.isEnd()) {
+        // the file's end, the repeated calls after the END header read nothing
         return false;
       } else if (header.isRecord()) {
         break;
+      } else if (header.isRemoved()) {
+        channel.position(channel.position() + header.getLength());
       } else if (header.isJump()) {
         val newPosition = header.getValue();
         channel.position(newPosition);
+      } else {
+        throw new CorruptedDataException(file, header.getPosition());
       }
     } while (true);
 
@@ -80,7 +91,9 @@ class CompressedFileIteratorSingleFile implements Iterator<WalContent>, AutoClos
         .file(file)
         .offset(channel.position())
         .length(header.getLength())
+        .checksumPosition(header.getChecksumPosition())
         .build();
+    nextHeaderOffset = header.getPosition();
 
     val nextHeaderPosition = channel.position() + header.getLength();
     channel.position(nextHeaderPosition);
@@ -91,6 +104,7 @@ class CompressedFileIteratorSingleFile implements Iterator<WalContent>, AutoClos
   public WalContent next () {
     if (next != null || hasNext()) {
       lastReturned = next;
+      lastReturnedHeaderOffset = nextHeaderOffset;
       next = null;
       return lastReturned;
     }
@@ -103,15 +117,28 @@ class CompressedFileIteratorSingleFile implements Iterator<WalContent>, AutoClos
     if (lastReturned == null) {
       throw new IllegalStateException();
     }
-    val oldHeaderStartPosition = lastReturned.getOffset() - RecordHeader.BYTES;
-    header.writeJump(channel, oldHeaderStartPosition, channel.position());
+    val oldHeaderStartPosition = lastReturnedHeaderOffset;
+    header.remove(channel, oldHeaderStartPosition, lastReturned.getOffset() + lastReturned.getLength());
+    try (val index = OffsetIndex.open(file)) {
+      if (index != null) {
+        index.markRemoved(oldHeaderStartPosition);
+      }
+    }
     lastReturned = null;
   }
 
+  /**
+   * Returns the header's offset of the last returned record.
+   */
+  long getLastReturnedHeaderOffset () {
+    return lastReturnedHeaderOffset;
+  }
+
   @Override
   public void close () throws Exception {
     if (channel != null && channel.isOpen()) {
       channel.close();
     }
+    channel = null;
   }
 }
@@ -16,51 +16,133 @@
 
 package org.infobip.lib.popout.backend;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Optional.ofNullable;
 import static lombok.AccessLevel.PRIVATE;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
 
+import org.infobip.lib.popout.ChannelBytesUtils;
+import org.infobip.lib.popout.ChecksumVerification;
 import org.infobip.lib.popout.CompressedFilesConfig;
 import org.infobip.lib.popout.FileQueue;
 import org.infobip.lib.popout.exception.CorruptedDataException;
 
 import io.appulse.utils.Bytes;
-import io.appulse.utils.ReadBytesUtils;
-import lombok.AllArgsConstructor;
 import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
-import lombok.Value;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.val;
 
 @FieldDefaults(level = PRIVATE, makeFinal = true)
+@SuppressWarnings("PMD.UnusedPrivateMethod") // false positives, because of lombok's val
 class CompressedFiles implements Iterable<WalContent>, AutoCloseable {
 
-  private static final byte[] CLEAR = new byte[8192];
+  /**
+   * The upper bound of a compressed file's size, regardless of the configured
+   * {@link CompressedFilesConfig} max size. A compressed file is removed
+   * only after all its records are consumed, so the smaller files
+   * release the disk space sooner.
+   */
+  static final long MAX_SEGMENT_SIZE_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * Each N-th read record is verified in the {@link ChecksumVerification#SAMPLE} mode.
+   */
+  static final int CHECKSUM_SAMPLE_RATE = 16;
 
   FilesManager files;
 
   long maxFileSizeBytes;
 
+  double compactionThreshold;
+
+  boolean offsetIndex;
+
+  boolean checksums;
+
+  ChecksumVerification checksumVerification;
+
+  boolean compactFormat;
+
   Function<CorruptedDataException, Boolean> corruptionHandler;
 
+  /**
+   * The readers' state, which is reused between the reads.
+   */
+  RecordHeader readHeader;
+
+  ReadResult readResult = new ReadResult();
+
+  RecordReader peekReader = this::peekRecord;
+
+  RecordReader pollReader = this::pollRecord;
+
+  RecordReader skipReader = (channel, header, buffer) -> skipRecord(channel, header);
+
+  @NonFinal
+  long readRecords;
+
+  /**
+   * The files' live records counts. A file's count is computed once, on demand,
+   * and then it is updated by the reads and the removals.
+   */
+  Map<Path, Long> liveCounts = new ConcurrentHashMap<>();
+
+  /**
+   * The sum of all files' live records counts, or {@code -1} if it is not computed yet.
+   */
+  @NonFinal
+  long totalCount = -1;
+
+  /**
+   * The files' dead bytes (the removed and the consumed records). A file's amount
+   * is computed once, on demand, like the live records count, and then it is updated
+   * by the reads and the removals, so the compaction doesn't rescan the files.
+   */
+  Map<Path, Long> deadBytes = new ConcurrentHashMap<>();
+
+  /**
+   * The iterators' amount per file, which they read now. Such files are not compacted,
+   * because the iterators hold the records' offsets in them.
+   */
+  Map<Path, Integer> readers = new ConcurrentHashMap<>();
+
+  /**
+   * The head file's channel, which is kept open between the reads.
+   */
+  @NonFinal
+  Path headFile;
+
+  @NonFinal
+  FileChannel headChannel;
+
   @Builder
   CompressedFiles (@NonNull String queueName,
                    @NonNull CompressedFilesConfig config,
                    Boolean restoreFromDisk,
-                   Function<CorruptedDataException, Boolean> corruptionHandler
+                   Function<CorruptedDataException, Boolean> corruptionHandler,
+                   boolean manifest,
+                   boolean compactFormat
   ) {
     val restoreFromDiskValue = ofNullable(restoreFromDisk)
         .orElse(Boolean.TRUE);
@@ -72,56 +154,65 @@ class CompressedFiles implements Iterable<WalContent>, AutoCloseable {
         .folder(config.getFolder())
         .prefix(queueName + '-')
         .suffix(".compressed")
+        .sidecarSuffix(OffsetIndex.SUFFIX)
+        .manifest(manifest)
         .build();
 
     if (!restoreFromDiskValue) {
       files.clear();
     }
 
-    maxFileSizeBytes = config.getMaxSizeBytes();
+    maxFileSizeBytes = Math.min(config.getMaxSizeBytes(), MAX_SEGMENT_SIZE_BYTES);
+    compactionThreshold = ofNullable(config.getCompactionThreshold())
+        .orElse(0.5);
+    offsetIndex = ofNullable(config.getOffsetIndex())
+        .orElse(Boolean.FALSE);
+    checksums = ofNullable(config.getChecksums())
+        .orElse(Boolean.FALSE);
+    checksumVerification = ofNullable(config.getChecksumVerification())
+        .orElse(ChecksumVerification.RECOVERY);
+    this.compactFormat = compactFormat;
     this.corruptionHandler = corruptionHandlerValue;
+    readHeader = new RecordHeader(compactFormat);
   }
 
   @Override
-  public Iterator<WalContent> iterator () {
-    return new CompressedFileIteratorManyFiles(files.getFilesFromQueue());
+  public CompressedFileIteratorManyFiles iterator () {
+    return new CompressedFileIteratorManyFiles(
+        files.getFilesFromQueue(),
+        file -> readers.merge(file, 1, Integer::sum),
+        file -> readers.computeIfPresent(file, (key, value) -> value > 1 ? value - 1 : null),
+        (file, bytes) -> {
+          removed(file, 1);
+          dead(file, bytes);
+        }
+    );
   }
 
   @Override
   public void close () {
+    closeHead();
     files.close();
   }
 
-  @SneakyThrows
   int peekContentPart (@NonNull Bytes bytes) {
-    return readTo(bytes, (channel, header, buffer) -> {
-      val length = header.getLength();
-      if (buffer.isWritable(length)) {
-        val newCapacity = buffer.writerIndex() + length;
-        buffer.capacity(newCapacity);
-      }
-      return ReadBytesUtils.read(channel, buffer, length);
-    });
+    return peekContentPart(bytes, Integer.MAX_VALUE);
   }
 
-  @SneakyThrows
   int pollContentPart (@NonNull Bytes bytes) {
-    return readTo(bytes, (channel, header, buffer) -> {
-      val length = header.getLength();
-      if (!buffer.isWritable(length)) {
-        val newCapacity = buffer.writerIndex() + length;
-        buffer.capacity(newCapacity);
-      }
+    return pollContentPart(bytes, Integer.MAX_VALUE);
+  }
+
+  int peekContentPart (@NonNull Bytes bytes, int maxLength) {
+    return readTo(bytes, maxLength, peekReader, false);
+  }
 
-      val result = ReadBytesUtils.read(channel, buffer, length);
+  int pollContentPart (@NonNull Bytes bytes, int maxLength) {
+    return readTo(bytes, maxLength, pollReader, true);
+  }
 
-      val position = channel.position();
-      if (!header.skipJumps(channel).isEnd()) {
-        // jump from the begining of file to the current position:
-        header.writeJump(channel, 0, position);
-      }
-      return result;
-    });
+  int skipContentPart () {
+    return readTo(null, Integer.MAX_VALUE, skipReader, true);
   }
 
   @SneakyThrows
@@ -132,38 +223,294 @@ class CompressedFiles implements Iterable<WalContent>, AutoCloseable {
     }
 
     val file = files.createNextFile();
+    // the end's header, plus the compact file's head slot
+    val overheadBytes = compactFormat
+                        ? RecordHeader.BYTES * 2
+                        : RecordHeader.BYTES;
     val walFilesSumSize = walFiles.stream()
         .mapToLong(this::getSizeWithHeader)
-        .sum() + RecordHeader.BYTES;
+        .sum() + overheadBytes;
 
-    val needToAllocate = Math.min(walFilesSumSize, maxFileSizeBytes);
-    val allocated = allocate(file, needToAllocate) - RecordHeader.BYTES;
+    // the file grows as the records are written, without preallocation,
+    // so each byte is written only once
+    val limit = Math.min(walFilesSumSize, maxFileSizeBytes) - RecordHeader.BYTES;
 
-    val header = new RecordHeader();
+    val offsets = LongStream.builder();
+    val header = new RecordHeader(compactFormat);
     try (val channel = FileChannel.open(file, WRITE)) {
+      header.writeHead(channel);
       for (val walFile : walFiles) {
         val size = Files.size(walFile);
-        if (channel.position() + RecordHeader.BYTES + size > allocated) {
+        // a WAL file, which is bigger than the limit, takes a whole compressed file,
+        // otherwise the compression never progresses
+        if (channel.position() + RecordHeader.BYTES + size > limit && !result.getCompressed().isEmpty()) {
           break;
         }
-        header.writeRecord(channel, size);
+        offsets.add(channel.position());
 
         try (val walFileChannel = FileChannel.open(walFile)) {
-          walFileChannel.transferTo(0, walFileChannel.size(), channel);
+          if (checksums) {
+            // the content is checksummed by chunks, so a big record doesn't go through the heap
+            header.writeRecord(channel, size, header.checksum(walFileChannel, size));
+          } else {
+            header.writeRecord(channel, size);
+          }
+          long transferred = 0;
+          while (transferred < size) {
+            transferred += walFileChannel.transferTo(transferred, size - transferred, channel);
+          }
         }
 
         result.getCompressed().add(walFile);
         result.getRemaining().remove(walFile);
       }
       header.writeEnd(channel);
+      // trims the unused tail, if any
+      channel.truncate(channel.position());
+    }
+    if (offsetIndex) {
+      OffsetIndex.write(file, offsets.build().toArray());
+    }
+    added(file, result.getCompressed().size());
+    deadBytes.put(file, 0L);
+    return result;
+  }
+
+  /**
+   * Rewrites the compressed files, which dead bytes ratio (the removed and consumed records)
+   * reaches the compaction threshold, into the dense ones with the same names.
+   * The files without live records are removed. The files, which the iterators read now, are skipped.
+   *
+   * @return the amount of the reclaimed bytes
+   */
+  @SneakyThrows
+  long compact () {
+    // the rewritten files are replaced, so the open channel becomes stale
+    closeHead();
+    long result = 0;
+    for (val file : new ArrayList<>(files.getFilesFromQueue())) {
+      if (readers.containsKey(file)) {
+        continue;
+      }
+      val dead = deadBytes(file);
+      if (dead <= 0) {
+        continue; // nothing to reclaim, or a corrupted file, which is handled by the readers
+      }
+      val size = Files.size(file);
+      if ((double) dead / size < compactionThreshold) {
+        continue;
+      }
+      if (count(file) == 0) {
+        removeFile(file);
+        result += size;
+      } else {
+        rewrite(file);
+        deadBytes.put(file, 0L);
+        result += size - Files.size(file);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Counts the live records in all compressed files.
+   * It uses the files' offset indexes, if they exist, and the count is kept
+   * up to date after that.
+   *
+   * @return the records count
+   */
+  long count () {
+    if (totalCount < 0) {
+      long result = 0;
+      for (val file : files.getFilesFromQueue()) {
+        result += count(file);
+      }
+      totalCount = result;
+    }
+    return totalCount;
+  }
+
+  /**
+   * Returns the live record's content by its number in all compressed files.
+   *
+   * @param number the record's number, starting from {@code 0}
+   *
+   * @return the record's content, or {@code null} if there are fewer records
+   */
+  @SneakyThrows
+  WalContent get (long number) {
+    long remaining = number;
+    for (val file : files.getFilesFromQueue()) {
+      val fileCount = count(file);
+      if (remaining < fileCount) {
+        val offset = liveOffset(file, remaining);
+        return offset < 0
+               ? null
+               : readContent(file, offset);
+      }
+      remaining -= fileCount;
+    }
+    return null;
+  }
+
+  /**
+   * Removes the {@code count} first live records without reading them.
+   * The fully skipped files are removed, the partially skipped one gets a jump
+   * from its beginning to the next live record.
+   *
+   * @param count the records amount to skip
+   *
+   * @return the skipped records amount
+   */
+  @SneakyThrows
+  long skip (long count) {
+    val header = new RecordHeader(compactFormat);
+    long result = 0;
+    while (result < count) {
+      val file = files.peek();
+      if (file == null) {
+        break;
+      }
+      val remaining = count - result;
+      val fileCount = count(file);
+      if (fileCount <= remaining) {
+        removeFile(file);
+        result += fileCount;
+        continue;
+      }
+      val offset = liveOffset(file, remaining);
+      try (val channel = FileChannel.open(file, READ, WRITE)) {
+        header.writeJump(channel, 0, offset);
+      }
+      removed(file, remaining);
+      // the skipped range could have the already removed records
+      deadBytes.remove(file);
+      result += remaining;
     }
     return result;
   }
 
+  /**
+   * Sums the {@code counter}'s results for all live records in the file.
+   */
+  @SneakyThrows
+  long count (Path file, ToLongFunction<WalContent> counter) {
+    long result = 0;
+    try (val iterator = new CompressedFileIteratorSingleFile()) {
+      iterator.init(file);
+      while (iterator.hasNext()) {
+        result += counter.applyAsLong(iterator.next());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Walks through the file's headers chain, without reading the records, and repairs it.
+   * <p>
+   * A file, which ends before its {@code END} marker, was not completely written,
+   * because of a crash during the compression. Its WAL files were not removed,
+   * so such file must be removed, otherwise its records are duplicated.
+   * <p>
+   * A bad header is reported to the corruption handler, and the file is truncated
+   * till that header, if the handler tells to skip the rest of the file.
+   * <p>
+   * The records' checksums are verified too, unless the verification mode is
+   * {@link ChecksumVerification#SAMPLE}. A record with a wrong checksum is reported
+   * to the corruption handler and is jumped over, as a removed one, or the exception
+   * is rethrown, if the handler returns {@code false}.
+   * <p>
+   * The method touches the file only, so it is safe to run it for different files in parallel.
+   *
+   * @return {@code false} if the file is incomplete and must be removed
+   */
+  @SneakyThrows
+  @SuppressWarnings({
+      "PMD.AvoidInstantiatingObjectsInLoops",
+      "PMD.CyclomaticComplexity"
+  })
+  boolean recover (Path file) {
+    val header = new RecordHeader(compactFormat);
+    try (val channel = FileChannel.open(file, READ, WRITE)) {
+      val size = channel.size();
+      long position = 0;
+      do {
+        if (position >= size) {
+          return false;
+        }
+        channel.position(position);
+        header.readFrom(channel);
+        if (!header.isComplete()) {
+          return false;
+        }
+        val marker = header.getMarker();
+        val value = header.getValue();
+        val next = position + header.size() + header.getLength();
+        if (marker == RecordHeader.Marker.END && value == 0) {
+          return true;
+        } else if (marker == RecordHeader.Marker.JUMP && value > position && value <= size) {
+          position = value;
+        } else if (isRecordMarker(marker) && header.getLength() > 0) {
+          if (next > size) {
+            return false;
+          }
+          if (checksumVerification != ChecksumVerification.SAMPLE && !header.verify(channel)) {
+            val exception = new CorruptedDataException(file, position, "Record's checksum mismatch");
+            if (!corruptionHandler.apply(exception)) {
+              // the handler stops the reading, the file stays as is
+              throw exception;
+            }
+            jumpOverRecord(file, channel, header, position, next);
+          }
+          position = next;
+        } else if (marker == RecordHeader.Marker.REMOVED && header.getLength() > 0 && next <= size) {
+          position = next;
+        } else {
+          val exception = new CorruptedDataException(file, position);
+          if (corruptionHandler.apply(exception)) {
+            channel.position(position);
+            header.writeEnd(channel);
+            channel.truncate(channel.position());
+            forget(file);
+          }
+          return true;
+        }
+      } while (true);
+    }
+  }
+
   Collection<Path> getFiles () {
     return files.getFilesFromQueue();
   }
 
+  private boolean isRecordMarker (RecordHeader.Marker marker) {
+    return marker == RecordHeader.Marker.RECORD || marker == RecordHeader.Marker.CHECKED_RECORD;
+  }
+
+  /**
+   * Jumps over the record, which header starts from the {@code position}, the same way as a removed one.
+   */
+  @SneakyThrows
+  private void jumpOverRecord (Path file, FileChannel channel, RecordHeader header, long position, long next) {
+    header.remove(channel, position, next);
+    try (val index = OffsetIndex.open(file)) {
+      if (index != null) {
+        index.markRemoved(position);
+      }
+    }
+    removed(file, 1);
+    dead(file, next - position);
+  }
+
+  void remove (Collection<Path> paths) {
+    if (paths.contains(headFile)) {
+      closeHead();
+    }
+    paths.forEach(this::forget);
+    paths.forEach(readers::remove);
+    files.remove(paths);
+  }
+
   @SneakyThrows
   long diskSize () {
     long result = 0;
@@ -173,77 +520,391 @@ class CompressedFiles implements Iterable<WalContent>, AutoCloseable {
     return result;
   }
 
-  private int readTo (Bytes buffer, RecordReader reader) {
-    val writerIndex = buffer.writerIndex();
-    val readerIndex = buffer.readerIndex();
+  /**
+   * Returns the cached {@code file}'s dead bytes, or {@code -1} if the file is corrupted.
+   */
+  @SneakyThrows
+  private long deadBytes (Path file) {
+    val cached = deadBytes.get(file);
+    if (cached != null) {
+      return cached;
+    }
+    val live = liveBytes(file);
+    if (live < 0) {
+      return -1;
+    }
+    val result = Files.size(file) - live;
+    deadBytes.put(file, result);
+    return result;
+  }
+
+  /**
+   * Returns the size of the live records with their headers, plus the end's header
+   * and the head slot (if the first live record is compact, see {@link #rewrite(Path)}),
+   * or {@code -1} if the file is corrupted.
+   */
+  @SneakyThrows
+  private long liveBytes (Path file) {
+    long result = 0;
+    val header = new RecordHeader();
+    try (val channel = FileChannel.open(file, READ)) {
+      do {
+        header.readFrom(channel);
+        if (header.isEnd()) {
+          return result + header.size();
+        } else if (header.isJump()) {
+          channel.position(header.getValue());
+        } else if (header.isRecord()) {
+          if (result == 0 && header.isCompact()) {
+            result += RecordHeader.BYTES;
+          }
+          result += header.size() + header.getLength();
+          channel.position(channel.position() + header.getLength());
+        } else if (header.isRemoved()) {
+          channel.position(channel.position() + header.getLength());
+        } else {
+          return -1;
+        }
+      } while (true);
+    }
+  }
+
+  @SneakyThrows
+  private void rewrite (Path file) {
+    val fileName = String.valueOf(file.getFileName());
+    val compacted = file.resolveSibling(fileName + ".compacting");
+    val offsets = LongStream.builder();
+    val header = new RecordHeader(compactFormat);
+    try (val source = FileChannel.open(file, READ);
+         val destination = FileChannel.open(compacted, CREATE, TRUNCATE_EXISTING, WRITE)) {
+
+      do {
+        header.skipJumps(source);
+        if (!header.isRecord()) {
+          break;
+        }
+        val length = header.getLength();
+        if (destination.position() == 0 && header.isCompact()) {
+          // the jumps from the file's beginning don't fit into the compact header
+          header.writeJump(destination, 0, RecordHeader.BYTES);
+          destination.position(RecordHeader.BYTES);
+        }
+        offsets.add(destination.position());
+        header.writeTo(destination);
+        val position = source.position();
+        long transferred = 0;
+        while (transferred < length) {
+          transferred += source.transferTo(position + transferred, length - transferred, destination);
+        }
+        source.position(position + length);
+      } while (true);
+      header.writeEnd(destination);
+    }
+    Files.move(compacted, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    // the old index is stale now, because of the file's size
+    if (offsetIndex || Files.exists(OffsetIndex.pathOf(file))) {
+      OffsetIndex.write(file, offsets.build().toArray());
+    }
+  }
+
+  long count (Path file) {
+    return liveCounts.computeIfAbsent(file, this::countRecords);
+  }
+
+  @SneakyThrows
+  private long countRecords (Path file) {
+    try (val index = OffsetIndex.open(file)) {
+      if (index != null) {
+        return index.liveCount(firstLiveOffset(file));
+      }
+    }
+    long result = 0;
+    try (val iterator = new CompressedFileIteratorSingleFile()) {
+      iterator.init(file);
+      while (iterator.hasNext()) {
+        iterator.next();
+        result++;
+      }
+    }
+    return result;
+  }
+
+  @SneakyThrows
+  private WalContent readContent (Path file, long offset) {
+    val header = new RecordHeader();
+    try (val channel = FileChannel.open(file, READ)) {
+      channel.position(offset);
+      header.readFrom(channel);
+    }
+    return WalContent.builder()
+        .file(file)
+        .offset(offset + header.size())
+        .length(header.getLength())
+        .checksumPosition(header.getChecksumPosition())
+        .build();
+  }
+
+  /**
+   * Returns the {@code number}'s live record header offset in the file, or {@code -1}.
+   */
+  @SneakyThrows
+  private long liveOffset (Path file, long number) {
+    try (val index = OffsetIndex.open(file)) {
+      if (index != null) {
+        return index.liveOffset(firstLiveOffset(file), number);
+      }
+    }
+    try (val iterator = new CompressedFileIteratorSingleFile()) {
+      iterator.init(file);
+      long current = 0;
+      while (iterator.hasNext()) {
+        iterator.next();
+        if (current == number) {
+          return iterator.getLastReturnedHeaderOffset();
+        }
+        current++;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the offset, before which all the records are consumed.
+   */
+  @SneakyThrows
+  private long firstLiveOffset (Path file) {
+    val header = new RecordHeader();
+    try (val channel = FileChannel.open(file, READ)) {
+      header.readFrom(channel);
+    }
+    return header.isJump()
+           ? header.getValue()
+           : 0;
+  }
+
+  private int peekRecord (FileChannel channel, RecordHeader header, Bytes buffer) {
+    val length = header.getLength();
+    if (!buffer.isWritable(length)) {
+      val newCapacity = buffer.writerIndex() + length;
+      buffer.capacity(newCapacity);
+    }
+    return ChannelBytesUtils.read(channel, buffer, length);
+  }
+
+  private int pollRecord (FileChannel channel, RecordHeader header, Bytes buffer) {
+    val result = peekRecord(channel, header, buffer);
+    jumpToCurrentPosition(channel, header);
+    return result;
+  }
+
+  @SneakyThrows
+  private int skipRecord (FileChannel channel, RecordHeader header) {
+    val length = header.getLength();
+    channel.position(channel.position() + length);
+    jumpToCurrentPosition(channel, header);
+    return length;
+  }
+
+  @SneakyThrows
+  private FileChannel openHead (Path file) {
+    if (!file.equals(headFile) || headChannel == null || !headChannel.isOpen()) {
+      closeHead();
+      headChannel = FileChannel.open(file, READ, WRITE);
+      headFile = file;
+    }
+    return headChannel;
+  }
+
+  @SneakyThrows
+  private void closeHead () {
+    if (headChannel != null) {
+      headChannel.close();
+    }
+    headChannel = null;
+    headFile = null;
+  }
+
+  private void removeFile (Path file) {
+    if (file.equals(headFile)) {
+      closeHead();
+    }
+    forget(file);
+    readers.remove(file);
+    files.remove(file);
+  }
+
+  /**
+   * Adds the new {@code file}'s records count to the cached counts.
+   */
+  private void added (Path file, long count) {
+    liveCounts.put(file, count);
+    if (totalCount >= 0) {
+      totalCount += count;
+    }
+  }
+
+  /**
+   * Subtracts the removed or the read records from the {@code file}'s cached counts.
+   */
+  private void removed (Path file, long count) {
+    if (liveCounts.computeIfPresent(file, (key, value) -> value - count) == null) {
+      totalCount = -1;
+    } else if (totalCount >= 0) {
+      totalCount -= count;
+    }
+  }
+
+  /**
+   * Adds the removed or the read record's bytes to the {@code file}'s cached dead bytes.
+   */
+  private void dead (Path file, long bytes) {
+    deadBytes.computeIfPresent(file, (key, value) -> value + bytes);
+  }
+
+  /**
+   * Drops the removed or the changed {@code file}'s cached counts.
+   */
+  private void forget (Path file) {
+    deadBytes.remove(file);
+    val count = liveCounts.remove(file);
+    if (count == null) {
+      totalCount = -1;
+    } else if (totalCount >= 0) {
+      totalCount -= count;
+    }
+  }
+
+  @SneakyThrows
+  private void jumpToCurrentPosition (FileChannel channel, RecordHeader header) {
+    val position = channel.position();
+    if (!header.skipJumps(channel).isEnd()) {
+      // jump from the begining of file to the current position:
+      header.writeJump(channel, 0, position);
+    }
+  }
+
+  private int readTo (Bytes buffer, int maxLength, RecordReader reader, boolean consume) {
+    // the buffer is null, when the record is skipped without reading
+    val writerIndex = buffer == null
+                      ? 0
+                      : buffer.writerIndex();
+    val readerIndex = buffer == null
+                      ? 0
+                      : buffer.readerIndex();
 
-    RecordHeader header = new RecordHeader();
     do {
       Path file = files.peek();
       if (file == null) {
         return 0;
       }
 
-      val result = readTo(file, header, buffer, reader);
+      val result = readTo(file, readHeader, buffer, maxLength, reader, consume);
+      if (result.hesReaded() && consume) {
+        removed(file, 1);
+        dead(file, result.getRecordBytes());
+      }
       if (result.isRemoveFile()) {
-        files.remove(file);
+        removeFile(file);
       }
       if (result.hesReaded()) {
         return (int) result.getReaded();
       }
 
-      buffer.writerIndex(writerIndex);
-      buffer.readerIndex(readerIndex);
+      if (buffer != null) {
+        buffer.writerIndex(writerIndex);
+        buffer.readerIndex(readerIndex);
+      }
     } while (true);
   }
 
   @SneakyThrows
-  private ReadResult readTo (Path file, RecordHeader header, Bytes buffer, RecordReader reader) {
+  private ReadResult readTo (Path file, RecordHeader header, Bytes buffer, int maxLength,
+                             RecordReader reader, boolean consume) {
     FileChannel channel = null;
     try {
-      channel = FileChannel.open(file, READ, WRITE);
+      channel = openHead(file);
+      channel.position(0);
 
       header.skipJumps(channel);
       if (header.isEnd()) {
-        return ReadResult.endOfFile();
+        return readResult.endOfFile();
+      }
+      if (header.getLength() > maxLength) {
+        // the oversized record is not read and stays in the file as is
+        throw new BufferOverflowException();
       }
 
+      if (buffer != null && shouldVerify(header)) {
+        return readVerified(file, channel, header, buffer, consume);
+      }
+      val recordBytes = header.size() + header.getLength();
       val readed = reader.read(channel, header, buffer);
       boolean shouldRemoveFile = readed == 0 || header.isEnd();
-      return new ReadResult(readed, shouldRemoveFile);
+      return readResult.set(readed, shouldRemoveFile).record(recordBytes);
+    } catch (CorruptedDataException ex) {
+      // the handler has already rejected the mismatched record
+      closeHead();
+      throw ex;
+    } catch (BufferOverflowException ex) {
+      throw ex;
     } catch (Exception ex) {
-      val offset = channel == null
+      val offset = channel == null || !channel.isOpen()
                    ? 0
                    : channel.position();
 
+      closeHead();
       val exception = new CorruptedDataException(file, offset, ex);
       return corruptionHandler.apply(exception)
-             ? ReadResult.endOfFile()
-             : ReadResult.continueReading(offset);
-    } finally {
-      if (channel != null) {
-        channel.close();
-      }
+             ? readResult.endOfFile()
+             : readResult.continueReading(offset);
     }
   }
 
+  /**
+   * Reads the record without consuming it, verifies its checksum and consumes it only after that,
+   * so the rejected record stays in the file as is.
+   */
   @SneakyThrows
-  private long getSizeWithHeader (Path path) {
-    return RecordHeader.BYTES + Files.size(path);
+  private ReadResult readVerified (Path file, FileChannel channel, RecordHeader header, Bytes buffer, boolean consume) {
+    val position = header.getPosition();
+    val next = channel.position() + header.getLength();
+    val checksum = header.getChecksum();
+    val readed = peekRecord(channel, header, buffer);
+    if (header.checksum(buffer, buffer.writerIndex() - readed, readed) == checksum) {
+      if (consume) {
+        jumpToCurrentPosition(channel, header);
+      }
+      return readResult.set(readed, readed == 0 || header.isEnd()).record(next - position);
+    }
+
+    buffer.writerIndex(buffer.writerIndex() - readed);
+    val exception = new CorruptedDataException(file, position, "Record's checksum mismatch");
+    if (!corruptionHandler.apply(exception)) {
+      throw exception;
+    }
+    jumpOverRecord(file, channel, header, position, next);
+    // the next record is read from the same file, if there is any
+    channel.position(next);
+    return readResult.set(0, header.skipJumps(channel).isEnd());
   }
 
-  @SneakyThrows
-  @SuppressWarnings("PMD.UnusedPrivateMethod")
-  private long allocate (Path path, long size) {
-    int allocated = 0;
-    try (val out = Files.newOutputStream(path, CREATE, WRITE)) {
-      while (allocated < size) {
-        val bufferSize = (int) Math.min(CLEAR.length, size - allocated);
-        out.write(CLEAR, 0, bufferSize);
-        allocated += bufferSize;
-      }
+  private boolean shouldVerify (RecordHeader header) {
+    if (!header.isChecked()) {
+      return false;
     }
-    return allocated;
+    switch (checksumVerification) {
+    case ALWAYS:
+      return true;
+    case SAMPLE:
+      return readRecords++ % CHECKSUM_SAMPLE_RATE == 0;
+    default:
+      return false;
+    }
+  }
+
+  @SneakyThrows
+  private long getSizeWithHeader (Path path) {
+    return RecordHeader.BYTES + Files.size(path);
   }
 
   @FunctionalInterface
@@ -252,21 +913,41 @@ class CompressedFiles implements Iterable<WalContent>, AutoCloseable {
     int read (FileChannel channel, RecordHeader header, Bytes buffer) throws IOException;
   }
 
-  @Value
-  @AllArgsConstructor
+  /**
+   * The mutable read's result, one instance is reused by all the reads.
+   */
+  @Getter
+  @FieldDefaults(level = PRIVATE)
   static class ReadResult {
 
-    static ReadResult endOfFile () {
-      return new ReadResult(0, true);
+    long readed;
+
+    boolean removeFile;
+
+    /**
+     * The read record's size with its header.
+     */
+    long recordBytes;
+
+    ReadResult set (long readedValue, boolean removeFileValue) {
+      readed = readedValue;
+      removeFile = removeFileValue;
+      recordBytes = 0;
+      return this;
     }
 
-    static ReadResult continueReading (long readed) {
-      return new ReadResult(readed, false);
+    ReadResult record (long bytes) {
+      recordBytes = bytes;
+      return this;
     }
 
-    long readed;
+    ReadResult endOfFile () {
+      return set(0, true);
+    }
 
-    boolean removeFile;
+    ReadResult continueReading (long readedValue) {
+      return set(readedValue, false);
+    }
 
     boolean hesReaded () {
       return readed > 0;
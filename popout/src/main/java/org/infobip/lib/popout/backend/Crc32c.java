@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static java.lang.invoke.MethodType.methodType;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.zip.Checksum;
+
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * The CRC32C (Castagnoli) checksum.
+ * <p>
+ * The JDK's intrinsified {@code java.util.zip.CRC32C} is used on Java 9+,
+ * and this table-based implementation - on Java 8. Both of them produce the same values,
+ * so the files are portable between the JVMs.
+ */
+@FieldDefaults(level = PRIVATE)
+final class Crc32c implements Checksum {
+
+  static final int POLYNOMIAL = 0x82F63B78; // reversed Castagnoli
+
+  static final int[] TABLE = createTable();
+
+  static final MethodHandle JDK_CONSTRUCTOR = findJdkConstructor();
+
+  /**
+   * Creates a new CRC32C checksum instance.
+   *
+   * @return the JDK's implementation if it is available, or the fallback one
+   */
+  @SneakyThrows
+  static Checksum create () {
+    return JDK_CONSTRUCTOR == null
+           ? new Crc32c()
+           : (Checksum) JDK_CONSTRUCTOR.invoke();
+  }
+
+  private static int[] createTable () {
+    int[] result = new int[256];
+    for (int index = 0; index < result.length; index++) {
+      int crc = index;
+      for (int bit = 0; bit < Byte.SIZE; bit++) {
+        crc = (crc & 1) == 0
+              ? crc >>> 1
+              : (crc >>> 1) ^ POLYNOMIAL;
+      }
+      result[index] = crc;
+    }
+    return result;
+  }
+
+  private static MethodHandle findJdkConstructor () {
+    try {
+      Class<?> type = Class.forName("java.util.zip.CRC32C");
+      return MethodHandles.publicLookup()
+          .findConstructor(type, methodType(void.class));
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+      return null;
+    }
+  }
+
+  int crc = 0xFFFFFFFF;
+
+  @Override
+  public void update (int value) {
+    crc = (crc >>> Byte.SIZE) ^ TABLE[(crc ^ value) & 0xFF];
+  }
+
+  @Override
+  public void update (byte[] bytes, int offset, int length) {
+    int result = crc;
+    for (int index = offset; index < offset + length; index++) {
+      result = (result >>> Byte.SIZE) ^ TABLE[(result ^ bytes[index]) & 0xFF];
+    }
+    crc = result;
+  }
+
+  @Override
+  public long getValue () {
+    return ~crc & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset () {
+    crc = 0xFFFFFFFF;
+  }
+}
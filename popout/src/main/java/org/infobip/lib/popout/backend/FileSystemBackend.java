@@ -17,10 +17,22 @@
 package org.infobip.lib.popout.backend;
 
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
 import static lombok.AccessLevel.PRIVATE;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import org.infobip.lib.popout.CompressedFilesConfig;
 import org.infobip.lib.popout.FileQueue;
@@ -30,22 +42,37 @@ import org.infobip.lib.popout.exception.CorruptedDataException;
 import io.appulse.utils.Bytes;
 import lombok.Builder;
 import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Synchronized;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
 /**
  * The umbrella class for WAL and compressed files, for effective working with them.
+ * <p>
+ * The compressed files with many removed or consumed records could be compacted
+ * in background, if the {@link CompressedFilesConfig}'s compaction interval is set.
+ * <p>
+ * During the startup, the compressed files are validated (the incomplete and corrupted
+ * tails are cut off) and the records are counted by several threads, a file per task,
+ * so the recovery of a big backlog is bounded by the disk's throughput, not by one thread.
  *
  * @since 2.0.1
  * @author Artem Labazin
  */
+@Slf4j
 @FieldDefaults(level = PRIVATE, makeFinal = true)
-public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
+public class FileSystemBackend implements QueueBackend {
 
   WalFiles walFiles;
 
   CompressedFiles compressedFiles;
 
+  ScheduledExecutorService compactor;
+
+  ForkJoinPool recoveryPool;
+
   /**
    * Constructor.
    *
@@ -56,13 +83,24 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
    * @param compressedConfig the configuration for compressed files
    *
    * @param restoreFromDisk the flag which tells should it restores from disk or not
+   *
+   * @param corruptionHandler the corrupted data handler
+   *
+   * @param manifest the flag which tells should it keep the files catalog in manifest files or not
+   *
+   * @param recoveryParallelism the amount of threads, which scan the files during the startup
+   *
+   * @param compactFormat the flag which tells should it write the compressed records headers in the compact format
    */
   @Builder
   public FileSystemBackend (@NonNull String queueName,
                             @NonNull WalFilesConfig walConfig,
                             @NonNull CompressedFilesConfig compressedConfig,
                             Boolean restoreFromDisk,
-                            Function<CorruptedDataException, Boolean> corruptionHandler
+                            Function<CorruptedDataException, Boolean> corruptionHandler,
+                            boolean manifest,
+                            Integer recoveryParallelism,
+                            boolean compactFormat
   ) {
     val restoreFromDiskValue = ofNullable(restoreFromDisk)
         .orElse(Boolean.TRUE);
@@ -75,6 +113,7 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
         .restoreFromDisk(restoreFromDiskValue)
         .config(walConfig)
         .corruptionHandler(corruptionHandlerValue)
+        .manifest(manifest)
         .build();
 
     compressedFiles = CompressedFiles.builder()
@@ -82,7 +121,37 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
         .restoreFromDisk(restoreFromDiskValue)
         .config(compressedConfig)
         .corruptionHandler(corruptionHandlerValue)
+        .manifest(manifest)
+        .compactFormat(compactFormat)
         .build();
+
+    val recoveryParallelismValue = ofNullable(recoveryParallelism)
+        .orElseGet(() -> Runtime.getRuntime().availableProcessors());
+
+    recoveryPool = recoveryParallelismValue > 1
+                   ? new ForkJoinPool(recoveryParallelismValue, pool -> {
+                     val thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                     thread.setName("popout-recovery-" + queueName + '-' + thread.getPoolIndex());
+                     return thread;
+                   }, null, false)
+                   : null;
+
+    if (restoreFromDiskValue) {
+      recover();
+    }
+
+    val compactionInterval = compressedConfig.getCompactionInterval();
+    if (compactionInterval == null) {
+      compactor = null;
+    } else {
+      compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        val thread = new Thread(runnable, "popout-compactor-" + queueName);
+        thread.setDaemon(true);
+        return thread;
+      });
+      val intervalNanos = compactionInterval.toNanos();
+      compactor.scheduleWithFixedDelay(this::compactSafely, intervalNanos, intervalNanos, NANOSECONDS);
+    }
   }
 
   /**
@@ -91,6 +160,8 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
    *
    * @param buffer byte array source to write
    */
+  @Override
+  @Synchronized
   public void write (@NonNull Bytes buffer) {
     walFiles.write(buffer);
 
@@ -100,12 +171,36 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
   }
 
   /**
-   * Merges all WAL files into one big compressed file.
+   * Streams the {@code writer}'s content to the next WAL file, without buffering it in memory.
+   * If the wal files limit exceeded - merge them into a new compress file and remove.
+   *
+   * @param writer the record's content writer
+   */
+  @Override
+  @Synchronized
+  public void write (@NonNull RecordWriter writer) {
+    walFiles.write(writer);
+
+    while (walFiles.isLimitExceeded()) {
+      compress();
+    }
+  }
+
+  /**
+   * Merges all WAL files into the compressed files, each of them is bounded by the max size.
    */
+  @Override
+  @Synchronized
   public void compress () {
-    val files = walFiles.getFiles();
-    val result = compressedFiles.compress(files);
-    walFiles.remove(result.getCompressed());
+    Collection<Path> files = walFiles.getFiles();
+    while (!files.isEmpty()) {
+      val result = compressedFiles.compress(files);
+      if (result.getCompressed().isEmpty()) {
+        break;
+      }
+      walFiles.remove(result.getCompressed());
+      files = result.getRemaining();
+    }
   }
 
   /**
@@ -115,11 +210,29 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
    *
    * @return number of written bytes into {@code buffer}
    */
+  @Override
+  @Synchronized
   public int pollTo (@NonNull Bytes buffer) {
-    val readed = compressedFiles.pollContentPart(buffer);
+    return pollTo(buffer, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Retrieves and removes the head of the next WAL content into the {@code buffer}, if it fits
+   * the {@code maxLength}. The head's length is checked by its header, before the content is read.
+   *
+   * @param buffer the destination bytes buffer, where content writes
+   *
+   * @param maxLength the max record's length, which the {@code buffer} can take
+   *
+   * @return number of written bytes into {@code buffer}
+   */
+  @Override
+  @Synchronized
+  public int pollTo (@NonNull Bytes buffer, int maxLength) {
+    val readed = compressedFiles.pollContentPart(buffer, maxLength);
     return readed > 0
            ? readed
-           : walFiles.pollTo(buffer);
+           : walFiles.pollTo(buffer, maxLength);
   }
 
   /**
@@ -129,11 +242,118 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
    *
    * @return number of written bytes into {@code buffer}
    */
+  @Override
+  @Synchronized
   public int peakTo (@NonNull Bytes buffer) {
-    val readed = compressedFiles.peekContentPart(buffer);
+    return peakTo(buffer, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Retrieves, but does not remove the next WAL content into the {@code buffer}, if it fits
+   * the {@code maxLength}. The head's length is checked by its header, before the content is read.
+   *
+   * @param buffer the destination bytes buffer
+   *
+   * @param maxLength the max record's length, which the {@code buffer} can take
+   *
+   * @return number of written bytes into {@code buffer}
+   */
+  @Override
+  @Synchronized
+  public int peakTo (@NonNull Bytes buffer, int maxLength) {
+    val readed = compressedFiles.peekContentPart(buffer, maxLength);
     return readed > 0
            ? readed
-           : walFiles.peakTo(buffer);
+           : walFiles.peakTo(buffer, maxLength);
+  }
+
+  /**
+   * Removes the head of the next WAL content without reading it.
+   *
+   * @return number of skipped content bytes
+   */
+  @Override
+  @Synchronized
+  public int skip () {
+    val skipped = compressedFiles.skipContentPart();
+    return skipped > 0
+           ? skipped
+           : walFiles.skip();
+  }
+
+  /**
+   * Counts the records. The compressed files' offset indexes are used, if they exist.
+   *
+   * @return the records count
+   */
+  @Override
+  @Synchronized
+  public long count () {
+    return sum(scan(compressedFiles.getFiles(), compressedFiles::count)) + walFiles.count();
+  }
+
+  /**
+   * Sums the {@code counter}'s results for all the records. The files are scanned
+   * in parallel, so the {@code counter} must be thread safe.
+   *
+   * @param counter the record's elements counter
+   *
+   * @return the elements count
+   */
+  @Override
+  @Synchronized
+  public long count (@NonNull ToLongFunction<WalContent> counter) {
+    val compressed = scan(compressedFiles.getFiles(), file -> compressedFiles.count(file, counter));
+    val wals = scan(walFiles.getFiles(), file -> counter.applyAsLong(walFiles.content(file)));
+    return sum(compressed) + sum(wals);
+  }
+
+  /**
+   * Returns the record by its number, without removing it.
+   * The compressed files' offset indexes are used, if they exist.
+   *
+   * @param number the record's number, starting from {@code 0} (the head)
+   *
+   * @return the record's content, or {@code null} if there are fewer records
+   */
+  @Override
+  @Synchronized
+  public WalContent get (long number) {
+    val result = compressedFiles.get(number);
+    return result == null
+           ? walFiles.get(number - compressedFiles.count())
+           : result;
+  }
+
+  /**
+   * Opens the record by its number under the backend's lock, so the compaction
+   * doesn't rewrite the record's file meanwhile.
+   *
+   * @param number the record's number, starting from {@code 0} (the head)
+   *
+   * @param consumer the action what to do in the open record
+   *
+   * @return {@code true} if the record exists, or {@code false} if there are fewer records
+   */
+  @Override
+  @Synchronized
+  public boolean open (long number, @NonNull WalContent.WalContentConsumer consumer) {
+    return QueueBackend.super.open(number, consumer);
+  }
+
+  /**
+   * Removes the {@code count} head records without reading them.
+   * The compressed files' offset indexes are used, if they exist.
+   *
+   * @param count the records amount to skip
+   *
+   * @return the skipped records amount
+   */
+  @Override
+  @Synchronized
+  public long skip (long count) {
+    val skipped = compressedFiles.skip(count);
+    return skipped + walFiles.skip(count - skipped);
   }
 
   /**
@@ -141,21 +361,118 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
    *
    * @return number of bytes, the backend takes on the disk
    */
+  @Override
+  @Synchronized
   public long diskSize () {
     return walFiles.diskSize() + compressedFiles.diskSize();
   }
 
+  /**
+   * Rewrites the compressed files with many removed or consumed records
+   * (see the {@link CompressedFilesConfig}'s compaction threshold) into the dense ones,
+   * so the readers don't walk through the dead data.
+   * <p>
+   * The files, which the iterators read now, are skipped, because the iterators hold
+   * the records' offsets in them. An iterator releases its file, when it goes to the next one
+   * or it is exhausted, so an abandoned iterator holds one file only, till the file is consumed.
+   *
+   * @return the amount of the reclaimed bytes
+   */
+  @Synchronized
+  public long compact () {
+    return compressedFiles.compact();
+  }
+
+  /**
+   * Returns the iterator over the records. It moves between the files under
+   * the backend's lock, so the compaction doesn't replace the file the iterator starts to read.
+   *
+   * @return the records iterator
+   */
   @Override
+  @Synchronized
   public Iterator<WalContent> iterator () {
     return new FileSystemBackendIterator();
   }
 
+  @Synchronized
+  final boolean hasNext (Iterator<WalContent> iterator) {
+    return iterator.hasNext();
+  }
+
+  /**
+   * Removes the iterator's last returned record under the backend's lock,
+   * because the removal changes the cached records counts.
+   */
+  @Synchronized
+  final void remove (Iterator<WalContent> iterator) {
+    iterator.remove();
+  }
+
   @Override
+  @SneakyThrows
   public void close () {
+    if (compactor != null) {
+      compactor.shutdown();
+      compactor.awaitTermination(1, MINUTES);
+    }
+    if (recoveryPool != null) {
+      recoveryPool.shutdown();
+    }
     walFiles.close();
     compressedFiles.close();
   }
 
+  private void recover () {
+    val files = new ArrayList<Path>(compressedFiles.getFiles());
+    val recovered = scan(files, compressedFiles::recover);
+
+    val incomplete = new ArrayList<Path>();
+    for (int index = 0; index < files.size(); index++) {
+      if (!recovered.get(index)) {
+        log.warn("Compressed file {} is incomplete, its records are still in the WAL files", files.get(index));
+        incomplete.add(files.get(index));
+      }
+    }
+    compressedFiles.remove(incomplete);
+  }
+
+  /**
+   * Applies the {@code task} to each file in the recovery pool
+   * and returns the results in the files order.
+   */
+  private <R> List<R> scan (Collection<Path> files, Function<Path, R> task) {
+    if (recoveryPool == null || files.size() < 2) {
+      return files.stream()
+          .map(task)
+          .collect(toList());
+    }
+    val tasks = files.stream()
+        .map(file -> recoveryPool.submit(() -> task.apply(file)))
+        .collect(toList());
+
+    return tasks.stream()
+        .map(ForkJoinTask::join)
+        .collect(toList());
+  }
+
+  private long sum (List<Long> values) {
+    long result = 0;
+    for (val value : values) {
+      result += value;
+    }
+    return result;
+  }
+
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private void compactSafely () {
+    try {
+      compact();
+    } catch (Exception ex) {
+      log.error("Compressed files compaction error", ex);
+    }
+  }
+
   @FieldDefaults(level = PRIVATE)
   private class FileSystemBackendIterator implements Iterator<WalContent> {
 
@@ -165,9 +482,11 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
 
     Iterator<WalContent> current = compressed;
 
+    Iterator<WalContent> lastReturned;
+
     @Override
     public boolean hasNext () {
-      if (current.hasNext()) {
+      if (FileSystemBackend.this.hasNext(current)) {
         return true;
       } else if (wals.hasNext()) {
         current = wals;
@@ -178,12 +497,18 @@ public class FileSystemBackend implements Iterable<WalContent>, AutoCloseable {
 
     @Override
     public WalContent next () {
-      return current.next();
+      val result = current.next();
+      lastReturned = current;
+      return result;
     }
 
     @Override
     public void remove () {
-      current.remove();
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      FileSystemBackend.this.remove(lastReturned);
+      lastReturned = null;
     }
   }
 }
@@ -16,37 +16,55 @@
 
 package org.infobip.lib.popout.backend;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Comparator.comparing;
 import static java.util.Locale.ENGLISH;
 import static java.util.Optional.of;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 import static lombok.AccessLevel.PRIVATE;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.infobip.lib.popout.ChannelBytesUtils;
+
+import io.appulse.utils.Bytes;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
+@Slf4j
 @FieldDefaults(level = PRIVATE, makeFinal = true)
 final class FilesManager implements AutoCloseable {
 
+  static final String TEMPORARY_SUFFIX = ".tmp";
+
   AtomicInteger index;
 
-  Queue<Path> queue;
+  Set<Path> queue;
 
   Path folder;
 
@@ -58,9 +76,29 @@ final class FilesManager implements AutoCloseable {
 
   Pattern fileIndexPattern;
 
+  SegmentPool segmentPool;
+
+  String sidecarSuffix;
+
+  Manifest manifest;
+
+  /**
+   * The cached first file, so the frequent {@link #peek()} doesn't create the set's iterator.
+   */
+  @NonFinal
+  Path head;
+
   @Builder
-  FilesManager (@NonNull Path folder, String prefix, String suffix) {
+  FilesManager (@NonNull Path folder,
+                String prefix,
+                String suffix,
+                SegmentPool segmentPool,
+                String sidecarSuffix,
+                boolean manifest
+  ) {
     index = new AtomicInteger(0);
+    this.segmentPool = segmentPool;
+    this.sidecarSuffix = sidecarSuffix;
 
     this.folder = folder;
     this.prefix = ofNullable(prefix)
@@ -76,10 +114,26 @@ final class FilesManager implements AutoCloseable {
     val fileIndexRegex = String.format(ENGLISH, "^%s(?<index>\\d+)%s$", this.prefix, this.suffix);
     fileIndexPattern = Pattern.compile(fileIndexRegex);
 
-    queue = getFilesFromFileSystem();
-    if (!queue.isEmpty()) {
-      val array = queue.toArray(new Path[0]);
-      Path lastPath = array[array.length - 1];
+    removeTemporaryFiles();
+
+    if (manifest) {
+      val manifestFileName = this.prefix + this.suffix.replaceFirst("^\\.", "") + ".manifest";
+      this.manifest = new Manifest(folder.resolve(manifestFileName));
+      queue = this.manifest.exists()
+              ? getFilesFromManifest()
+              : new LinkedHashSet<>(getFilesFromFileSystem());
+      // cuts off the deleted files' events and a torn event, if any
+      this.manifest.rewrite(getIndexes());
+    } else {
+      this.manifest = null;
+      queue = new LinkedHashSet<>(getFilesFromFileSystem());
+    }
+
+    Path lastPath = null;
+    for (val path : queue) {
+      lastPath = path;
+    }
+    if (lastPath != null) {
       val lastPathIndex = getIndex(lastPath);
       index.set(lastPathIndex + 1);
     }
@@ -88,12 +142,53 @@ final class FilesManager implements AutoCloseable {
   @Override
   public void close () {
     queue.clear();
+    head = null;
+    if (segmentPool != null) {
+      segmentPool.clear();
+    }
+    if (manifest != null) {
+      manifest.close();
+    }
   }
 
-  Queue<Path> getFilesFromQueue () {
+  Collection<Path> getFilesFromQueue () {
     return queue;
   }
 
+  /**
+   * Reconciles the manifest's files with the folder's names listing, without the files' stats.
+   * The deleted files are dropped, and the files, which are not in the manifest
+   * (because of a crash between the file's write and its event), are adopted
+   * after the manifest's ones.
+   */
+  @SneakyThrows
+  Set<Path> getFilesFromManifest () {
+    val present = new HashSet<Path>();
+    val filter = (DirectoryStream.Filter<Path>) path ->
+        fileNamePattern.matcher(String.valueOf(path.getFileName())).matches();
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, filter)) {
+      for (val file : files) {
+        present.add(file);
+      }
+    }
+
+    val result = new LinkedHashSet<Path>();
+    for (val fileIndex : manifest.read()) {
+      val file = getFile(fileIndex);
+      if (present.remove(file)) {
+        result.add(file);
+      }
+    }
+    if (!present.isEmpty()) {
+      log.warn("The files {} are not in the manifest {}, they are added to the queue", present, manifest);
+      present.stream()
+          .sorted(comparing(this::getIndex))
+          .forEach(result::add);
+    }
+    return result;
+  }
+
   @SneakyThrows
   Queue<Path> getFilesFromFileSystem () {
     val file = folder.toFile();
@@ -149,30 +244,91 @@ final class FilesManager implements AutoCloseable {
 
   @SneakyThrows
   Path createNextFile () {
-    Path result;
-    do {
-      val nextIndex = index.getAndIncrement();
-      result = getFile(nextIndex);
-    } while (Files.exists(result));
-
+    val result = nextFile();
+    if (manifest != null) {
+      manifest.created(getIndex(result));
+    }
     Files.createFile(result);
     queue.add(result);
     return result;
   }
 
+  /**
+   * Creates the next file with the {@code content}. If there is a segment pool,
+   * the content is written to a spare file, which is renamed to the next file after that.
+   * The manifest gets the file, when it is already written.
+   */
+  Path writeNextFile (@NonNull Bytes content) {
+    val result = nextFile();
+    if (segmentPool == null) {
+      ChannelBytesUtils.write(result, content);
+    } else {
+      segmentPool.take(result, content);
+    }
+    if (manifest != null) {
+      manifest.created(getIndex(result));
+    }
+    queue.add(result);
+    return result;
+  }
+
+  /**
+   * Creates the next file with the content, streamed by the {@code writer}.
+   * The content is written to a temporary file first, which is renamed
+   * to the next file after that, so a torn write is never in the queue.
+   * The temporary file, which is left after a crash, is removed on the next start.
+   */
+  @SneakyThrows
+  Path writeNextFile (@NonNull QueueBackend.RecordWriter writer) {
+    val result = nextFile();
+    val temporary = result.resolveSibling(result.getFileName() + TEMPORARY_SUFFIX);
+    try {
+      try (val channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+        writer.write(channel);
+      }
+      Files.move(temporary, result, ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    if (manifest != null) {
+      manifest.created(getIndex(result));
+    }
+    queue.add(result);
+    return result;
+  }
+
   Path poll () {
-    return queue.poll();
+    val result = peek();
+    if (result != null) {
+      queue.remove(result);
+      head = null;
+    }
+    return result;
   }
 
   Path peek () {
-    return queue.peek();
+    if (head == null && !queue.isEmpty()) {
+      head = queue.iterator().next();
+    }
+    return head;
   }
 
   @SneakyThrows
   void remove (@NonNull Path... paths) {
     for (val path : paths) {
-      Files.deleteIfExists(path);
+      if (segmentPool == null || !segmentPool.recycle(path)) {
+        Files.deleteIfExists(path);
+      }
+      if (sidecarSuffix != null) {
+        Files.deleteIfExists(path.resolveSibling(path.getFileName() + sidecarSuffix));
+      }
       queue.remove(path);
+      if (path.equals(head)) {
+        head = null;
+      }
+      if (manifest != null && manifest.deleted(getIndex(path), queue.size())) {
+        manifest.rewrite(getIndexes());
+      }
     }
   }
 
@@ -181,8 +337,54 @@ final class FilesManager implements AutoCloseable {
     remove(array);
   }
 
+  /**
+   * Removes the temporary files of the interrupted writes.
+   */
+  @SneakyThrows
+  private void removeTemporaryFiles () {
+    val temporaryFileNameRegex = String.format(ENGLISH, "^%s\\d+%s%s$", prefix, suffix, Pattern.quote(TEMPORARY_SUFFIX));
+    val temporaryFileNamePattern = Pattern.compile(temporaryFileNameRegex);
+    val filter = (DirectoryStream.Filter<Path>) path ->
+        temporaryFileNamePattern.matcher(String.valueOf(path.getFileName())).matches();
+
+    try (DirectoryStream<Path> temporaryFiles = Files.newDirectoryStream(folder, filter)) {
+      for (val file : temporaryFiles) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private Path nextFile () {
+    Path result;
+    do {
+      val nextIndex = index.getAndIncrement();
+      result = getFile(nextIndex);
+    } while (Files.exists(result));
+    return result;
+  }
+
   void clear () {
     remove(queue);
     index.set(0);
+    if (segmentPool != null) {
+      segmentPool.clear();
+    }
+  }
+
+  /**
+   * Returns the segment pool's spare files size, if there is the pool.
+   *
+   * @return the amount of bytes, the spare files take on the disk
+   */
+  long sparesDiskSize () {
+    return segmentPool == null
+           ? 0
+           : segmentPool.diskSize();
+  }
+
+  private Collection<Integer> getIndexes () {
+    return queue.stream()
+        .map(this::getIndex)
+        .collect(toList());
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.BufferOverflowException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import io.appulse.utils.Bytes;
+import lombok.NonNull;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The {@link QueueBackend} implementation, which keeps the records in memory.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class InMemoryBackend implements QueueBackend {
+
+  Deque<byte[]> records = new ArrayDeque<>();
+
+  @Override
+  @Synchronized
+  public void write (@NonNull Bytes buffer) {
+    val record = new byte[buffer.readableBytes()];
+    buffer.readBytes(record);
+    records.add(record);
+  }
+
+  @Override
+  @Synchronized
+  public int pollTo (@NonNull Bytes buffer) {
+    return pollTo(buffer, Integer.MAX_VALUE);
+  }
+
+  @Override
+  @Synchronized
+  public int pollTo (@NonNull Bytes buffer, int maxLength) {
+    val result = peakTo(buffer, maxLength);
+    records.poll();
+    return result;
+  }
+
+  @Override
+  @Synchronized
+  public int peakTo (@NonNull Bytes buffer) {
+    return peakTo(buffer, Integer.MAX_VALUE);
+  }
+
+  @Override
+  @Synchronized
+  public int peakTo (@NonNull Bytes buffer, int maxLength) {
+    val record = records.peek();
+    if (record == null) {
+      return 0;
+    }
+    if (record.length > maxLength) {
+      throw new BufferOverflowException();
+    }
+    buffer.writeNB(record);
+    return record.length;
+  }
+
+  @Override
+  @Synchronized
+  public int skip () {
+    val record = records.poll();
+    return record == null
+           ? 0
+           : record.length;
+  }
+
+  @Override
+  @Synchronized
+  public long count () {
+    return records.size();
+  }
+
+  @Override
+  public void compress () {
+    // no op, nothing to compact
+  }
+
+  @Override
+  public long diskSize () {
+    return 0;
+  }
+
+  @Override
+  public Iterator<WalContent> iterator () {
+    return new InMemoryBackendIterator();
+  }
+
+  @Override
+  @Synchronized
+  public void close () {
+    records.clear();
+  }
+
+  private class InMemoryBackendIterator implements Iterator<WalContent> {
+
+    Iterator<byte[]> iterator = records.iterator();
+
+    @Override
+    public boolean hasNext () {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public WalContent next () {
+      val record = iterator.next();
+      return WalContent.builder()
+          .offset(0)
+          .length(record.length)
+          .channelOpener(() -> new ByteArrayChannel(record))
+          .build();
+    }
+
+    @Override
+    public void remove () {
+      iterator.remove();
+    }
+  }
+}
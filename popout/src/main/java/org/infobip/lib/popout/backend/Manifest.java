@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import io.appulse.utils.ReadBytesUtils;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The append-only catalog of a queue's files, which is used at startup
+ * instead of the folder listing.
+ * <p>
+ * The manifest's format is:
+ * <pre>
+ * {[1B event: CREATE=1, DELETE=2][4B file index]}
+ * </pre>
+ * The {@code CREATE} event is appended after the file is written, and the {@code DELETE} event -
+ * after the file is deleted, so after a crash the manifest could list a not existent file,
+ * or miss the last written one. That is why the manifest's files are reconciled
+ * with the folder's names listing at startup. The manifest is rewritten with the live files only,
+ * when the amount of {@code DELETE} events becomes big enough.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+final class Manifest implements AutoCloseable {
+
+  static final byte CREATE_EVENT = 1;
+
+  static final byte DELETE_EVENT = 2;
+
+  static final int EVENT_BYTES = Byte.BYTES + Integer.BYTES;
+
+  static final int COMPACTION_THRESHOLD = 1024;
+
+  Path file;
+
+  ByteBuffer event;
+
+  @NonFinal
+  FileChannel channel;
+
+  @NonFinal
+  int deleted;
+
+  Manifest (@NonNull Path file) {
+    this.file = file;
+    event = ByteBuffer.allocate(EVENT_BYTES);
+  }
+
+  boolean exists () {
+    return Files.exists(file);
+  }
+
+  /**
+   * Replays the manifest's events.
+   *
+   * @return the live files indexes in their creation order
+   */
+  @SneakyThrows
+  Set<Integer> read () {
+    val result = new LinkedHashSet<Integer>();
+    try (val input = FileChannel.open(file, READ)) {
+      val buffer = ByteBuffer.allocate(EVENT_BYTES * 1024);
+      while (ReadBytesUtils.read(input, buffer) > 0) {
+        buffer.flip();
+        while (buffer.remaining() >= EVENT_BYTES) {
+          val type = buffer.get();
+          val index = buffer.getInt();
+          if (type == CREATE_EVENT) {
+            result.add(index);
+          } else if (type == DELETE_EVENT) {
+            result.remove(index);
+          }
+        }
+        // a torn event in the end is ignored
+        buffer.compact();
+      }
+    }
+    return result;
+  }
+
+  @SneakyThrows
+  void created (int index) {
+    append(CREATE_EVENT, index);
+  }
+
+  /**
+   * Appends the {@code DELETE} event.
+   *
+   * @param index the deleted file's index
+   *
+   * @param liveCount the amount of the live files
+   *
+   * @return {@code true} if the manifest has too many {@code DELETE} events and should be rewritten
+   */
+  boolean deleted (int index, int liveCount) {
+    append(DELETE_EVENT, index);
+    deleted++;
+    return deleted >= COMPACTION_THRESHOLD && deleted > liveCount;
+  }
+
+  /**
+   * Replaces the manifest's content with the {@code CREATE} events of the {@code live} files.
+   *
+   * @param live the live files indexes
+   */
+  @SneakyThrows
+  void rewrite (@NonNull Collection<Integer> live) {
+    closeChannel();
+
+    val buffer = ByteBuffer.allocate(live.size() * EVENT_BYTES);
+    for (val index : live) {
+      buffer.put(CREATE_EVENT);
+      buffer.putInt(index);
+    }
+    buffer.flip();
+
+    val temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (val output = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      while (buffer.hasRemaining()) {
+        output.write(buffer);
+      }
+      // the moved manifest must not be empty after a crash
+      output.force(true);
+    }
+    Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    deleted = 0;
+  }
+
+  @Override
+  public void close () {
+    closeChannel();
+  }
+
+  @Override
+  public String toString () {
+    return String.valueOf(file);
+  }
+
+  @SneakyThrows
+  private void append (byte type, int index) {
+    if (channel == null) {
+      channel = FileChannel.open(file, CREATE, WRITE);
+      channel.position(channel.size());
+    }
+    event.clear();
+    event.put(type);
+    event.putInt(index);
+    event.flip();
+    while (event.hasRemaining()) {
+      channel.write(event);
+    }
+  }
+
+  @SneakyThrows
+  private void closeChannel () {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+}
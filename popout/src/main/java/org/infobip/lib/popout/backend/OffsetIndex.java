@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import io.appulse.utils.ReadBytesUtils;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The sidecar offset index of a compressed file.
+ * <p>
+ * The index file's format is:
+ * <pre>
+ * [8B compressed file size][8B records count][8B removed records count]{[8B record header offset]}
+ * </pre>
+ * The offsets are sorted. The removed record's offset is stored as {@code -(offset + 1)}.
+ * While there are no removed records, the live record's offset is looked up directly
+ * by its number, otherwise the entries are scanned. The removed records count is written
+ * before the entry, so after a crash between them the count could only exceed the negative
+ * entries, which just makes the lookups scan.
+ * The consumed records are not marked, they are all before the compressed file's
+ * leading jump target. The index is ignored (and removed), if the compressed
+ * file's size doesn't match the stored one.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+final class OffsetIndex implements AutoCloseable {
+
+  static final String SUFFIX = ".index";
+
+  static final int HEADER_BYTES = Long.BYTES * 3;
+
+  static final int REMOVED_POSITION = Long.BYTES * 2;
+
+  static final int SCAN_ENTRIES = 1024;
+
+  static Path pathOf (@NonNull Path file) {
+    return file.resolveSibling(file.getFileName() + SUFFIX);
+  }
+
+  /**
+   * Writes a new index for the compressed {@code file}.
+   *
+   * @param file the compressed file
+   *
+   * @param offsets the records headers offsets in the compressed file
+   */
+  @SneakyThrows
+  static void write (@NonNull Path file, @NonNull long[] offsets) {
+    val buffer = ByteBuffer.allocate(HEADER_BYTES + offsets.length * Long.BYTES);
+    buffer.putLong(Files.size(file));
+    buffer.putLong(offsets.length);
+    buffer.putLong(0);
+    for (val offset : offsets) {
+      buffer.putLong(offset);
+    }
+    buffer.flip();
+
+    try (val channel = FileChannel.open(pathOf(file), CREATE, TRUNCATE_EXISTING, WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Opens the compressed {@code file}'s index.
+   *
+   * @param file the compressed file
+   *
+   * @return the index, or {@code null} if there is no valid index
+   */
+  @SneakyThrows
+  static OffsetIndex open (@NonNull Path file) {
+    val path = pathOf(file);
+    if (Files.notExists(path) || Files.notExists(file)) {
+      return null;
+    }
+
+    val channel = FileChannel.open(path, READ, WRITE);
+    val header = ByteBuffer.allocate(HEADER_BYTES);
+    ReadBytesUtils.read(channel, header);
+    header.flip();
+
+    val fileSize = header.remaining() == HEADER_BYTES
+                   ? header.getLong()
+                   : -1;
+    val count = fileSize < 0
+                ? -1
+                : header.getLong();
+    val removed = fileSize < 0
+                  ? -1
+                  : header.getLong();
+
+    if (fileSize != Files.size(file) || channel.size() != HEADER_BYTES + count * Long.BYTES) {
+      channel.close();
+      Files.deleteIfExists(path); // a stale index
+      return null;
+    }
+    return new OffsetIndex(channel, count, removed);
+  }
+
+  FileChannel channel;
+
+  long count;
+
+  @NonFinal
+  long removed;
+
+  ByteBuffer entry;
+
+  private OffsetIndex (FileChannel channel, long count, long removed) {
+    this.channel = channel;
+    this.count = count;
+    this.removed = removed;
+    entry = ByteBuffer.allocate(Long.BYTES);
+  }
+
+  /**
+   * Marks the record with the header's {@code offset} as removed.
+   *
+   * @param offset the record's header offset
+   */
+  @SneakyThrows
+  void markRemoved (long offset) {
+    val index = lowerBound(offset);
+    if (index < count && offset(read(index)) == offset) {
+      removed++;
+      entry.clear();
+      entry.putLong(0, removed);
+      channel.write(entry, REMOVED_POSITION);
+
+      entry.clear();
+      entry.putLong(0, -(offset + 1));
+      channel.write(entry, position(index));
+    }
+  }
+
+  /**
+   * Counts the not removed records, starting from the {@code from} offset.
+   *
+   * @param from the first not consumed record's header offset
+   *
+   * @return the live records count
+   */
+  long liveCount (long from) {
+    return removed == 0
+           ? count - lowerBound(from)
+           : scan(from, Long.MAX_VALUE)[0];
+  }
+
+  /**
+   * Returns the {@code number}'s not removed record header offset, starting from the {@code from} offset.
+   *
+   * @param from the first not consumed record's header offset
+   *
+   * @param number the live record's number, starting from {@code 0}
+   *
+   * @return the record's header offset, or {@code -1} if there is no such record
+   */
+  long liveOffset (long from, long number) {
+    if (removed != 0) {
+      return scan(from, number)[1];
+    }
+    val index = lowerBound(from) + number;
+    if (index >= count) {
+      return -1;
+    }
+    val result = read(index);
+    // the removed entry without the count, the index was written by an older version
+    return result < 0
+           ? scan(from, number)[1]
+           : result;
+  }
+
+  @Override
+  @SneakyThrows
+  public void close () {
+    channel.close();
+  }
+
+  /**
+   * Returns the live records count till the {@code number} record (inclusive),
+   * and the {@code number} record's offset (or {@code -1}).
+   */
+  @SneakyThrows
+  private long[] scan (long from, long number) {
+    val buffer = ByteBuffer.allocate(SCAN_ENTRIES * Long.BYTES);
+    long live = 0;
+    long index = lowerBound(from);
+    while (index < count) {
+      buffer.clear();
+      buffer.limit((int) Math.min(count - index, SCAN_ENTRIES) * Long.BYTES);
+      channel.read(buffer, position(index));
+      buffer.flip();
+      while (buffer.remaining() >= Long.BYTES) {
+        val value = buffer.getLong();
+        index++;
+        if (value < 0) {
+          continue;
+        }
+        if (live == number) {
+          return new long[] { live + 1, value };
+        }
+        live++;
+      }
+    }
+    return new long[] { live, -1 };
+  }
+
+  private long lowerBound (long offset) {
+    long low = 0;
+    long high = count;
+    while (low < high) {
+      val middle = (low + high) >>> 1;
+      if (offset(read(middle)) < offset) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  @SneakyThrows
+  @SuppressWarnings("PMD.UnusedPrivateMethod")
+  private long read (long index) {
+    entry.clear();
+    channel.read(entry, position(index));
+    return entry.getLong(0);
+  }
+
+  private static long position (long index) {
+    return HEADER_BYTES + index * Long.BYTES;
+  }
+
+  private static long offset (long value) {
+    return value < 0
+           ? -value - 1
+           : value;
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.ToLongFunction;
+
+import io.appulse.utils.Bytes;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * The storage engine behind a {@link org.infobip.lib.popout.FileQueue}.
+ * <p>
+ * A backend stores the opaque records (serialized elements or batches of elements),
+ * written by the queue, in FIFO order. The queue front-end does not know
+ * how and where the records are stored, so the different engines
+ * could be plugged in via {@link QueueBackendFactory}.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+public interface QueueBackend extends Iterable<WalContent>, AutoCloseable {
+
+  /**
+   * Writes the {@code buffer} content as a new record to the end of the backend.
+   *
+   * @param buffer byte array source to write
+   */
+  void write (Bytes buffer);
+
+  /**
+   * Writes a new record to the end of the backend, the {@code writer} streams its content
+   * to the given channel. The record is visible to the readers only after the writer returns.
+   * <p>
+   * The default implementation collects the content in memory and writes it as one buffer.
+   *
+   * @param writer the record's content writer
+   */
+  @SneakyThrows
+  default void write (@NonNull RecordWriter writer) {
+    val output = new ByteArrayOutputStream();
+    try (val channel = Channels.newChannel(output)) {
+      writer.write(channel);
+    }
+    write(Bytes.wrap(output.toByteArray()));
+  }
+
+  /**
+   * Retrieves and removes the head record into the {@code buffer}.
+   *
+   * @param buffer the destination bytes buffer, where content writes
+   *
+   * @return number of written bytes into {@code buffer}
+   */
+  int pollTo (Bytes buffer);
+
+  /**
+   * Retrieves and removes the head record into the {@code buffer}, if the record fits
+   * the {@code maxLength}. The oversized record is not read and stays the head.
+   * <p>
+   * The default implementation looks up the head's length before polling it,
+   * the file-based backends check it in the same pass as the read.
+   *
+   * @param buffer the destination bytes buffer, where content writes
+   *
+   * @param maxLength the max record's length, which the {@code buffer} can take
+   *
+   * @return number of written bytes into {@code buffer}
+   *
+   * @throws BufferOverflowException if the head record is longer than {@code maxLength}
+   */
+  default int pollTo (Bytes buffer, int maxLength) {
+    checkHeadLength(maxLength);
+    return pollTo(buffer);
+  }
+
+  /**
+   * Retrieves, but does not remove the head record into the {@code buffer}.
+   *
+   * @param buffer the destination bytes buffer
+   *
+   * @return number of written bytes into {@code buffer}
+   */
+  int peakTo (Bytes buffer);
+
+  /**
+   * Retrieves, but does not remove the head record into the {@code buffer}, if the record fits
+   * the {@code maxLength}. The oversized record is not read.
+   *
+   * @param buffer the destination bytes buffer
+   *
+   * @param maxLength the max record's length, which the {@code buffer} can take
+   *
+   * @return number of written bytes into {@code buffer}
+   *
+   * @throws BufferOverflowException if the head record is longer than {@code maxLength}
+   */
+  default int peakTo (Bytes buffer, int maxLength) {
+    checkHeadLength(maxLength);
+    return peakTo(buffer);
+  }
+
+  /**
+   * Removes the head record without reading it.
+   *
+   * @return number of skipped content bytes
+   */
+  int skip ();
+
+  /**
+   * Returns the amount of the stored records.
+   *
+   * @return the records count
+   */
+  default long count () {
+    long result = 0;
+    val iterator = iterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * Sums the {@code counter}'s results for all the stored records,
+   * for example - the amount of elements in each record.
+   * <p>
+   * The implementation could invoke the {@code counter} from several threads.
+   *
+   * @param counter the record's elements counter
+   *
+   * @return the elements count
+   */
+  default long count (ToLongFunction<WalContent> counter) {
+    long result = 0;
+    for (val content : this) {
+      result += counter.applyAsLong(content);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the record by its number, without removing it.
+   *
+   * @param number the record's number, starting from {@code 0} (the head)
+   *
+   * @return the record's content, or {@code null} if there are fewer records
+   */
+  default WalContent get (long number) {
+    long current = 0;
+    for (val content : this) {
+      if (current == number) {
+        return content;
+      }
+      current++;
+    }
+    return null;
+  }
+
+  /**
+   * Opens the record by its number, without removing it, and invokes the {@code consumer} within it.
+   * Unlike the {@link #get(long)}'s content, the record can't be moved by the backend's
+   * maintenance (like the compaction) during the call.
+   *
+   * @param number the record's number, starting from {@code 0} (the head)
+   *
+   * @param consumer the action what to do in the open record
+   *
+   * @return {@code true} if the record exists, or {@code false} if there are fewer records
+   */
+  default boolean open (long number, WalContent.WalContentConsumer consumer) {
+    val content = get(number);
+    if (content == null) {
+      return false;
+    }
+    content.open(consumer);
+    return true;
+  }
+
+  /**
+   * Removes the {@code count} head records without reading them.
+   *
+   * @param count the records amount to skip
+   *
+   * @return the skipped records amount
+   */
+  default long skip (long count) {
+    long result = 0;
+    while (result < count && skip() > 0) {
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * Compacts the stored records, if the backend supports it.
+   */
+  void compress ();
+
+  /**
+   * Returns the size, which is occupied by the backend on the disk.
+   *
+   * @return number of bytes, the backend takes on the disk
+   */
+  long diskSize ();
+
+  @Override
+  void close ();
+
+  /**
+   * Checks, that the head record, if there is one, is not longer than {@code maxLength}.
+   *
+   * @param maxLength the max record's length
+   *
+   * @throws BufferOverflowException if the head record is longer than {@code maxLength}
+   */
+  default void checkHeadLength (int maxLength) {
+    val head = get(0);
+    if (head != null && head.getLength() > maxLength) {
+      throw new BufferOverflowException();
+    }
+  }
+
+  /**
+   * The streaming record's content writer.
+   *
+   * @since 2.2.0
+   */
+  @FunctionalInterface
+  interface RecordWriter {
+
+    /**
+     * Writes the record's content to the {@code channel}. The channel must not be closed by the writer.
+     *
+     * @param channel the destination channel
+     *
+     * @throws IOException in case of any I/O error
+     */
+    void write (WritableByteChannel channel) throws IOException;
+  }
+}
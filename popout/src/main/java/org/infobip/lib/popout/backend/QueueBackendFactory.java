@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import org.infobip.lib.popout.FileQueue;
+
+/**
+ * The {@link QueueBackend} instances factory, which a queue builder uses
+ * for creating its storage engine.
+ *
+ * @since 2.2.0
+ * @author Artem Labazin
+ */
+@FunctionalInterface
+public interface QueueBackendFactory {
+
+  /**
+   * Returns the default backend factory, which stores the records in WAL and compressed files.
+   *
+   * @return the file system backend factory
+   */
+  static QueueBackendFactory fileSystem () {
+    return builder -> FileSystemBackend.builder()
+        .queueName(builder.getName())
+        .restoreFromDisk(builder.isRestoreFromDisk())
+        .walConfig(builder.getWalFilesConfig())
+        .compressedConfig(builder.getCompressedFilesConfig())
+        .corruptionHandler(builder.getCorruptionHandler())
+        .manifest(builder.isManifest())
+        .recoveryParallelism(builder.getRecoveryParallelism())
+        .compactFormat(builder.isCompactFormat())
+        .build();
+  }
+
+  /**
+   * Returns the backend factory, which keeps the records in memory only.
+   * The stored records do not survive the queue's close, so it suits for tests and benchmarks.
+   *
+   * @return the in-memory backend factory
+   */
+  static QueueBackendFactory inMemory () {
+    return builder -> new InMemoryBackend();
+  }
+
+  /**
+   * Creates a new backend instance for the queue with the builder's parameters.
+   *
+   * @param builder the queue's builder with already validated parameters
+   *
+   * @return a new backend instance
+   */
+  QueueBackend create (FileQueue.Builder<?, ?> builder);
+}
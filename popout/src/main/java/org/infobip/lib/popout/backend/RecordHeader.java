@@ -17,29 +17,137 @@
 package org.infobip.lib.popout.backend;
 
 import static lombok.AccessLevel.PRIVATE;
+import static org.infobip.lib.popout.backend.RecordHeader.Marker.CHECKED_RECORD;
 import static org.infobip.lib.popout.backend.RecordHeader.Marker.END;
 import static org.infobip.lib.popout.backend.RecordHeader.Marker.JUMP;
 import static org.infobip.lib.popout.backend.RecordHeader.Marker.RECORD;
+import static org.infobip.lib.popout.backend.RecordHeader.Marker.REMOVED;
+import static org.infobip.lib.popout.backend.RecordHeader.Marker.UNDEFINED;
 
+import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.stream.Stream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.zip.Checksum;
 
+import org.infobip.lib.popout.DirectBytes;
+import org.infobip.lib.popout.Varints;
+
+import io.appulse.utils.Bytes;
 import io.appulse.utils.ReadBytesUtils;
 import lombok.SneakyThrows;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.val;
 
+/**
+ * The compressed file's header.
+ * <p>
+ * The header's format is:
+ * <pre>
+ * [1B marker][8B value]
+ * </pre>
+ * The value is the record's length for the {@code RECORD} marker, the next header's
+ * position for the {@code JUMP} marker and zero for the {@code END} marker.
+ * <p>
+ * The {@code CHECKED_RECORD} marker is the {@code RECORD} marker with the checksum flag,
+ * its value holds the record's CRC32C in the high 4 bytes and the record's length in the low ones.
+ * <p>
+ * The compact format's markers have the {@link #COMPACT_FLAG}, and their values are shorter:
+ * <pre>
+ * [1B RECORD][varint length]
+ * [1B CHECKED_RECORD][4B CRC32C][varint length]
+ * [1B END]
+ * </pre>
+ * so each header tells its own size and both formats could be mixed in one file.
+ * A compact record is removed by setting the {@link #REMOVED_FLAG} (a tombstone) in its marker,
+ * because a jump doesn't fit into its header. The jumps are always in the 9 bytes format,
+ * that is why a compact file starts from a jump (the head's slot), which is overwritten
+ * as the records are consumed.
+ */
 @FieldDefaults(level = PRIVATE, makeFinal = true)
+@SuppressWarnings("checkstyle:MagicNumber")
 class RecordHeader {
 
   static final int BYTES = Byte.BYTES + Long.BYTES; // marker+length
 
-  ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+  static final int MAX_BYTES = Byte.BYTES + Integer.BYTES + Varints.MAX_BYTES; // marker+checksum+length
+
+  static final int CHECKSUM_FLAG = 0x10;
+
+  static final int REMOVED_FLAG = 0x20;
+
+  static final int COMPACT_FLAG = 0x40;
+
+  static final int CHUNK_BYTES = 64 * 1024;
+
+  ByteBuffer buffer = ByteBuffer.allocate(MAX_BYTES);
+
+  /**
+   * The jumps are written from their own buffer, so the read header stays untouched.
+   */
+  ByteBuffer jump = ByteBuffer.allocate(BYTES);
+
+  boolean compactFormat;
+
+  @NonFinal
+  Checksum checksum;
+
+  @NonFinal
+  ByteBuffer chunk;
+
+  @NonFinal
+  ByteBuffer flag;
+
+  /**
+   * The read header's state.
+   */
+  @NonFinal
+  long position;
 
+  @NonFinal
+  int readed;
+
+  @NonFinal
+  Marker marker = UNDEFINED;
+
+  @NonFinal
+  boolean compact;
+
+  @NonFinal
+  int headerSize = BYTES;
+
+  @NonFinal
+  long value;
+
+  @NonFinal
+  int recordChecksum;
+
+  RecordHeader () {
+    this(false);
+  }
+
+  RecordHeader (boolean compactFormat) {
+    this.compactFormat = compactFormat;
+  }
+
+  @SneakyThrows
   RecordHeader readFrom (FileChannel channel) {
+    position = channel.position();
     buffer.clear();
-    ReadBytesUtils.read(channel, buffer);
+    buffer.limit(BYTES);
+    readed = Math.max(ReadBytesUtils.read(channel, buffer), 0);
+    if (readed == BYTES && isLongCheckedRecord()) {
+      buffer.position(BYTES);
+      buffer.limit(MAX_BYTES);
+      readed += Math.max(channel.read(buffer), 0);
+    }
+    parse();
+    if (readed > headerSize) {
+      // the compact header is shorter than the read bytes
+      channel.position(position + headerSize);
+    }
     return this;
   }
 
@@ -47,64 +155,259 @@ class RecordHeader {
   RecordHeader skipJumps (FileChannel channel) {
     do {
       readFrom(channel);
-      if (!isJump()) {
+      if (isRemoved()) {
+        channel.position(channel.position() + getLength());
+      } else if (isJump()) {
+        val newPosition = getValue();
+        channel.position(newPosition);
+      } else {
         return this;
       }
-      val newPosition = getValue();
-      channel.position(newPosition);
     } while (true);
   }
 
   @SneakyThrows
   void writeJump (FileChannel channel, long from, long to) {
-    buffer.clear();
-    buffer.put(JUMP.getValue());
-    buffer.putLong(to);
-    buffer.rewind();
-    channel.write(buffer, from);
+    jump.clear();
+    jump.put(JUMP.getValue());
+    jump.putLong(to);
+    jump.flip();
+    channel.write(jump, from);
+  }
+
+  /**
+   * Writes the head's slot - the jump to the first record, if the compact format is used.
+   * The channel's position is moved after the slot.
+   */
+  @SneakyThrows
+  void writeHead (FileChannel channel) {
+    if (compactFormat) {
+      writeJump(channel, channel.position(), channel.position() + BYTES);
+      channel.position(channel.position() + BYTES);
+    }
   }
 
   @SneakyThrows
   void writeRecord (FileChannel channel, long length) {
     buffer.clear();
-    buffer.put(RECORD.getValue());
-    buffer.putLong(length);
-    buffer.rewind();
+    if (compactFormat) {
+      buffer.put((byte) (RECORD.getValue() | COMPACT_FLAG));
+      Varints.write((int) length, buffer);
+    } else {
+      buffer.put(RECORD.getValue());
+      buffer.putLong(length);
+    }
+    buffer.flip();
+    channel.write(buffer);
+  }
+
+  @SneakyThrows
+  void writeRecord (FileChannel channel, long length, int crc) {
+    buffer.clear();
+    if (compactFormat) {
+      buffer.put((byte) (CHECKED_RECORD.getValue() | COMPACT_FLAG));
+      buffer.putInt(crc);
+      Varints.write((int) length, buffer);
+    } else {
+      buffer.put(CHECKED_RECORD.getValue());
+      buffer.putLong((long) crc << Integer.SIZE | length);
+    }
+    buffer.flip();
+    channel.write(buffer);
+  }
+
+  /**
+   * Writes the current header as is, for example - for copying a record to another file.
+   */
+  @SneakyThrows
+  void writeTo (FileChannel channel) {
+    buffer.position(0);
+    buffer.limit(headerSize);
     channel.write(buffer);
   }
 
   @SneakyThrows
   void writeEnd (FileChannel channel) {
     buffer.clear();
-    buffer.put(END.getValue());
-    buffer.putLong(0);
-    buffer.rewind();
+    if (compactFormat) {
+      buffer.put((byte) (END.getValue() | COMPACT_FLAG));
+    } else {
+      buffer.put(END.getValue());
+      buffer.putLong(0);
+    }
+    buffer.flip();
     channel.write(buffer);
   }
 
+  /**
+   * Removes the record, which header starts from the {@code from} position:
+   * the compact record gets the tombstone flag, and the 9 bytes header is replaced
+   * with the jump to the {@code to} position.
+   * <p>
+   * The header is read from the file, so the current header's state doesn't matter.
+   */
+  @SneakyThrows
+  void remove (FileChannel channel, long from, long to) {
+    if (flag == null) {
+      flag = ByteBuffer.allocate(Byte.BYTES);
+    }
+    flag.clear();
+    channel.read(flag, from);
+    val current = flag.get(0);
+    if ((current & COMPACT_FLAG) == 0) {
+      writeJump(channel, from, to);
+      return;
+    }
+    flag.put(0, (byte) (current | REMOVED_FLAG));
+    flag.rewind();
+    channel.write(flag, from);
+  }
+
   Marker getMarker () {
-    val value = buffer.get(0);
-    return Marker.of(value);
+    return marker;
   }
 
   long getValue () {
-    return buffer.getLong(1);
+    return value;
   }
 
   int getLength () {
     return (int) getValue();
   }
 
+  int getChecksum () {
+    return recordChecksum;
+  }
+
+  /**
+   * Returns the header's start position in the file.
+   */
+  long getPosition () {
+    return position;
+  }
+
+  /**
+   * Returns the checked record's checksum position in the file, or {@code -1} if the record has no checksum.
+   * The checksum follows the marker's byte in both formats.
+   */
+  long getChecksumPosition () {
+    return isChecked()
+           ? position + Byte.BYTES
+           : -1;
+  }
+
+  /**
+   * Returns the header's size in bytes.
+   */
+  int size () {
+    return headerSize;
+  }
+
+  /**
+   * Tells is the header written in the compact format or not.
+   */
+  boolean isCompact () {
+    return compact;
+  }
+
+  /**
+   * Tells was the whole header read, or the file ends before the header's end.
+   */
+  boolean isComplete () {
+    return readed >= headerSize;
+  }
+
+  boolean isChecked () {
+    return getMarker() == CHECKED_RECORD;
+  }
+
   boolean isRecord () {
-    if (getMarker() != RECORD) {
+    if (marker != RECORD && marker != CHECKED_RECORD) {
       return false;
     }
-    if (getValue() == 0) {
+    if (getLength() <= 0) {
+      throw new IllegalStateException();
+    }
+    return true;
+  }
+
+  /**
+   * Tells is it the compact record's header with the tombstone flag.
+   */
+  boolean isRemoved () {
+    if (getMarker() != REMOVED) {
+      return false;
+    }
+    if (getLength() <= 0) {
       throw new IllegalStateException();
     }
     return true;
   }
 
+  /**
+   * Computes the CRC32C of the {@code length} bytes from the {@code index}.
+   */
+  int checksum (Bytes bytes, int index, int length) {
+    val crc = getChecksumInstance();
+    if (bytes instanceof DirectBytes) {
+      crc.update(bytes.getBytes(index, length), 0, length);
+    } else {
+      crc.update(bytes.array(), index, length);
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Computes the CRC32C of the {@code length} bytes from the channel's current position.
+   * The content is read by chunks and the channel's position is moved after it.
+   */
+  @SneakyThrows
+  int checksum (ReadableByteChannel channel, long length) {
+    if (chunk == null) {
+      chunk = ByteBuffer.allocate(CHUNK_BYTES);
+    }
+    val crc = getChecksumInstance();
+    long remaining = length;
+    while (remaining > 0) {
+      chunk.clear();
+      chunk.limit((int) Math.min(remaining, CHUNK_BYTES));
+      if (channel.read(chunk) < 0) {
+        throw new EOFException();
+      }
+      crc.update(chunk.array(), 0, chunk.position());
+      remaining -= chunk.position();
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Tells does the record's content, which starts from the channel's current position,
+   * match its checksum. The content is read by chunks and the channel's position is
+   * moved to the next header.
+   */
+  @SneakyThrows
+  boolean verify (FileChannel channel) {
+    if (!isChecked()) {
+      channel.position(channel.position() + getLength());
+      return true;
+    }
+    if (chunk == null) {
+      chunk = ByteBuffer.allocate(CHUNK_BYTES);
+    }
+    val crc = getChecksumInstance();
+    int remaining = getLength();
+    while (remaining > 0) {
+      chunk.clear();
+      chunk.limit(Math.min(remaining, CHUNK_BYTES));
+      if (channel.read(chunk) < 0) {
+        return false;
+      }
+      crc.update(chunk.array(), 0, chunk.position());
+      remaining -= chunk.position();
+    }
+    return (int) crc.getValue() == getChecksum();
+  }
+
   boolean isJump () {
     if (getMarker() != JUMP) {
       return false;
@@ -125,13 +428,91 @@ class RecordHeader {
     return true;
   }
 
+  /**
+   * Tells does the read bytes start a compact checked record, which length's varint
+   * takes all 5 bytes, so the header is 1 byte longer than the 9 bytes one.
+   */
+  private boolean isLongCheckedRecord () {
+    val raw = buffer.get(0);
+    return (raw & COMPACT_FLAG) != 0 && (raw & CHECKSUM_FLAG) != 0 && buffer.get(BYTES - 1) < 0;
+  }
+
+  private void parse () {
+    val raw = readed > 0
+              ? buffer.get(0)
+              : UNDEFINED.getValue();
+
+    marker = Marker.of(raw);
+    compact = marker != UNDEFINED && (raw & COMPACT_FLAG) != 0;
+    recordChecksum = 0;
+    if (compact && marker == END) {
+      headerSize = Byte.BYTES;
+      value = 0;
+    } else if (compact && (raw & CHECKSUM_FLAG) == 0) {
+      parseLength(Byte.BYTES);
+    } else if (compact) {
+      recordChecksum = buffer.getInt(Byte.BYTES);
+      parseLength(Byte.BYTES + Integer.BYTES);
+    } else {
+      headerSize = BYTES;
+      value = buffer.getLong(1);
+      recordChecksum = (int) (value >>> Integer.SIZE);
+    }
+  }
+
+  private void parseLength (int index) {
+    int result = 0;
+    int shift = 0;
+    for (int current = index; current < readed; current++) {
+      val next = buffer.get(current);
+      result |= (next & 0x7F) << shift;
+      if (next >= 0) {
+        headerSize = current + 1;
+        value = result & 0xFFFF_FFFFL;
+        return;
+      }
+      shift += 7;
+    }
+    // the varint is truncated
+    headerSize = readed + 1;
+    value = 0;
+  }
+
+  private Checksum getChecksumInstance () {
+    if (checksum == null) {
+      checksum = Crc32c.create();
+    } else {
+      checksum.reset();
+    }
+    return checksum;
+  }
+
   enum Marker {
 
     RECORD(1),
     JUMP(2),
     END(4),
+    CHECKED_RECORD(1 | CHECKSUM_FLAG),
+    REMOVED(1 | REMOVED_FLAG | COMPACT_FLAG),
     UNDEFINED(0xFF);
 
+    /**
+     * The markers, indexed by their unsigned byte values, so the decoding is a single array access.
+     * The compact headers' markers are decoded to the same values as the 9 bytes ones.
+     */
+    private static final Marker[] BY_VALUE = new Marker[256];
+
+    static {
+      Arrays.fill(BY_VALUE, UNDEFINED);
+      for (val marker : values()) {
+        BY_VALUE[marker.getValue() & 0xFF] = marker;
+      }
+      BY_VALUE[RECORD.getValue() | COMPACT_FLAG] = RECORD;
+      BY_VALUE[CHECKED_RECORD.getValue() | COMPACT_FLAG] = CHECKED_RECORD;
+      BY_VALUE[END.getValue() | COMPACT_FLAG] = END;
+      BY_VALUE[CHECKED_RECORD.getValue() | COMPACT_FLAG | REMOVED_FLAG] = REMOVED;
+    }
+
     byte value;
 
     Marker (int value) {
@@ -143,10 +524,7 @@ class RecordHeader {
     }
 
     static Marker of (byte value) {
-      return Stream.of(values())
-          .filter(it -> it.getValue() == value)
-          .findAny()
-          .orElse(UNDEFINED);
+      return BY_VALUE[value & 0xFF];
     }
   }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.backend;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.infobip.lib.popout.ChannelBytesUtils;
+
+import io.appulse.utils.Bytes;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The pool of spare segment files, which are reused instead of
+ * creating a new file for each write and deleting it after consumption.
+ * <p>
+ * A consumed file is renamed to a spare one (if the pool is not full),
+ * and the next file is a spare file, overwritten with the new content and renamed.
+ * It avoids the files creation and removal under load.
+ * <p>
+ * The files are not preallocated: the new spare files are empty, and a reused one
+ * is truncated to its new content, because a WAL file's size is its record's length.
+ * <p>
+ * The spare files are counted in the queue's disk size, and they are removed,
+ * when the queue is cleared or closed.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+final class SegmentPool {
+
+  static final String SUFFIX = ".spare";
+
+  Deque<Path> spares;
+
+  FilesManager spareFiles;
+
+  AtomicInteger index;
+
+  int depth;
+
+  @Builder
+  SegmentPool (@NonNull Path folder, @NonNull String prefix, int depth) {
+    if (depth <= 0) {
+      throw new IllegalArgumentException("depth - must be greater than 0");
+    }
+    this.depth = depth;
+
+    spareFiles = FilesManager.builder()
+        .folder(folder)
+        .prefix(prefix)
+        .suffix(SUFFIX)
+        .build();
+
+    spares = new ArrayDeque<>(spareFiles.getFilesFromQueue());
+    index = new AtomicInteger(spares.isEmpty()
+                              ? 0
+                              : spareFiles.getIndex(spares.getLast()) + 1);
+    createSpares();
+  }
+
+  /**
+   * Writes the {@code content} to a spare file and moves it to the {@code target} path,
+   * or writes a new file, if there is no spare one.
+   * <p>
+   * The spare file's old content is never visible under the {@code target} name,
+   * even after a crash, because the file is renamed only after the overwrite.
+   *
+   * @param target the new file's path
+   *
+   * @param content the new file's content
+   */
+  @SneakyThrows
+  void take (@NonNull Path target, @NonNull Bytes content) {
+    val spare = poll();
+    if (spare == null) {
+      ChannelBytesUtils.write(target, content);
+      return;
+    }
+    try (val channel = FileChannel.open(spare, WRITE)) {
+      ChannelBytesUtils.write(channel, content);
+      // the spare file could be longer than the new content
+      channel.truncate(channel.position());
+    }
+    Files.move(spare, target, ATOMIC_MOVE);
+  }
+
+  /**
+   * Moves the consumed {@code path} to the spare files, if the pool is not full.
+   *
+   * @param path the consumed file
+   *
+   * @return {@code true} if the file was recycled, {@code false} if it must be deleted
+   */
+  @Synchronized
+  @SneakyThrows
+  boolean recycle (@NonNull Path path) {
+    if (spares.size() >= depth || Files.notExists(path)) {
+      return false;
+    }
+    val spare = nextSparePath();
+    Files.move(path, spare, ATOMIC_MOVE);
+    spares.add(spare);
+    return true;
+  }
+
+  @Synchronized
+  int size () {
+    return spares.size();
+  }
+
+  /**
+   * Returns the spare files' size.
+   *
+   * @return the amount of bytes, the spare files take on the disk
+   */
+  @Synchronized
+  @SneakyThrows
+  long diskSize () {
+    long result = 0;
+    for (val spare : spares) {
+      result += Files.size(spare);
+    }
+    return result;
+  }
+
+  /**
+   * Removes all the spare files.
+   */
+  @Synchronized
+  @SneakyThrows
+  void clear () {
+    for (val spare : spares) {
+      Files.deleteIfExists(spare);
+    }
+    spares.clear();
+  }
+
+  @Synchronized
+  private Path poll () {
+    return spares.poll();
+  }
+
+  @SneakyThrows
+  private void createSpares () {
+    while (spares.size() < depth) {
+      val spare = nextSparePath();
+      Files.createFile(spare);
+      spares.add(spare);
+    }
+  }
+
+  private Path nextSparePath () {
+    Path result;
+    do {
+      result = spareFiles.getFile(index.getAndIncrement());
+    } while (Files.exists(result));
+    return result;
+  }
+
+}
@@ -19,7 +19,10 @@ package org.infobip.lib.popout.backend;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 
 import lombok.Builder;
@@ -33,6 +36,9 @@ import lombok.val;
  * The object could represent a whole file on the disk (WAL file)
  * or just a part of biger file (compressed file) with specific
  * {@code offset} and {@code length} values within that file.
+ * <p>
+ * The non file-based {@link QueueBackend} implementations provide
+ * their own {@code channelOpener} instead of the {@code file}.
  *
  * @since 2.0.0
  * @author Artem Labazin
@@ -47,6 +53,15 @@ public class WalContent {
 
   int length;
 
+  /**
+   * The position of the content's CRC32C in the same file, which is updated
+   * after the in-place modifications, or {@code -1} if the content has no checksum.
+   */
+  @Builder.Default
+  long checksumPosition = -1;
+
+  ChannelOpener channelOpener;
+
   /**
    * The method for safe opening the resource (WAL-file or part of compressed file) and
    * invoking the user specific action within it.
@@ -55,12 +70,76 @@ public class WalContent {
    */
   @SneakyThrows
   public void open (WalContentConsumer consumer) {
-    try (val channel = FileChannel.open(file, READ, WRITE)) {
+    try (val channel = openChannel()) {
+      channel.position(offset);
+      consumer.accept(length, channel);
+    }
+  }
+
+  /**
+   * The same as {@link #open(WalContentConsumer)}, but for the in-place modifications
+   * of the content. The content's checksum, if it has one, is recomputed after the {@code consumer},
+   * so the modified record is not treated as a corrupted one.
+   *
+   * @param consumer the action what to do in the open WAL content.
+   *
+   * @since 2.2.0
+   */
+  @SneakyThrows
+  public void modify (WalContentConsumer consumer) {
+    try (SeekableByteChannel channel = openChannel()) {
       channel.position(offset);
       consumer.accept(length, channel);
+      if (checksumPosition >= 0) {
+        updateChecksum(channel);
+      }
     }
   }
 
+  private void updateChecksum (SeekableByteChannel channel) throws IOException {
+    val crc = Crc32c.create();
+    val chunk = ByteBuffer.allocate(Math.max(Math.min(length, RecordHeader.CHUNK_BYTES), Integer.BYTES));
+    channel.position(offset);
+    int remaining = length;
+    while (remaining > 0) {
+      chunk.clear();
+      chunk.limit(Math.min(remaining, chunk.capacity()));
+      if (channel.read(chunk) < 0) {
+        throw new IOException("The content ends before its length");
+      }
+      crc.update(chunk.array(), 0, chunk.position());
+      remaining -= chunk.position();
+    }
+    chunk.clear();
+    chunk.limit(Integer.BYTES);
+    chunk.putInt(0, (int) crc.getValue());
+    channel.position(checksumPosition);
+    channel.write(chunk);
+  }
+
+  private SeekableByteChannel openChannel () throws IOException {
+    return channelOpener == null
+           ? FileChannel.open(file, READ, WRITE)
+           : channelOpener.open();
+  }
+
+  /**
+   * The WAL content's channel supplier.
+   *
+   * @since 2.2.0
+   */
+  public interface ChannelOpener {
+
+    /**
+     * Opens a new readable and writable channel over the WAL content's storage.
+     *
+     * @return the new channel instance, the caller closes it
+     *
+     * @throws IOException in case of any I/O error
+     */
+    SeekableByteChannel open () throws IOException;
+  }
+
   /**
    * An operation that accepts the {@code length} and {@code channel} and returns no result.
    */
@@ -71,9 +150,9 @@ public class WalContent {
      *
      * @param length the total length of the WAL content
      *
-     * @param channel the {@link FileChannel} instance for reading the WAL content
+     * @param channel the {@link SeekableByteChannel} instance for reading the WAL content
      */
     @SuppressWarnings("PMD.SignatureDeclareThrowsException")
-    void accept (Integer length, FileChannel channel) throws Exception;
+    void accept (Integer length, SeekableByteChannel channel) throws Exception;
   }
 }
@@ -19,6 +19,7 @@ package org.infobip.lib.popout.backend;
 import static java.util.Optional.ofNullable;
 import static lombok.AccessLevel.PRIVATE;
 
+import java.nio.BufferOverflowException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -26,15 +27,13 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Supplier;
 
+import org.infobip.lib.popout.ChannelBytesUtils;
 import org.infobip.lib.popout.FileQueue;
 import org.infobip.lib.popout.WalFilesConfig;
 import org.infobip.lib.popout.exception.CorruptedDataException;
 
 import io.appulse.utils.Bytes;
-import io.appulse.utils.ReadBytesUtils;
-import io.appulse.utils.WriteBytesUtils;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.SneakyThrows;
@@ -54,7 +53,8 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
   WalFiles (@NonNull String queueName,
             @NonNull WalFilesConfig config,
             Boolean restoreFromDisk,
-            Function<CorruptedDataException, Boolean> corruptionHandler
+            Function<CorruptedDataException, Boolean> corruptionHandler,
+            boolean manifest
   ) {
     val restoreFromDiskValue = ofNullable(restoreFromDisk)
         .orElse(Boolean.TRUE);
@@ -62,10 +62,21 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
     val corruptionHandlerValue = ofNullable(corruptionHandler)
         .orElseGet(() -> new FileQueue.DefaultCorruptionHandler());
 
+    val segmentPoolSize = ofNullable(config.getSegmentPoolSize())
+        .orElse(0);
+
     files = FilesManager.builder()
         .folder(config.getFolder())
         .prefix(queueName + '-')
         .suffix(".wal")
+        .segmentPool(segmentPoolSize > 0
+                     ? SegmentPool.builder()
+                         .folder(config.getFolder())
+                         .prefix(queueName + '-')
+                         .depth(segmentPoolSize)
+                         .build()
+                     : null)
+        .manifest(manifest)
         .build();
 
     if (!restoreFromDiskValue) {
@@ -82,18 +93,71 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
   }
 
   void write (@NonNull Bytes buffer) {
-    val file = files.createNextFile();
-    WriteBytesUtils.write(file, buffer);
+    files.writeNextFile(buffer);
+  }
+
+  void write (@NonNull QueueBackend.RecordWriter writer) {
+    files.writeNextFile(writer);
   }
 
-  @SneakyThrows
   int pollTo (@NonNull Bytes buffer) {
-    return readTo(buffer, files::poll, files::remove);
+    return pollTo(buffer, Integer.MAX_VALUE);
   }
 
-  @SneakyThrows
   int peakTo (@NonNull Bytes buffer) {
-    return readTo(buffer, files::peek, null);
+    return peakTo(buffer, Integer.MAX_VALUE);
+  }
+
+  int pollTo (@NonNull Bytes buffer, int maxLength) {
+    return readTo(buffer, maxLength, files::remove);
+  }
+
+  int peakTo (@NonNull Bytes buffer, int maxLength) {
+    return readTo(buffer, maxLength, null);
+  }
+
+  @SneakyThrows
+  int skip () {
+    val file = files.poll();
+    if (file == null) {
+      return 0;
+    }
+    // the skipped file could be bigger than the int range, only the fact of the skip matters
+    val size = (int) Math.min(Files.size(file), Integer.MAX_VALUE);
+    files.remove(file);
+    return size;
+  }
+
+  long count () {
+    return files.getFilesFromQueue().size();
+  }
+
+  WalContent get (long number) {
+    long current = 0;
+    for (val file : files.getFilesFromQueue()) {
+      if (current == number) {
+        return content(file);
+      }
+      current++;
+    }
+    return null;
+  }
+
+  @SneakyThrows
+  WalContent content (@NonNull Path file) {
+    return WalContent.builder()
+        .file(file)
+        .offset(0)
+        .length(length(file))
+        .build();
+  }
+
+  long skip (long count) {
+    long result = 0;
+    while (result < count && skip() > 0) {
+      result++;
+    }
+    return result;
   }
 
   boolean isLimitExceeded () {
@@ -106,7 +170,7 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
 
   @SneakyThrows
   long diskSize () {
-    long result = 0;
+    long result = files.sparesDiskSize();
     for (val file : getFiles()) {
       result += Files.size(file);
     }
@@ -123,23 +187,27 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
   }
 
   @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-  private int readTo (Bytes buffer, Supplier<Path> supplier, Consumer<Path> actionAfter) {
+  private int readTo (Bytes buffer, int maxLength, Consumer<Path> actionAfter) {
     val writerIndex = buffer.writerIndex();
     val readerIndex = buffer.readerIndex();
     do {
-      val file = supplier.get();
+      // the head stays in the queue until it is read, the removal takes it out
+      val file = files.peek();
+      if (file == null) {
+        return 0;
+      }
+      // the too big record is not corrupted, so it is not handled as such
+      val size = length(file);
+      if (size > maxLength) {
+        throw new BufferOverflowException();
+      }
       try {
-        if (file == null) {
-          return 0;
-        }
-
-        val size = (int) Files.size(file);
         if (!buffer.isWritable(size)) {
           val newCapacity = buffer.writerIndex() + size;
           buffer.capacity(newCapacity);
         }
 
-        val readed = ReadBytesUtils.read(file, buffer);
+        val readed = ChannelBytesUtils.read(file, buffer);
         if (readed > 0 && actionAfter != null) {
           actionAfter.accept(file);
         }
@@ -154,6 +222,16 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
     } while (true);
   }
 
+  @SneakyThrows
+  private static int length (Path file) {
+    val size = Files.size(file);
+    if (size > Integer.MAX_VALUE) {
+      val msg = String.format("WAL file '%s' has %d bytes, it is bigger than the max record's length", file, size);
+      throw new IllegalStateException(msg);
+    }
+    return (int) size;
+  }
+
   @FieldDefaults(level = PRIVATE)
   private class WalFilesIterator implements Iterator<WalContent> {
 
@@ -164,7 +242,6 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
     WalContent next;
 
     @Override
-    @SneakyThrows
     public boolean hasNext () {
       if (next != null) {
         return true;
@@ -172,12 +249,7 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
       if (!paths.hasNext()) {
         return false;
       }
-      val path = paths.next();
-      next = WalContent.builder()
-          .file(path)
-          .offset(0)
-          .length((int) Files.size(path))
-          .build();
+      next = content(paths.next());
 
       return true;
     }
@@ -199,7 +271,7 @@ class WalFiles implements Iterable<WalContent>, AutoCloseable {
         throw new IllegalStateException();
       }
       paths.remove();
-      Files.deleteIfExists(lastReturned.getFile());
+      files.remove(lastReturned.getFile());
       lastReturned = null;
     }
   }
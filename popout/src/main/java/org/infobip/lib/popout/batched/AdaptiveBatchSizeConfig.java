@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import java.time.Duration;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Wither;
+
+/**
+ * The adaptive batch size configuration object.
+ * <p>
+ * The batched queue measures the offer rate and the flush duration,
+ * and keeps the effective batch size in {@code [minBatchSize, maxBatchSize]} range,
+ * so a batch spends no longer than {@code maxFlushInterval} in memory.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@Value
+@Wither
+@Builder
+public class AdaptiveBatchSizeConfig {
+
+  /**
+   * The lower bound of the effective batch size.
+   */
+  int minBatchSize;
+
+  /**
+   * The upper bound of the effective batch size.
+   */
+  int maxBatchSize;
+
+  /**
+   * The target maximum time between the first element offer and its batch flush.
+   */
+  Duration maxFlushInterval;
+}
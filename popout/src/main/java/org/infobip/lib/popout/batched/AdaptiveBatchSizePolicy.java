@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * Batch size policy, which adapts the flush threshold to the observed load.
+ * <p>
+ * The effective batch size is an amount of elements, which arrive
+ * (with the measured offer rate) during the configured max flush interval,
+ * minus the time a flush itself takes.
+ * The measured values are smoothed with exponentially weighted moving average.
+ */
+@FieldDefaults(level = PRIVATE)
+class AdaptiveBatchSizePolicy implements BatchSizePolicy {
+
+  static final double SMOOTHING_FACTOR = 0.3D;
+
+  final int minBatchSize;
+
+  final int maxBatchSize;
+
+  final long maxFlushIntervalNanos;
+
+  final AtomicInteger batchSize;
+
+  long lastFlushStartNanos;
+
+  double offerRate = -1D;
+
+  double flushDuration = -1D;
+
+  AdaptiveBatchSizePolicy (int initialBatchSize, @NonNull AdaptiveBatchSizeConfig config) {
+    minBatchSize = config.getMinBatchSize();
+    maxBatchSize = config.getMaxBatchSize();
+    maxFlushIntervalNanos = config.getMaxFlushInterval().toNanos();
+    batchSize = new AtomicInteger(clamp(initialBatchSize));
+    lastFlushStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public int getBatchSize () {
+    return batchSize.get();
+  }
+
+  @Override
+  public void onFlush (int elements, long startNanos, long endNanos) {
+    val interval = startNanos - lastFlushStartNanos;
+    lastFlushStartNanos = startNanos;
+    if (elements <= 0 || interval <= 0) {
+      return;
+    }
+
+    offerRate = smooth(offerRate, (double) elements / interval);
+    flushDuration = smooth(flushDuration, Math.max(0L, endNanos - startNanos));
+
+    val timeBudget = maxFlushIntervalNanos - flushDuration;
+    val newBatchSize = timeBudget <= 0
+                       ? minBatchSize
+                       : clamp(offerRate * timeBudget);
+
+    batchSize.set(newBatchSize);
+  }
+
+  private double smooth (double previous, double sample) {
+    return previous < 0
+           ? sample
+           : previous + SMOOTHING_FACTOR * (sample - previous);
+  }
+
+  private int clamp (double value) {
+    if (value <= minBatchSize) {
+      return minBatchSize;
+    } else if (value >= maxBatchSize) {
+      return maxBatchSize;
+    }
+    return (int) value;
+  }
+}
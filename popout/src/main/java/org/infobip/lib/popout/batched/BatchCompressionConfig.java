@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Wither;
+
+/**
+ * The batch compression configuration object.
+ * <p>
+ * The batched queue compresses each serialized batch as a whole with
+ * {@link java.util.zip.Deflater} before writing it to the disk, so the content,
+ * which is repeated from item to item (for example, the field names), is stored
+ * once per batch. The batch is decompressed once per head refill.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@Value
+@Wither
+@Builder
+public class BatchCompressionConfig {
+
+  /**
+   * The compression level, from {@code 0} to {@code 9}, or {@code -1} for the default one.
+   * The default value is {@link java.util.zip.Deflater#BEST_SPEED}.
+   */
+  Integer level;
+
+  /**
+   * The preset dictionary - a sample of the typical serialized items, which makes the small batches
+   * compress as well as the big ones. The batches, which were written with a dictionary,
+   * could be read only with the same one.
+   */
+  @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+  byte[] dictionary;
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.infobip.lib.popout.DirectBytes;
+import org.infobip.lib.popout.Varints;
+
+import io.appulse.utils.Bytes;
+import lombok.SneakyThrows;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The batch compression codec, the deflated batch format is:
+ * <pre>
+ * [1B DEFLATED_LAYOUT][4B elements count][removed items bitmap]{deflated batch}
+ * </pre>
+ * where the deflated batch is one of the {@link QueueSerializer} layouts.
+ * The removed items bitmap is not compressed, so an item is removed in place,
+ * and the bitmap is applied to the batch after the inflation. The preset
+ * dictionary's checksum is recorded in the deflated stream itself.
+ * <p>
+ * The deflated batches are always readable, even if the compression is turned off,
+ * unless they were written with a preset dictionary.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class BatchDeflater implements AutoCloseable {
+
+  static final byte DEFLATED_LAYOUT = 0x44;
+
+  static final int HEADER_BYTES = Byte.BYTES + Integer.BYTES;
+
+  private static final int CHUNK_BYTES = 8 * 1024;
+
+  private static final int SCRATCH_BYTES = 4 * 1024;
+
+  /**
+   * The max capacity of the kept scratch buffer, a bigger one is dropped after use,
+   * so a single huge batch doesn't pin its memory.
+   */
+  private static final int MAX_SCRATCH_BYTES = 1024 * 1024;
+
+  boolean enabled;
+
+  int level;
+
+  byte[] dictionary;
+
+  byte[] chunk = new byte[CHUNK_BYTES];
+
+  /**
+   * The reusable buffer for the not deflated batches.
+   */
+  @NonFinal
+  Bytes scratch;
+
+  @NonFinal
+  Deflater deflater;
+
+  @NonFinal
+  Inflater inflater;
+
+  BatchDeflater (BatchCompressionConfig config) {
+    enabled = config != null;
+    if (config == null || config.getLevel() == null) {
+      level = Deflater.BEST_SPEED;
+    } else {
+      level = config.getLevel();
+    }
+    dictionary = config == null
+                 ? null
+                 : config.getDictionary();
+  }
+
+  static boolean isDeflatedLayout (byte firstByte) {
+    return firstByte == DEFLATED_LAYOUT;
+  }
+
+  boolean isEnabled () {
+    return enabled;
+  }
+
+  /**
+   * Writes the deflated batch to the output.
+   *
+   * @param batch the serialized batch, its readable bytes are compressed
+   *
+   * @param count the batch's elements count
+   *
+   * @param output the destination buffer
+   */
+  @Synchronized
+  void deflate (Bytes batch, int count, Bytes output) {
+    output.write1B(DEFLATED_LAYOUT)
+        .write4B(count);
+    for (int index = QueueSerializer.bitmapBytes(count); index > 0; index--) {
+      output.write1B(0);
+    }
+
+    if (deflater == null) {
+      deflater = new Deflater(level);
+    }
+    deflater.reset();
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    if (batch instanceof DirectBytes) {
+      deflater.setInput(batch.getBytes(batch.readerIndex(), batch.readableBytes()));
+    } else {
+      deflater.setInput(batch.array(), batch.readerIndex(), batch.readableBytes());
+    }
+    deflater.finish();
+    while (!deflater.finished()) {
+      val deflated = deflater.deflate(chunk);
+      output.writeNB(chunk, 0, deflated);
+    }
+    batch.readerIndex(batch.writerIndex());
+  }
+
+  /**
+   * Serializes the batch to the reusable scratch buffer and writes it deflated to the output.
+   *
+   * @param writer the batch's serializer
+   *
+   * @param count the batch's elements count
+   *
+   * @param output the destination buffer
+   */
+  @Synchronized
+  void deflate (Consumer<Bytes> writer, int count, Bytes output) {
+    Bytes batch = scratch();
+    writer.accept(batch);
+    deflate(batch, count, output);
+    release(batch);
+  }
+
+  /**
+   * Inflates the deflated batch to the reusable scratch buffer and reads it.
+   *
+   * @param source the deflated batch
+   *
+   * @param reader the inflated batch's deserializer, the buffer must not be used after it
+   *
+   * @return the reader's result
+   */
+  @Synchronized
+  <R> R inflate (Bytes source, Function<Bytes, R> reader) {
+    Bytes batch = scratch();
+    inflate(source, batch);
+    val result = reader.apply(batch);
+    release(batch);
+    return result;
+  }
+
+  /**
+   * Inflates the deflated batch, which starts from the source's reader index,
+   * to the destination. The removed items are marked as removed in the inflated batch.
+   *
+   * @param source the deflated batch
+   *
+   * @param destination the inflated batch's buffer
+   */
+  @Synchronized
+  void inflate (Bytes source, Bytes destination) {
+    int start = source.readerIndex();
+    int count = source.getInt(start + Byte.BYTES);
+    int bitmapIndex = start + HEADER_BYTES;
+    int batchIndex = destination.writerIndex();
+
+    source.readerIndex(bitmapIndex + QueueSerializer.bitmapBytes(count));
+    inflateContent(source, destination);
+    markRemoved(source, bitmapIndex, count, destination, batchIndex);
+  }
+
+  @SneakyThrows
+  private void inflateContent (Bytes source, Bytes destination) {
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    inflater.reset();
+    if (source instanceof DirectBytes) {
+      inflater.setInput(source.getBytes(source.readerIndex(), source.readableBytes()));
+    } else {
+      inflater.setInput(source.array(), source.readerIndex(), source.readableBytes());
+    }
+    while (!inflater.finished()) {
+      val inflated = inflater.inflate(chunk);
+      if (inflated > 0) {
+        destination.writeNB(chunk, 0, inflated);
+      } else if (inflater.needsDictionary()) {
+        if (dictionary == null) {
+          throw new IllegalStateException("The batch was compressed with a preset dictionary, but there is no one");
+        }
+        inflater.setDictionary(dictionary);
+      } else if (inflater.needsInput()) {
+        throw new DataFormatException("The deflated batch is truncated");
+      } else {
+        throw new DataFormatException("The deflated batch is corrupted");
+      }
+    }
+    source.readerIndex(source.writerIndex());
+  }
+
+  /**
+   * Releases the native zlib streams. The codec is still usable after that,
+   * the streams are created again on demand.
+   */
+  @Override
+  @Synchronized
+  public void close () {
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+  }
+
+  private Bytes scratch () {
+    if (scratch == null) {
+      scratch = Bytes.resizableArray(SCRATCH_BYTES);
+    }
+    scratch.reset();
+    return scratch;
+  }
+
+  private void release (Bytes batch) {
+    if (batch.capacity() > MAX_SCRATCH_BYTES) {
+      scratch = null;
+    }
+  }
+
+  private static void markRemoved (Bytes source, int bitmapIndex, int count, Bytes batch, int batchIndex) {
+    val bitmapLength = QueueSerializer.bitmapBytes(count);
+    boolean hasRemoved = false;
+    for (int index = 0; index < bitmapLength && !hasRemoved; index++) {
+      hasRemoved = source.getByte(bitmapIndex + index) != 0;
+    }
+    if (!hasRemoved) {
+      return;
+    }
+
+    val firstByte = batch.getByte(batchIndex);
+    if (QueueSerializer.isCompactLayout(firstByte)) {
+      markRemovedCompact(source, bitmapIndex, count, batch, batchIndex);
+    } else if ((batch.getInt(batchIndex) & QueueSerializer.FIXED_LAYOUT) == 0) {
+      markRemovedVariable(source, bitmapIndex, count, batch, batchIndex);
+    } else {
+      // the same bitmap is in the fixed layout batch
+      val fixedBitmapIndex = batchIndex + QueueSerializer.FIXED_HEADER_BYTES;
+      for (int index = 0; index < bitmapLength; index++) {
+        val value = batch.getByte(fixedBitmapIndex + index) | source.getByte(bitmapIndex + index);
+        batch.set1B(fixedBitmapIndex + index, (byte) value);
+      }
+    }
+  }
+
+  private static void markRemovedCompact (Bytes source, int bitmapIndex, int count, Bytes batch, int batchIndex) {
+    int position = batchIndex + Byte.BYTES;
+    position += Varints.size(Varints.get(position, batch));
+    int index = 0;
+    while (index < count && position < batch.writerIndex()) {
+      val prefix = Varints.get(position, batch);
+      if ((prefix & QueueSerializer.REMOVED_FLAG) == 0) {
+        if (isRemoved(source, bitmapIndex, index)) {
+          // the flag is the varint's lowest bit, it is in the first byte
+          batch.set1B(position, (byte) (batch.getByte(position) | QueueSerializer.REMOVED_FLAG));
+        }
+        index++;
+      }
+      position += Varints.size(prefix) + (prefix >>> 1);
+    }
+  }
+
+  private static void markRemovedVariable (Bytes source, int bitmapIndex, int count, Bytes batch, int batchIndex) {
+    int position = batchIndex + Integer.BYTES;
+    int index = 0;
+    while (index < count && position + Integer.BYTES <= batch.writerIndex()) {
+      val length = batch.getInt(position);
+      if (length < 0) {
+        // the item was removed before the compression
+        position += Integer.BYTES - length;
+        continue;
+      }
+      if (isRemoved(source, bitmapIndex, index)) {
+        batch.set4B(position, -length);
+      }
+      index++;
+      position += Integer.BYTES + length;
+    }
+  }
+
+  private static boolean isRemoved (Bytes source, int bitmapIndex, int index) {
+    return QueueSerializer.isRemoved(source.getByte(bitmapIndex + index / Byte.SIZE), index);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+interface BatchSizePolicy {
+
+  static BatchSizePolicy fixed (int batchSize) {
+    return new FixedBatchSizePolicy(batchSize);
+  }
+
+  static BatchSizePolicy adaptive (int initialBatchSize, AdaptiveBatchSizeConfig config) {
+    return new AdaptiveBatchSizePolicy(initialBatchSize, config);
+  }
+
+  int getBatchSize ();
+
+  void onFlush (int elements, long startNanos, long endNanos);
+
+  @RequiredArgsConstructor
+  @FieldDefaults(level = PRIVATE, makeFinal = true)
+  class FixedBatchSizePolicy implements BatchSizePolicy {
+
+    int batchSize;
+
+    @Override
+    public int getBatchSize () {
+      return batchSize;
+    }
+
+    @Override
+    public void onFlush (int elements, long startNanos, long endNanos) {
+      // the batch size never changes
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package org.infobip.lib.popout.batched;
 
+import static java.util.Optional.ofNullable;
 import static lombok.AccessLevel.PRIVATE;
 
 import java.util.Iterator;
@@ -29,23 +30,34 @@ import java.util.function.Function;
 import org.infobip.lib.popout.FileQueue;
 import org.infobip.lib.popout.QueueLimit;
 import org.infobip.lib.popout.ReadWriteBytesPool;
-import org.infobip.lib.popout.backend.FileSystemBackend;
+import org.infobip.lib.popout.backend.QueueBackend;
 import org.infobip.lib.popout.backend.WalContent;
 
-import io.appulse.utils.LimitedQueue;
 import lombok.NonNull;
 import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.val;
 
+/**
+ * The batched {@link FileQueue} implementation, which keeps
+ * the head and the tail of the queue in memory.
+ * <p>
+ * The in-memory elements are Java objects by default, or serialized
+ * off-heap buffers if {@link BatchedFileQueueBuilder#offHeapBuffers(boolean)} is set.
+ *
+ * @param <T> the type of elements in this queue
+ *
+ * @author Artem Labazin
+ * @since 2.0.1
+ */
 @FieldDefaults(level = PRIVATE, makeFinal = true)
-class BatchedFileQueue<T> extends FileQueue<T> {
+public class BatchedFileQueue<T> extends FileQueue<T> {
 
   LongAdder size;
 
   Queue<T> tail;
 
-  FileSystemBackend backend;
+  QueueBackend backend;
 
   @NonFinal
   Queue<T> head;
@@ -54,6 +66,14 @@ class BatchedFileQueue<T> extends FileQueue<T> {
 
   QueueLimit<T> limit;
 
+  BatchSizePolicy batchSizePolicy;
+
+  ReadWriteBytesPool bytesPool;
+
+  boolean offHeapBuffers;
+
+  BatchDeflater deflater;
+
   Lock writeLock;
 
   Lock readLock;
@@ -61,32 +81,34 @@ class BatchedFileQueue<T> extends FileQueue<T> {
   BatchedFileQueue (@NonNull BatchedFileQueueBuilder<T> builder) {
     super();
 
-    backend = FileSystemBackend.builder()
-        .queueName(builder.getName())
-        .restoreFromDisk(builder.isRestoreFromDisk())
-        .walConfig(builder.getWalFilesConfig())
-        .compressedConfig(builder.getCompressedFilesConfig())
-        .corruptionHandler(builder.getCorruptionHandler())
-        .build();
+    backend = builder.getBackendFactory().create(builder);
 
+    deflater = new BatchDeflater(builder.getCompression());
     queueSerializer = QueueSerializer.<T>builder()
         .serializer(builder.getSerializer())
         .deserializer(builder.getDeserializer())
+        .compact(builder.isCompactFormat())
+        .deflater(deflater)
         .build();
 
     size = new LongAdder();
 
-    head = new LinkedList<>();
-    tail = new LimitedQueue<>(builder.getBatchSize());
-
-    val iterator = backend.iterator();
-    while (iterator.hasNext()) {
-      val walContent = iterator.next();
-      val length = queueSerializer.getQueueLength(walContent);
-      size.add(length);
+    offHeapBuffers = builder.isOffHeapBuffers();
+    if (offHeapBuffers) {
+      head = new SerializedQueue<>(builder.getSerializer(), builder.getDeserializer(), deflater);
+      tail = new SerializedQueue<>(builder.getSerializer(), builder.getDeserializer(), deflater);
+    } else {
+      head = new LinkedList<>();
+      tail = new LinkedList<>();
     }
+    batchSizePolicy = ofNullable(builder.getAdaptiveBatchSize())
+        .map(it -> BatchSizePolicy.adaptive(builder.getBatchSize(), it))
+        .orElseGet(() -> BatchSizePolicy.fixed(builder.getBatchSize()));
+
+    size.add(backend.count(queueSerializer::getQueueLength));
 
     limit = builder.getLimit();
+    bytesPool = builder.getBytesPool();
     writeLock = new ReentrantLock(true);
     readLock = new ReentrantLock(true);
   }
@@ -100,11 +122,9 @@ class BatchedFileQueue<T> extends FileQueue<T> {
 
     writeLock.lock();
     try {
-      if (tail.offer(value)) {
-        size.increment();
-        return true;
+      if (tail.size() >= batchSizePolicy.getBatchSize()) {
+        flush();
       }
-      flush();
       tail.add(value);
       size.increment();
     } finally {
@@ -122,6 +142,25 @@ class BatchedFileQueue<T> extends FileQueue<T> {
     return result;
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The {@code target} is reused with the off-heap buffers only
+   * (see {@link BatchedFileQueueBuilder#offHeapBuffers(boolean)}),
+   * otherwise the head elements are already deserialized.
+   */
+  @Override
+  public T pollInto (@NonNull T target) {
+    if (!offHeapBuffers) {
+      return poll();
+    }
+    val result = doOn(queue -> ((SerializedQueue<T>) queue).pollInto(target));
+    if (result != null) {
+      size.decrement();
+    }
+    return result;
+  }
+
   @Override
   public T peek () {
     return doOn(Queue::peek);
@@ -149,17 +188,27 @@ class BatchedFileQueue<T> extends FileQueue<T> {
       if (tail.isEmpty()) {
         return;
       }
-      ReadWriteBytesPool.getInstance().borrow(buffer -> {
-        queueSerializer.serialize(tail, buffer);
-        backend.write(buffer);
-        return null;
-      });
+      val startNanos = System.nanoTime();
+      writeTail();
+      batchSizePolicy.onFlush(tail.size(), startNanos, System.nanoTime());
       tail.clear();
     } finally {
       writeLock.unlock();
     }
   }
 
+  /**
+   * Returns the current effective batch size - the amount of tail's elements,
+   * which triggers the flush to the disk.
+   * <p>
+   * It is a constant value, unless the adaptive batch size is turned on.
+   *
+   * @return the effective batch size
+   */
+  public int getBatchSize () {
+    return batchSizePolicy.getBatchSize();
+  }
+
   @Override
   public void compress () {
     writeLock.lock();
@@ -179,6 +228,7 @@ class BatchedFileQueue<T> extends FileQueue<T> {
   public void close () {
     flush();
     backend.close();
+    deflater.close();
   }
 
   private T doOn (Function<Queue<T>, T> extractor) {
@@ -191,13 +241,9 @@ class BatchedFileQueue<T> extends FileQueue<T> {
 
       writeLock.lock();
       try {
-        return ReadWriteBytesPool.getInstance().borrow(buffer -> {
-          if (backend.pollTo(buffer) <= 0) {
-            return extractor.apply(tail);
-          }
-          head = queueSerializer.deserialize(buffer);
-          return extractor.apply(head);
-        });
+        return readHead()
+               ? extractor.apply(head)
+               : extractor.apply(tail);
       } finally {
         writeLock.unlock();
       }
@@ -206,6 +252,36 @@ class BatchedFileQueue<T> extends FileQueue<T> {
     }
   }
 
+  private void writeTail () {
+    if (offHeapBuffers && !deflater.isEnabled()) {
+      backend.write(((SerializedQueue<T>) tail).toBytes());
+      return;
+    }
+    bytesPool.borrow(buffer -> {
+      if (offHeapBuffers) {
+        buffer.reset();
+        deflater.deflate(((SerializedQueue<T>) tail).toBytes(), tail.size(), buffer);
+      } else {
+        queueSerializer.serialize(tail, buffer);
+      }
+      backend.write(buffer);
+      return null;
+    });
+  }
+
+  private boolean readHead () {
+    if (offHeapBuffers) {
+      return ((SerializedQueue<T>) head).readFrom(backend::pollTo);
+    }
+    return bytesPool.borrow(buffer -> {
+      if (backend.pollTo(buffer) <= 0) {
+        return false;
+      }
+      head = queueSerializer.deserialize(buffer);
+      return true;
+    });
+  }
+
   private class BatchedFileQueueIterator implements Iterator<T> {
 
     Iterator<T> current = head.iterator();
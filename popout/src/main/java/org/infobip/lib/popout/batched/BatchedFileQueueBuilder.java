@@ -18,10 +18,14 @@ package org.infobip.lib.popout.batched;
 
 import static lombok.AccessLevel.PRIVATE;
 
+import java.util.zip.Deflater;
+
 import org.infobip.lib.popout.FileQueue;
 
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.experimental.FieldDefaults;
+import lombok.val;
 
 /**
  * The specific builder object for a batched queue instance.
@@ -37,10 +41,18 @@ public class BatchedFileQueueBuilder<T> extends FileQueue.Builder<BatchedFileQue
 
   public static final int MEMORY_ELEMENTS_MIN = 1;
 
-  long batchSize;
+  int batchSize;
+
+  AdaptiveBatchSizeConfig adaptiveBatchSize;
+
+  boolean offHeapBuffers;
+
+  BatchCompressionConfig compression;
 
   /**
    * Sets the amount of queue's elements placed in one WAL file.
+   * <p>
+   * In case of adaptive batch size, it is an initial effective batch size.
    *
    * @param value the new value
    *
@@ -51,6 +63,58 @@ public class BatchedFileQueueBuilder<T> extends FileQueue.Builder<BatchedFileQue
     return this;
   }
 
+  /**
+   * Turns on the adaptive batch size, which changes between the configured bounds
+   * depending on the measured offer rate and flush duration.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public BatchedFileQueueBuilder<T> adaptiveBatchSize (@NonNull AdaptiveBatchSizeConfig value) {
+    adaptiveBatchSize = value;
+    return this;
+  }
+
+  /**
+   * Tells the queue to keep its in-memory head and tail elements serialized
+   * in the off-heap buffers, instead of the Java objects.
+   * <p>
+   * The elements are serialized on {@code offer} and deserialized on demand,
+   * and the tail is flushed to the disk as is, without re-serialization.
+   * It reduces the GC pressure with the large batch sizes.
+   * <p>
+   * The default value is: {@code false}
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public BatchedFileQueueBuilder<T> offHeapBuffers (boolean value) {
+    offHeapBuffers = value;
+    return this;
+  }
+
+  /**
+   * Turns on the compression of each batch as a whole, before writing it to the disk.
+   * <p>
+   * The compressed batches are readable regardless of this option, unless
+   * they were written with a preset dictionary.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public BatchedFileQueueBuilder<T> compression (@NonNull BatchCompressionConfig value) {
+    compression = value;
+    return this;
+  }
+
+  @Override
+  public BatchedFileQueue<T> build () {
+    return (BatchedFileQueue<T>) super.build();
+  }
+
   @Override
   protected FileQueue<T> createQueue () {
     return new BatchedFileQueue<>(this);
@@ -59,8 +123,37 @@ public class BatchedFileQueueBuilder<T> extends FileQueue.Builder<BatchedFileQue
   @Override
   protected void validateAndSetDefaults () {
     super.validateAndSetDefaults();
-    if (batchSize <= MEMORY_ELEMENTS_MIN) {
-      throw new IllegalArgumentException("batchSize - must be greater than 1");
+    validateCompression();
+    if (adaptiveBatchSize == null) {
+      if (batchSize <= MEMORY_ELEMENTS_MIN) {
+        throw new IllegalArgumentException("batchSize - must be greater than 1");
+      }
+      return;
+    }
+
+    if (adaptiveBatchSize.getMinBatchSize() <= MEMORY_ELEMENTS_MIN) {
+      throw new IllegalArgumentException("adaptiveBatchSize.minBatchSize - must be greater than 1");
+    }
+    if (adaptiveBatchSize.getMaxBatchSize() < adaptiveBatchSize.getMinBatchSize()) {
+      val msg = "adaptiveBatchSize.maxBatchSize - must be greater than or equal to minBatchSize";
+      throw new IllegalArgumentException(msg);
+    }
+    val maxFlushInterval = adaptiveBatchSize.getMaxFlushInterval();
+    if (maxFlushInterval == null || maxFlushInterval.isNegative() || maxFlushInterval.isZero()) {
+      throw new IllegalArgumentException("adaptiveBatchSize.maxFlushInterval - must be positive");
+    }
+    if (batchSize <= 0) {
+      batchSize = adaptiveBatchSize.getMinBatchSize();
+    }
+  }
+
+  private void validateCompression () {
+    if (compression == null || compression.getLevel() == null) {
+      return;
+    }
+    val level = compression.getLevel();
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("compression.level - must be in [-1, 9] range");
     }
   }
 }
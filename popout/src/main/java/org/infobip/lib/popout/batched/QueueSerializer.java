@@ -29,6 +29,7 @@ import java.util.stream.IntStream;
 
 import org.infobip.lib.popout.Deserializer;
 import org.infobip.lib.popout.Serializer;
+import org.infobip.lib.popout.Varints;
 import org.infobip.lib.popout.backend.WalContent;
 
 import io.appulse.utils.Bytes;
@@ -37,22 +38,113 @@ import lombok.Builder;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
 
+/**
+ * The batch of elements serializer, its format is:
+ * <pre>
+ * [4B elements count]{[4B item length][item]}
+ * </pre>
+ * or, if the serializer has a fixed size, the items are written without the length prefixes:
+ * <pre>
+ * [4B FIXED_LAYOUT | elements count][4B item size][removed items bitmap]{[item]}
+ * </pre>
+ * so the item's position is computed arithmetically. In the compact format,
+ * the lengths and the count are varints, and the lowest bit of an item's prefix
+ * is its tombstone flag:
+ * <pre>
+ * [1B COMPACT_LAYOUT][varint elements count]{[varint item length &lt;&lt; 1 | removed][item]}
+ * </pre>
+ * A removed item's length is negated or, in the fixed layout, its bit is set, or,
+ * in the compact layout, its tombstone flag is set. The layouts are distinguished
+ * by the first byte, the elements count of the first layout never has the
+ * {@code COMPACT_LAYOUT} byte value, because it is less than {@code 2^30}.
+ * <p>
+ * If the compression is turned on, any of the layouts is deflated as a whole
+ * (see {@link BatchDeflater}).
+ */
 @FieldDefaults(level = PRIVATE, makeFinal = true)
 class QueueSerializer<T> {
 
+  static final int FIXED_LAYOUT = 0x8000_0000;
+
+  static final int FIXED_HEADER_BYTES = Integer.BYTES * 2;
+
+  static final byte COMPACT_LAYOUT = 0x40;
+
+  static final int REMOVED_FLAG = 1;
+
   Serializer<T> serializer;
 
   Deserializer<T> deserializer;
 
+  boolean compact;
+
+  BatchDeflater deflater;
+
   @Builder
-  QueueSerializer (Serializer<T> serializer, Deserializer<T> deserializer) {
+  QueueSerializer (Serializer<T> serializer, Deserializer<T> deserializer, boolean compact, BatchDeflater deflater) {
     this.serializer = serializer;
     this.deserializer = deserializer;
+    this.compact = compact;
+    this.deflater = deflater == null
+                    ? new BatchDeflater(null)
+                    : deflater;
+  }
+
+  static int bitmapBytes (int count) {
+    return (int) ((count + Byte.SIZE - 1L) / Byte.SIZE);
+  }
+
+  /**
+   * Checks, that the fixed layout batch's declared items fit the batch's length,
+   * so a corrupted header does not make the items' offsets overflow or point past the batch.
+   *
+   * @param count the batch's items count
+   *
+   * @param itemSize the batch's item size
+   *
+   * @param length the batch's length, including the header
+   */
+  static void checkFixedLayout (int count, int itemSize, long length) {
+    val total = FIXED_HEADER_BYTES + bitmapBytes(count) + (long) count * itemSize;
+    if (itemSize < 0 || total > length) {
+      val msg = String.format("Fixed layout batch declares %d items of %d bytes, but has only %d bytes",
+                              count, itemSize, length);
+      throw new IllegalStateException(msg);
+    }
+  }
+
+  static boolean isRemoved (byte bitmapByte, int index) {
+    return (bitmapByte & (1 << (index % Byte.SIZE))) != 0;
+  }
+
+  static boolean isCompactLayout (byte firstByte) {
+    return firstByte == COMPACT_LAYOUT;
   }
 
   void serialize (Queue<T> collection, Bytes buffer) {
-    buffer.reset()
-        .write4B(collection.size());
+    if (!deflater.isEnabled()) {
+      serializeBatch(collection, buffer);
+      return;
+    }
+    buffer.reset();
+    deflater.deflate(batch -> serializeBatch(collection, batch), collection.size(), buffer);
+  }
+
+  private void serializeBatch (Queue<T> collection, Bytes buffer) {
+    val fixedSize = serializer.fixedSize();
+    if (fixedSize >= 0) {
+      serializeFixed(collection, fixedSize, buffer);
+      return;
+    }
+
+    buffer.reset();
+    reserve(collection, buffer);
+    if (compact) {
+      serializeCompact(collection, buffer);
+      return;
+    }
+
+    buffer.write4B(collection.size());
 
     collection.forEach(item -> {
       val writerIndex = buffer.writerIndex();
@@ -63,43 +155,168 @@ class QueueSerializer<T> {
   }
 
   Queue<T> deserialize (Bytes buffer) {
-    return IntStream.range(0, buffer.readInt())
+    if (BatchDeflater.isDeflatedLayout(buffer.getByte(buffer.readerIndex()))) {
+      return deflater.inflate(buffer, this::deserialize);
+    }
+    if (isCompactLayout(buffer.getByte(buffer.readerIndex()))) {
+      return deserializeCompact(buffer);
+    }
+    val header = buffer.readInt();
+    if ((header & FIXED_LAYOUT) != 0) {
+      return deserializeFixed(header & ~FIXED_LAYOUT, buffer);
+    }
+    return IntStream.range(0, header)
         .mapToObj(it -> deserializeItem(buffer))
         .filter(Objects::nonNull)
         .collect(toCollection(LinkedList::new));
   }
 
   int getQueueLength (WalContent walContent) {
-    val lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    val lengthBuffer = ByteBuffer.allocate(Byte.BYTES + Varints.MAX_BYTES);
     walContent.open((length, channel) -> {
+      lengthBuffer.limit(Math.min(length, lengthBuffer.capacity()));
       ReadBytesUtils.read(channel, lengthBuffer);
     });
     lengthBuffer.flip();
-    return lengthBuffer.getInt();
+    if (BatchDeflater.isDeflatedLayout(lengthBuffer.get(0))) {
+      return lengthBuffer.getInt(Byte.BYTES);
+    }
+    return isCompactLayout(lengthBuffer.get(0))
+           ? Varints.get(Byte.BYTES, lengthBuffer)
+           : lengthBuffer.getInt() & ~FIXED_LAYOUT;
   }
 
   Iterator<T> toIterator (WalContent walContent) {
-    return new WalContentIterator(walContent);
+    val header = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+    walContent.open((length, channel) -> {
+      ReadBytesUtils.read(channel, header);
+    });
+    header.flip();
+    if (BatchDeflater.isDeflatedLayout(header.get(0))) {
+      return new DeflatedWalContentIterator(walContent, header.getInt(Byte.BYTES));
+    }
+    if (isCompactLayout(header.get(0))) {
+      val elements = Varints.get(Byte.BYTES, header);
+      return new CompactWalContentIterator(walContent, elements, Byte.BYTES + Varints.size(elements));
+    }
+    val count = header.getInt();
+    if ((count & FIXED_LAYOUT) == 0) {
+      return new WalContentIterator(walContent);
+    }
+    return new FixedWalContentIterator(walContent, count & ~FIXED_LAYOUT, header.getInt());
+  }
+
+  @SuppressWarnings("PMD.UnusedPrivateMethod")
+  private void serializeFixed (Queue<T> collection, int fixedSize, Bytes buffer) {
+    val count = collection.size();
+    val total = FIXED_HEADER_BYTES + bitmapBytes(count) + (long) fixedSize * count;
+    buffer.reset();
+    if (total <= Integer.MAX_VALUE && !buffer.isWritable((int) total)) {
+      buffer.capacity((int) total);
+    }
+    buffer.write4B(FIXED_LAYOUT | count)
+        .write4B(fixedSize);
+    for (int index = bitmapBytes(count); index > 0; index--) {
+      buffer.write1B(0);
+    }
+    for (val item : collection) {
+      val writerIndex = buffer.writerIndex();
+      serializer.serialize(item, buffer);
+      if (buffer.writerIndex() - writerIndex != fixedSize) {
+        val msg = String.format("Serializer declares %d bytes fixed size, but wrote %d bytes",
+                                fixedSize, buffer.writerIndex() - writerIndex);
+        throw new IllegalStateException(msg);
+      }
+    }
+  }
+
+  /**
+   * Reserves the buffer's capacity for the whole batch, if the serializer
+   * estimates the sizes of all the items.
+   */
+  private void reserve (Queue<T> collection, Bytes buffer) {
+    long total = compact
+                 ? Byte.BYTES + Varints.size(collection.size())
+                 : Integer.BYTES;
+
+    for (val item : collection) {
+      val estimate = serializer.estimateSize(item);
+      if (estimate < 0) {
+        return;
+      }
+      val prefix = compact
+                   ? Varints.size(estimate << 1)
+                   : Integer.BYTES;
+      total += prefix + estimate;
+    }
+    if (total <= Integer.MAX_VALUE && !buffer.isWritable((int) total)) {
+      buffer.capacity((int) total);
+    }
+  }
+
+  private void serializeCompact (Queue<T> collection, Bytes buffer) {
+    buffer.write1B(COMPACT_LAYOUT);
+    Varints.write(collection.size(), buffer);
+    for (val item : collection) {
+      val writerIndex = buffer.writerIndex();
+      buffer.write1B(0); // the varint's place, it is moved if the length is longer
+      serializer.serialize(item, buffer);
+      val length = buffer.writerIndex() - writerIndex - Byte.BYTES;
+      Varints.insert(writerIndex, length << 1, buffer);
+    }
+  }
+
+  private Queue<T> deserializeCompact (Bytes buffer) {
+    buffer.readerIndex(buffer.readerIndex() + Byte.BYTES);
+    val count = Varints.read(buffer);
+    val result = new LinkedList<T>();
+    for (int index = 0; index < count && buffer.isReadable(); index++) {
+      val prefix = Varints.read(buffer);
+      val length = prefix >>> 1;
+      val next = buffer.readerIndex() + length;
+      if ((prefix & REMOVED_FLAG) == 0) {
+        result.add(deserializer.deserialize(length, buffer));
+      }
+      buffer.readerIndex(next);
+    }
+    return result;
+  }
+
+  @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+  private Queue<T> deserializeFixed (int count, Bytes buffer) {
+    val itemSize = buffer.readInt();
+    val bitmapIndex = buffer.readerIndex();
+    checkFixedLayout(count, itemSize, (long) buffer.writerIndex() - bitmapIndex + FIXED_HEADER_BYTES);
+    val itemsIndex = bitmapIndex + bitmapBytes(count);
+    val result = new LinkedList<T>();
+    for (int index = 0; index < count; index++) {
+      if (isRemoved(buffer.getByte(bitmapIndex + index / Byte.SIZE), index)) {
+        continue;
+      }
+      buffer.readerIndex((int) (itemsIndex + (long) index * itemSize));
+      result.add(deserializer.deserialize(itemSize, buffer));
+    }
+    buffer.readerIndex((int) (itemsIndex + (long) count * itemSize));
+    return result;
   }
 
   private T deserializeItem (Bytes buffer) {
-    int length = 0;
     while (buffer.isReadable(Integer.BYTES)) {
+      val length = buffer.readInt();
+      if (length >= 0) {
+        return deserializer.deserialize(length, buffer);
+      }
       // we are skipping removed items.
       // item is removed if its length is negative.
       // Math.abs(-length) - bytes to skip.
-      length = buffer.readInt();
-      if (length >= 0) {
-        break;
-      }
       val jump = Math.abs(length);
-      if (buffer.isReadable(jump)) {
+      if (!buffer.isReadable(jump)) {
         return null;
       }
       val newReaderPosition = buffer.readerIndex() + jump;
       buffer.readerIndex(newReaderPosition);
     }
-    return deserializer.deserialize(length, buffer);
+    return null;
   }
 
   private class WalContentIterator implements Iterator<T> {
@@ -195,7 +412,7 @@ class QueueSerializer<T> {
 
     @Override
     public void remove () {
-      walContent.open((walContentLength, channel) -> {
+      walContent.modify((walContentLength, channel) -> {
         channel.position(currentPosition);
 
         val buf = ByteBuffer.allocate(Integer.BYTES);
@@ -219,4 +436,248 @@ class QueueSerializer<T> {
       });
     }
   }
+
+  private class FixedWalContentIterator implements Iterator<T> {
+
+    WalContent walContent;
+
+    int elements;
+
+    int itemSize;
+
+    long bitmapPosition;
+
+    long itemsPosition;
+
+    ByteBuffer bitmap;
+
+    Bytes buffer;
+
+    int index;
+
+    int lastReturned = -1;
+
+    FixedWalContentIterator (WalContent walContent, int elements, int itemSize) {
+      this.walContent = walContent;
+      this.elements = elements;
+      this.itemSize = itemSize;
+      checkFixedLayout(elements, itemSize, walContent.getLength());
+      bitmapPosition = walContent.getOffset() + FIXED_HEADER_BYTES;
+      itemsPosition = bitmapPosition + bitmapBytes(elements);
+      buffer = Bytes.resizableArray(Math.max(itemSize, 1));
+
+      bitmap = ByteBuffer.allocate(bitmapBytes(elements));
+      walContent.open((length, channel) -> {
+        channel.position(bitmapPosition);
+        ReadBytesUtils.read(channel, bitmap);
+      });
+      skipRemoved();
+    }
+
+    @Override
+    public boolean hasNext () {
+      return index < elements;
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      buffer.reset();
+      walContent.open((length, channel) -> {
+        // the item's position is computed, there is no need to walk through the previous items
+        channel.position(itemsPosition + (long) index * itemSize);
+        ReadBytesUtils.read(channel, buffer, itemSize);
+      });
+      lastReturned = index;
+      index++;
+      skipRemoved();
+      return deserializer.deserialize(itemSize, buffer);
+    }
+
+    @Override
+    public void remove () {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      val byteIndex = lastReturned / Byte.SIZE;
+      bitmap.put(byteIndex, (byte) (bitmap.get(byteIndex) | 1 << (lastReturned % Byte.SIZE)));
+      walContent.modify((length, channel) -> {
+        val bitmapByte = ByteBuffer.wrap(bitmap.array(), byteIndex, 1);
+        channel.position(bitmapPosition + byteIndex);
+        channel.write(bitmapByte);
+      });
+      lastReturned = -1;
+    }
+
+    private void skipRemoved () {
+      while (index < elements && isRemoved(bitmap.get(index / Byte.SIZE), index)) {
+        index++;
+      }
+    }
+  }
+
+  private class DeflatedWalContentIterator implements Iterator<T> {
+
+    WalContent walContent;
+
+    int elements;
+
+    long bitmapPosition;
+
+    ByteBuffer bitmap;
+
+    Iterator<T> items;
+
+    int index = -1;
+
+    int lastReturned = -1;
+
+    DeflatedWalContentIterator (WalContent walContent, int elements) {
+      this.walContent = walContent;
+      this.elements = elements;
+      bitmapPosition = walContent.getOffset() + BatchDeflater.HEADER_BYTES;
+
+      // the whole batch is inflated at once, the removed items are not deserialized
+      val content = Bytes.resizableArray(Math.max(walContent.getLength(), 1));
+      walContent.open((length, channel) -> {
+        ReadBytesUtils.read(channel, content, length);
+      });
+      bitmap = ByteBuffer.wrap(content.getBytes(BatchDeflater.HEADER_BYTES, bitmapBytes(elements)));
+      items = deserialize(content).iterator();
+    }
+
+    @Override
+    public boolean hasNext () {
+      return items.hasNext();
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      // the live items are in the order of the not removed indexes
+      index++;
+      while (index < elements && isRemoved(bitmap.get(index / Byte.SIZE), index)) {
+        index++;
+      }
+      lastReturned = index;
+      return items.next();
+    }
+
+    @Override
+    public void remove () {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      val byteIndex = lastReturned / Byte.SIZE;
+      bitmap.put(byteIndex, (byte) (bitmap.get(byteIndex) | 1 << (lastReturned % Byte.SIZE)));
+      walContent.modify((length, channel) -> {
+        val bitmapByte = ByteBuffer.wrap(bitmap.array(), byteIndex, 1);
+        channel.position(bitmapPosition + byteIndex);
+        channel.write(bitmapByte);
+      });
+      lastReturned = -1;
+    }
+  }
+
+  private class CompactWalContentIterator implements Iterator<T> {
+
+    WalContent walContent;
+
+    int elements;
+
+    int index;
+
+    long currentPosition = -1;
+
+    long nextPosition;
+
+    ByteBuffer prefix;
+
+    Bytes buffer;
+
+    T nextItem;
+
+    CompactWalContentIterator (WalContent walContent, int elements, int headerBytes) {
+      this.walContent = walContent;
+      this.elements = elements;
+      nextPosition = walContent.getOffset() + headerBytes;
+      prefix = ByteBuffer.allocate(Varints.MAX_BYTES);
+      buffer = Bytes.resizableArray(32);
+    }
+
+    @Override
+    @SuppressWarnings("PMD.AccessorMethodGeneration")
+    public boolean hasNext () {
+      if (nextItem != null) {
+        return true;
+      }
+      if (index >= elements) {
+        return false;
+      }
+
+      walContent.open((walContentLength, channel) -> {
+        val limit = channel.position() + walContentLength;
+        while (nextItem == null && nextPosition < limit) {
+          prefix.clear();
+          prefix.limit((int) Math.min(limit - nextPosition, Varints.MAX_BYTES));
+          channel.position(nextPosition);
+          ReadBytesUtils.read(channel, prefix);
+          prefix.flip();
+
+          val value = Varints.get(0, prefix);
+          val itemPosition = nextPosition + Varints.size(value);
+          val length = value >>> 1;
+          // the removed items are skipped
+          if ((value & REMOVED_FLAG) == 0) {
+            buffer.reset();
+            if (!buffer.isWritable(length)) {
+              buffer.capacity(length);
+            }
+            channel.position(itemPosition);
+            if (ReadBytesUtils.read(channel, buffer, length) < length) {
+              throw new IllegalStateException();
+            }
+            nextItem = deserializer.deserialize(length, buffer);
+            currentPosition = nextPosition;
+          }
+          nextPosition = itemPosition + length;
+        }
+      });
+      return nextItem != null;
+    }
+
+    @Override
+    public T next () {
+      if (nextItem != null || hasNext()) {
+        val result = nextItem;
+        nextItem = null;
+        index++;
+        return result;
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove () {
+      if (currentPosition < 0) {
+        throw new IllegalStateException();
+      }
+      walContent.modify((walContentLength, channel) -> {
+        // the tombstone flag is the lowest bit of the varint's first byte
+        prefix.clear();
+        prefix.limit(Byte.BYTES);
+        channel.position(currentPosition);
+        ReadBytesUtils.read(channel, prefix);
+        prefix.put(0, (byte) (prefix.get(0) | REMOVED_FLAG));
+        prefix.flip();
+        channel.position(currentPosition);
+        channel.write(prefix);
+      });
+      currentPosition = -1;
+    }
+  }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+import org.infobip.lib.popout.Deserializer;
+import org.infobip.lib.popout.DirectBytes;
+import org.infobip.lib.popout.ReusingDeserializer;
+import org.infobip.lib.popout.Serializer;
+import org.infobip.lib.popout.Varints;
+
+import io.appulse.utils.Bytes;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The in-memory queue, which holds its elements serialized in an off-heap buffer,
+ * in the same format as {@link QueueSerializer} writes a batch on a disk:
+ * <pre>
+ * [4B elements count]{[4B item length][item]}
+ * </pre>
+ * The elements are deserialized on demand, and the whole buffer could be
+ * written to a disk as is, even if the serializer has a fixed size or the compact format is used.
+ * A removed element's length is negated.
+ */
+@FieldDefaults(level = PRIVATE)
+class SerializedQueue<T> extends AbstractQueue<T> {
+
+  static final int INITIAL_CAPACITY = 4 * 1024;
+
+  final Serializer<T> serializer;
+
+  final Deserializer<T> deserializer;
+
+  final BatchDeflater deflater;
+
+  final DirectBytes buffer;
+
+  // the index of the first not consumed item
+  int position;
+
+  int count;
+
+  int modifications;
+
+  SerializedQueue (@NonNull Serializer<T> serializer,
+                   @NonNull Deserializer<T> deserializer,
+                   @NonNull BatchDeflater deflater
+  ) {
+    super();
+    this.serializer = serializer;
+    this.deserializer = deserializer;
+    this.deflater = deflater;
+    buffer = DirectBytes.allocate(INITIAL_CAPACITY);
+    reset();
+  }
+
+  @Override
+  public boolean offer (@NonNull T value) {
+    val writerIndex = buffer.writerIndex();
+    buffer.write4B(0); // write fake length
+    serializer.serialize(value, buffer);
+    buffer.set4B(writerIndex, buffer.writerIndex() - writerIndex - Integer.BYTES); // write real length
+    count++;
+    modifications++;
+    return true;
+  }
+
+  @Override
+  public T poll () {
+    if (!skipRemoved()) {
+      return null;
+    }
+    int length = buffer.getInt(position);
+    val result = read(position, length);
+    removeHead(length);
+    return result;
+  }
+
+  /**
+   * Retrieves and removes the head of this queue, it is read into the {@code target}
+   * instance, if the deserializer could reuse it.
+   *
+   * @param target the instance to reuse
+   *
+   * @return the {@code target} or a new instance, or {@code null} if this queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  T pollInto (T target) {
+    if (!(deserializer instanceof ReusingDeserializer)) {
+      return poll();
+    }
+    if (!skipRemoved()) {
+      return null;
+    }
+    int length = buffer.getInt(position);
+    buffer.readerIndex(position + Integer.BYTES);
+    ((ReusingDeserializer<T>) deserializer).deserializeInto(target, length, buffer);
+    removeHead(length);
+    return target;
+  }
+
+  @Override
+  public T peek () {
+    return skipRemoved()
+           ? read(position, buffer.getInt(position))
+           : null;
+  }
+
+  @Override
+  public int size () {
+    return count;
+  }
+
+  @Override
+  public void clear () {
+    reset();
+  }
+
+  @Override
+  public Iterator<T> iterator () {
+    return new SerializedQueueIterator();
+  }
+
+  /**
+   * Returns the serialized batch of the not consumed elements,
+   * ready for writing to a disk.
+   *
+   * @return the buffer, which readable bytes are the serialized batch
+   */
+  Bytes toBytes () {
+    // the header overwrites the already consumed bytes (or the initial header's place)
+    val headerIndex = position - Integer.BYTES;
+    buffer.set4B(headerIndex, count);
+    buffer.readerIndex(headerIndex);
+    return buffer;
+  }
+
+  /**
+   * Replaces this queue's content with a serialized batch from the reader.
+   *
+   * @param reader the function, which writes a serialized batch to the buffer
+   *               and returns the amount of written bytes
+   *
+   * @return {@code true} if the reader has written a batch
+   */
+  boolean readFrom (@NonNull ToIntFunction<Bytes> reader) {
+    buffer.reset();
+    if (reader.applyAsInt(buffer) <= 0) {
+      reset();
+      return false;
+    }
+    if (BatchDeflater.isDeflatedLayout(buffer.getByte(0))) {
+      val deflated = Bytes.wrap(buffer.getBytes(0, buffer.writerIndex()));
+      buffer.reset();
+      deflater.inflate(deflated, buffer);
+    }
+    if (QueueSerializer.isCompactLayout(buffer.getByte(0))) {
+      rewriteFromCompactLayout();
+      return true;
+    }
+    count = buffer.getInt(0);
+    position = Integer.BYTES;
+    modifications++;
+    if ((count & QueueSerializer.FIXED_LAYOUT) != 0) {
+      rewriteToVariableLayout(count & ~QueueSerializer.FIXED_LAYOUT);
+    }
+    if (count == 0) {
+      reset();
+    }
+    return true;
+  }
+
+  /**
+   * Rewrites the fixed layout batch (see {@link QueueSerializer}), which was written
+   * without the off-heap buffers, to the length prefixed items.
+   */
+  private void rewriteToVariableLayout (int elements) {
+    val itemSize = buffer.getInt(Integer.BYTES);
+    QueueSerializer.checkFixedLayout(elements, itemSize, buffer.writerIndex());
+    val bitmapIndex = QueueSerializer.FIXED_HEADER_BYTES;
+    val itemsIndex = bitmapIndex + QueueSerializer.bitmapBytes(elements);
+    val fixed = buffer.getBytes(0, buffer.writerIndex());
+
+    reset();
+    for (int index = 0; index < elements; index++) {
+      if (!QueueSerializer.isRemoved(fixed[bitmapIndex + index / Byte.SIZE], index)) {
+        buffer.write4B(itemSize);
+        buffer.writeNB(fixed, (int) (itemsIndex + (long) index * itemSize), itemSize);
+        count++;
+      }
+    }
+  }
+
+  /**
+   * Rewrites the compact layout batch (see {@link QueueSerializer}), which was written
+   * without the off-heap buffers, to the 4 bytes length prefixed items.
+   */
+  private void rewriteFromCompactLayout () {
+    val compact = Bytes.wrap(buffer.getBytes(0, buffer.writerIndex()));
+    compact.readerIndex(Byte.BYTES);
+    val elements = Varints.read(compact);
+
+    reset();
+    for (int index = 0; index < elements && compact.isReadable(); index++) {
+      val prefix = Varints.read(compact);
+      val length = prefix >>> 1;
+      if ((prefix & QueueSerializer.REMOVED_FLAG) == 0) {
+        buffer.write4B(length);
+        buffer.writeNB(compact.array(), compact.readerIndex(), length);
+        count++;
+      }
+      compact.readerIndex(compact.readerIndex() + length);
+    }
+  }
+
+  private void reset () {
+    buffer.reset();
+    buffer.write4B(0); // the place for elements count
+    position = buffer.writerIndex();
+    count = 0;
+    modifications++;
+  }
+
+  private boolean skipRemoved () {
+    if (count == 0) {
+      return false;
+    }
+    int length = buffer.getInt(position);
+    while (length < 0) {
+      position += Integer.BYTES - length;
+      length = buffer.getInt(position);
+    }
+    return true;
+  }
+
+  private void removeHead (int length) {
+    position += Integer.BYTES + length;
+    count--;
+    modifications++;
+    if (count == 0) {
+      clear();
+    }
+  }
+
+  private T read (int index, int length) {
+    buffer.readerIndex(index + Integer.BYTES);
+    return deserializer.deserialize(length, buffer);
+  }
+
+  @FieldDefaults(level = PRIVATE)
+  private class SerializedQueueIterator implements Iterator<T> {
+
+    int nextIndex = position;
+
+    int lastReturnedIndex = -1;
+
+    int expectedModifications = modifications;
+
+    @Override
+    public boolean hasNext () {
+      checkModifications();
+      while (nextIndex < buffer.writerIndex()) {
+        val length = buffer.getInt(nextIndex);
+        if (length >= 0) {
+          return true;
+        }
+        nextIndex += Integer.BYTES - length;
+      }
+      return false;
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      val length = buffer.getInt(nextIndex);
+      val result = read(nextIndex, length);
+      lastReturnedIndex = nextIndex;
+      nextIndex += Integer.BYTES + length;
+      return result;
+    }
+
+    @Override
+    public void remove () {
+      if (lastReturnedIndex < 0) {
+        throw new IllegalStateException();
+      }
+      checkModifications();
+      buffer.set4B(lastReturnedIndex, -buffer.getInt(lastReturnedIndex));
+      lastReturnedIndex = -1;
+      count--;
+      if (count == 0) {
+        clear();
+        nextIndex = position;
+      }
+      modifications++;
+      expectedModifications = modifications;
+    }
+
+    private void checkModifications () {
+      if (expectedModifications != modifications) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.hybrid;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.QueueLimit;
+import org.infobip.lib.popout.batched.BatchedFileQueue;
+
+import lombok.NonNull;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The hybrid {@link FileQueue} implementation, which keeps the elements
+ * in a bounded in-memory ring, and writes them to the disk only under backlog.
+ * <p>
+ * When the in-memory occupancy reaches the {@code highWaterMark}, the oldest
+ * elements are spilled to the disk (as one batch), till the {@code lowWaterMark}
+ * remains in memory. The reads are served from the disk first, while there are
+ * spilled elements, to keep FIFO order.
+ * <p>
+ * The in-memory elements are lost in case of a crash, unless the write-behind
+ * journal is turned on (see {@link JournalConfig}). The journal is rewritten,
+ * when an in-memory element is removed via iterator, so the removals cost
+ * the in-memory elements' serialization.
+ *
+ * @param <T> the type of elements in this queue
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+public class HybridFileQueue<T> extends FileQueue<T> {
+
+  Queue<T> memory;
+
+  BatchedFileQueue<T> disk;
+
+  WriteBehindJournal<T> journal;
+
+  QueueLimit<T> limit;
+
+  int highWaterMark;
+
+  int lowWaterMark;
+
+  HybridFileQueue (@NonNull HybridFileQueueBuilder<T> builder) {
+    super();
+
+    disk = FileQueue.<T>batched()
+        .name(builder.getName())
+        .folder(builder.getFolder())
+        .serializer(builder.getSerializer())
+        .deserializer(builder.getDeserializer())
+        .wal(builder.getWalFilesConfig())
+        .compressed(builder.getCompressedFilesConfig())
+        .restoreFromDisk(builder.isRestoreFromDisk())
+        .corruptionHandler(builder.getCorruptionHandler())
+        .bytesPool(builder.getBytesPool())
+        .backend(builder.getBackendFactory())
+        .manifest(builder.isManifest())
+        .recoveryParallelism(builder.getRecoveryParallelism())
+        .compactFormat(builder.isCompactFormat())
+        .batchSize(Integer.MAX_VALUE) // the spilled batches are flushed manually
+        .build();
+
+    highWaterMark = builder.getHighWaterMark();
+    lowWaterMark = builder.getLowWaterMark();
+    limit = builder.getLimit();
+    memory = new ArrayDeque<>(highWaterMark + 1);
+
+    val journalConfig = builder.getJournalConfig();
+    if (journalConfig == null) {
+      journal = null;
+    } else {
+      journal = WriteBehindJournal.<T>builder()
+          .file(journalConfig.getFolder().resolve(builder.getName() + ".journal"))
+          .serializer(builder.getSerializer())
+          .deserializer(builder.getDeserializer())
+          .flushInterval(journalConfig.getFlushInterval())
+          .fsync(journalConfig.isFsync())
+          .restore(builder.isRestoreFromDisk())
+          .build();
+
+      // the restored elements are already in the journal
+      memory.addAll(journal.getRestored());
+    }
+  }
+
+  @Override
+  @Synchronized
+  public boolean offer (@NonNull T value) {
+    if (limit.isExceeded(this)) {
+      limit.handle(value, this);
+      return false;
+    }
+
+    if (memory.size() >= highWaterMark) {
+      spill(memory.size() - lowWaterMark);
+    }
+    memory.add(value);
+    if (journal != null) {
+      journal.append(value);
+    }
+    return true;
+  }
+
+  @Override
+  @Synchronized
+  public T poll () {
+    if (disk.longSize() > 0) {
+      return disk.poll();
+    }
+
+    val result = memory.poll();
+    if (result != null) {
+      consumed(1);
+    }
+    return result;
+  }
+
+  @Override
+  @Synchronized
+  public T pollInto (@NonNull T target) {
+    return disk.longSize() > 0
+           ? disk.pollInto(target)
+           : poll();
+  }
+
+  @Override
+  @Synchronized
+  public T peek () {
+    return disk.longSize() > 0
+           ? disk.peek()
+           : memory.peek();
+  }
+
+  @Override
+  public int size () {
+    return (int) longSize();
+  }
+
+  @Override
+  @Synchronized
+  public long longSize () {
+    return disk.longSize() + memory.size();
+  }
+
+  @Override
+  public long diskSize () {
+    return journal == null
+           ? disk.diskSize()
+           : disk.diskSize() + journal.size();
+  }
+
+  /**
+   * Spills all in-memory elements to the disk.
+   */
+  @Override
+  @Synchronized
+  public void flush () {
+    spill(memory.size());
+  }
+
+  @Override
+  @Synchronized
+  public void compress () {
+    disk.compress();
+  }
+
+  @Override
+  public Iterator<T> iterator () {
+    return new HybridFileQueueIterator();
+  }
+
+  @Override
+  @Synchronized
+  public void close () {
+    spill(memory.size());
+    if (journal != null) {
+      journal.close();
+    }
+    disk.close();
+  }
+
+  private void spill (int count) {
+    if (count <= 0) {
+      return;
+    }
+    for (int index = 0; index < count; index++) {
+      disk.add(memory.poll());
+    }
+    disk.flush();
+    consumed(count);
+  }
+
+  private void consumed (int count) {
+    if (journal == null) {
+      return;
+    }
+    if (memory.isEmpty()) {
+      journal.reset();
+      return;
+    }
+    journal.consumed(count);
+    // the journal doesn't grow without bound under a sustained backlog
+    if (journal.isCompactable(memory.size())) {
+      journal.rewrite(memory);
+    }
+  }
+
+  @Synchronized
+  final void remove (Iterator<T> memoryIterator) {
+    memoryIterator.remove();
+    if (journal != null) {
+      // the removed element must not be restored from the journal after a crash
+      journal.rewrite(memory);
+    }
+  }
+
+  private class HybridFileQueueIterator implements Iterator<T> {
+
+    Iterator<T> memoryIterator = memory.iterator();
+
+    Iterator<T> current = disk.iterator();
+
+    boolean inMemory;
+
+    @Override
+    public boolean hasNext () {
+      if (current.hasNext()) {
+        return true;
+      } else if (memoryIterator.hasNext()) {
+        current = memoryIterator;
+        inMemory = true;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    @Override
+    public void remove () {
+      if (inMemory) {
+        HybridFileQueue.this.remove(memoryIterator);
+      } else {
+        current.remove();
+      }
+    }
+  }
+}
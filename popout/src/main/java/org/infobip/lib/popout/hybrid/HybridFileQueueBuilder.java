@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.hybrid;
+
+import static java.util.Optional.ofNullable;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.file.Files;
+import java.time.Duration;
+
+import org.infobip.lib.popout.FileQueue;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * The specific builder object for a hybrid queue instance.
+ *
+ * @param <T> the type of elements in this queue
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@Getter
+@FieldDefaults(level = PRIVATE)
+public class HybridFileQueueBuilder<T> extends FileQueue.Builder<HybridFileQueueBuilder<T>, T> {
+
+  int highWaterMark;
+
+  int lowWaterMark = -1;
+
+  JournalConfig journalConfig;
+
+  /**
+   * Sets the amount of in-memory elements, after which the oldest ones are spilled to the disk.
+   * <p>
+   * The default value is: {@code 10_000}
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public HybridFileQueueBuilder<T> highWaterMark (int value) {
+    highWaterMark = value;
+    return this;
+  }
+
+  /**
+   * Sets the amount of in-memory elements, which remain in memory after a spill.
+   * <p>
+   * The default value is a half of the {@code highWaterMark}.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public HybridFileQueueBuilder<T> lowWaterMark (int value) {
+    lowWaterMark = value;
+    return this;
+  }
+
+  /**
+   * Turns on the write-behind journal for the in-memory elements.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   */
+  public HybridFileQueueBuilder<T> journal (@NonNull JournalConfig value) {
+    journalConfig = value;
+    return this;
+  }
+
+  @Override
+  public HybridFileQueue<T> build () {
+    return (HybridFileQueue<T>) super.build();
+  }
+
+  @Override
+  protected FileQueue<T> createQueue () {
+    return new HybridFileQueue<>(this);
+  }
+
+  @Override
+  @SneakyThrows
+  protected void validateAndSetDefaults () {
+    super.validateAndSetDefaults();
+
+    if (highWaterMark < 0) {
+      throw new IllegalArgumentException("highWaterMark - must be greater than 0");
+    } else if (highWaterMark == 0) {
+      highWaterMark = 10_000;
+    }
+
+    if (lowWaterMark < 0) {
+      lowWaterMark = highWaterMark / 2;
+    } else if (lowWaterMark >= highWaterMark) {
+      throw new IllegalArgumentException("lowWaterMark - must be less than highWaterMark");
+    }
+
+    journalConfig = ofNullable(journalConfig)
+        .map(it -> it.getFolder() == null
+                   ? it.withFolder(getWalFilesConfig().getFolder())
+                   : it
+        )
+        .map(it -> it.getFlushInterval() == null
+                   ? it.withFlushInterval(Duration.ofMillis(100))
+                   : it
+        )
+        .orElse(null);
+
+    if (journalConfig != null) {
+      Files.createDirectories(journalConfig.getFolder());
+    }
+  }
+}
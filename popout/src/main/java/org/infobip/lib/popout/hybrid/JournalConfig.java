@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.hybrid;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.experimental.Wither;
+
+/**
+ * The write-behind journal configuration object.
+ * <p>
+ * The journal asynchronously appends the in-memory elements of a hybrid queue
+ * to a file, and replays them after a crash. It gives <b>at-least-once</b>
+ * guarantee: the elements, consumed after the last journal flush, could be
+ * delivered again after a restart.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@Value
+@Wither
+@Builder
+public class JournalConfig {
+
+  /**
+   * The folder where the journal file is placed.
+   * The default value is the WAL files folder.
+   */
+  Path folder;
+
+  /**
+   * The interval between the journal's flushes.
+   * The default value is {@code 100} milliseconds.
+   */
+  Duration flushInterval;
+
+  /**
+   * Forces the journal's content to the storage device on each flush, or not.
+   */
+  boolean fsync;
+
+  /**
+   * The configuration builder.
+   */
+  public static class JournalConfigBuilder {
+
+    /**
+     * Sets the folder's name where the journal file will be placed.
+     *
+     * @param value the new value
+     *
+     * @return the builder object for chain calls
+     */
+    public JournalConfigBuilder folder (@NonNull String value) {
+      return folder(Paths.get(value));
+    }
+
+    /**
+     * Sets the folder's path where the journal file will be placed.
+     *
+     * @param value the new value
+     *
+     * @return the builder object for chain calls
+     */
+    public JournalConfigBuilder folder (@NonNull Path value) {
+      folder = value;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.hybrid;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.infobip.lib.popout.ChannelBytesUtils;
+import org.infobip.lib.popout.Deserializer;
+import org.infobip.lib.popout.Serializer;
+
+import io.appulse.utils.Bytes;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+/**
+ * The write-behind journal of the hybrid queue's in-memory elements.
+ * <p>
+ * The file's format is:
+ * <pre>
+ * [8B consumed elements count]{[4B item length][item]}
+ * </pre>
+ * The elements are appended to an in-memory buffer and are written to the file
+ * by a background thread. The consumed elements count tells how many
+ * first elements were already polled or spilled to the disk, so they must be
+ * skipped during the restore. The file is truncated, when all its elements are consumed,
+ * and it is rewritten with the live elements only, when the consumed prefix outgrows them
+ * (see {@link #isCompactable(int)}) or an element is removed from the middle.
+ */
+@Slf4j
+@FieldDefaults(level = PRIVATE)
+class WriteBehindJournal<T> implements AutoCloseable {
+
+  static final int HEADER_BYTES = Long.BYTES;
+
+  /**
+   * The minimal consumed elements count, which makes the journal worth rewriting.
+   */
+  static final int COMPACTION_MIN_CONSUMED = 1024;
+
+  static final String TEMPORARY_SUFFIX = ".tmp";
+
+  final Object flushLock = new Object();
+
+  final Path file;
+
+  FileChannel channel;
+
+  final Serializer<T> serializer;
+
+  final boolean fsync;
+
+  final ByteBuffer header;
+
+  final List<T> restored;
+
+  final ScheduledExecutorService executor;
+
+  Bytes pending;
+
+  Bytes writing;
+
+  long consumed;
+
+  boolean truncate;
+
+  long writingConsumed;
+
+  boolean writingTruncate;
+
+  @Builder
+  @SneakyThrows
+  WriteBehindJournal (@NonNull Path file,
+                      @NonNull Serializer<T> serializer,
+                      @NonNull Deserializer<T> deserializer,
+                      Duration flushInterval,
+                      boolean fsync,
+                      boolean restore
+  ) {
+    this.file = file;
+    this.serializer = serializer;
+    this.fsync = fsync;
+
+    // a rewrite was interrupted by a crash, the journal itself is still whole
+    Files.deleteIfExists(temporary());
+    if (!restore) {
+      Files.deleteIfExists(file);
+    }
+    channel = FileChannel.open(file, CREATE, READ, WRITE);
+    header = ByteBuffer.allocate(HEADER_BYTES);
+    pending = Bytes.resizableArray(512);
+    writing = Bytes.resizableArray(512);
+    restored = new ArrayList<>();
+    read(deserializer);
+
+    val flushIntervalNanos = ofNullable(flushInterval)
+        .map(Duration::toNanos)
+        .orElse(MILLISECONDS.toNanos(100));
+
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      val thread = new Thread(runnable, "popout-journal-" + file.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::flushSafely, flushIntervalNanos, flushIntervalNanos, NANOSECONDS);
+  }
+
+  /**
+   * Returns the not consumed elements from the previous run.
+   * They are already in the journal and should not be appended again.
+   */
+  List<T> getRestored () {
+    return restored;
+  }
+
+  @Synchronized
+  void append (T value) {
+    write(value, pending);
+  }
+
+  @Synchronized
+  void consumed (int count) {
+    consumed += count;
+  }
+
+  /**
+   * Tells is the consumed prefix big enough to rewrite the journal.
+   *
+   * @param live the not consumed elements count
+   *
+   * @return {@code true} if the consumed elements outnumber the live ones
+   */
+  @Synchronized
+  boolean isCompactable (int live) {
+    return consumed >= COMPACTION_MIN_CONSUMED && consumed >= live;
+  }
+
+  /**
+   * Replaces the journal with the one, which has the {@code elements} only.
+   * The consumed and the removed elements are dropped, the pending ones too,
+   * because they must be among the {@code elements}. The new journal is written
+   * to a temporary file and is moved over the old one, so a crash leaves one of them whole.
+   *
+   * @param elements all the live elements, in order
+   */
+  @SneakyThrows
+  void rewrite (@NonNull Collection<T> elements) {
+    synchronized (flushLock) {
+      val buffer = Bytes.resizableArray(512);
+      buffer.write8B(0);
+      for (val element : elements) {
+        write(element, buffer);
+      }
+
+      val temporary = temporary();
+      try (FileChannel output = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+        ChannelBytesUtils.write(output, buffer);
+        if (fsync) {
+          output.force(false);
+        }
+      }
+      channel.close();
+      Files.move(temporary, file, REPLACE_EXISTING, ATOMIC_MOVE);
+      channel = FileChannel.open(file, READ, WRITE);
+      clear();
+    }
+  }
+
+  /**
+   * Marks all the journaled elements as consumed, the journal will be truncated.
+   */
+  @Synchronized
+  void reset () {
+    pending.reset();
+    consumed = 0;
+    truncate = true;
+  }
+
+  @SneakyThrows
+  long size () {
+    return channel.size();
+  }
+
+  @SneakyThrows
+  void flush () {
+    synchronized (flushLock) {
+      swap();
+      if (writingTruncate) {
+        channel.truncate(HEADER_BYTES);
+      }
+      if (writing.isReadable()) {
+        channel.position(channel.size());
+        ChannelBytesUtils.write(channel, writing);
+      }
+      header.clear();
+      header.putLong(0, writingConsumed);
+      channel.write(header, 0);
+      if (fsync) {
+        channel.force(false);
+      }
+      writing.reset();
+    }
+  }
+
+  @Override
+  @SneakyThrows
+  public void close () {
+    executor.shutdown();
+    executor.awaitTermination(1, MINUTES);
+    flush();
+    val empty = channel.size() <= HEADER_BYTES;
+    channel.close();
+    if (empty) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Synchronized
+  private void clear () {
+    pending.reset();
+    consumed = 0;
+    truncate = false;
+  }
+
+  private void write (T value, Bytes buffer) {
+    val writerIndex = buffer.writerIndex();
+    buffer.write4B(0); // write fake length
+    serializer.serialize(value, buffer);
+    buffer.set4B(writerIndex, buffer.writerIndex() - writerIndex - Integer.BYTES); // write real length
+  }
+
+  private Path temporary () {
+    return file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+  }
+
+  @Synchronized
+  private void swap () {
+    val tmp = writing;
+    writing = pending;
+    pending = tmp;
+    writingConsumed = consumed;
+    writingTruncate = truncate;
+    truncate = false;
+  }
+
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private void flushSafely () {
+    try {
+      flush();
+    } catch (Exception ex) {
+      log.error("Journal {} flush error", file, ex);
+    }
+  }
+
+  @SneakyThrows
+  @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+  private void read (Deserializer<T> deserializer) {
+    val fileSize = channel.size();
+    if (fileSize < HEADER_BYTES) {
+      channel.truncate(0);
+      header.clear();
+      header.putLong(0, 0L);
+      channel.write(header, 0);
+      return;
+    }
+
+    header.clear();
+    channel.read(header, 0);
+    consumed = header.getLong(0);
+
+    val buffer = Bytes.resizableArray(512);
+    long position = HEADER_BYTES;
+    long index = 0;
+    while (position + Integer.BYTES <= fileSize) {
+      header.clear();
+      header.limit(Integer.BYTES);
+      channel.read(header, position);
+      val length = header.getInt(0);
+      if (length < 0 || position + Integer.BYTES + length > fileSize) {
+        break; // a torn record
+      }
+
+      if (index >= consumed) {
+        buffer.reset();
+        if (!buffer.isWritable(length)) {
+          buffer.capacity(length);
+        }
+        channel.position(position + Integer.BYTES);
+        ChannelBytesUtils.read(channel, buffer, length);
+        restored.add(deserializer.deserialize(length, buffer));
+      }
+      position += Integer.BYTES + length;
+      index++;
+    }
+    // cuts a torn record off, if any
+    channel.truncate(position);
+    channel.position(position);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.primitive;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import lombok.NonNull;
+
+/**
+ * The batched queue of {@code int} values, which stores each element as {@code 4} bytes on the disk.
+ * <p>
+ * The {@link #offerInt(int)}, {@link #pollInt()} and {@link #peekInt()} methods
+ * don't box the values, the {@link java.util.Queue} methods are still available.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public class IntFileQueue extends PrimitiveFileQueue<Integer> {
+
+  IntFileQueue (IntFileQueueBuilder builder) {
+    super(builder, Integer.BYTES);
+  }
+
+  @Override
+  public boolean offer (@NonNull Integer value) {
+    return offerValue(value);
+  }
+
+  /**
+   * Inserts the value into this queue.
+   *
+   * @param value the value to add
+   *
+   * @return {@code true} if the value was added, {@code false} if the queue's limit is exceeded
+   */
+  public boolean offerInt (int value) {
+    return offerValue(value);
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  public int pollInt () {
+    return (int) pollValue();
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  public int pollInt (int emptyValue) {
+    return (int) pollValue(emptyValue);
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  public int peekInt () {
+    return (int) peekValue();
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  public int peekInt (int emptyValue) {
+    return (int) peekValue(emptyValue);
+  }
+
+  @Override
+  Integer box (long value) {
+    return (int) value;
+  }
+
+  @Override
+  long element (ByteBuffer buffer, int position) {
+    return buffer.getInt(position);
+  }
+
+  @Override
+  void append (ByteBuffer buffer, long value) {
+    buffer.putInt((int) value);
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.primitive;
+
+import org.infobip.lib.popout.FileQueue;
+
+/**
+ * The specific builder object for an {@code int} values queue instance.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public class IntFileQueueBuilder extends PrimitiveFileQueueBuilder<IntFileQueueBuilder, Integer> {
+
+  @Override
+  public IntFileQueue build () {
+    return (IntFileQueue) super.build();
+  }
+
+  @Override
+  protected FileQueue<Integer> createQueue () {
+    return new IntFileQueue(this);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.primitive;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import lombok.NonNull;
+
+/**
+ * The batched queue of {@code long} values, which stores each element as {@code 8} bytes on the disk.
+ * <p>
+ * The {@link #offerLong(long)}, {@link #pollLong()} and {@link #peekLong()} methods
+ * don't box the values, the {@link java.util.Queue} methods are still available.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public class LongFileQueue extends PrimitiveFileQueue<Long> {
+
+  LongFileQueue (LongFileQueueBuilder builder) {
+    super(builder, Long.BYTES);
+  }
+
+  @Override
+  public boolean offer (@NonNull Long value) {
+    return offerValue(value);
+  }
+
+  /**
+   * Inserts the value into this queue.
+   *
+   * @param value the value to add
+   *
+   * @return {@code true} if the value was added, {@code false} if the queue's limit is exceeded
+   */
+  public boolean offerLong (long value) {
+    return offerValue(value);
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  public long pollLong () {
+    return pollValue();
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  public long pollLong (long emptyValue) {
+    return pollValue(emptyValue);
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  public long peekLong () {
+    return peekValue();
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  public long peekLong (long emptyValue) {
+    return peekValue(emptyValue);
+  }
+
+  @Override
+  Long box (long value) {
+    return value;
+  }
+
+  @Override
+  long element (ByteBuffer buffer, int position) {
+    return buffer.getLong(position);
+  }
+
+  @Override
+  void append (ByteBuffer buffer, long value) {
+    buffer.putLong(value);
+  }
+}
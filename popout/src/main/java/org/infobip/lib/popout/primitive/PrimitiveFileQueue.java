@@ -0,0 +1,461 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.primitive;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.QueueLimit;
+import org.infobip.lib.popout.ReadWriteBytesPool;
+import org.infobip.lib.popout.backend.QueueBackend;
+import org.infobip.lib.popout.backend.WalContent;
+
+import io.appulse.utils.Bytes;
+import io.appulse.utils.ReadBytesUtils;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The base of the batched queues of primitive values, which store the batches as
+ * fixed-width records without any per-element length prefixes:
+ * <pre>
+ * {[element]}
+ * </pre>
+ * The amount of elements in a record is its length divided by the element's width.
+ * <p>
+ * The in-memory head and tail are kept in the records' format too, so a record is read
+ * to the head and the tail is written to a record by one copy, and the subclasses only
+ * read and write the typed elements.
+ * <p>
+ * The elements could not be removed via iterator, because a fixed-width record
+ * has no place for the removal marks.
+ *
+ * @param <T> the boxed type of elements in this queue
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+public abstract class PrimitiveFileQueue<T> extends FileQueue<T> {
+
+  LongAdder size;
+
+  QueueBackend backend;
+
+  QueueLimit<T> limit;
+
+  ReadWriteBytesPool bytesPool;
+
+  int elementBytes;
+
+  int batchSize;
+
+  Lock writeLock;
+
+  Lock readLock;
+
+  /**
+   * The in-memory head's elements, from the buffer's position till its limit.
+   */
+  @NonFinal
+  ByteBuffer head;
+
+  /**
+   * The in-memory tail's elements, till the buffer's position.
+   */
+  @NonFinal
+  ByteBuffer tail;
+
+  PrimitiveFileQueue (@NonNull PrimitiveFileQueueBuilder<?, T> builder, int elementBytes) {
+    super();
+    this.elementBytes = elementBytes;
+
+    backend = builder.getBackendFactory().create(builder);
+    batchSize = builder.getBatchSize();
+    limit = builder.getLimit();
+    bytesPool = builder.getBytesPool();
+    writeLock = new ReentrantLock(true);
+    readLock = new ReentrantLock(true);
+
+    head = ByteBuffer.allocate(batchSize * elementBytes);
+    head.limit(0);
+    tail = ByteBuffer.allocate(batchSize * elementBytes);
+
+    size = new LongAdder();
+    size.add(backend.count(content -> content.getLength() / elementBytes));
+  }
+
+  @Override
+  public int size () {
+    return size.intValue();
+  }
+
+  @Override
+  public long longSize () {
+    return size.longValue();
+  }
+
+  @Override
+  public long diskSize () {
+    return backend.diskSize();
+  }
+
+  @Override
+  public void flush () {
+    writeLock.lock();
+    try {
+      if (tail.position() == 0) {
+        return;
+      }
+      bytesPool.borrow(buffer -> {
+        buffer.reset();
+        buffer.writeNB(tail.array(), 0, tail.position());
+        backend.write(buffer);
+        return null;
+      });
+      tail.clear();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the amount of tail's elements, which triggers the flush to the disk.
+   *
+   * @return the batch size
+   */
+  public int getBatchSize () {
+    return batchSize;
+  }
+
+  @Override
+  public void compress () {
+    writeLock.lock();
+    try {
+      backend.compress();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void close () {
+    flush();
+    backend.close();
+  }
+
+  @Override
+  public T poll () {
+    readLock.lock();
+    try {
+      if (!ensureHead()) {
+        return null;
+      }
+      size.decrement();
+      return box(takeHead());
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public T peek () {
+    readLock.lock();
+    try {
+      return ensureHead()
+             ? box(headValue())
+             : null;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Iterator<T> iterator () {
+    return new PrimitiveFileQueueIterator();
+  }
+
+  /**
+   * Inserts the value into this queue, if the queue's limit allows it.
+   *
+   * @param value the value to add, it is boxed only for the exceeded limit handler
+   *
+   * @return {@code true} if the value was added
+   */
+  boolean offerValue (long value) {
+    if (limit.isExceeded(this)) {
+      limit.handle(box(value), this);
+      return false;
+    }
+
+    writeLock.lock();
+    try {
+      if (tail.position() >= batchSize * elementBytes) {
+        flush();
+      }
+      append(tail, value);
+      size.increment();
+    } finally {
+      writeLock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  long pollValue (long emptyValue) {
+    readLock.lock();
+    try {
+      if (!ensureHead()) {
+        return emptyValue;
+      }
+      size.decrement();
+      return takeHead();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves and removes the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  long pollValue () {
+    readLock.lock();
+    try {
+      if (!ensureHead()) {
+        throw new NoSuchElementException();
+      }
+      size.decrement();
+      return takeHead();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @param emptyValue the value, which is returned if this queue is empty
+   *
+   * @return the head of this queue, or {@code emptyValue} if this queue is empty
+   */
+  long peekValue (long emptyValue) {
+    readLock.lock();
+    try {
+      return ensureHead()
+             ? headValue()
+             : emptyValue;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue.
+   *
+   * @return the head of this queue
+   *
+   * @throws NoSuchElementException if this queue is empty
+   */
+  long peekValue () {
+    readLock.lock();
+    try {
+      if (!ensureHead()) {
+        throw new NoSuchElementException();
+      }
+      return headValue();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Boxes the primitive value to the queue's elements type.
+   *
+   * @param value the value to box
+   *
+   * @return the boxed value
+   */
+  abstract T box (long value);
+
+  /**
+   * Reads the element from the buffer.
+   *
+   * @param buffer the elements buffer
+   *
+   * @param position the element's position in the buffer
+   *
+   * @return the element
+   */
+  abstract long element (ByteBuffer buffer, int position);
+
+  /**
+   * Writes the element to the buffer's position and moves the position.
+   *
+   * @param buffer the elements buffer
+   *
+   * @param value the element
+   */
+  abstract void append (ByteBuffer buffer, long value);
+
+  /**
+   * Makes sure the in-memory head has elements, it reads the next record from the disk,
+   * or takes the tail, if the disk is empty.
+   */
+  private boolean ensureHead () {
+    if (head.hasRemaining()) {
+      return true;
+    }
+    writeLock.lock();
+    try {
+      val readed = bytesPool.borrow(buffer -> {
+        val length = backend.pollTo(buffer);
+        if (length <= 0) {
+          return false;
+        }
+        readHead(buffer, length - length % elementBytes);
+        return true;
+      });
+      if (readed) {
+        return true;
+      } else if (tail.position() == 0) {
+        return false;
+      }
+      // the tail becomes the head, and the empty head - the tail
+      val buffer = head;
+      head = tail;
+      head.flip();
+      tail = buffer;
+      tail.clear();
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void readHead (Bytes buffer, int length) {
+    if (head.capacity() < length) {
+      head = ByteBuffer.allocate(length);
+    }
+    head.clear();
+    buffer.readBytes(head.array(), 0, length);
+    head.limit(length);
+  }
+
+  private long takeHead () {
+    val position = head.position();
+    head.position(position + elementBytes);
+    return element(head, position);
+  }
+
+  private long headValue () {
+    return element(head, head.position());
+  }
+
+  private class PrimitiveFileQueueIterator implements Iterator<T> {
+
+    Iterator<T> current = new ElementsIterator(head, head.position(), head.limit());
+
+    Iterator<WalContent> records = backend.iterator();
+
+    boolean tailReached;
+
+    @Override
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    public boolean hasNext () {
+      while (!current.hasNext()) {
+        if (tailReached) {
+          // the records are exhausted already
+          return false;
+        } else if (records.hasNext()) {
+          val record = read(records.next());
+          current = new ElementsIterator(record, 0, record.limit());
+        } else {
+          current = new ElementsIterator(tail, 0, tail.position());
+          tailReached = true;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    private ByteBuffer read (WalContent content) {
+      val result = ByteBuffer.allocate(content.getLength());
+      content.open((length, channel) -> {
+        ReadBytesUtils.read(channel, result);
+      });
+      result.flip();
+      return result;
+    }
+  }
+
+  @FieldDefaults(level = PRIVATE)
+  private class ElementsIterator implements Iterator<T> {
+
+    final ByteBuffer buffer;
+
+    final int end;
+
+    int position;
+
+    ElementsIterator (ByteBuffer buffer, int position, int end) {
+      this.buffer = buffer;
+      this.position = position;
+      this.end = end;
+    }
+
+    @Override
+    public boolean hasNext () {
+      return position + elementBytes <= end;
+    }
+
+    @Override
+    public T next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      val result = element(buffer, position);
+      position += elementBytes;
+      return box(result);
+    }
+  }
+}
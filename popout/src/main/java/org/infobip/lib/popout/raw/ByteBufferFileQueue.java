@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.raw;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.infobip.lib.popout.DirectBytes;
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.QueueLimit;
+import org.infobip.lib.popout.backend.QueueBackend;
+import org.infobip.lib.popout.backend.WalContent;
+
+import io.appulse.utils.Bytes;
+import io.appulse.utils.ReadBytesUtils;
+import lombok.NonNull;
+import lombok.Synchronized;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The synced queue of raw {@link ByteBuffer} elements, which bypasses the serializers.
+ * <p>
+ * Each element is stored as one record without any length prefix, its bytes are written
+ * to the disk straight from the offered buffer's memory and are read straight into
+ * the returned buffer's array, or into a caller's buffer with {@link #poll(ByteBuffer)}
+ * and {@link #peek(ByteBuffer)}. The empty elements are not supported.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+public class ByteBufferFileQueue extends FileQueue<ByteBuffer> {
+
+  LongAdder size;
+
+  QueueBackend backend;
+
+  QueueLimit<ByteBuffer> limit;
+
+  ByteBufferFileQueue (@NonNull ByteBufferFileQueueBuilder builder) {
+    super();
+
+    limit = builder.getLimit();
+    backend = builder.getBackendFactory().create(builder);
+
+    size = new LongAdder();
+    size.add(backend.count());
+  }
+
+  /**
+   * Inserts the value's remaining bytes into this queue.
+   * The value's position and limit are not changed.
+   *
+   * @param value the element to add
+   *
+   * @return {@code true} if the element was added, {@code false} if the queue's limit is exceeded
+   *
+   * @throws IllegalArgumentException if the value has no remaining bytes
+   */
+  @Override
+  @Synchronized
+  public boolean offer (@NonNull ByteBuffer value) {
+    if (!value.hasRemaining()) {
+      throw new IllegalArgumentException("The empty elements are not supported");
+    }
+    if (limit.isExceeded(this)) {
+      limit.handle(value, this);
+      return false;
+    }
+
+    backend.write(DirectBytes.wrap(value));
+    size.increment();
+    return true;
+  }
+
+  @Override
+  @Synchronized
+  public ByteBuffer poll () {
+    val buffer = Bytes.resizableArray(1);
+    val readed = backend.pollTo(buffer);
+    if (readed <= 0) {
+      return null;
+    }
+    size.decrement();
+    return ByteBuffer.wrap(buffer.array(), 0, readed);
+  }
+
+  /**
+   * Retrieves and removes the head of this queue into the {@code destination} buffer,
+   * starting from its position. The destination's position is moved by the element's length.
+   *
+   * @param destination the buffer, where the element is read
+   *
+   * @return the element's length, or {@code -1} if this queue is empty
+   *
+   * @throws BufferOverflowException if the element doesn't fit into the destination's
+   *                                 remaining bytes, the element stays in this queue
+   */
+  @Synchronized
+  public int poll (@NonNull ByteBuffer destination) {
+    val buffer = DirectBytes.wrap(destination);
+    buffer.writerIndex(0);
+    // the oversized element is not read at all
+    val readed = backend.pollTo(buffer, destination.remaining());
+    if (readed <= 0) {
+      return -1;
+    }
+    size.decrement();
+    destination.position(destination.position() + readed);
+    return readed;
+  }
+
+  @Override
+  @Synchronized
+  public ByteBuffer peek () {
+    val buffer = Bytes.resizableArray(1);
+    val readed = backend.peakTo(buffer);
+    return readed > 0
+           ? ByteBuffer.wrap(buffer.array(), 0, readed)
+           : null;
+  }
+
+  /**
+   * Retrieves, but does not remove, the head of this queue into the {@code destination} buffer,
+   * starting from its position. The destination's position is moved by the element's length.
+   *
+   * @param destination the buffer, where the element is read
+   *
+   * @return the element's length, or {@code -1} if this queue is empty
+   *
+   * @throws BufferOverflowException if the element doesn't fit into the destination's remaining bytes
+   */
+  @Synchronized
+  public int peek (@NonNull ByteBuffer destination) {
+    val buffer = DirectBytes.wrap(destination);
+    buffer.writerIndex(0);
+    // the oversized element is not read at all
+    val readed = backend.peakTo(buffer, destination.remaining());
+    if (readed <= 0) {
+      return -1;
+    }
+    destination.position(destination.position() + readed);
+    return readed;
+  }
+
+  @Override
+  @Synchronized
+  public ByteBuffer get (long index) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException("index - must be greater or equal to 0");
+    }
+    val result = new AtomicReference<ByteBuffer>();
+    backend.open(index, (length, channel) -> result.set(read(length, channel)));
+    return result.get();
+  }
+
+  @Override
+  @Synchronized
+  public long skip (long count) {
+    if (count <= 0) {
+      return 0;
+    }
+    val result = backend.skip(count);
+    size.add(-result);
+    return result;
+  }
+
+  @Override
+  public int size () {
+    return size.intValue();
+  }
+
+  @Override
+  public long longSize () {
+    return size.longValue();
+  }
+
+  @Override
+  public long diskSize () {
+    return backend.diskSize();
+  }
+
+  @Override
+  public void flush () {
+    // no op, we always in a synced state with a disk
+  }
+
+  @Override
+  @Synchronized
+  public void compress () {
+    backend.compress();
+  }
+
+  @Override
+  public Iterator<ByteBuffer> iterator () {
+    return new ByteBufferFileQueueIterator();
+  }
+
+  @Override
+  public void close () {
+    backend.close();
+  }
+
+  static ByteBuffer read (WalContent walContent) {
+    val result = new AtomicReference<ByteBuffer>();
+    walContent.open((length, channel) -> result.set(read(length, channel)));
+    return result.get();
+  }
+
+  static ByteBuffer read (int length, SeekableByteChannel channel) {
+    val buffer = Bytes.resizableArray(Math.max(length, 1));
+    ReadBytesUtils.read(channel, buffer, length);
+    return ByteBuffer.wrap(buffer.array(), 0, length);
+  }
+
+  private class ByteBufferFileQueueIterator implements Iterator<ByteBuffer> {
+
+    Iterator<WalContent> walContentsIterator = backend.iterator();
+
+    @Override
+    public boolean hasNext () {
+      return walContentsIterator.hasNext();
+    }
+
+    @Override
+    public ByteBuffer next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return read(walContentsIterator.next());
+    }
+
+    @Override
+    public void remove () {
+      walContentsIterator.remove();
+      size.decrement();
+    }
+  }
+}
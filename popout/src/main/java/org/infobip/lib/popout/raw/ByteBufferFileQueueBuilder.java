@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.raw;
+
+import java.nio.ByteBuffer;
+
+import org.infobip.lib.popout.FileQueue;
+
+/**
+ * The specific builder object for a raw {@link ByteBuffer} elements queue instance.
+ * <p>
+ * The elements are not serialized, so the serializer and deserializer settings are ignored.
+ *
+ * @author Artem Labazin
+ * @since 2.2.0
+ */
+public class ByteBufferFileQueueBuilder extends FileQueue.Builder<ByteBufferFileQueueBuilder, ByteBuffer> {
+
+  @Override
+  public ByteBufferFileQueue build () {
+    return (ByteBufferFileQueue) super.build();
+  }
+
+  @Override
+  protected FileQueue<ByteBuffer> createQueue () {
+    return new ByteBufferFileQueue(this);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.synced;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The stream, which reads the record written by {@link ChunkedOutputStream}
+ * from the channel, one chunk at a time. The channel is not closed.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class ChunkedInputStream extends InputStream {
+
+  static final String TORN_RECORD = "The record is torn, it has no chunks terminator";
+
+  ReadableByteChannel channel;
+
+  ByteBuffer header;
+
+  @NonFinal
+  ByteBuffer chunk;
+
+  @NonFinal
+  long remaining;
+
+  @NonFinal
+  boolean ended;
+
+  /**
+   * Constructor.
+   *
+   * @param channel the record's channel, positioned at its beginning
+   *
+   * @param length the record's length, the chunks can't cross it
+   */
+  ChunkedInputStream (@NonNull ReadableByteChannel channel, long length) {
+    super();
+    this.channel = channel;
+    remaining = length;
+    header = ByteBuffer.allocate(Integer.BYTES);
+    chunk = ByteBuffer.allocate(0);
+  }
+
+  @Override
+  public int read () throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    return chunk.get() & 0xFF;
+  }
+
+  @Override
+  public int read (byte[] bytes, int offset, int length) throws IOException {
+    if (offset < 0 || length < 0 || length > bytes.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (length == 0) {
+      return 0;
+    }
+    if (!nextChunk()) {
+      return -1;
+    }
+    val result = Math.min(length, chunk.remaining());
+    chunk.get(bytes, offset, result);
+    return result;
+  }
+
+  @Override
+  public int available () {
+    return chunk.remaining();
+  }
+
+  /**
+   * Reads the next chunk, if the current one is exhausted.
+   *
+   * @return {@code true} if there are bytes to read, or {@code false} at the record's end
+   */
+  private boolean nextChunk () throws IOException {
+    while (!chunk.hasRemaining()) {
+      if (ended) {
+        return false;
+      }
+      header.clear();
+      readFully(header);
+      val length = header.getInt(0);
+      if (length == 0) {
+        ended = true;
+        return false;
+      } else if (length < 0) {
+        throw new IOException("Corrupted chunk's length " + length);
+      } else if (length > remaining) {
+        // a corrupted length must not allocate the memory
+        throw new EOFException(TORN_RECORD);
+      }
+      if (chunk.capacity() < length) {
+        chunk = ByteBuffer.allocate(length);
+      }
+      chunk.clear();
+      chunk.limit(length);
+      readFully(chunk);
+      chunk.flip();
+    }
+    return true;
+  }
+
+  private void readFully (ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() > remaining) {
+      throw new EOFException(TORN_RECORD);
+    }
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException(TORN_RECORD);
+      }
+    }
+    remaining -= buffer.position();
+  }
+}
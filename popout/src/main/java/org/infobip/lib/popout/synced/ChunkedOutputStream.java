@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.synced;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.val;
+
+/**
+ * The stream, which writes its content to the channel by the length prefixed chunks:
+ * <pre>
+ * {[4B chunk length][chunk]}[4B 0]
+ * </pre>
+ * Only one chunk is buffered in memory. The zero length terminator is written on close,
+ * so a torn record is distinguished from a complete one. The channel is not closed.
+ */
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class ChunkedOutputStream extends OutputStream {
+
+  WritableByteChannel channel;
+
+  ByteBuffer chunk;
+
+  @NonFinal
+  boolean closed;
+
+  ChunkedOutputStream (@NonNull WritableByteChannel channel, int chunkSize) {
+    super();
+    this.channel = channel;
+    chunk = ByteBuffer.allocate(Integer.BYTES + chunkSize);
+    chunk.position(Integer.BYTES);
+  }
+
+  @Override
+  public void write (int value) throws IOException {
+    checkOpen();
+    if (!chunk.hasRemaining()) {
+      writeChunk();
+    }
+    chunk.put((byte) value);
+  }
+
+  @Override
+  public void write (byte[] bytes, int offset, int length) throws IOException {
+    checkOpen();
+    if (offset < 0 || length < 0 || length > bytes.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    int written = 0;
+    while (written < length) {
+      if (!chunk.hasRemaining()) {
+        writeChunk();
+      }
+      val part = Math.min(length - written, chunk.remaining());
+      chunk.put(bytes, offset + written, part);
+      written += part;
+    }
+  }
+
+  @Override
+  public void close () throws IOException {
+    if (closed) {
+      return;
+    }
+    writeChunk();
+    chunk.clear();
+    chunk.putInt(0);
+    writeFully();
+    closed = true;
+  }
+
+  private void writeChunk () throws IOException {
+    val length = chunk.position() - Integer.BYTES;
+    if (length == 0) {
+      return;
+    }
+    chunk.putInt(0, length);
+    writeFully();
+    chunk.position(Integer.BYTES);
+  }
+
+  private void writeFully () throws IOException {
+    chunk.flip();
+    while (chunk.hasRemaining()) {
+      channel.write(chunk);
+    }
+    chunk.clear();
+  }
+
+  private void checkOpen () throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
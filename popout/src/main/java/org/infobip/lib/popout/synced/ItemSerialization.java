@@ -19,7 +19,9 @@ package org.infobip.lib.popout.synced;
 import static lombok.AccessLevel.PRIVATE;
 
 import org.infobip.lib.popout.Deserializer;
+import org.infobip.lib.popout.ReusingDeserializer;
 import org.infobip.lib.popout.Serializer;
+import org.infobip.lib.popout.Varints;
 
 import io.appulse.utils.Bytes;
 import lombok.Builder;
@@ -28,6 +30,22 @@ import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
 
+/**
+ * The synced queue's record format:
+ * <pre>
+ * [4B item length][item]
+ * </pre>
+ * or, in the compact format:
+ * <pre>
+ * [varint item length][item]
+ * </pre>
+ * or just {@code [item]}, if the serializer has a fixed size.
+ * <p>
+ * The formats are distinguished by the record's length: a record is length prefixed
+ * if its first 4 bytes are the rest record's length. A compact record never matches it,
+ * because its first byte is either the item's length less than {@code 128},
+ * or has the varint's continuation (sign) bit.
+ */
 @Builder
 @RequiredArgsConstructor
 @FieldDefaults(level = PRIVATE, makeFinal = true)
@@ -39,15 +57,61 @@ class ItemSerialization<T> {
   @NonNull
   Deserializer<T> deserializer;
 
+  boolean compact;
+
   void serialize (T item, Bytes buffer) {
     buffer.reset();
+    // the longest length prefix is reserved, the content could be moved by the varint
+    val estimate = Integer.BYTES + serializer.estimateSize(item);
+    if (estimate >= Integer.BYTES && !buffer.isWritable(estimate)) {
+      buffer.capacity(estimate);
+    }
+    val fixedSize = serializer.fixedSize();
+    if (fixedSize >= 0) {
+      // the record's length is the item's length, no need for the prefix
+      serializer.serialize(item, buffer);
+      if (buffer.writerIndex() != fixedSize) {
+        val msg = String.format("Serializer declares %d bytes fixed size, but wrote %d bytes",
+                                fixedSize, buffer.writerIndex());
+        throw new IllegalStateException(msg);
+      }
+      return;
+    }
+    if (compact) {
+      buffer.write1B(0); // the varint's place, it is moved if the length is longer
+      serializer.serialize(item, buffer);
+      Varints.insert(0, buffer.writerIndex() - 1, buffer);
+      return;
+    }
     buffer.write4B(0);
     serializer.serialize(item, buffer);
     buffer.set4B(0, buffer.writerIndex() - Integer.BYTES);
   }
 
-  T deserialize (Bytes buffer) {
-    val length = buffer.readInt();
+  T deserialize (Bytes buffer, int recordLength) {
+    val length = readLength(buffer, recordLength);
     return deserializer.deserialize(length, buffer);
   }
+
+  @SuppressWarnings("unchecked")
+  T deserializeInto (T target, Bytes buffer, int recordLength) {
+    val length = readLength(buffer, recordLength);
+    if (deserializer instanceof ReusingDeserializer) {
+      ((ReusingDeserializer<T>) deserializer).deserializeInto(target, length, buffer);
+      return target;
+    }
+    return deserializer.deserialize(length, buffer);
+  }
+
+  private int readLength (Bytes buffer, int recordLength) {
+    val fixedSize = serializer.fixedSize();
+    if (fixedSize >= 0 && recordLength == fixedSize) {
+      return fixedSize;
+    }
+    // the length prefixed item, or the record written before the fixed size was declared
+    if (recordLength >= Integer.BYTES && buffer.getInt(buffer.readerIndex()) == recordLength - Integer.BYTES) {
+      return buffer.readInt();
+    }
+    return Varints.read(buffer);
+  }
 }
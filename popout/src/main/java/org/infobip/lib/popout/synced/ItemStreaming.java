@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.synced;
+
+import static lombok.AccessLevel.PRIVATE;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.infobip.lib.popout.StreamDeserializer;
+import org.infobip.lib.popout.StreamSerializer;
+import org.infobip.lib.popout.backend.QueueBackend;
+import org.infobip.lib.popout.backend.QueueBackend.RecordWriter;
+import org.infobip.lib.popout.backend.WalContent;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.val;
+
+/**
+ * The synced queue's streamed record format:
+ * <pre>
+ * {[4B chunk length][chunk]}[4B 0]
+ * </pre>
+ * The item is written to and read from the record's channel by the chunks,
+ * so the memory usage per item is bounded by the chunk's size, not by the item's size.
+ */
+@Builder
+@RequiredArgsConstructor
+@FieldDefaults(level = PRIVATE, makeFinal = true)
+class ItemStreaming<T> {
+
+  @NonNull
+  StreamSerializer<T> serializer;
+
+  @NonNull
+  StreamDeserializer<T> deserializer;
+
+  int chunkSize;
+
+  RecordWriter writer (T item) {
+    return channel -> {
+      try (val output = new ChunkedOutputStream(channel, chunkSize)) {
+        serializer.serialize(item, output);
+      }
+    };
+  }
+
+  T read (@NonNull WalContent content) {
+    val result = new AtomicReference<T>();
+    content.open((length, channel) -> result.set(read(length, channel)));
+    return result.get();
+  }
+
+  T read (@NonNull QueueBackend backend, long number) {
+    val result = new AtomicReference<T>();
+    backend.open(number, (length, channel) -> result.set(read(length, channel)));
+    return result.get();
+  }
+
+  private T read (int length, SeekableByteChannel channel) throws IOException {
+    try (ChunkedInputStream input = new ChunkedInputStream(channel, length)) {
+      return deserializer.deserialize(input);
+    }
+  }
+}
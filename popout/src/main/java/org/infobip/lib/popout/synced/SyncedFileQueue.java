@@ -20,12 +20,13 @@ import static lombok.AccessLevel.PRIVATE;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 import org.infobip.lib.popout.FileQueue;
 import org.infobip.lib.popout.QueueLimit;
 import org.infobip.lib.popout.ReadWriteBytesPool;
-import org.infobip.lib.popout.backend.FileSystemBackend;
+import org.infobip.lib.popout.backend.QueueBackend;
 import org.infobip.lib.popout.backend.WalContent;
 
 import io.appulse.utils.Bytes;
@@ -33,6 +34,7 @@ import io.appulse.utils.ReadBytesUtils;
 import lombok.NonNull;
 import lombok.Synchronized;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.val;
 
 @FieldDefaults(level = PRIVATE, makeFinal = true)
@@ -40,36 +42,45 @@ class SyncedFileQueue<T> extends FileQueue<T> {
 
   LongAdder size;
 
-  FileSystemBackend backend;
+  QueueBackend backend;
 
   ItemSerialization<T> serialization;
 
+  // the streamed elements' format, if the streaming serializer is set
+  ItemStreaming<T> streaming;
+
   QueueLimit<T> limit;
 
+  ReadWriteBytesPool bytesPool;
+
+  // the last peeked head element, it is valid till the head is changed
+  @NonFinal
+  T peeked;
+
   SyncedFileQueue (@NonNull SyncedFileQueueBuilder<T> builder) {
     super();
 
     limit = builder.getLimit();
+    bytesPool = builder.getBytesPool();
 
     serialization = ItemSerialization.<T>builder()
         .serializer(builder.getSerializer())
         .deserializer(builder.getDeserializer())
+        .compact(builder.isCompactFormat())
         .build();
 
-    backend = FileSystemBackend.builder()
-        .queueName(builder.getName())
-        .restoreFromDisk(builder.isRestoreFromDisk())
-        .walConfig(builder.getWalFilesConfig())
-        .compressedConfig(builder.getCompressedFilesConfig())
-        .corruptionHandler(builder.getCorruptionHandler())
-        .build();
+    streaming = builder.getStreamSerializer() == null
+                ? null
+                : ItemStreaming.<T>builder()
+                    .serializer(builder.getStreamSerializer())
+                    .deserializer(builder.getStreamDeserializer())
+                    .chunkSize(builder.getChunkSize())
+                    .build();
+
+    backend = builder.getBackendFactory().create(builder);
 
     size = new LongAdder();
-    val iterator = backend.iterator();
-    while (iterator.hasNext()) {
-      iterator.next();
-      size.increment();
-    }
+    size.add(backend.count());
   }
 
   @Override
@@ -80,7 +91,12 @@ class SyncedFileQueue<T> extends FileQueue<T> {
       return false;
     }
 
-    ReadWriteBytesPool.getInstance().borrow(buffer -> {
+    if (streaming != null) {
+      backend.write(streaming.writer(value));
+      size.increment();
+      return true;
+    }
+    bytesPool.borrow(buffer -> {
       serialization.serialize(value, buffer);
       backend.write(buffer);
       return null;
@@ -92,25 +108,93 @@ class SyncedFileQueue<T> extends FileQueue<T> {
   @Override
   @Synchronized
   public T poll () {
-    return ReadWriteBytesPool.getInstance().borrow(buffer -> {
+    if (peeked != null) {
+      val result = peeked;
+      peeked = null;
+      backend.skip();
+      size.decrement();
+      return result;
+    }
+    if (streaming != null) {
+      val result = streaming.read(backend, 0);
+      if (result == null) {
+        return null;
+      }
+      backend.skip();
+      size.decrement();
+      return result;
+    }
+    return bytesPool.borrow(buffer -> {
+      val readed = backend.pollTo(buffer);
+      if (readed <= 0) {
+        return null;
+      }
+      size.decrement();
+      return serialization.deserialize(buffer, readed);
+    });
+  }
+
+  @Override
+  @Synchronized
+  public T pollInto (@NonNull T target) {
+    if (peeked != null || streaming != null) {
+      // the peeked head is already deserialized, the streamed one is always a new instance
+      return poll();
+    }
+    return bytesPool.borrow(buffer -> {
       val readed = backend.pollTo(buffer);
       if (readed <= 0) {
         return null;
       }
       size.decrement();
-      return serialization.deserialize(buffer);
+      return serialization.deserializeInto(target, buffer, readed);
     });
   }
 
   @Override
   @Synchronized
   public T peek () {
-    return ReadWriteBytesPool.getInstance().borrow(buffer -> {
-      val readed = backend.peakTo(buffer);
-      return readed > 0
-            ? serialization.deserialize(buffer)
-            : null;
+    if (peeked == null && streaming != null) {
+      peeked = streaming.read(backend, 0);
+    } else if (peeked == null) {
+      peeked = bytesPool.borrow(buffer -> {
+        val readed = backend.peakTo(buffer);
+        return readed > 0
+              ? serialization.deserialize(buffer, readed)
+              : null;
+      });
+    }
+    return peeked;
+  }
+
+  @Override
+  @Synchronized
+  public T get (long index) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException("index - must be greater or equal to 0");
+    }
+    if (streaming != null) {
+      return streaming.read(backend, index);
+    }
+    val result = new AtomicReference<T>();
+    backend.open(index, (length, channel) -> {
+      Bytes buffer = Bytes.resizableArray(Math.max(length, 1));
+      ReadBytesUtils.read(channel, buffer, length);
+      result.set(serialization.deserialize(buffer, length));
     });
+    return result.get();
+  }
+
+  @Override
+  @Synchronized
+  public long skip (long count) {
+    if (count <= 0) {
+      return 0;
+    }
+    peeked = null;
+    val result = backend.skip(count);
+    size.add(-result);
+    return result;
   }
 
   @Override
@@ -136,6 +220,7 @@ class SyncedFileQueue<T> extends FileQueue<T> {
   @Override
   @Synchronized
   public void compress () {
+    peeked = null;
     backend.compress();
   }
 
@@ -149,6 +234,11 @@ class SyncedFileQueue<T> extends FileQueue<T> {
     backend.close();
   }
 
+  @Synchronized
+  void invalidatePeeked () {
+    peeked = null;
+  }
+
   private class SyncedFileQueueIterator implements Iterator<T> {
 
     Iterator<WalContent> walContentsIterator = backend.iterator();
@@ -174,6 +264,9 @@ class SyncedFileQueue<T> extends FileQueue<T> {
       if (nextWalContent != null || hasNext()) {
         val walContent = nextWalContent;
         nextWalContent = null;
+        if (streaming != null) {
+          return streaming.read(walContent);
+        }
         walContent.open((length, channel) -> {
           buffer.reset();
           if (!buffer.isWritable(length)) {
@@ -182,7 +275,7 @@ class SyncedFileQueue<T> extends FileQueue<T> {
           }
           ReadBytesUtils.read(channel, buffer);
         });
-        return serialization.deserialize(buffer);
+        return serialization.deserialize(buffer, walContent.getLength());
       }
       throw new NoSuchElementException();
     }
@@ -191,6 +284,7 @@ class SyncedFileQueue<T> extends FileQueue<T> {
     public void remove () {
       walContentsIterator.remove();
       size.decrement();
+      invalidatePeeked();
     }
   }
 }
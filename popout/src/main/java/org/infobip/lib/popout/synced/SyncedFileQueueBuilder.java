@@ -19,8 +19,11 @@ package org.infobip.lib.popout.synced;
 import static lombok.AccessLevel.PRIVATE;
 
 import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.StreamDeserializer;
+import org.infobip.lib.popout.StreamSerializer;
 
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.experimental.FieldDefaults;
 
 /**
@@ -35,8 +38,78 @@ import lombok.experimental.FieldDefaults;
 @FieldDefaults(level = PRIVATE)
 public class SyncedFileQueueBuilder<T> extends FileQueue.Builder<SyncedFileQueueBuilder<T>, T> {
 
+  StreamSerializer<T> streamSerializer;
+
+  StreamDeserializer<T> streamDeserializer;
+
+  int chunkSize;
+
+  /**
+   * Sets the streaming serializer, which writes each element directly to its WAL file
+   * by the chunks of the {@code chunkSize}, instead of the whole element's buffer.
+   * It suits the elements, which are too big to keep them serialized in memory.
+   * <p>
+   * The streaming serializer replaces the regular one, the
+   * {@link #streamDeserializer(StreamDeserializer)} must be set too.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   *
+   * @since 2.2.0
+   */
+  public SyncedFileQueueBuilder<T> streamSerializer (@NonNull StreamSerializer<T> value) {
+    streamSerializer = value;
+    return this;
+  }
+
+  /**
+   * Sets the streaming deserializer, which reads the elements,
+   * written by the {@link #streamSerializer(StreamSerializer)}, by the chunks.
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   *
+   * @since 2.2.0
+   */
+  public SyncedFileQueueBuilder<T> streamDeserializer (@NonNull StreamDeserializer<T> value) {
+    streamDeserializer = value;
+    return this;
+  }
+
+  /**
+   * Sets the max size of a streamed element's chunk, which is kept in memory during the writes and reads.
+   * <p>
+   * The default value is: {@code 65_536}
+   *
+   * @param value the new value
+   *
+   * @return this queue builder, for chain calls
+   *
+   * @since 2.2.0
+   */
+  public SyncedFileQueueBuilder<T> chunkSize (int value) {
+    chunkSize = value;
+    return this;
+  }
+
   @Override
   protected FileQueue<T> createQueue () {
     return new SyncedFileQueue<>(this);
   }
+
+  @Override
+  protected void validateAndSetDefaults () {
+    super.validateAndSetDefaults();
+
+    if ((streamSerializer == null) != (streamDeserializer == null)) {
+      throw new IllegalArgumentException("streamSerializer and streamDeserializer - must be set together");
+    }
+    if (chunkSize < 0) {
+      throw new IllegalArgumentException("chunkSize - must be greater than 0");
+    } else if (chunkSize == 0) {
+      chunkSize = 64 * 1024;
+    }
+  }
 }
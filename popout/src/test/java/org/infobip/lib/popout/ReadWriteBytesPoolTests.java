@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.infobip.lib.popout.IOUtils.FOLDER;
+import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+
+import java.time.Duration;
+
+import io.appulse.utils.Bytes;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReadWriteBytesPoolTests {
+
+  @BeforeEach
+  void beforeEach () {
+    clearTestFiles();
+  }
+
+  @AfterEach
+  void afterEach () {
+    clearTestFiles();
+  }
+
+  @Test
+  void sizeClasses () {
+    val pool = ReadWriteBytesPool.builder()
+        .minBufferSize(100)
+        .maxPooledBufferSize(1_000)
+        .threadLocalCache(false)
+        .build();
+
+    val small = pool.acquire(1);
+    assertThat(small.capacity()).isEqualTo(128);
+
+    val medium = pool.acquire(129);
+    assertThat(medium.capacity()).isEqualTo(256);
+
+    val oversized = pool.acquire(5_000);
+    assertThat(oversized.capacity()).isEqualTo(5_000);
+
+    pool.release(small);
+    pool.release(medium);
+    pool.release(oversized);
+    assertThat(pool.idleBuffersCount()).isEqualTo(2);
+
+    assertThat(pool.acquire(200)).isSameAs(medium);
+    assertThat(pool.acquire(100)).isSameAs(small);
+    assertThat(pool.idleBuffersCount()).isEqualTo(0);
+  }
+
+  @Test
+  void outgrownBufferIsDiscarded () {
+    val pool = ReadWriteBytesPool.builder()
+        .minBufferSize(16)
+        .maxPooledBufferSize(64)
+        .build();
+
+    val buffer = pool.borrow(it -> {
+      it.writeNB(new byte[100]);
+      return it;
+    });
+    assertThat(pool.acquire(16)).isNotSameAs(buffer);
+  }
+
+  @Test
+  void threadLocalCache () {
+    val pool = ReadWriteBytesPool.builder()
+        .threadLocalCache(true)
+        .build();
+
+    val first = pool.borrow(it -> it);
+    val second = pool.borrow(it -> it);
+    assertThat(second).isSameAs(first);
+    assertThat(pool.idleBuffersCount()).isEqualTo(0);
+  }
+
+  @Test
+  @SneakyThrows
+  void idleThreadLocalCache () {
+    val pool = ReadWriteBytesPool.builder()
+        .threadLocalCache(true)
+        .maxIdleTime(Duration.ofDays(1))
+        .build();
+
+    val first = pool.borrow(it -> it);
+    // the first trim only marks the cached buffer
+    pool.trim();
+    assertThat(pool.<Bytes>borrow(it -> it)).isSameAs(first);
+    pool.trim();
+    pool.trim();
+    assertThat(pool.<Bytes>borrow(it -> it)).isNotSameAs(first);
+
+    val idle = ReadWriteBytesPool.builder()
+        .threadLocalCache(true)
+        .maxIdleTime(Duration.ofMillis(1))
+        .build();
+
+    val cached = idle.borrow(it -> it);
+    Thread.sleep(10);
+    assertThat(idle.<Bytes>borrow(it -> it)).isNotSameAs(cached);
+  }
+
+  @Test
+  void trim () {
+    val pool = ReadWriteBytesPool.builder()
+        .threadLocalCache(false)
+        .maxIdleTime(Duration.ofDays(1))
+        .build();
+
+    val first = pool.acquire(1);
+    val second = pool.acquire(1);
+    pool.release(first);
+    pool.release(second);
+    assertThat(pool.idleBuffersCount()).isEqualTo(2);
+
+    // the first trim only marks the idle buffers
+    pool.trim();
+    assertThat(pool.idleBuffersCount()).isEqualTo(2);
+
+    pool.release(pool.acquire(1));
+    pool.trim();
+    assertThat(pool.idleBuffersCount()).isEqualTo(1);
+
+    pool.trim();
+    assertThat(pool.idleBuffersCount()).isEqualTo(0);
+  }
+
+  @Test
+  void directBuffers () {
+    val pool = ReadWriteBytesPool.builder()
+        .minBufferSize(4)
+        .direct(true)
+        .build();
+
+    assertThat(pool.isDirect()).isTrue();
+    pool.borrow(buffer -> {
+      assertThat(buffer).isInstanceOf(DirectBytes.class);
+      assertThatThrownBy(buffer::array)
+          .isInstanceOf(UnsupportedOperationException.class);
+
+      buffer.write4B(42)
+          .write8B(Long.MAX_VALUE)
+          .writeNB("popa", UTF_8)
+          .write2B('!');
+
+      assertThat(buffer.capacity()).isGreaterThanOrEqualTo(18);
+      assertThat(buffer.readInt()).isEqualTo(42);
+      assertThat(buffer.readLong()).isEqualTo(Long.MAX_VALUE);
+      assertThat(buffer.readString(4, UTF_8)).isEqualTo("popa");
+      assertThat(buffer.readChar()).isEqualTo('!');
+      assertThat(buffer.isReadable()).isFalse();
+      return null;
+    });
+  }
+
+  @Test
+  void directBuffersQueue () {
+    val pool = ReadWriteBytesPool.builder()
+        .minBufferSize(4)
+        .direct(true)
+        .build();
+
+    try (val queue = FileQueue.<String>synced()
+        .name("direct-buffers-queue")
+        .folder(FOLDER)
+        .serializer(Serializer.STRING)
+        .deserializer(Deserializer.STRING)
+        .bytesPool(pool)
+        .wal(WalFilesConfig.builder()
+            .maxCount(2)
+            .build())
+        .build()) {
+
+      for (int i = 0; i < 10; i++) {
+        queue.add("popa-" + i);
+      }
+      assertThat(queue.peek()).isEqualTo("popa-0");
+      for (int i = 0; i < 10; i++) {
+        assertThat(queue.poll()).isEqualTo("popa-" + i);
+      }
+      assertThat(queue.poll()).isNull();
+    }
+  }
+}
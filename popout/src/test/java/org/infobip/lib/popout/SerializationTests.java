@@ -16,13 +16,27 @@
 
 package org.infobip.lib.popout;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 
 import io.appulse.utils.Bytes;
+import io.appulse.utils.SerializationUtils;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
 import lombok.val;
 import org.junit.jupiter.api.Test;
 
@@ -161,6 +175,49 @@ class SerializationTests {
     assertThat(deserialized).isEqualTo(value);
   }
 
+  @Test
+  void unicodeStringSerialization () {
+    val values = asList(
+        "",
+        "Привет, мир!",
+        "日本語のテキスト",
+        "emoji 😀 and é",
+        "unpaired " + (char) 0xD800 + " surrogate"
+    );
+    val buffers = asList(Bytes.resizableArray(2), Bytes.allocate(256), DirectBytes.allocate(2));
+    for (val buffer : buffers) {
+      for (val value : values) {
+        Serializer.STRING.serialize(value, buffer);
+      }
+      for (val value : values) {
+        val expected = new String(value.getBytes(UTF_8), UTF_8);
+        assertThat(Deserializer.STRING.deserialize(0, buffer)).isEqualTo(expected);
+      }
+    }
+
+    val buffer = Bytes.resizableArray();
+    Serializer.STRING.serialize(values.get(3), buffer);
+    val expected = values.get(3).getBytes(UTF_8);
+    assertThat(buffer.readInt()).isEqualTo(expected.length);
+    assertThat(buffer.readBytes(expected.length)).isEqualTo(expected);
+  }
+
+  @Test
+  void estimateSize () {
+    assertEstimateIsExact(Serializer.INTEGER, 417_339);
+    assertEstimateIsExact(Serializer.LONG, 5_040_231_345L);
+    assertEstimateIsExact(Serializer.BIG_INTEGER, new BigInteger("5766891293459779341034571457"));
+    assertEstimateIsExact(Serializer.BIG_INTEGER, BigInteger.valueOf(-128));
+    assertEstimateIsExact(Serializer.BIG_INTEGER, BigInteger.ZERO);
+    assertEstimateIsExact(Serializer.BIG_DECIMAL, new BigDecimal("-48938742.15034"));
+    assertEstimateIsExact(Serializer.BYTE_ARRAY, new byte[1024]);
+    assertEstimateIsExact(Serializer.STRING, "emoji 😀 and é");
+    assertEstimateIsExact(Serializer.STRING, "");
+
+    // the default serializer doesn't know the size in advance
+    assertThat(new Serializer.DefaultSerializer<String>().estimateSize("popa")).isNegative();
+  }
+
   @Test
   void complexSerialization () {
     val buffer = Bytes.resizableArray();
@@ -182,4 +239,227 @@ class SerializationTests {
     val result3 = Deserializer.BYTE_ARRAY.deserialize(0, buffer);
     assertThat(result3).isEqualTo(value3);
   }
+
+  @Test
+  void defaultSerialization () {
+    val value = new Order();
+    value.setId(42);
+    value.setTotal(new BigDecimal("12.5"));
+    value.setItems(asList(new Item("apple", 3), null, new Item("pear", 0)));
+    value.setMeta(singletonMap("comment", asList(1L, 2L)));
+    value.setHistory(new LinkedList<>(asList("a", "b")));
+    value.setStatus(Status.SHIPPED);
+    value.setTags(new String[] { "x", null });
+    value.setFlags(new int[] { 1, 2 });
+    value.setPayload(new byte[] { 1, 2, 3 });
+
+    val buffer = Bytes.resizableArray();
+    new Serializer.DefaultSerializer<Order>().serialize(value, buffer);
+    assertThat(buffer.getByte(0)).isEqualTo(CompactCodec.MAGIC);
+
+    val length = buffer.writerIndex();
+    val deserialized = new Deserializer.DefaultDeserializer<Order>().deserialize(length, buffer);
+
+    assertThat(deserialized).isEqualTo(value);
+    assertThat(deserialized.getHistory()).isInstanceOf(LinkedList.class);
+    assertThat(deserialized.getItems()).isInstanceOf(ArrayList.class);
+    assertThat(buffer.isReadable()).isFalse();
+  }
+
+  @Test
+  void defaultSerializationOfSimpleValues () {
+    val serializer = new Serializer.DefaultSerializer<Object>();
+    val deserializer = new Deserializer.DefaultDeserializer<Object>();
+    val buffer = Bytes.resizableArray();
+
+    val values = asList("popa", 42, 'c', true, 3.2D, null, Status.NEW, new BigInteger("123"));
+    for (val value : values) {
+      serializer.serialize(value, buffer);
+    }
+    for (val value : values) {
+      assertThat(deserializer.deserialize(0, buffer)).isEqualTo(value);
+    }
+  }
+
+  @Test
+  void defaultDeserializationOfJavaSerialized () {
+    val value = new Item("legacy", 7);
+    val buffer = Bytes.resizableArray();
+    Serializer.BYTE_ARRAY.serialize(SerializationUtils.serialize(value), buffer);
+
+    val length = buffer.writerIndex();
+    val deserialized = new Deserializer.DefaultDeserializer<Item>().deserialize(length, buffer);
+
+    assertThat(deserialized).isEqualTo(value);
+  }
+
+  @Test
+  void defaultDeserializationOfChangedClass () {
+    val buffer = Bytes.resizableArray()
+        .write1B(CompactCodec.MAGIC)
+        .write1B(CompactCodec.VERSION)
+        .write1B(CompactCodec.CLASS);
+    val className = Item.class.getName().getBytes(UTF_8);
+    buffer.write2B(className.length).writeNB(className)
+        .write1B(CompactCodec.OBJECT)
+        .write2B(3)
+        // a removed field
+        .write4B("removed".hashCode())
+        .write1B(CompactCodec.COLLECTION).write4B(1)
+        .write1B(CompactCodec.INTEGER).write4B(1)
+        // the 'count' field is absent
+        .write4B("name".hashCode())
+        .write1B(CompactCodec.STRING).write4B(3).writeNB("new".getBytes(UTF_8))
+        // a null for a primitive field keeps the default value
+        .write4B("count".hashCode())
+        .write1B(CompactCodec.NULL);
+
+    val deserialized = new Deserializer.DefaultDeserializer<Item>().deserialize(0, buffer);
+
+    assertThat(deserialized).isEqualTo(new Item("new", 0));
+  }
+
+  @Test
+  void defaultSerializationOfShadowedFields () {
+    val value = new Shadowing();
+    value.setName("sub");
+    ((Shadowed) value).name = "super";
+
+    val buffer = Bytes.resizableArray();
+    new Serializer.DefaultSerializer<Shadowing>().serialize(value, buffer);
+    val deserialized = new Deserializer.DefaultDeserializer<Shadowing>().deserialize(0, buffer);
+
+    assertThat(deserialized.getName()).isEqualTo("sub");
+    assertThat(((Shadowed) deserialized).name).isEqualTo("super");
+  }
+
+  @Test
+  void defaultSerializationOfSerializationHooks () {
+    val buffer = Bytes.resizableArray();
+    new Serializer.DefaultSerializer<Singleton>().serialize(Singleton.INSTANCE, buffer);
+
+    val deserialized = new Deserializer.DefaultDeserializer<Singleton>().deserialize(0, buffer);
+    assertThat(deserialized).isSameAs(Singleton.INSTANCE);
+  }
+
+  @Test
+  void defaultSerializationOfObjectGraph () {
+    val first = new Node();
+    val second = new Node();
+    first.next = second;
+    second.next = first; // a cycle
+    first.items = asList(new Item("shared", 1), null);
+    second.items = first.items; // a shared list
+
+    val buffer = Bytes.resizableArray();
+    new Serializer.DefaultSerializer<Node>().serialize(first, buffer);
+    assertThat(buffer.getByte(2)).isEqualTo(CompactCodec.JAVA);
+
+    val deserialized = new Deserializer.DefaultDeserializer<Node>().deserialize(0, buffer);
+    assertThat(deserialized.next.next).isSameAs(deserialized);
+    assertThat(deserialized.next.items).isSameAs(deserialized.items);
+    assertThat(deserialized.items).containsExactly(new Item("shared", 1), null);
+
+    val link = new Link();
+    link.next = link;
+    assertThatThrownBy(() -> new Serializer.DefaultSerializer<Link>().serialize(link, buffer))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  enum Status {
+
+    NEW,
+    SHIPPED {
+
+      @Override
+      public String toString () {
+        return "shipped";
+      }
+    };
+  }
+
+  private static <T> void assertEstimateIsExact (Serializer<T> serializer, T value) {
+    val buffer = Bytes.resizableArray();
+    serializer.serialize(value, buffer);
+    assertThat(serializer.estimateSize(value)).isEqualTo(buffer.writerIndex());
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  static class Item implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    String name;
+
+    int count;
+  }
+
+  @Data
+  static class Shadowed {
+
+    String name;
+  }
+
+  @Data
+  @EqualsAndHashCode(callSuper = true)
+  static class Shadowing extends Shadowed {
+
+    String name;
+  }
+
+  static class Singleton implements Serializable {
+
+    static final Singleton INSTANCE = new Singleton();
+
+    private static final long serialVersionUID = 1L;
+
+    Object readResolve () {
+      return INSTANCE;
+    }
+  }
+
+  static class Node implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    Node next;
+
+    List<Item> items;
+  }
+
+  static class Link {
+
+    Link next;
+  }
+
+  @Data
+  static class Entity {
+
+    long id;
+
+    transient Object cache = new Object();
+  }
+
+  @Data
+  @EqualsAndHashCode(callSuper = true)
+  static class Order extends Entity {
+
+    BigDecimal total;
+
+    List<Item> items;
+
+    Map<String, List<Long>> meta;
+
+    List<String> history;
+
+    Status status;
+
+    String[] tags;
+
+    int[] flags;
+
+    byte[] payload;
+  }
 }
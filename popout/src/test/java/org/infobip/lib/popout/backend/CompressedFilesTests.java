@@ -18,6 +18,7 @@ package org.infobip.lib.popout.backend;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.infobip.lib.popout.IOUtils.FOLDER;
 import static org.infobip.lib.popout.IOUtils.clearTestFiles;
 import static org.infobip.lib.popout.IOUtils.contentOf;
@@ -26,9 +27,19 @@ import static org.infobip.lib.popout.IOUtils.delete;
 import static org.infobip.lib.popout.IOUtils.file;
 import static org.infobip.lib.popout.IOUtils.fileExists;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.infobip.lib.popout.ChecksumVerification;
 import org.infobip.lib.popout.CompressedFilesConfig;
+import org.infobip.lib.popout.exception.CorruptedDataException;
 
 import io.appulse.utils.Bytes;
+import lombok.SneakyThrows;
 import lombok.val;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -197,4 +208,479 @@ class CompressedFilesTests {
     }
     assertThat(count2).isEqualTo(3);
   }
+
+  @Test
+  void trimsUnusedTail () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(35L)
+            .build())
+        .build();
+
+    val result = compressed.compress(walFiles.getFilesFromFileSystem());
+    assertThat(result.getRemaining()).containsExactly(
+        file("popa-10.wal")
+    );
+
+    // the last record doesn't fit into the 35 bytes limit, so the file takes only 29 bytes
+    assertThat(compressed.diskSize()).isEqualTo(29L);
+    assertThat(contentOf("popa-0.compressed")).containsExactly(Bytes.resizableArray()
+        .write1B(1).write8B(1)
+        .writeNB("p")
+        .write1B(1).write8B(1)
+        .writeNB("o")
+        .write1B(4).write8B(0)
+        .arrayCopy());
+  }
+
+  @Test
+  void oversizedWalFile () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(10L)
+            .build())
+        .build();
+
+    // each WAL file with headers is bigger than 10 bytes, but it is compressed anyway
+    val result = compressed.compress(walFiles.getFilesFromFileSystem());
+    assertThat(result.getCompressed()).containsExactly(
+        file("popa-1.wal")
+    );
+    assertThat(contentOf("popa-0.compressed")).containsExactly(Bytes.resizableArray()
+        .write1B(1).write8B(1)
+        .writeNB("p")
+        .write1B(4).write8B(0)
+        .arrayCopy());
+  }
+
+  @Test
+  void compactSkipsReadFiles () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(10L)
+            .compactionThreshold(0.5)
+            .build())
+        .build();
+
+    Collection<Path> remaining = walFiles.getFilesFromFileSystem();
+    while (!remaining.isEmpty()) {
+      remaining = compressed.compress(remaining).getRemaining();
+    }
+    assertThat(compressed.getFiles()).hasSize(3);
+
+    val abandoned = compressed.iterator();
+    assertThat(abandoned.next().getLength()).isEqualTo(1);
+
+    val iterator = compressed.iterator();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+    // goes to the next file and releases the previous one
+    assertThat(iterator.hasNext()).isTrue();
+
+    // the empty 'o' file is removed, the 'p' one is held by the abandoned iterator
+    assertThat(compressed.compact()).isEqualTo(19L);
+    assertThat(compressed.getFiles()).containsExactly(
+        file("popa-0.compressed"),
+        file("popa-2.compressed")
+    );
+
+    abandoned.close();
+    assertThat(compressed.compact()).isEqualTo(19L);
+    assertThat(compressed.getFiles()).containsExactly(
+        file("popa-2.compressed")
+    );
+    iterator.close();
+    compressed.close();
+  }
+
+  @Test
+  void compact () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .compactionThreshold(0.5)
+            .build())
+        .build();
+
+    compressed.compress(walFiles.getFilesFromFileSystem());
+    assertThat(compressed.diskSize()).isEqualTo(40L);
+    assertThat(compressed.compact()).isEqualTo(0L);
+
+    val buffer = Bytes.resizableArray(4);
+    assertThat(compressed.pollContentPart(buffer)).isEqualTo(1);
+
+    // the consumed 'p' record is only 10 of 40 bytes, less than the threshold
+    assertThat(compressed.compact()).isEqualTo(0L);
+
+    val iterator = compressed.iterator();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+
+    // the iterator holds the records' offsets in the file
+    assertThat(compressed.compact()).isEqualTo(0L);
+    iterator.close();
+
+    assertThat(compressed.compact()).isEqualTo(20L);
+    assertThat(compressed.diskSize()).isEqualTo(20L);
+    assertThat(contentOf("popa-0.compressed")).containsExactly(Bytes.resizableArray()
+        .write1B(1).write8B(2)
+        .writeNB("pa")
+        .write1B(4).write8B(0)
+        .arrayCopy());
+
+    buffer.reset();
+    assertThat(compressed.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    assertThat(compressed.getFiles()).isEmpty();
+  }
+
+  @Test
+  void cachedCount () {
+    val result = compressedFiles.compress(walFiles.getFilesFromFileSystem());
+    compressedFiles.compress(result.getRemaining());
+    assertThat(compressedFiles.count()).isEqualTo(3);
+
+    val buffer = Bytes.resizableArray(4);
+    assertThat(compressedFiles.peekContentPart(buffer)).isEqualTo(1);
+    assertThat(compressedFiles.count()).isEqualTo(3);
+    assertThat(compressedFiles.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(compressedFiles.count()).isEqualTo(2);
+
+    // the second file's record is found by the first file's cached count
+    assertThat(compressedFiles.get(1).getLength()).isEqualTo(2);
+
+    val iterator = compressedFiles.iterator();
+    iterator.next();
+    iterator.remove();
+    assertThat(compressedFiles.count()).isEqualTo(1);
+    assertThat(compressedFiles.get(0).getLength()).isEqualTo(2);
+    assertThat(compressedFiles.get(1)).isNull();
+    compressedFiles.close();
+
+    val restored = CompressedFiles.builder()
+        .queueName("popa")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(29L)
+            .build())
+        .build();
+    assertThat(restored.count()).isEqualTo(1);
+    restored.close();
+  }
+
+  @Test
+  void offsetIndex () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .offsetIndex(true)
+            .build())
+        .build();
+
+    compressed.compress(walFiles.getFilesFromFileSystem());
+    assertThat(contentOf("popa-0.compressed.index")).containsExactly(Bytes.resizableArray()
+        .write8B(40) // compressed file size
+        .write8B(3) // records count
+        .write8B(0) // removed records count
+        .write8B(0).write8B(10).write8B(20)
+        .arrayCopy());
+
+    assertThat(compressed.count()).isEqualTo(3);
+    assertThat(compressed.get(1).getLength()).isEqualTo(1);
+    assertThat(compressed.get(2).getLength()).isEqualTo(2);
+    assertThat(compressed.get(3)).isNull();
+
+    val iterator = compressed.iterator();
+    iterator.next();
+    iterator.next();
+    iterator.remove();
+    assertThat(contentOf("popa-0.compressed.index")).containsExactly(Bytes.resizableArray()
+        .write8B(40)
+        .write8B(3)
+        .write8B(1)
+        .write8B(0).write8B(-11).write8B(20)
+        .arrayCopy());
+    assertThat(compressed.count()).isEqualTo(2);
+    assertThat(compressed.get(1).getLength()).isEqualTo(2);
+
+    assertThat(compressed.skip(1)).isEqualTo(1);
+    assertThat(compressed.count()).isEqualTo(1);
+    assertThat(compressed.get(0).getLength()).isEqualTo(2);
+
+    val buffer = Bytes.resizableArray(4);
+    assertThat(compressed.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    assertThat(compressed.count()).isEqualTo(0);
+    assertThat(compressed.pollContentPart(buffer)).isEqualTo(0);
+    assertThat(fileExists("popa-0.compressed")).isFalse();
+    assertThat(fileExists("popa-0.compressed.index")).isFalse();
+  }
+
+  @Test
+  void inconsistentOffsetIndex () {
+    val compressed = CompressedFiles.builder()
+        .queueName("popa")
+        .restoreFromDisk(false)
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .offsetIndex(true)
+            .build())
+        .build();
+
+    compressed.compress(walFiles.getFilesFromFileSystem());
+    // the removed entry without the removed records count
+    OffsetIndex.write(file("popa-0.compressed"), new long[] { 0, -11, 20 });
+
+    assertThat(compressed.get(1).getOffset()).isEqualTo(29);
+    assertThat(compressed.get(1).getLength()).isEqualTo(2);
+    compressed.close();
+  }
+
+  @Test
+  void crc32c () {
+    val bytes = "123456789".getBytes(UTF_8);
+
+    val fallback = new Crc32c();
+    fallback.update(bytes, 0, bytes.length);
+    assertThat(fallback.getValue()).isEqualTo(0xE3069283L);
+
+    val checksum = Crc32c.create();
+    checksum.update(bytes, 0, bytes.length);
+    assertThat(checksum.getValue()).isEqualTo(0xE3069283L);
+  }
+
+  @Test
+  @SneakyThrows
+  void checksums () {
+    val errors = new ArrayList<CorruptedDataException>();
+    val builder = CompressedFiles.builder()
+        .queueName("checksums")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .checksums(true)
+            .checksumVerification(ChecksumVerification.ALWAYS)
+            .build())
+        .corruptionHandler(exception -> errors.add(exception));
+
+    val files = builder.build();
+    files.compress(walFiles.getFilesFromFileSystem());
+
+    val header = new RecordHeader();
+    assertThat(contentOf("checksums-0.compressed")).startsWith(Bytes.resizableArray()
+        .write1B(RecordHeader.Marker.CHECKED_RECORD.getValue())
+        .write4B(header.checksum(Bytes.wrap("p".getBytes(UTF_8)), 0, 1))
+        .write4B(1)
+        .write1B('p')
+        .arrayCopy());
+
+    // damages the "o" record's content
+    try (val channel = FileChannel.open(file("checksums-0.compressed"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap("x".getBytes(UTF_8)), 19);
+    }
+
+    // the startup recovery finds the damaged record and jumps over it
+    assertThat(builder.build().recover(file("checksums-0.compressed"))).isTrue();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).getOffset()).isEqualTo(10);
+
+    val buffer = Bytes.allocate(4);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("ppa".getBytes(UTF_8));
+  }
+
+  @Test
+  @SneakyThrows
+  void checksumsOnRead () {
+    val errors = new ArrayList<CorruptedDataException>();
+    val files = CompressedFiles.builder()
+        .queueName("checksums")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .checksums(true)
+            .checksumVerification(ChecksumVerification.ALWAYS)
+            .build())
+        .corruptionHandler(exception -> errors.add(exception))
+        .build();
+
+    files.compress(walFiles.getFilesFromFileSystem());
+    try (val channel = FileChannel.open(file("checksums-0.compressed"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap("x".getBytes(UTF_8)), 19);
+    }
+
+    val buffer = Bytes.allocate(4);
+    assertThat(files.peekContentPart(buffer)).isEqualTo(1);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(buffer.arrayCopy()).isEqualTo("pp".getBytes(UTF_8));
+
+    // the damaged "o" record is skipped, without deserialization
+    buffer.reset();
+    assertThat(files.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).getOffset()).isEqualTo(10);
+    assertThat(fileExists("checksums-0.compressed")).isFalse();
+  }
+
+  @Test
+  @SneakyThrows
+  void checksumsRejectedByHandler () {
+    val errors = new ArrayList<CorruptedDataException>();
+    val builder = CompressedFiles.builder()
+        .queueName("checksums")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .checksums(true)
+            .checksumVerification(ChecksumVerification.ALWAYS)
+            .build())
+        .corruptionHandler(exception -> !errors.add(exception));
+
+    val files = builder.build();
+    files.compress(walFiles.getFilesFromFileSystem());
+    try (val channel = FileChannel.open(file("checksums-0.compressed"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap("x".getBytes(UTF_8)), 19);
+    }
+
+    val damaged = contentOf("checksums-0.compressed");
+
+    // the handler stops the recovery, the damaged record isn't touched
+    assertThatThrownBy(() -> builder.build().recover(file("checksums-0.compressed")))
+        .isInstanceOf(CorruptedDataException.class);
+    assertThat(errors).hasSize(1);
+    assertThat(contentOf("checksums-0.compressed")).containsExactly(damaged);
+
+    val buffer = Bytes.allocate(4);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(files.count()).isEqualTo(2);
+
+    // the rejected record is not consumed, it is rejected again
+    assertThatThrownBy(() -> files.pollContentPart(buffer))
+        .isInstanceOf(CorruptedDataException.class);
+    assertThatThrownBy(() -> files.pollContentPart(buffer))
+        .isInstanceOf(CorruptedDataException.class);
+    assertThat(errors).hasSize(3);
+    assertThat(files.count()).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("p".getBytes(UTF_8));
+  }
+
+  @Test
+  @SneakyThrows
+  void compactFormat () {
+    val builder = CompressedFiles.builder()
+        .queueName("popa")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .compactionThreshold(0.25)
+            .build())
+        .compactFormat(true);
+
+    val compressed = builder.restoreFromDisk(false).build();
+    compressed.compress(walFiles.getFilesFromFileSystem());
+    assertThat(contentOf("popa-0.compressed")).containsExactly(Bytes.resizableArray()
+        .write1B(2).write8B(9) // the head slot
+        .write1B(0x41).write1B(1)
+        .writeNB("p")
+        .write1B(0x41).write1B(1)
+        .writeNB("o")
+        .write1B(0x41).write1B(2)
+        .writeNB("pa")
+        .write1B(0x44)
+        .arrayCopy());
+    assertThat(compressed.recover(file("popa-0.compressed"))).isTrue();
+    assertThat(compressed.count()).isEqualTo(3);
+    assertThat(compressed.get(1).getOffset()).isEqualTo(14);
+    assertThat(compressed.compact()).isEqualTo(0L);
+
+    // the compact record is removed with the tombstone flag, instead of a jump
+    val iterator = compressed.iterator();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+    assertThat(contentOf("popa-0.compressed")[12]).isEqualTo((byte) 0x61);
+    assertThat(compressed.count()).isEqualTo(2);
+
+    iterator.close();
+
+    val buffer = Bytes.resizableArray(4);
+    assertThat(compressed.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(compressed.compact()).isEqualTo(6L);
+    assertThat(contentOf("popa-0.compressed")).containsExactly(Bytes.resizableArray()
+        .write1B(2).write8B(9)
+        .write1B(0x41).write1B(2)
+        .writeNB("pa")
+        .write1B(0x44)
+        .arrayCopy());
+
+    // the compact files are readable without the option
+    val legacy = builder.compactFormat(false).restoreFromDisk(true).build();
+    assertThat(legacy.recover(file("popa-0.compressed"))).isTrue();
+    buffer.reset();
+    assertThat(legacy.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    assertThat(legacy.getFiles()).isEmpty();
+  }
+
+  @Test
+  @SneakyThrows
+  void compactFormatChecksums () {
+    val errors = new ArrayList<CorruptedDataException>();
+    val files = CompressedFiles.builder()
+        .queueName("checksums")
+        .config(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .checksums(true)
+            .build())
+        .corruptionHandler(exception -> errors.add(exception))
+        .compactFormat(true)
+        .build();
+
+    files.compress(walFiles.getFilesFromFileSystem());
+
+    val header = new RecordHeader();
+    assertThat(contentOf("checksums-0.compressed")).startsWith(Bytes.resizableArray()
+        .write1B(2).write8B(9)
+        .write1B(0x51)
+        .write4B(header.checksum(Bytes.wrap("p".getBytes(UTF_8)), 0, 1))
+        .write1B(1)
+        .write1B('p')
+        .arrayCopy());
+
+    // damages the "o" record's content
+    try (val channel = FileChannel.open(file("checksums-0.compressed"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap("x".getBytes(UTF_8)), 22);
+    }
+
+    assertThat(files.recover(file("checksums-0.compressed"))).isTrue();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).getOffset()).isEqualTo(16);
+    assertThat(contentOf("checksums-0.compressed")[16]).isEqualTo((byte) 0x71);
+
+    val buffer = Bytes.allocate(4);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(1);
+    assertThat(files.pollContentPart(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("ppa".getBytes(UTF_8));
+  }
 }
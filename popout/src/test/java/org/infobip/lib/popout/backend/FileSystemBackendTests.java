@@ -18,10 +18,15 @@ package org.infobip.lib.popout.backend;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.infobip.lib.popout.IOUtils.FOLDER;
+import static org.infobip.lib.popout.IOUtils.allFiles;
 import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+import static org.infobip.lib.popout.IOUtils.contentOf;
+import static org.infobip.lib.popout.IOUtils.file;
 import static org.infobip.lib.popout.IOUtils.fileExists;
 
+import java.nio.BufferOverflowException;
 import java.nio.file.Files;
 
 import org.infobip.lib.popout.CompressedFilesConfig;
@@ -122,4 +127,261 @@ class FileSystemBackendTests {
     assertThat(readed).isEqualTo(0);
     assertThat(buffer.arrayCopy()).isEmpty();
   }
+
+  @Test
+  void pollToMaxLength () {
+    fs.write(Bytes.wrap("p".getBytes(UTF_8)));
+    fs.write(Bytes.wrap("o".getBytes(UTF_8)));
+    fs.write(Bytes.wrap("pa".getBytes(UTF_8)));
+
+    val buffer = Bytes.allocate(4);
+    // the compressed head fits, the too long WAL head stays in the queue
+    assertThat(fs.pollTo(buffer, 1)).isEqualTo(1);
+    assertThat(fs.peakTo(buffer, 1)).isEqualTo(1);
+    assertThat(fs.pollTo(buffer, 1)).isEqualTo(1);
+    assertThat(buffer.arrayCopy()).isEqualTo("poo".getBytes(UTF_8));
+
+    assertThatThrownBy(() -> fs.peakTo(buffer, 1))
+        .isInstanceOf(BufferOverflowException.class);
+    assertThatThrownBy(() -> fs.pollTo(buffer, 1))
+        .isInstanceOf(BufferOverflowException.class);
+    assertThat(buffer.arrayCopy()).isEqualTo("poo".getBytes(UTF_8));
+    assertThat(fileExists("popa-2.wal")).isTrue();
+
+    buffer.reset();
+    assertThat(fs.pollTo(buffer, 2)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    assertThat(fs.pollTo(buffer, 2)).isEqualTo(0);
+  }
+
+  @Test
+  void compress () {
+    val backend = FileSystemBackend.builder()
+        .queueName("compress")
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(29L)
+            .build())
+        .build();
+
+    backend.write(Bytes.wrap("p".getBytes(UTF_8)));
+    backend.write(Bytes.wrap("o".getBytes(UTF_8)));
+    backend.write(Bytes.wrap("pa".getBytes(UTF_8)));
+    backend.write(Bytes.wrap("!".getBytes(UTF_8)));
+
+    // all WAL files are compressed into several files, bounded by 29 bytes
+    backend.compress();
+    assertThat(allFiles()).containsExactlyInAnyOrder(
+        file("compress-0.compressed"),
+        file("compress-1.compressed"),
+        file("compress-2.compressed")
+    );
+
+    val buffer = Bytes.resizableArray(8);
+    while (backend.pollTo(buffer) > 0) {
+      // reads all
+    }
+    assertThat(buffer.arrayCopy()).isEqualTo("popa!".getBytes(UTF_8));
+    assertThat(allFiles()).isEmpty();
+    backend.close();
+  }
+
+  @Test
+  void segmentPool () {
+    val builder = FileSystemBackend.builder()
+        .queueName("pool")
+        .restoreFromDisk(true)
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .segmentPoolSize(2)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .build());
+
+    try (val backend = builder.build()) {
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-0.spare"),
+          file("pool-1.spare")
+      );
+
+      backend.write(Bytes.wrap("popa".getBytes(UTF_8)));
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-0.wal"),
+          file("pool-1.spare")
+      );
+      assertThat(contentOf("pool-0.wal")).isEqualTo("popa".getBytes(UTF_8));
+
+      val buffer = Bytes.resizableArray(4);
+      assertThat(backend.pollTo(buffer)).isEqualTo(4);
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-1.spare"),
+          file("pool-2.spare")
+      );
+
+      // the recycled file is shorter now
+      backend.write(Bytes.wrap("o".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("pa".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("!".getBytes(UTF_8)));
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-1.wal"),
+          file("pool-2.wal"),
+          file("pool-3.wal")
+      );
+      assertThat(contentOf("pool-1.wal")).isEqualTo("o".getBytes(UTF_8));
+      assertThat(contentOf("pool-2.wal")).isEqualTo("pa".getBytes(UTF_8));
+    }
+
+    // the new spare files are created after restart
+    try (val backend = builder.build()) {
+      val buffer = Bytes.resizableArray(4);
+      assertThat(backend.pollTo(buffer)).isEqualTo(1);
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-0.spare"),
+          file("pool-1.spare"),
+          file("pool-2.wal"),
+          file("pool-3.wal")
+      );
+
+    }
+  }
+
+  @Test
+  void segmentPoolSpares () {
+    val builder = FileSystemBackend.builder()
+        .queueName("pool")
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .segmentPoolSize(2)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .build());
+
+    try (val backend = builder.build()) {
+      backend.write(Bytes.wrap("popa".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("pop".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("!".getBytes(UTF_8)));
+
+      // the recycled spare file is a part of the disk size
+      assertThat(backend.pollTo(Bytes.resizableArray(4))).isEqualTo(4);
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("pool-1.wal"),
+          file("pool-2.spare"),
+          file("pool-2.wal")
+      );
+      assertThat(backend.diskSize()).isEqualTo(8L);
+    }
+    // the spare files are removed on close
+    assertThat(allFiles()).containsExactlyInAnyOrder(
+        file("pool-1.wal"),
+        file("pool-2.wal")
+    );
+
+    // and on clear
+    try (val backend = builder.restoreFromDisk(false).build()) {
+      assertThat(allFiles()).isEmpty();
+      assertThat(backend.diskSize()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  void compactWithLiveIterator () {
+    val backend = FileSystemBackend.builder()
+        .queueName("compact")
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(Long.MAX_VALUE)
+            .compactionThreshold(0.5)
+            .build())
+        .build();
+
+    backend.write(Bytes.wrap("p".getBytes(UTF_8)));
+    backend.write(Bytes.wrap("o".getBytes(UTF_8)));
+    backend.write(Bytes.wrap("pa".getBytes(UTF_8)));
+    backend.compress();
+
+    val iterator = backend.iterator();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+    assertThat(iterator.next().getLength()).isEqualTo(1);
+    iterator.remove();
+
+    // the iterator still points to the records' offsets
+    assertThat(backend.compact()).isEqualTo(0L);
+    assertThat(iterator.next().getLength()).isEqualTo(2);
+    assertThat(iterator.hasNext()).isFalse();
+
+    // the exhausted iterator doesn't hold the files
+    assertThat(backend.compact()).isEqualTo(20L);
+
+    val buffer = Bytes.resizableArray(4);
+    assertThat(backend.pollTo(buffer)).isEqualTo(2);
+    assertThat(buffer.arrayCopy()).isEqualTo("pa".getBytes(UTF_8));
+    backend.close();
+  }
+
+  @Test
+  @SneakyThrows
+  void recovery () {
+    val builder = FileSystemBackend.builder()
+        .queueName("recovery")
+        .walConfig(WalFilesConfig.builder()
+            .folder(FOLDER)
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressedConfig(CompressedFilesConfig.builder()
+            .folder(FOLDER)
+            .maxSizeBytes(29L)
+            .build())
+        .recoveryParallelism(4);
+
+    try (val backend = builder.build()) {
+      backend.write(Bytes.wrap("a".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("b".getBytes(UTF_8)));
+      backend.write(Bytes.wrap("c".getBytes(UTF_8)));
+      backend.compress();
+      backend.write(Bytes.wrap("d".getBytes(UTF_8)));
+    }
+
+    // a crash during the compression of the WAL file
+    Files.write(file("recovery-10.compressed"), Bytes.resizableArray()
+        .write1B(RecordHeader.Marker.RECORD.getValue()).write8B(1)
+        .arrayCopy());
+
+    // a bad header after a valid record
+    Files.write(file("recovery-1.compressed"), Bytes.resizableArray()
+        .write1B(RecordHeader.Marker.RECORD.getValue()).write8B(1).write1B('c')
+        .write1B(0x7F).write8B(42)
+        .arrayCopy());
+
+    try (val backend = builder.build()) {
+      assertThat(fileExists("recovery-10.compressed")).isFalse();
+      assertThat(contentOf("recovery-1.compressed")).containsExactly(Bytes.resizableArray()
+          .write1B(RecordHeader.Marker.RECORD.getValue()).write8B(1).write1B('c')
+          .write1B(RecordHeader.Marker.END.getValue()).write8B(0)
+          .arrayCopy());
+
+      assertThat(backend.count()).isEqualTo(4);
+      assertThat(backend.count(content -> content.getLength())).isEqualTo(4);
+
+      val buffer = Bytes.allocate(4);
+      for (int index = 0; index < 4; index++) {
+        backend.pollTo(buffer);
+      }
+      assertThat(buffer.arrayCopy()).isEqualTo("abcd".getBytes(UTF_8));
+    }
+  }
 }
@@ -21,10 +21,12 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.infobip.lib.popout.IOUtils.FOLDER;
 import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+import static org.infobip.lib.popout.IOUtils.contentOf;
 import static org.infobip.lib.popout.IOUtils.createFile;
 import static org.infobip.lib.popout.IOUtils.delete;
 import static org.infobip.lib.popout.IOUtils.file;
 
+import io.appulse.utils.Bytes;
 import lombok.experimental.FieldDefaults;
 import lombok.val;
 import org.junit.jupiter.api.AfterEach;
@@ -186,4 +188,68 @@ class FilesManagerTests {
         file("popa-0.wal")
     );
   }
+
+  @Test
+  void temporaryFiles () {
+    createFile("popa-5.wal.tmp");
+    createFile("popa-6.compressed.tmp");
+
+    // the interrupted write's file is removed on start
+    try (val manager = FilesManager.builder()
+        .folder(FOLDER)
+        .prefix("popa-")
+        .suffix(".wal")
+        .build()) {
+
+      assertThat(file("popa-5.wal.tmp")).doesNotExist();
+      assertThat(file("popa-6.compressed.tmp")).exists();
+      assertThat(manager.getFilesFromQueue()).containsExactly(
+          file("popa-1.wal"),
+          file("popa-3.wal")
+      );
+    }
+  }
+
+  @Test
+  void manifest () {
+    val builder = FilesManager.builder()
+        .folder(FOLDER)
+        .prefix("popa-")
+        .suffix(".wal")
+        .manifest(true);
+
+    try (val manager = builder.build()) {
+      // the manifest is created from the folder's listing
+      assertThat(contentOf("popa-wal.manifest")).containsExactly(Bytes.resizableArray()
+          .write1B(Manifest.CREATE_EVENT).write4B(1)
+          .write1B(Manifest.CREATE_EVENT).write4B(3)
+          .arrayCopy());
+
+      manager.createNextFile();
+      manager.remove(file("popa-1.wal"));
+      assertThat(contentOf("popa-wal.manifest")).containsExactly(Bytes.resizableArray()
+          .write1B(Manifest.CREATE_EVENT).write4B(1)
+          .write1B(Manifest.CREATE_EVENT).write4B(3)
+          .write1B(Manifest.CREATE_EVENT).write4B(4)
+          .write1B(Manifest.DELETE_EVENT).write4B(1)
+          .arrayCopy());
+    }
+
+    // the files, unknown to the manifest, are adopted, the deleted ones are dropped
+    createFile("popa-6.wal");
+    createFile("popa-5.wal");
+    delete("popa-3.wal");
+    try (val manager = builder.build()) {
+      assertThat(manager.getFilesFromQueue()).containsExactly(
+          file("popa-4.wal"),
+          file("popa-5.wal"),
+          file("popa-6.wal")
+      );
+      assertThat(contentOf("popa-wal.manifest")).containsExactly(Bytes.resizableArray()
+          .write1B(Manifest.CREATE_EVENT).write4B(4)
+          .write1B(Manifest.CREATE_EVENT).write4B(5)
+          .write1B(Manifest.CREATE_EVENT).write4B(6)
+          .arrayCopy());
+    }
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.batched;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveBatchSizePolicyTests {
+
+  static final AdaptiveBatchSizeConfig CONFIG = AdaptiveBatchSizeConfig.builder()
+      .minBatchSize(10)
+      .maxBatchSize(10_000)
+      .maxFlushInterval(Duration.ofMillis(100))
+      .build();
+
+  @Test
+  void initialValue () {
+    assertThat(new AdaptiveBatchSizePolicy(1, CONFIG).getBatchSize())
+        .isEqualTo(10);
+
+    assertThat(new AdaptiveBatchSizePolicy(500, CONFIG).getBatchSize())
+        .isEqualTo(500);
+
+    assertThat(new AdaptiveBatchSizePolicy(Integer.MAX_VALUE, CONFIG).getBatchSize())
+        .isEqualTo(10_000);
+  }
+
+  @Test
+  void grows () {
+    val policy = new AdaptiveBatchSizePolicy(10, CONFIG);
+    long now = System.nanoTime();
+
+    // 1_000 elements in 10ms - 100 elements per ms, flush takes nothing
+    for (int i = 0; i < 20; i++) {
+      now += MILLISECONDS.toNanos(10);
+      policy.onFlush(1_000, now, now);
+    }
+    assertThat(policy.getBatchSize())
+        .isBetween(9_900, 10_000);
+  }
+
+  @Test
+  void shrinks () {
+    val policy = new AdaptiveBatchSizePolicy(5_000, CONFIG);
+    long now = System.nanoTime();
+
+    // 10 elements per second - the slowest rate
+    for (int i = 0; i < 20; i++) {
+      now += MILLISECONDS.toNanos(1_000);
+      policy.onFlush(10, now, now);
+    }
+    assertThat(policy.getBatchSize())
+        .isEqualTo(10);
+  }
+
+  @Test
+  void flushDurationReducesBudget () {
+    val policy = new AdaptiveBatchSizePolicy(10, CONFIG);
+    long now = System.nanoTime();
+
+    // 100 elements per ms, but the flush takes a half of the interval
+    for (int i = 0; i < 20; i++) {
+      now += MILLISECONDS.toNanos(10);
+      policy.onFlush(1_000, now, now + MILLISECONDS.toNanos(50));
+    }
+    assertThat(policy.getBatchSize())
+        .isBetween(4_900, 5_000);
+
+    // the flush takes longer than the whole budget
+    for (int i = 0; i < 20; i++) {
+      now += MILLISECONDS.toNanos(10);
+      policy.onFlush(1_000, now, now + MILLISECONDS.toNanos(500));
+    }
+    assertThat(policy.getBatchSize())
+        .isEqualTo(10);
+  }
+}
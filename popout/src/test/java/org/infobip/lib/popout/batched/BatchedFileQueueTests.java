@@ -16,20 +16,32 @@
 
 package org.infobip.lib.popout.batched;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.infobip.lib.popout.IOUtils.FOLDER;
 import static org.infobip.lib.popout.IOUtils.allFiles;
 import static org.infobip.lib.popout.IOUtils.clearTestFiles;
 import static org.infobip.lib.popout.IOUtils.contentOf;
 import static org.infobip.lib.popout.IOUtils.file;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
 
+import org.infobip.lib.popout.CompressedFilesConfig;
 import org.infobip.lib.popout.Deserializer;
 import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.ReusingDeserializer;
 import org.infobip.lib.popout.Serializer;
 import org.infobip.lib.popout.WalFilesConfig;
+import org.infobip.lib.popout.backend.QueueBackendFactory;
 
 import io.appulse.utils.Bytes;
 import io.appulse.utils.BytesUtils;
@@ -79,32 +91,101 @@ class BatchedFileQueueTests {
     );
 
     assertThat(contentOf("batched-queue-add-0.compressed")).containsExactly(Bytes.resizableArray()
-        .write1B(1).write8B(22) // header RECORD:chunk_length
-        .write4B(3) // queue length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[0]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[1]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[2]))
-        .write1B(1).write8B(22) // header RECORD:chunk_length
-        .write4B(3) // queue length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[3]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[4]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[5]))
-        .write1B(1).write8B(22) // header RECORD:chunk_length
-        .write4B(3) // queue length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[6]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[7]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[8]))
+        .write1B(1).write8B(15) // header RECORD:chunk_length
+        .write4B(0x8000_0000 | 3) // fixed layout, queue length
+        .write4B(2) // item size
+        .write1B(0) // removed items
+        .writeNB(BytesUtils.toBytes(chars[0]))
+        .writeNB(BytesUtils.toBytes(chars[1]))
+        .writeNB(BytesUtils.toBytes(chars[2]))
+        .write1B(1).write8B(15) // header RECORD:chunk_length
+        .write4B(0x8000_0000 | 3) // fixed layout, queue length
+        .write4B(2) // item size
+        .write1B(0) // removed items
+        .writeNB(BytesUtils.toBytes(chars[3]))
+        .writeNB(BytesUtils.toBytes(chars[4]))
+        .writeNB(BytesUtils.toBytes(chars[5]))
+        .write1B(1).write8B(15) // header RECORD:chunk_length
+        .write4B(0x8000_0000 | 3) // fixed layout, queue length
+        .write4B(2) // item size
+        .write1B(0) // removed items
+        .writeNB(BytesUtils.toBytes(chars[6]))
+        .writeNB(BytesUtils.toBytes(chars[7]))
+        .writeNB(BytesUtils.toBytes(chars[8]))
         .write1B(4).write8B(0) // header END
         .arrayCopy());
 
     assertThat(contentOf("batched-queue-add-10.wal")).containsExactly(Bytes.resizableArray()
-        .write4B(3) // queue length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[30]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[31]))
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[32]))
+        .write4B(0x8000_0000 | 3) // fixed layout, queue length
+        .write4B(2) // item size
+        .write1B(0) // removed items
+        .writeNB(BytesUtils.toBytes(chars[30]))
+        .writeNB(BytesUtils.toBytes(chars[31]))
+        .writeNB(BytesUtils.toBytes(chars[32]))
         .arrayCopy());
   }
 
+  @Test
+  void iterateCompressed () {
+    try (val queue = FileQueue.<Integer>batched()
+        .name("batched-queue-iterate-compressed")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3)
+        .build()) {
+
+      for (int i = 0; i < 9; i++) {
+        queue.add(i);
+      }
+      queue.compress();
+
+      // the exhausted compressed file's iterator must not spin on the repeated hasNext calls
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+        assertThat(new ArrayList<>(queue)).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8);
+        assertThat(queue.toString()).isEqualTo("[0, 1, 2, 3, 4, 5, 6, 7, 8]");
+        assertThat(queue.removeIf(it -> it % 2 == 0)).isTrue();
+        assertThat(queue).containsExactly(1, 3, 5, 7);
+      });
+    }
+  }
+
+  @Test
+  void removeChecksummed () {
+    val builder = FileQueue.<Integer>batched()
+        .name("batched-queue-remove-checksummed")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressed(CompressedFilesConfig.builder()
+            .checksums(true)
+            .build())
+        .batchSize(3);
+
+    try (val queue = builder.build()) {
+      for (int i = 0; i < 9; i++) {
+        queue.add(i);
+      }
+      queue.compress();
+      assertThat(queue.remove(1)).isTrue();
+    }
+
+    // the removal updates the record's checksum, so the batch is not dropped on recovery
+    try (val queue = builder.build()) {
+      val polled = new ArrayList<Integer>();
+      for (Integer value = queue.poll(); value != null; value = queue.poll()) {
+        polled.add(value);
+      }
+      assertThat(polled).containsExactly(0, 2, 3, 4, 5, 6, 7, 8);
+    }
+  }
+
   @Test
   void poll () {
     val chars = UUID.randomUUID().toString().toCharArray();
@@ -261,4 +342,352 @@ class BatchedFileQueueTests {
         file("batched-queue-flush-7.wal")
     );
   }
+
+  @Test
+  void adaptiveBatchSize () {
+    val queue = FileQueue.<Integer>batched()
+        .name("batched-queue-adaptive")
+        .restoreFromDisk(false)
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .adaptiveBatchSize(AdaptiveBatchSizeConfig.builder()
+            .minBatchSize(2)
+            .maxBatchSize(1_000)
+            .maxFlushInterval(Duration.ofHours(1))
+            .build())
+        .build();
+
+    assertThat(queue.getBatchSize()).isEqualTo(2);
+
+    for (int i = 0; i < 100; i++) {
+      queue.add(i);
+    }
+    assertThat(queue.getBatchSize()).isGreaterThan(2);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(queue.poll()).isEqualTo(i);
+    }
+    assertThat(queue.isEmpty()).isTrue();
+    queue.close();
+  }
+
+  @Test
+  void offHeapBuffers () {
+    val builder = FileQueue.<Integer>batched()
+        .name("batched-queue-off-heap")
+        .restoreFromDisk(true)
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3)
+        .offHeapBuffers(true);
+
+    try (val queue = builder.build()) {
+      for (int i = 0; i < 5; i++) {
+        queue.add(i);
+      }
+      assertThat(queue.size()).isEqualTo(5);
+
+      assertThat(contentOf("batched-queue-off-heap-0.wal")).containsExactly(Bytes.resizableArray()
+          .write4B(3) // queue length
+          .write4B(4).write4B(0)
+          .write4B(4).write4B(1)
+          .write4B(4).write4B(2)
+          .arrayCopy());
+
+      // reads the head from the disk, and then - from the in-memory tail
+      assertThat(queue.peek()).isEqualTo(0);
+      for (int i = 0; i < 4; i++) {
+        assertThat(queue.poll()).isEqualTo(i);
+      }
+      assertThat(queue.size()).isEqualTo(1);
+
+      for (int i = 5; i < 22; i++) {
+        queue.add(i);
+      }
+      // removes from the in-memory tail [19, 20, 21]
+      assertThat(queue.remove(20)).isTrue();
+      assertThat(queue.size()).isEqualTo(17);
+    }
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(17);
+      assertThat(queue).containsExactly(4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 21);
+
+      for (int i = 4; i < 22; i++) {
+        if (i != 20) {
+          assertThat(queue.poll()).isEqualTo(i);
+        }
+      }
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void inMemoryBackend () {
+    try (val queue = FileQueue.<Integer>batched()
+        .name("batched-queue-in-memory")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .backend(QueueBackendFactory.inMemory())
+        .batchSize(3)
+        .build()) {
+
+      for (int i = 0; i < 10; i++) {
+        queue.add(i);
+      }
+      assertThat(queue.size()).isEqualTo(10);
+      assertThat(queue.diskSize()).isEqualTo(0);
+
+      // removes from the stored batch [3, 4, 5]
+      assertThat(queue.remove(4)).isTrue();
+      assertThat(queue).containsExactly(0, 1, 2, 3, 5, 6, 7, 8, 9);
+
+      for (int i = 0; i < 10; i++) {
+        if (i != 4) {
+          assertThat(queue.poll()).isEqualTo(i);
+        }
+      }
+      assertThat(queue.poll()).isNull();
+    }
+    assertThat(allFiles()).isEmpty();
+  }
+
+  @Test
+  void fixedSizeLayout () {
+    Serializer<Integer> variableSize = Serializer.INTEGER::serialize;
+    val builder = FileQueue.<Integer>batched()
+        .name("batched-queue-fixed")
+        .folder(FOLDER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3);
+
+    // the length prefixed batch, which was written before the fixed size serializers
+    try (val queue = builder.serializer(variableSize).build()) {
+      for (int i = 0; i < 3; i++) {
+        queue.add(i);
+      }
+    }
+    try (val queue = builder.serializer(Serializer.INTEGER).build()) {
+      for (int i = 3; i < 12; i++) {
+        queue.add(i);
+      }
+      // removes from the stored fixed layout batch [3, 4, 5]
+      assertThat(queue.remove(4)).isTrue();
+      assertThat(queue).containsExactly(0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11);
+    }
+    assertThat(contentOf("batched-queue-fixed-1.wal")).containsExactly(Bytes.resizableArray()
+        .write4B(0x8000_0000 | 3) // fixed layout, queue length
+        .write4B(4) // item size
+        .write1B(0b010) // removed items
+        .write4B(3)
+        .write4B(4)
+        .write4B(5)
+        .arrayCopy());
+
+    // the off-heap buffers read the fixed layout batches too
+    try (val queue = builder.offHeapBuffers(true).build()) {
+      assertThat(queue).containsExactly(0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11);
+      for (int i = 0; i < 12; i++) {
+        if (i != 4) {
+          assertThat(queue.poll()).isEqualTo(i);
+        }
+      }
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void compactFormat () {
+    val longValue = String.join("", Collections.nCopies(100, "x"));
+    val builder = FileQueue.<String>batched()
+        .name("batched-queue-compact")
+        .folder(FOLDER)
+        .serializer(Serializer.STRING)
+        .deserializer(Deserializer.STRING)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3)
+        .compactFormat(true);
+
+    try (val queue = builder.build()) {
+      queue.add("a");
+      queue.add("bb");
+      queue.add(longValue);
+    }
+    val expected = Bytes.resizableArray()
+        .write1B(0x40) // compact layout
+        .write1B(3) // queue length
+        .write1B(5 << 1).write4B(1).writeNB("a")
+        .write1B(6 << 1).write4B(2).writeNB("bb")
+        .write1B(0xD0).write1B(0x01).write4B(100).writeNB(longValue); // 104 << 1
+    assertThat(contentOf("batched-queue-compact-0.wal")).containsExactly(expected.arrayCopy());
+
+    try (val queue = builder.build()) {
+      assertThat(queue.remove("bb")).isTrue();
+      assertThat(queue).containsExactly("a", longValue);
+    }
+    expected.set1B(8, (byte) (6 << 1 | 1)); // the tombstone flag
+    assertThat(contentOf("batched-queue-compact-0.wal")).containsExactly(expected.arrayCopy());
+
+    // the compact batches are readable without the option, and by the off-heap buffers
+    try (val queue = builder.compactFormat(false).offHeapBuffers(true).build()) {
+      assertThat(queue).containsExactly("a", longValue);
+      assertThat(queue.poll()).isEqualTo("a");
+      assertThat(queue.poll()).isEqualTo(longValue);
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void compression () {
+    val events = IntStream.range(0, 7)
+        .mapToObj(it -> "{\"event\":\"click\",\"user\":\"user-" + it + "\",\"page\":\"/home\"}")
+        .collect(toList());
+    val builder = FileQueue.<String>batched()
+        .name("batched-queue-deflated")
+        .folder(FOLDER)
+        .serializer(Serializer.STRING)
+        .deserializer(Deserializer.STRING)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3)
+        .compression(BatchCompressionConfig.builder()
+            .dictionary("{\"event\":\"click\",\"user\":\"user-\",\"page\":\"/home\"}".getBytes(UTF_8))
+            .build());
+
+    try (val queue = builder.build()) {
+      events.forEach(queue::add);
+    }
+    val content = Bytes.wrap(contentOf("batched-queue-deflated-0.wal"));
+    assertThat(content.getByte(0)).isEqualTo((byte) 0x44); // deflated layout
+    assertThat(content.getInt(1)).isEqualTo(3); // queue length
+    assertThat(content.getByte(5)).isEqualTo((byte) 0); // removed items
+    // the repeated content is compressed
+    assertThat(content.writerIndex()).isLessThan(events.get(0).length());
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(7);
+      assertThat(queue.remove(events.get(1))).isTrue();
+      assertThat(queue).containsExactly(events.get(0), events.get(2), events.get(3),
+                                        events.get(4), events.get(5), events.get(6));
+    }
+    assertThat(contentOf("batched-queue-deflated-0.wal")[5]).isEqualTo((byte) 0b10);
+
+    // the compressed batches are written and read by the off-heap buffers too
+    try (val queue = builder.offHeapBuffers(true).build()) {
+      assertThat(queue.poll()).isEqualTo(events.get(0));
+      assertThat(queue.poll()).isEqualTo(events.get(2));
+      queue.add("popa");
+    }
+    try (val queue = builder.offHeapBuffers(false).build()) {
+      assertThat(queue).containsExactly(events.get(3), events.get(4), events.get(5), events.get(6), "popa");
+    }
+  }
+
+  @Test
+  void corruptedCompression () {
+    val deflater = new BatchDeflater(BatchCompressionConfig.builder().build());
+    val batch = Bytes.resizableArray();
+    deflater.deflate(Bytes.wrap("popa".getBytes(UTF_8)), 1, batch);
+    deflater.close();
+
+    // the deflated content is overwritten by the garbage
+    for (int index = BatchDeflater.HEADER_BYTES + 1; index < batch.writerIndex(); index++) {
+      batch.set1B(index, (byte) 0xFF);
+    }
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertThatThrownBy(() -> deflater.inflate(batch, Bytes.resizableArray()))
+          .isInstanceOf(DataFormatException.class);
+    });
+    deflater.close();
+  }
+
+  @Test
+  void corruptedFixedLayout () {
+    // header, 1 byte bitmap and 3 items of 2 bytes
+    QueueSerializer.checkFixedLayout(3, 2, 15);
+
+    assertThatThrownBy(() -> QueueSerializer.checkFixedLayout(3, 2, 14))
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> QueueSerializer.checkFixedLayout(3, -2, 15))
+        .isInstanceOf(IllegalStateException.class);
+    // the items' offsets overflow the int
+    assertThatThrownBy(() -> QueueSerializer.checkFixedLayout(Integer.MAX_VALUE, 0x1_0000, Integer.MAX_VALUE))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void deflaterScratch () {
+    val deflater = new BatchDeflater(BatchCompressionConfig.builder().build());
+    val scratches = new ArrayList<Bytes>();
+
+    val deflated = Bytes.resizableArray();
+    deflater.deflate(batch -> {
+      scratches.add(batch);
+      batch.writeNB("popa".getBytes(UTF_8));
+    }, 1, deflated);
+    val inflated = deflater.inflate(deflated, batch -> {
+      scratches.add(batch);
+      return new String(batch.arrayCopy(), UTF_8);
+    });
+    assertThat(inflated).isEqualTo("popa");
+    // the same buffer is reused by all the batches
+    assertThat(scratches.get(1)).isSameAs(scratches.get(0));
+
+    // the huge buffer is not kept
+    deflater.deflate(batch -> batch.writeNB(new byte[2 * 1024 * 1024]), 1, Bytes.resizableArray());
+    deflater.deflate(batch -> scratches.add(batch), 1, Bytes.resizableArray());
+    assertThat(scratches.get(2)).isNotSameAs(scratches.get(0));
+    deflater.close();
+  }
+
+  @Test
+  void pollInto () {
+    try (val queue = FileQueue.<StringBuilder>batched()
+        .name("batched-queue-poll-into")
+        .folder(FOLDER)
+        .serializer((value, buffer) -> Serializer.STRING.serialize(value.toString(), buffer))
+        .deserializer(new StringBuilderDeserializer())
+        .batchSize(2)
+        .offHeapBuffers(true)
+        .build()) {
+
+      for (int i = 0; i < 5; i++) {
+        queue.add(new StringBuilder("item-").append(i));
+      }
+
+      // the head is read from the disk, and then - from the in-memory tail
+      val target = new StringBuilder();
+      for (int i = 0; i < 5; i++) {
+        assertThat(queue.pollInto(target)).isSameAs(target).hasToString("item-" + i);
+      }
+      assertThat(queue.pollInto(target)).isNull();
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+
+  static class StringBuilderDeserializer implements ReusingDeserializer<StringBuilder> {
+
+    @Override
+    public StringBuilder deserialize (int length, Bytes buffer) {
+      return new StringBuilder(Deserializer.STRING.deserialize(length, buffer));
+    }
+
+    @Override
+    public void deserializeInto (StringBuilder target, int length, Bytes buffer) {
+      target.setLength(0);
+      target.append(Deserializer.STRING.deserialize(length, buffer));
+    }
+  }
 }
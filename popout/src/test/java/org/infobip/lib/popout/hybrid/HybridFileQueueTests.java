@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.hybrid;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.infobip.lib.popout.IOUtils.FOLDER;
+import static org.infobip.lib.popout.IOUtils.allFiles;
+import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+import static org.infobip.lib.popout.IOUtils.contentOf;
+import static org.infobip.lib.popout.IOUtils.file;
+
+import java.nio.file.Files;
+import java.time.Duration;
+
+import org.infobip.lib.popout.Deserializer;
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.Serializer;
+import org.infobip.lib.popout.WalFilesConfig;
+
+import io.appulse.utils.Bytes;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HybridFileQueueTests {
+
+  @BeforeEach
+  void beforeEach () {
+    clearTestFiles();
+  }
+
+  @AfterEach
+  void afterEach () {
+    clearTestFiles();
+  }
+
+  @Test
+  void memoryOnly () {
+    try (val queue = FileQueue.<Integer>hybrid()
+        .name("hybrid-queue-memory")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .highWaterMark(10)
+        .build()) {
+
+      for (int i = 0; i < 10; i++) {
+        queue.add(i);
+      }
+      assertThat(queue.size()).isEqualTo(10);
+      assertThat(allFiles()).isEmpty();
+
+      for (int i = 0; i < 10; i++) {
+        assertThat(queue.poll()).isEqualTo(i);
+      }
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void spill () {
+    try (val queue = FileQueue.<Integer>hybrid()
+        .name("hybrid-queue-spill")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .highWaterMark(4)
+        .lowWaterMark(1)
+        .build()) {
+
+      for (int i = 0; i < 5; i++) {
+        queue.add(i);
+      }
+      assertThat(queue.size()).isEqualTo(5);
+
+      // the 3 oldest elements were spilled
+      assertThat(allFiles()).containsExactly(
+          file("hybrid-queue-spill-0.wal")
+      );
+      assertThat(contentOf("hybrid-queue-spill-0.wal")).containsExactly(Bytes.resizableArray()
+          .write4B(0x8000_0000 | 3) // fixed layout, queue length
+          .write4B(4) // item size
+          .write1B(0) // removed items
+          .write4B(0)
+          .write4B(1)
+          .write4B(2)
+          .arrayCopy());
+
+      assertThat(queue.peek()).isEqualTo(0);
+      assertThat(queue.poll()).isEqualTo(0);
+      for (int i = 5; i < 10; i++) {
+        queue.add(i);
+      }
+      assertThat(queue).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+      for (int i = 1; i < 10; i++) {
+        assertThat(queue.poll()).isEqualTo(i);
+      }
+      assertThat(queue.poll()).isNull();
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  void closeSpillsMemory () {
+    val builder = FileQueue.<Integer>hybrid()
+        .name("hybrid-queue-close")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .highWaterMark(100);
+
+    try (val queue = builder.build()) {
+      for (int i = 0; i < 10; i++) {
+        queue.add(i);
+      }
+      assertThat(allFiles()).isEmpty();
+    }
+    assertThat(allFiles()).isNotEmpty();
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(10);
+      for (int i = 0; i < 10; i++) {
+        assertThat(queue.poll()).isEqualTo(i);
+      }
+    }
+  }
+
+  @Test
+  @SneakyThrows
+  void journal () {
+    Files.createDirectories(FOLDER);
+    val builder = WriteBehindJournal.<Integer>builder()
+        .file(FOLDER.resolve("queue.journal"))
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .flushInterval(Duration.ofHours(1))
+        .restore(true);
+
+    val journal = builder.build();
+    for (int i = 0; i < 5; i++) {
+      journal.append(i);
+    }
+    journal.consumed(2);
+    journal.flush();
+
+    assertThat(contentOf("queue.journal")).containsExactly(Bytes.resizableArray()
+        .write8B(2) // consumed elements
+        .write4B(4).write4B(0)
+        .write4B(4).write4B(1)
+        .write4B(4).write4B(2)
+        .write4B(4).write4B(3)
+        .write4B(4).write4B(4)
+        .arrayCopy());
+
+    // reads the journal as after a crash
+    val restored = builder.build();
+    assertThat(restored.getRestored()).containsExactly(2, 3, 4);
+    restored.close();
+
+    journal.reset();
+    journal.append(5);
+    journal.flush();
+    assertThat(contentOf("queue.journal")).containsExactly(Bytes.resizableArray()
+        .write8B(0) // consumed elements
+        .write4B(4).write4B(5)
+        .arrayCopy());
+
+    journal.reset();
+    journal.close();
+    assertThat(allFiles()).isEmpty();
+  }
+
+  @Test
+  @SneakyThrows
+  void journalRewrite () {
+    Files.createDirectories(FOLDER);
+    val builder = WriteBehindJournal.<Integer>builder()
+        .file(FOLDER.resolve("queue.journal"))
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .flushInterval(Duration.ofHours(1))
+        .restore(true);
+
+    val journal = builder.build();
+    for (int i = 0; i < WriteBehindJournal.COMPACTION_MIN_CONSUMED + 2; i++) {
+      journal.append(i);
+    }
+    journal.consumed(WriteBehindJournal.COMPACTION_MIN_CONSUMED - 1);
+    assertThat(journal.isCompactable(3)).isFalse();
+    journal.consumed(1);
+    assertThat(journal.isCompactable(3)).isTrue();
+    assertThat(journal.isCompactable(WriteBehindJournal.COMPACTION_MIN_CONSUMED + 1)).isFalse();
+
+    journal.rewrite(asList(7, 8));
+    assertThat(journal.isCompactable(0)).isFalse();
+    assertThat(contentOf("queue.journal")).containsExactly(Bytes.resizableArray()
+        .write8B(0) // consumed elements
+        .write4B(4).write4B(7)
+        .write4B(4).write4B(8)
+        .arrayCopy());
+
+    journal.append(9);
+    journal.consumed(1);
+    journal.flush();
+    assertThat(allFiles()).containsExactly(file("queue.journal"));
+
+    // reads the journal as after a crash
+    val restored = builder.build();
+    assertThat(restored.getRestored()).containsExactly(8, 9);
+    restored.close();
+    journal.close();
+  }
+
+  @Test
+  void journaledIteratorRemove () {
+    try (val queue = FileQueue.<Integer>hybrid()
+        .name("hybrid-queue-remove")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .highWaterMark(4)
+        .lowWaterMark(2)
+        .journal(JournalConfig.builder()
+            .flushInterval(Duration.ofHours(1))
+            .build())
+        .build()) {
+
+      for (int i = 0; i < 5; i++) {
+        queue.add(i);
+      }
+      val iterator = queue.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next() % 2 == 1) {
+          iterator.remove();
+        }
+      }
+      assertThat(queue).containsExactly(0, 2, 4);
+
+      // reads the journal as after a crash
+      val restored = WriteBehindJournal.<Integer>builder()
+          .file(FOLDER.resolve("hybrid-queue-remove.journal"))
+          .serializer(Serializer.INTEGER)
+          .deserializer(Deserializer.INTEGER)
+          .flushInterval(Duration.ofHours(1))
+          .restore(true)
+          .build();
+      assertThat(restored.getRestored()).containsExactly(2, 4);
+      restored.close();
+    }
+  }
+
+  @Test
+  void journaledQueue () {
+    try (val queue = FileQueue.<Integer>hybrid()
+        .name("hybrid-queue-journal")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .highWaterMark(4)
+        .lowWaterMark(2)
+        .journal(JournalConfig.builder()
+            .build())
+        .build()) {
+
+      for (int i = 0; i < 10; i++) {
+        queue.add(i);
+      }
+      assertThat(queue).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+      for (int i = 0; i < 10; i++) {
+        assertThat(queue.poll()).isEqualTo(i);
+      }
+    }
+    assertThat(allFiles()).isEmpty();
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.primitive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.infobip.lib.popout.IOUtils.FOLDER;
+import static org.infobip.lib.popout.IOUtils.allFiles;
+import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+import static org.infobip.lib.popout.IOUtils.contentOf;
+import static org.infobip.lib.popout.IOUtils.file;
+
+import java.util.NoSuchElementException;
+
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.WalFilesConfig;
+
+import io.appulse.utils.Bytes;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PrimitiveFileQueueTests {
+
+  @BeforeEach
+  void beforeEach () {
+    clearTestFiles();
+  }
+
+  @AfterEach
+  void afterEach () {
+    clearTestFiles();
+  }
+
+  @Test
+  void longs () {
+    val builder = FileQueue.longs()
+        .name("long-queue")
+        .folder(FOLDER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .batchSize(3);
+
+    try (val queue = builder.build()) {
+      for (long value = 0; value < 7; value++) {
+        assertThat(queue.offerLong(value)).isTrue();
+      }
+      assertThat(queue.size()).isEqualTo(7);
+
+      assertThat(allFiles()).containsExactlyInAnyOrder(
+          file("long-queue-0.wal"),
+          file("long-queue-1.wal")
+      );
+      assertThat(contentOf("long-queue-0.wal")).containsExactly(Bytes.resizableArray()
+          .write8B(0L).write8B(1L).write8B(2L)
+          .arrayCopy());
+
+      assertThat(queue).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L);
+      assertThat(queue.peekLong()).isEqualTo(0L);
+      assertThat(queue.pollLong()).isEqualTo(0L);
+      assertThat(queue.poll()).isEqualTo(1L);
+      assertThat(queue).containsExactly(2L, 3L, 4L, 5L, 6L);
+      assertThat(queue.pollLong()).isEqualTo(2L);
+    }
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(4);
+      for (long value = 3; value < 7; value++) {
+        assertThat(queue.pollLong()).isEqualTo(value);
+      }
+      assertThat(queue.isEmpty()).isTrue();
+      assertThat(queue.pollLong(-1L)).isEqualTo(-1L);
+      assertThat(queue.peekLong(-1L)).isEqualTo(-1L);
+      assertThat(queue.poll()).isNull();
+      assertThatThrownBy(queue::pollLong)
+          .isInstanceOf(NoSuchElementException.class);
+    }
+  }
+
+  @Test
+  void ints () {
+    try (val queue = FileQueue.ints()
+        .name("int-queue")
+        .folder(FOLDER)
+        .batchSize(2)
+        .build()) {
+
+      for (int value = 0; value < 5; value++) {
+        queue.offerInt(value);
+      }
+      assertThat(contentOf("int-queue-0.wal")).containsExactly(Bytes.resizableArray()
+          .write4B(0).write4B(1)
+          .arrayCopy());
+
+      for (int value = 0; value < 3; value++) {
+        assertThat(queue.pollInt()).isEqualTo(value);
+      }
+      queue.offerInt(5);
+      assertThat(queue).containsExactly(3, 4, 5);
+      for (int value = 3; value < 6; value++) {
+        assertThat(queue.peekInt()).isEqualTo(value);
+        assertThat(queue.pollInt()).isEqualTo(value);
+      }
+      assertThat(queue.pollInt(-1)).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  void exhaustedIterator () {
+    try (val queue = FileQueue.ints()
+        .name("int-queue-iterator")
+        .folder(FOLDER)
+        .batchSize(2)
+        .build()) {
+
+      for (int value = 0; value < 5; value++) {
+        queue.offerInt(value);
+      }
+      queue.compress();
+
+      val iterator = queue.iterator();
+      for (int value = 0; value < 5; value++) {
+        assertThat(iterator.next()).isEqualTo(value);
+      }
+      // the records are not touched after the exhaustion
+      assertThat(iterator.hasNext()).isFalse();
+      assertThat(iterator.hasNext()).isFalse();
+      assertThatThrownBy(iterator::next)
+          .isInstanceOf(NoSuchElementException.class);
+
+      // the tail became the head, it is read from the same buffers
+      for (int value = 0; value < 4; value++) {
+        assertThat(queue.pollInt()).isEqualTo(value);
+      }
+      queue.offerInt(5);
+      assertThat(queue).containsExactly(4, 5);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Infobip Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infobip.lib.popout.raw;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.infobip.lib.popout.IOUtils.FOLDER;
+import static org.infobip.lib.popout.IOUtils.allFiles;
+import static org.infobip.lib.popout.IOUtils.clearTestFiles;
+import static org.infobip.lib.popout.IOUtils.contentOf;
+import static org.infobip.lib.popout.IOUtils.file;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.WalFilesConfig;
+import org.infobip.lib.popout.backend.QueueBackend;
+import org.infobip.lib.popout.backend.QueueBackendFactory;
+
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ByteBufferFileQueueTests {
+
+  @BeforeEach
+  void beforeEach () {
+    clearTestFiles();
+  }
+
+  @AfterEach
+  void afterEach () {
+    clearTestFiles();
+  }
+
+  @Test
+  void offerAndPoll () {
+    val builder = FileQueue.byteBuffers()
+        .name("raw-queue")
+        .folder(FOLDER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(3)
+            .build());
+
+    try (val queue = builder.build()) {
+      val direct = ByteBuffer.allocateDirect(16);
+      direct.put("popa".getBytes(UTF_8)).flip();
+      queue.add(direct);
+      // the offered buffer is not consumed
+      assertThat(direct.remaining()).isEqualTo(4);
+
+      val heap = ByteBuffer.wrap("__hello__".getBytes(UTF_8), 2, 5);
+      queue.add(heap);
+      assertThat(heap.position()).isEqualTo(2);
+
+      queue.add(ByteBuffer.wrap("world".getBytes(UTF_8)));
+      assertThat(queue.size()).isEqualTo(3);
+
+      // the records are the raw bytes, without the length prefixes
+      assertThat(allFiles()).contains(file("raw-queue-2.wal"));
+      assertThat(contentOf("raw-queue-2.wal")).containsExactly("world".getBytes(UTF_8));
+    }
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(3);
+      // the head records are read from the compressed file
+      queue.compress();
+      assertThat(allFiles()).containsExactly(file("raw-queue-0.compressed"));
+
+      assertThat(queue.get(1)).isEqualTo(ByteBuffer.wrap("hello".getBytes(UTF_8)));
+      assertThat(queue).containsExactly(
+          ByteBuffer.wrap("popa".getBytes(UTF_8)),
+          ByteBuffer.wrap("hello".getBytes(UTF_8)),
+          ByteBuffer.wrap("world".getBytes(UTF_8))
+      );
+
+      assertThat(queue.peek()).isEqualTo(ByteBuffer.wrap("popa".getBytes(UTF_8)));
+      assertThat(queue.poll()).isEqualTo(ByteBuffer.wrap("popa".getBytes(UTF_8)));
+
+      val destination = ByteBuffer.allocateDirect(8);
+      destination.put((byte) 1);
+      assertThat(queue.poll(destination)).isEqualTo(5);
+      assertThat(destination.position()).isEqualTo(6);
+
+      // the element doesn't fit and stays in the queue
+      assertThatThrownBy(() -> queue.poll(destination))
+          .isInstanceOf(BufferOverflowException.class);
+      assertThat(queue.size()).isEqualTo(1);
+      assertThat(destination.position()).isEqualTo(6);
+      // nothing is read into the destination's remaining bytes
+      assertThat(destination.get(6)).isEqualTo((byte) 0);
+      assertThat(destination.get(7)).isEqualTo((byte) 0);
+
+      destination.flip();
+      assertThat(destination.get()).isEqualTo((byte) 1);
+      val hello = new byte[5];
+      destination.get(hello);
+      assertThat(hello).isEqualTo("hello".getBytes(UTF_8));
+
+      destination.clear();
+      assertThat(queue.poll(destination)).isEqualTo(5);
+      assertThat(queue.poll(destination)).isEqualTo(-1);
+      assertThat(queue.poll()).isNull();
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  void oversizedElement () {
+    val calls = new ArrayList<String>();
+    QueueBackendFactory backendFactory = builder -> {
+      val backend = QueueBackendFactory.inMemory().create(builder);
+      return (QueueBackend) Proxy.newProxyInstance(
+          QueueBackend.class.getClassLoader(),
+          new Class<?>[] { QueueBackend.class },
+          (proxy, method, arguments) -> {
+            calls.add(method.getName());
+            try {
+              return method.invoke(backend, arguments);
+            } catch (InvocationTargetException ex) {
+              throw ex.getCause();
+            }
+          });
+    };
+
+    try (val queue = FileQueue.byteBuffers()
+        .name("raw-queue-oversized")
+        .folder(FOLDER)
+        .backend(backendFactory)
+        .build()) {
+
+      queue.add(ByteBuffer.wrap("popa".getBytes(UTF_8)));
+      calls.clear();
+
+      // the element's length is checked by the same backend's call, which reads it
+      val destination = ByteBuffer.allocate(2);
+      assertThatThrownBy(() -> queue.peek(destination))
+          .isInstanceOf(BufferOverflowException.class);
+      assertThatThrownBy(() -> queue.poll(destination))
+          .isInstanceOf(BufferOverflowException.class);
+      assertThat(destination.position()).isEqualTo(0);
+      assertThat(queue.size()).isEqualTo(1);
+      assertThat(calls).containsExactly("peakTo", "pollTo");
+
+      calls.clear();
+      assertThat(queue.peek(ByteBuffer.allocate(4))).isEqualTo(4);
+      assertThat(queue.poll(ByteBuffer.allocate(4))).isEqualTo(4);
+      assertThat(queue.isEmpty()).isTrue();
+      assertThat(calls).containsExactly("peakTo", "pollTo");
+    }
+  }
+
+  @Test
+  void emptyElement () {
+    try (val queue = FileQueue.byteBuffers()
+        .name("raw-queue-empty")
+        .folder(FOLDER)
+        .build()) {
+
+      assertThatThrownBy(() -> queue.offer(ByteBuffer.allocate(0)))
+          .isInstanceOf(IllegalArgumentException.class);
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+}
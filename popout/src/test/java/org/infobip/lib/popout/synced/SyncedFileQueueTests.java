@@ -16,23 +16,33 @@
 
 package org.infobip.lib.popout.synced;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.infobip.lib.popout.IOUtils.FOLDER;
 import static org.infobip.lib.popout.IOUtils.allFiles;
 import static org.infobip.lib.popout.IOUtils.clearTestFiles;
 import static org.infobip.lib.popout.IOUtils.contentOf;
 import static org.infobip.lib.popout.IOUtils.file;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.channels.Channels;
 import java.util.UUID;
 
+import org.infobip.lib.popout.CompressedFilesConfig;
 import org.infobip.lib.popout.Deserializer;
 import org.infobip.lib.popout.FileQueue;
+import org.infobip.lib.popout.ReusingDeserializer;
 import org.infobip.lib.popout.Serializer;
 import org.infobip.lib.popout.WalFilesConfig;
+import org.infobip.lib.popout.backend.QueueBackendFactory;
 
 import io.appulse.utils.Bytes;
 import io.appulse.utils.BytesUtils;
+import lombok.SneakyThrows;
 import lombok.val;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -80,27 +90,27 @@ class SyncedFileQueueTests {
     );
 
     assertThat(contentOf("synced-queue-add-0.compressed")).containsExactly(Bytes.resizableArray()
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[0]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[1]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[2]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[3]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[4]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[5]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[6]))
-        .write1B(1).write8B(6) // header RECORD:chunk_length
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[7]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[0]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[1]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[2]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[3]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[4]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[5]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[6]))
+        .write1B(1).write8B(2) // header RECORD:chunk_length
+        .writeNB(BytesUtils.toBytes(chars[7]))
         .write1B(4).write8B(0) // header END
         .arrayCopy());
 
     assertThat(contentOf("synced-queue-add-32.wal")).containsExactly(Bytes.resizableArray()
-        .write4B(2).writeNB(BytesUtils.toBytes(chars[32]))
+        .writeNB(BytesUtils.toBytes(chars[32]))
         .arrayCopy());
 
   }
@@ -197,4 +207,306 @@ class SyncedFileQueueTests {
     assertThat(queue.size()).isEqualTo(0);
     assertThat(queue.isEmpty()).isTrue();
   }
+
+  @Test
+  void peekThenPoll () {
+    val queue = FileQueue.<Integer>synced()
+        .name("synced-queue-peek-poll")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(2)
+            .build())
+        .build();
+
+    for (int i = 0; i < 10; i++) {
+      queue.add(i);
+    }
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(queue.peek()).isEqualTo(i);
+      assertThat(queue.peek()).isEqualTo(i);
+      assertThat(queue.poll()).isEqualTo(i);
+    }
+    assertThat(queue.size()).isEqualTo(5);
+
+    assertThat(queue.peek()).isEqualTo(5);
+    queue.compress();
+    assertThat(queue.poll()).isEqualTo(5);
+
+    assertThat(queue.peek()).isEqualTo(6);
+    val iterator = queue.iterator();
+    iterator.next();
+    iterator.remove();
+    assertThat(queue.peek()).isEqualTo(7);
+
+    for (int i = 7; i < 10; i++) {
+      assertThat(queue.peek()).isEqualTo(i);
+      assertThat(queue.poll()).isEqualTo(i);
+    }
+    assertThat(queue.peek()).isNull();
+    assertThat(queue.poll()).isNull();
+    assertThat(queue.size()).isEqualTo(0);
+    assertThat(allFiles()).isEmpty();
+    queue.close();
+  }
+
+  @Test
+  void inMemoryBackend () {
+    try (val queue = FileQueue.<Integer>synced()
+        .name("synced-queue-in-memory")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .backend(QueueBackendFactory.inMemory())
+        .build()) {
+
+      for (int i = 0; i < 5; i++) {
+        queue.add(i);
+      }
+      assertThat(queue.size()).isEqualTo(5);
+      assertThat(queue.remove(2)).isTrue();
+      assertThat(queue).containsExactly(0, 1, 3, 4);
+
+      assertThat(queue.peek()).isEqualTo(0);
+      assertThat(queue.poll()).isEqualTo(0);
+      assertThat(queue.poll()).isEqualTo(1);
+      assertThat(queue.poll()).isEqualTo(3);
+      assertThat(queue.poll()).isEqualTo(4);
+      assertThat(queue.poll()).isNull();
+    }
+    assertThat(allFiles()).isEmpty();
+  }
+
+  @Test
+  void getAndSkip () {
+    try (val queue = FileQueue.<Integer>synced()
+        .name("synced-queue-get-skip")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .wal(WalFilesConfig.builder()
+            .maxCount(Integer.MAX_VALUE)
+            .build())
+        .compressed(CompressedFilesConfig.builder()
+            .offsetIndex(true)
+            .build())
+        .build()) {
+
+      for (int i = 0; i < 10; i++) {
+        queue.add(i);
+      }
+      queue.compress();
+      for (int i = 10; i < 15; i++) {
+        queue.add(i);
+      }
+      assertThat(allFiles()).contains(file("synced-queue-get-skip-0.compressed.index"));
+
+      assertThat(queue.get(3)).isEqualTo(3);
+      assertThat(queue.get(12)).isEqualTo(12);
+      assertThat(queue.get(15)).isNull();
+
+      assertThat(queue.skip(4)).isEqualTo(4);
+      assertThat(queue.size()).isEqualTo(11);
+      assertThat(queue.peek()).isEqualTo(4);
+
+      // skips the rest of the compressed file and two WAL files
+      assertThat(queue.skip(8)).isEqualTo(8);
+      assertThat(queue.size()).isEqualTo(3);
+      assertThat(queue.peek()).isEqualTo(12);
+
+      assertThat(queue.skip(10)).isEqualTo(3);
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void lengthPrefixedRecords () {
+    // the records, which were written before the fixed size serializers
+    Serializer<Integer> variableSize = Serializer.INTEGER::serialize;
+    try (val queue = FileQueue.<Integer>synced()
+        .name("synced-queue-prefixed")
+        .folder(FOLDER)
+        .serializer(variableSize)
+        .deserializer(Deserializer.INTEGER)
+        .build()) {
+
+      queue.add(1);
+      queue.add(2);
+    }
+    assertThat(contentOf("synced-queue-prefixed-0.wal")).containsExactly(Bytes.resizableArray()
+        .write4B(4).write4B(1)
+        .arrayCopy());
+
+    try (val queue = FileQueue.<Integer>synced()
+        .name("synced-queue-prefixed")
+        .folder(FOLDER)
+        .serializer(Serializer.INTEGER)
+        .deserializer(Deserializer.INTEGER)
+        .build()) {
+
+      queue.add(3);
+      assertThat(queue).containsExactly(1, 2, 3);
+      assertThat(queue.peek()).isEqualTo(1);
+      assertThat(queue.poll()).isEqualTo(1);
+      assertThat(queue.poll()).isEqualTo(2);
+      assertThat(queue.poll()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  void compactFormat () {
+    Serializer<Integer> variableSize = Serializer.INTEGER::serialize;
+    val builder = FileQueue.<Integer>synced()
+        .name("synced-queue-compact")
+        .folder(FOLDER)
+        .serializer(variableSize)
+        .deserializer(Deserializer.INTEGER);
+
+    try (val queue = builder.build()) {
+      queue.add(1);
+    }
+    try (val queue = builder.compactFormat(true).build()) {
+      queue.add(2);
+      queue.add(3);
+      assertThat(queue).containsExactly(1, 2, 3);
+
+      queue.compress();
+      assertThat(contentOf("synced-queue-compact-0.compressed")).containsExactly(Bytes.resizableArray()
+          .write1B(2).write8B(9) // the head slot
+          .write1B(0x41).write1B(8).write4B(4).write4B(1) // the length prefixed record
+          .write1B(0x41).write1B(5).write1B(4).write4B(2)
+          .write1B(0x41).write1B(5).write1B(4).write4B(3)
+          .write1B(0x44)
+          .arrayCopy());
+      assertThat(queue.poll()).isEqualTo(1);
+    }
+
+    // the compact records are readable without the option
+    try (val queue = builder.compactFormat(false).build()) {
+      assertThat(queue).containsExactly(2, 3);
+      assertThat(queue.peek()).isEqualTo(2);
+      assertThat(queue.poll()).isEqualTo(2);
+      assertThat(queue.poll()).isEqualTo(3);
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  void pollInto () {
+    try (val queue = FileQueue.<StringBuilder>synced()
+        .name("synced-queue-poll-into")
+        .folder(FOLDER)
+        .serializer((value, buffer) -> Serializer.STRING.serialize(value.toString(), buffer))
+        .deserializer(new StringBuilderDeserializer())
+        .build()) {
+
+      for (val value : new String[] { "one", "two", "three" }) {
+        queue.add(new StringBuilder(value));
+      }
+
+      val target = new StringBuilder();
+      assertThat(queue.pollInto(target)).isSameAs(target).hasToString("one");
+      assertThat(queue.pollInto(target)).isSameAs(target).hasToString("two");
+
+      // the peeked head is returned as is
+      val peeked = queue.peek();
+      assertThat(queue.pollInto(target)).isSameAs(peeked).hasToString("three");
+
+      assertThat(queue.pollInto(target)).isNull();
+      assertThat(queue.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  void streaming () {
+    val builder = FileQueue.<String>synced()
+        .name("synced-queue-streaming")
+        .folder(FOLDER)
+        .streamSerializer((value, output) -> output.write(value.getBytes(UTF_8)))
+        .streamDeserializer(input -> {
+          val output = new ByteArrayOutputStream();
+          val chunk = new byte[3];
+          int readed;
+          while ((readed = input.read(chunk)) > 0) {
+            output.write(chunk, 0, readed);
+          }
+          return new String(output.toByteArray(), UTF_8);
+        })
+        .chunkSize(4)
+        .wal(WalFilesConfig.builder()
+            .maxCount(2)
+            .build())
+        .compressed(CompressedFilesConfig.builder()
+            .checksums(true)
+            .build());
+
+    try (val queue = builder.build()) {
+      queue.add("popa");
+      queue.add("hello world");
+
+      assertThat(contentOf("synced-queue-streaming-1.wal")).containsExactly(Bytes.resizableArray()
+          .write4B(4).writeNB("hell".getBytes(UTF_8))
+          .write4B(4).writeNB("o wo".getBytes(UTF_8))
+          .write4B(3).writeNB("rld".getBytes(UTF_8))
+          .write4B(0) // the chunks terminator
+          .arrayCopy());
+
+      // the WAL files are moved to a compressed file
+      queue.add("");
+      assertThat(allFiles()).contains(file("synced-queue-streaming-0.compressed"));
+
+      assertThat(queue).containsExactly("popa", "hello world", "");
+      assertThat(queue.get(1)).isEqualTo("hello world");
+      assertThat(queue.peek()).isEqualTo("popa");
+      assertThat(queue.poll()).isEqualTo("popa");
+    }
+
+    try (val queue = builder.build()) {
+      assertThat(queue.size()).isEqualTo(2);
+      assertThat(queue.pollInto("target")).isEqualTo("hello world");
+      assertThat(queue.poll()).isEmpty();
+      assertThat(queue.poll()).isNull();
+    }
+  }
+
+  @Test
+  @SneakyThrows
+  void tornChunkedRecord () {
+    val content = Bytes.resizableArray()
+        .write4B(4).writeNB("hell".getBytes(UTF_8))
+        .write4B(4).writeNB("o".getBytes(UTF_8))
+        .arrayCopy();
+
+    try (val input = new ChunkedInputStream(Channels.newChannel(new ByteArrayInputStream(content)), content.length)) {
+      assertThat(input.read(new byte[4])).isEqualTo(4);
+      assertThatThrownBy(input::read)
+          .isInstanceOf(EOFException.class);
+    }
+
+    // the corrupted huge length is not allocated
+    val corrupted = Bytes.resizableArray()
+        .write4B(Integer.MAX_VALUE).writeNB("o".getBytes(UTF_8))
+        .arrayCopy();
+
+    try (val input = new ChunkedInputStream(Channels.newChannel(new ByteArrayInputStream(corrupted)), corrupted.length)) {
+      assertThatThrownBy(input::read)
+          .isInstanceOf(EOFException.class);
+    }
+  }
+
+  static class StringBuilderDeserializer implements ReusingDeserializer<StringBuilder> {
+
+    @Override
+    public StringBuilder deserialize (int length, Bytes buffer) {
+      return new StringBuilder(Deserializer.STRING.deserialize(length, buffer));
+    }
+
+    @Override
+    public void deserializeInto (StringBuilder target, int length, Bytes buffer) {
+      target.setLength(0);
+      target.append(Deserializer.STRING.deserialize(length, buffer));
+    }
+  }
 }